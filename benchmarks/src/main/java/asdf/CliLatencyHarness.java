@@ -0,0 +1,283 @@
+package asdf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+
+/**
+ * End-to-end latency harness: runs the packaged qsdf (jar and/or native) as a real process
+ * against generated fixture trees, and writes a JSON report that can be compared across commits.
+ * <ul>
+ *     <li>cold: first run on a freshly generated fixture tree</li>
+ *     <li>warm: runs following the warmup runs on the same tree</li>
+ * </ul>
+ * Max RSS is taken from /usr/bin/time and the syscall summary from strace -c when they are available.
+ */
+@Command(name = "cli-latency", mixinStandardHelpOptions = true,
+        description = "Measure wall time, RSS and syscalls of qsdf commands on fixture trees")
+public class CliLatencyHarness implements Callable<Integer> {
+
+    @Option(names = {"--jar"}, description = "qsdf uber-jar to run with the current java")
+    File jar;
+
+    @Option(names = {"--native"}, description = "qsdf native executable")
+    File nativeImage;
+
+    @Option(names = {"--scenario"}, description = "name=arguments of a qsdf command (default: install, uninstall, exec, current)")
+    Map<String, String> scenarios = new LinkedHashMap<>(Map.of(
+            "install", "install",
+            "uninstall", "uninstall java 1",
+            "exec", "exec java -version",
+            "current", "current"));
+
+    @Option(names = {"--depth"}, description = "depth of the directory chain (default: ${DEFAULT-VALUE})")
+    int depth = 30;
+
+    @Option(names = {"--tools"}, description = "number of tools in config.yml (default: ${DEFAULT-VALUE})")
+    int nbTools = 50;
+
+    @Option(names = {"--versions"}, description = "number of installed versions per tool (default: ${DEFAULT-VALUE})")
+    int nbVersions = 20;
+
+    @Option(names = {"--cold"}, description = "cold runs per scenario (default: ${DEFAULT-VALUE})")
+    int coldRuns = 3;
+
+    @Option(names = {"--warmup"}, description = "warmup runs per scenario (default: ${DEFAULT-VALUE})")
+    int warmupRuns = 3;
+
+    @Option(names = {"--runs"}, description = "warm runs per scenario (default: ${DEFAULT-VALUE})")
+    int warmRuns = 30;
+
+    @Option(names = {"--strace"}, description = "add a syscall summary per scenario (needs strace)")
+    boolean strace;
+
+    @Option(names = {"--out"}, description = "JSON report (default: ${DEFAULT-VALUE})")
+    File out = new File("cli-latency.json");
+
+    @Option(names = {"--baseline"}, description = "previous JSON report to compare with")
+    File baseline;
+
+    private final ObjectMapper om = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    public static void main(String[] args) {
+        System.exit(new CommandLine(new CliLatencyHarness()).execute(args));
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        Map<String, List<String>> binaries = new LinkedHashMap<>();
+        if (jar != null) binaries.put("jar", List.of(javaExecutable(), "-jar", jar.getAbsolutePath()));
+        if (nativeImage != null) binaries.put("native", List.of(nativeImage.getAbsolutePath()));
+        if (binaries.isEmpty()) {
+            System.err.println("Nothing to measure: use --jar and/or --native");
+            return 1;
+        }
+        Report report = new Report();
+        report.commit = git("rev-parse", "HEAD");
+        report.fixture = String.format("depth=%d tools=%d versions=%d", depth, nbTools, nbVersions);
+        for (var binary : binaries.entrySet()) {
+            for (var scenario : scenarios.entrySet()) {
+                report.results.add(measure(binary.getKey(), binary.getValue(), scenario.getKey(), scenario.getValue()));
+            }
+        }
+        om.writeValue(out, report);
+        print(report, baseline != null ? om.readValue(baseline, Report.class) : null);
+        return 0;
+    }
+
+    private Result measure(String binaryName, List<String> binary, String scenario, String arguments) throws Exception {
+        List<String> command = new ArrayList<>(binary);
+        command.addAll(Arrays.asList(arguments.trim().split("\\s+")));
+        Result result = new Result();
+        result.binary = binaryName;
+        result.scenario = scenario;
+        result.command = arguments;
+        List<Run> cold = new ArrayList<>();
+        for (int i=0;i<coldRuns;i++){
+            File root = Files.createTempDirectory("qsdf-e2e").toFile();
+            try {
+                cold.add(run(command, Fixtures.fixtureTree(root, depth, nbTools, nbVersions)));
+            } finally {
+                Fixtures.delete(root);
+            }
+        }
+        File root = Files.createTempDirectory("qsdf-e2e").toFile();
+        try {
+            File workDir = Fixtures.fixtureTree(root, depth, nbTools, nbVersions);
+            for (int i=0;i<warmupRuns;i++){
+                run(command, workDir);
+            }
+            List<Run> warm = new ArrayList<>();
+            for (int i=0;i<warmRuns;i++){
+                warm.add(run(command, workDir));
+            }
+            result.cold = Stats.of(cold);
+            result.warm = Stats.of(warm);
+            result.exitCodes = warm.stream().map(r -> r.exitCode).distinct().sorted().collect(Collectors.toList());
+            if (strace) {
+                result.syscalls = syscalls(command, workDir);
+            }
+        } finally {
+            Fixtures.delete(root);
+        }
+        return result;
+    }
+
+    private Run run(List<String> command, File workDir) throws IOException, InterruptedException {
+        List<String> full = new ArrayList<>();
+        File rssFile = null;
+        if (new File("/usr/bin/time").canExecute()) {
+            rssFile = File.createTempFile("qsdf-rss", ".txt");
+            full.addAll(List.of("/usr/bin/time", "-f", "%M", "-o", rssFile.getAbsolutePath()));
+        }
+        full.addAll(command);
+        ProcessBuilder pb = new ProcessBuilder(full).directory(workDir)
+                .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD);
+        long start = System.nanoTime();
+        Process p = pb.start();
+        int exitCode = p.waitFor();
+        Run run = new Run();
+        run.wallMicros = (System.nanoTime() - start) / 1000;
+        run.exitCode = exitCode;
+        if (rssFile != null) {
+            var lines = Files.readAllLines(rssFile.toPath());
+            run.maxRssKb = lines.isEmpty() ? -1 : parseLong(lines.get(lines.size() - 1));
+            rssFile.delete();
+        }
+        return run;
+    }
+
+    /**
+     * @return syscall name -> [calls, total µs] from "strace -c -f"
+     */
+    private Map<String, long[]> syscalls(List<String> command, File workDir) throws IOException, InterruptedException {
+        File summary = File.createTempFile("qsdf-strace", ".txt");
+        List<String> full = new ArrayList<>(List.of("strace", "-c", "-f", "-o", summary.getAbsolutePath()));
+        full.addAll(command);
+        Map<String, long[]> res = new LinkedHashMap<>();
+        try {
+            new ProcessBuilder(full).directory(workDir).redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD).start().waitFor();
+            // % time     seconds  usecs/call     calls    errors syscall
+            for (String line : Files.readAllLines(summary.toPath())) {
+                var cols = line.trim().split("\\s+");
+                if (cols.length < 5 || !Character.isDigit(cols[0].charAt(0))) continue;
+                var name = cols[cols.length - 1];
+                if ("total".equals(name)) continue;
+                long micros = Math.round(Double.parseDouble(cols[1]) * 1_000_000);
+                res.put(name, new long[]{parseLong(cols[3]), micros});
+            }
+        } catch (IOException e) {
+            System.err.println("strace not available: " + e.getMessage());
+        } finally {
+            summary.delete();
+        }
+        return res;
+    }
+
+    private void print(Report report, Report previous) {
+        System.out.printf("%-8s %-10s %10s %10s %10s %10s %10s%n", "binary", "scenario", "cold p50", "p50", "p95", "p99", "rss(KB)");
+        for (Result r : report.results) {
+            String delta = "";
+            if (previous != null) {
+                var old = previous.results.stream()
+                        .filter(o -> o.binary.equals(r.binary) && o.scenario.equals(r.scenario))
+                        .findFirst();
+                if (old.isPresent() && old.get().warm.p50Micros > 0) {
+                    delta = String.format("  p50 %+.1f%%", 100.0 * (r.warm.p50Micros - old.get().warm.p50Micros) / old.get().warm.p50Micros);
+                }
+            }
+            System.out.printf("%-8s %-10s %8dms %8dms %8dms %8dms %10d%s%n", r.binary, r.scenario,
+                    r.cold.p50Micros / 1000, r.warm.p50Micros / 1000, r.warm.p95Micros / 1000, r.warm.p99Micros / 1000,
+                    r.warm.maxRssKb, delta);
+        }
+        System.out.printf("report: %s%n", out.getAbsolutePath());
+    }
+
+    private static String javaExecutable() {
+        return System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    }
+
+    private static String git(String... args) {
+        List<String> cmd = new ArrayList<>(List.of("git"));
+        cmd.addAll(List.of(args));
+        try {
+            Process p = new ProcessBuilder(cmd).redirectErrorStream(true).start();
+            try (BufferedReader br = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+                var line = br.readLine();
+                return p.waitFor() == 0 ? line : null;
+            }
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static long parseLong(String s) {
+        try {
+            return Long.parseLong(s.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    static class Run {
+        long wallMicros;
+        long maxRssKb = -1;
+        int exitCode;
+    }
+
+    public static class Report {
+        public String commit;
+        public String fixture;
+        public List<Result> results = new ArrayList<>();
+    }
+
+    public static class Result {
+        public String binary;
+        public String scenario;
+        public String command;
+        public List<Integer> exitCodes;
+        public Stats cold;
+        public Stats warm;
+        public Map<String, long[]> syscalls;
+    }
+
+    public static class Stats {
+        public int runs;
+        public long p50Micros;
+        public long p95Micros;
+        public long p99Micros;
+        public long maxMicros;
+        public long maxRssKb;
+
+        static Stats of(List<Run> runs) {
+            Stats s = new Stats();
+            s.runs = runs.size();
+            if (runs.isEmpty()) return s;
+            long[] walls = runs.stream().mapToLong(r -> r.wallMicros).sorted().toArray();
+            s.p50Micros = percentile(walls, 50);
+            s.p95Micros = percentile(walls, 95);
+            s.p99Micros = percentile(walls, 99);
+            s.maxMicros = walls[walls.length - 1];
+            s.maxRssKb = runs.stream().mapToLong(r -> r.maxRssKb).max().orElse(-1);
+            return s;
+        }
+
+        static long percentile(long[] sorted, int percentile) {
+            int idx = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(idx, sorted.length - 1))];
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package asdf;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link ConfigManager} read (constructor) and save of config.yml
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ConfigManagerBenchmark {
+
+    @Param({"1", "10", "100"})
+    int nbTools;
+
+    @Param({"10", "100"})
+    int nbVersionsPerTool;
+
+    private File folder;
+    private ConfigManager configManager;
+
+    @Setup
+    public void setup() throws IOException {
+        folder = Fixtures.configFolder(nbTools, nbVersionsPerTool);
+        configManager = new ConfigManager(folder);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.delete(folder);
+    }
+
+    @Benchmark
+    public DataConfig read() {
+        return new ConfigManager(folder).getConf();
+    }
+
+    @Benchmark
+    public ConfigManager save() {
+        configManager.save();
+        return configManager;
+    }
+}
@@ -0,0 +1,183 @@
+package asdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Synthetic, deterministic fixtures shared by the benchmarks
+ */
+final class Fixtures {
+    private static final long SEED = 42L;
+
+    private Fixtures(){}
+
+    /**
+     * @param nbVersions number of versions to generate
+     * @return shuffled versions looking like "major.minor.patch"
+     */
+    static List<String> versions(int nbVersions){
+        List<String> versions = new ArrayList<>(nbVersions);
+        for (int i=0;i<nbVersions;i++){
+            versions.add((i/100+1)+"."+(i/10%10)+"."+(i%10));
+        }
+        Collections.shuffle(versions, new Random(SEED));
+        return versions;
+    }
+
+    static List<Tool> tools(int nbTools, int nbVersionsPerTool){
+        List<Tool> tools = new ArrayList<>(nbTools*nbVersionsPerTool);
+        var versions = versions(nbVersionsPerTool);
+        for (int t=0;t<nbTools;t++){
+            for (String v : versions){
+                tools.add(new Tool(toolName(t), v));
+            }
+        }
+        Collections.shuffle(tools, new Random(SEED));
+        return tools;
+    }
+
+    static String toolName(int index){
+        return "tool"+index;
+    }
+
+    static DataConfig dataConfig(int nbTools, int nbVersionsPerTool){
+        DataConfig conf = new DataConfig();
+        var versions = versions(nbVersionsPerTool);
+        for (int t=0;t<nbTools;t++){
+            var tool = new DataConfig.DataTool();
+            tool.setName(toolName(t));
+            for (String v : versions){
+                tool.getVersions().add(new DataConfig.DataTool.Version(v, "./config/installation/"+tool.getName()+"/"+v));
+            }
+            conf.getTools().put(tool.getName(), tool);
+        }
+        return conf;
+    }
+
+    /**
+     * Write a config.yml in a new temporary folder
+     * @return the config folder
+     */
+    static File configFolder(int nbTools, int nbVersionsPerTool) throws IOException {
+        File folder = Files.createTempDirectory("qsdf-bench").toFile();
+        ConfigManager cm = new ConfigManager(folder);
+        cm.replace(dataConfig(nbTools, nbVersionsPerTool));
+        return folder;
+    }
+
+    /**
+     * @return the content of a .tool-versions file with nbLines tools
+     */
+    static String toolVersions(int nbLines){
+        StringBuilder sb = new StringBuilder();
+        var versions = versions(nbLines);
+        for (int i=0;i<nbLines;i++){
+            sb.append(toolName(i)).append(' ').append(versions.get(i)).append('\n');
+            if (i%10==0) sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Build a realistic working tree:
+     * <pre>
+     * root/d0/d1/.../d(depth-1)   (working directory)
+     *      |-- .tool-versions every 3 levels
+     *      `-- config/config.yml + installation/&lt;tool&gt;/&lt;version&gt;/bin in the working directory
+     * </pre>
+     * @return the working directory (deepest folder)
+     */
+    static File fixtureTree(File root, int depth, int nbTools, int nbVersionsPerTool) throws IOException {
+        File dir = toolVersionsTree(root, depth, nbTools);
+        File config = new File(dir, "config");
+        ConfigManager cm = new ConfigManager(config);
+        DataConfig conf = dataConfig(nbTools, nbVersionsPerTool);
+        conf.getTools().values().forEach(tool -> tool.getVersions().forEach(v -> {
+            File install = new File(config, "installation"+File.separator+tool.getName()+File.separator+v.getVersion());
+            new File(install, "bin").mkdirs();
+            v.setPath(install.getPath());
+        }));
+        cm.replace(conf);
+        return dir;
+    }
+
+    /**
+     * Build the directory chain root/d0/d1/.../d(depth-1) with a .tool-versions every 3 levels
+     * @return the deepest folder
+     */
+    static File toolVersionsTree(File root, int depth, int nbTools) throws IOException {
+        File dir = root;
+        for (int i=0;i<depth;i++){
+            dir = new File(dir, "d"+i);
+            dir.mkdirs();
+            if (i%3==0){
+                Files.writeString(new File(dir, ".tool-versions").toPath(), toolVersions(Math.max(1, nbTools/(i+1))));
+            }
+        }
+        return dir;
+    }
+
+    static void delete(File folder) throws IOException {
+        if (folder==null || !folder.exists()) return;
+        try (Stream<Path> paths = Files.walk(folder.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+
+    /**
+     * Plugin doing no I/O: only the framework cost is measured. It remembers the versions installed.
+     */
+    static class StubPlugIn implements PlugIn {
+        private final String name;
+        private final List<String> versions;
+        private final Set<String> installed = ConcurrentHashMap.newKeySet();
+
+        StubPlugIn(String name, List<String> versions){
+            this.name = name;
+            this.versions = versions;
+        }
+
+        @Override
+        public String getName() { return name; }
+
+        @Override
+        public List<String> getAllRemoteVersions() { return new ArrayList<>(versions); }
+
+        @Override
+        public boolean isVersionInstallable(String version) { return true; }
+
+        @Override
+        public int install(String version) {
+            installed.add(version);
+            return 0;
+        }
+
+        @Override
+        public int createShims() { return 0; }
+
+        @Override
+        public int deleteShims() { return 0; }
+
+        @Override
+        public int uninstall(String version) {
+            installed.remove(version);
+            return 0;
+        }
+
+        @Override
+        public File getPath(String version) { return new File(name+File.separator+version); }
+
+        @Override
+        public boolean isInstalled(String version) { return installed.contains(version); }
+    }
+}
@@ -0,0 +1,30 @@
+package asdf;
+
+import org.openjdk.jmh.annotations.*;
+import picocli.CommandLine;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering of the command hierarchy shown by the help
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class HelpRendererBenchmark {
+
+    private CommandLine commandLine;
+
+    @Setup
+    public void setup() {
+        commandLine = new CommandLine(new CliCommand());
+    }
+
+    @Benchmark
+    public String render() {
+        return CliCommandHelpRenderer.render(commandLine.getCommandSpec(), CliCommandHelpRenderer.getColorScheme());
+    }
+}
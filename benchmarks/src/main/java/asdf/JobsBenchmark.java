@@ -0,0 +1,64 @@
+package asdf;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Jobs#doJob(Map, ConfigManager)} with plugins doing no I/O:
+ * measures the action dispatch and the config updates.
+ * Before each invocation the versions are uninstalled (install) or installed (uninstall), so both
+ * benchmarks run the whole action instead of its "already done" early return.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class JobsBenchmark {
+
+    @Param({"1", "10", "100"})
+    int nbJobs;
+
+    private Map<String, PlugIn> plugIns;
+    private List<Tool> tools;
+    private File folder;
+    private ConfigManager configManager;
+
+    @Setup
+    public void setup() throws IOException {
+        tools = Fixtures.tools(nbJobs, 1);
+        plugIns = new HashMap<>();
+        tools.forEach(t -> plugIns.put(t.toolName, new Fixtures.StubPlugIn(t.toolName, List.of(t.version))));
+        folder = Fixtures.configFolder(nbJobs, 1);
+        configManager = new ConfigManager(folder);
+    }
+
+    @Setup(Level.Invocation)
+    public void prepare(BenchmarkParams params) {
+        var action = params.getBenchmark().endsWith(".uninstall") ? Action.INSTALL : Action.UNINSTALL;
+        new Jobs().addJob(action, tools).doJob(plugIns, configManager);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.delete(folder);
+    }
+
+    @Benchmark
+    public int install() {
+        return new Jobs().addJob(Action.INSTALL, tools).doJob(plugIns, configManager).getReturnedCode();
+    }
+
+    @Benchmark
+    public int uninstall() {
+        return new Jobs().addJob(Action.UNINSTALL, tools).doJob(plugIns, configManager).getReturnedCode();
+    }
+}
@@ -0,0 +1,104 @@
+package asdf;
+
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/**
+ * Two {@link CacheServer}s on different ports, A holding an archive and B having A as peer:
+ * <ul>
+ *     <li>B downloads the archive from A although its upstream URL is unreachable</li>
+ *     <li>B then serves the archive itself</li>
+ *     <li>an archive no peer has is downloaded from its upstream URL</li>
+ *     <li>a wrong checksum is refused by the peers and by the upstream</li>
+ * </ul>
+ * Each check prints PASS or FAIL; the exit code is the number of failures.
+ */
+@Command(name = "peer-cache", mixinStandardHelpOptions = true,
+        description = "Check archive sharing between two local qsdf cache servers")
+public class PeerCacheHarness implements Callable<Integer> {
+
+    @Option(names = {"--size"}, description = "archive size in bytes (default: ${DEFAULT-VALUE})")
+    int size = 64*1024*1024;
+
+    private int failures;
+
+    public static void main(String[] args) {
+        System.exit(new CommandLine(new PeerCacheHarness()).execute(args));
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        File a = Files.createTempDirectory("qsdf-peer-a").toFile();
+        File b = Files.createTempDirectory("qsdf-peer-b").toFile();
+        File upstream = Files.createTempDirectory("qsdf-upstream").toFile();
+        var previous = ConfigManager.intance;
+        try {
+            Path archivesA = Files.createDirectories(CacheServer.archiveFolder(a));
+            Path archivesB = Files.createDirectories(CacheServer.archiveFolder(b));
+            Path shared = write(archivesA.resolve("jdk-shared.tar.gz"), 1);
+            Path upstreamOnly = write(upstream.toPath().resolve("jdk-upstream.tar.gz"), 2);
+            var sharedSha = InstallManifest.sha256(shared);
+            try (var serverA = new CacheServer(archivesA, new InetSocketAddress("127.0.0.1", 0), 4);
+                 var serverB = new CacheServer(archivesB, new InetSocketAddress("127.0.0.1", 0), 4)) {
+                serverA.start();
+                serverB.start();
+                var configB = new ConfigManager(b);
+                configB.update(c -> c.getSettings().getPeers().add("http://127.0.0.1:"+serverA.getPort()));
+                ConfigManager.intance = configB;
+
+                long start = System.nanoTime();
+                Path target = archivesB.resolve(shared.getFileName());
+                Downloader.download(URI.create("http://127.0.0.1:9/unreachable/jdk-shared.tar.gz"), target, sharedSha);
+                check("B downloads from peer A ("+(System.nanoTime()-start)/1_000_000+"ms)",
+                        sharedSha.equals(InstallManifest.sha256(target)));
+
+                var response = HttpClient.newHttpClient().send(HttpRequest.newBuilder(
+                        URI.create("http://127.0.0.1:"+serverB.getPort()+CacheServer.PATH_PREFIX+sharedSha))
+                        .method("HEAD", HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.discarding());
+                check("B serves the archive", response.statusCode() == 200);
+
+                Path fromUpstream = archivesB.resolve(upstreamOnly.getFileName());
+                Downloader.download(upstreamOnly.toUri(), fromUpstream, InstallManifest.sha256(upstreamOnly));
+                check("archive missing on peers comes from upstream", Files.isRegularFile(fromUpstream));
+
+                Path wrong = archivesB.resolve("wrong.tar.gz");
+                try {
+                    Downloader.download(upstreamOnly.toUri(), wrong, sharedSha.replace(sharedSha.charAt(0), sharedSha.charAt(0) == '0' ? '1' : '0'));
+                    check("wrong checksum is refused", false);
+                } catch (IOException e) {
+                    check("wrong checksum is refused", !Files.exists(wrong));
+                }
+            }
+        } finally {
+            ConfigManager.intance = previous;
+            Fixtures.delete(a);
+            Fixtures.delete(b);
+            Fixtures.delete(upstream);
+        }
+        return failures;
+    }
+
+    private Path write(Path file, long seed) throws IOException {
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        return Files.write(file, content);
+    }
+
+    private void check(String name, boolean ok) {
+        System.out.printf("%s %s%n", ok ? "PASS" : "FAIL", name);
+        if (!ok) failures++;
+    }
+}
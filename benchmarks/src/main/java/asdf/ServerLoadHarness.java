@@ -0,0 +1,224 @@
+package asdf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Load test of {@code qsdf serve}: an in-process {@link ToolchainServer} on a fixture tree receives
+ * <ul>
+ *     <li>resolve: hundreds of concurrent GET /resolve calls, latency percentiles and errors are reported</li>
+ *     <li>coalescing: concurrent POST /install of the same version on a slow plugin, which must
+ *     run once</li>
+ * </ul>
+ * The exit code is 1 when a request fails or when the install is not coalesced.
+ */
+@Command(name = "server-load", mixinStandardHelpOptions = true,
+        description = "Measure qsdf serve under concurrent resolve and install requests")
+public class ServerLoadHarness implements Callable<Integer> {
+
+    @Option(names = {"--clients"}, description = "concurrent clients (default: ${DEFAULT-VALUE})")
+    int clients = 500;
+
+    @Option(names = {"--requests"}, description = "resolve requests per client (default: ${DEFAULT-VALUE})")
+    int requestsPerClient = 10;
+
+    @Option(names = {"--installers"}, description = "concurrent install requests of the same version (default: ${DEFAULT-VALUE})")
+    int installers = 200;
+
+    @Option(names = {"--install-ms"}, description = "duration of the stub install (default: ${DEFAULT-VALUE})")
+    int installMs = 2000;
+
+    @Option(names = {"--depth"}, description = "depth of the directory chain (default: ${DEFAULT-VALUE})")
+    int depth = 30;
+
+    @Option(names = {"--tools"}, description = "number of tools in config.yml (default: ${DEFAULT-VALUE})")
+    int nbTools = 50;
+
+    @Option(names = {"--versions"}, description = "number of installed versions per tool (default: ${DEFAULT-VALUE})")
+    int nbVersions = 20;
+
+    @Option(names = {"--out"}, description = "JSON report (default: ${DEFAULT-VALUE})")
+    File out = new File("server-load.json");
+
+    private final ObjectMapper om = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    public static void main(String[] args) {
+        System.exit(new CommandLine(new ServerLoadHarness()).execute(args));
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        File root = Files.createTempDirectory("qsdf-serve").toFile();
+        File configFolder = Fixtures.configFolder(nbTools, nbVersions);
+        try {
+            File workDir = Fixtures.fixtureTree(root, depth, nbTools, nbVersions);
+            var slow = new SlowPlugIn("slow", installMs);
+            Map<String, PlugIn> plugins = new HashMap<>();
+            for (int t=0;t<nbTools;t++){
+                plugins.put(Fixtures.toolName(t), new Fixtures.StubPlugIn(Fixtures.toolName(t), Fixtures.versions(nbVersions)));
+            }
+            plugins.put(slow.getName(), slow);
+            var config = new ConfigManager(configFolder);
+            Report report = new Report();
+            report.fixture = String.format("depth=%d tools=%d versions=%d", depth, nbTools, nbVersions);
+            try (var server = new ToolchainServer(new InetSocketAddress("127.0.0.1", 0), plugins, config, 4)) {
+                server.start();
+                var base = URI.create("http://127.0.0.1:"+server.getPort());
+                HttpClient client = HttpClient.newBuilder()
+                        .executor(Executors.newFixedThreadPool(32))
+                        .connectTimeout(Duration.ofSeconds(10))
+                        .build();
+                report.resolve = resolve(client, base.resolve("/resolve?dir="
+                        +URLEncoder.encode(workDir.getAbsolutePath(), StandardCharsets.UTF_8)));
+                report.install = install(client, base.resolve("/install/slow/1.0.0"), slow);
+            }
+            om.writeValue(out, report);
+            System.out.printf("resolve: %d requests, %d errors, p50 %.1fms p95 %.1fms p99 %.1fms, %.0f req/s%n",
+                    report.resolve.requests, report.resolve.errors, report.resolve.p50Micros/1000.0,
+                    report.resolve.p95Micros/1000.0, report.resolve.p99Micros/1000.0, report.resolve.throughput);
+            System.out.printf("install: %d requests, %d errors, %d execution(s) of the plugin%n",
+                    report.install.requests, report.install.errors, report.install.executions);
+            System.out.printf("report: %s%n", out.getAbsolutePath());
+            return report.resolve.errors == 0 && report.install.errors == 0 && report.install.executions == 1 ? 0 : 1;
+        } finally {
+            Fixtures.delete(root);
+            Fixtures.delete(configFolder);
+        }
+    }
+
+    private Phase resolve(HttpClient client, URI uri) throws InterruptedException {
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger errors = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        CountDownLatch go = new CountDownLatch(1);
+        long start = System.nanoTime();
+        for (int c=0;c<clients;c++){
+            pool.submit(() -> {
+                go.await();
+                for (int r=0;r<requestsPerClient;r++){
+                    long t = System.nanoTime();
+                    try {
+                        var response = client.send(HttpRequest.newBuilder(uri).GET().build(), HttpResponse.BodyHandlers.ofString());
+                        if (response.statusCode() != 200 || !response.body().contains("\"tools\"")) errors.incrementAndGet();
+                    } catch (Exception e) {
+                        errors.incrementAndGet();
+                    }
+                    latencies.add((System.nanoTime()-t)/1000);
+                }
+                return null;
+            });
+        }
+        go.countDown();
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.MINUTES);
+        Phase phase = Phase.of(latencies, errors.get(), System.nanoTime()-start);
+        return phase;
+    }
+
+    private Phase install(HttpClient client, URI uri, SlowPlugIn plugIn) throws InterruptedException {
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger errors = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(installers);
+        CountDownLatch go = new CountDownLatch(1);
+        long start = System.nanoTime();
+        for (int c=0;c<installers;c++){
+            pool.submit(() -> {
+                go.await();
+                long t = System.nanoTime();
+                try {
+                    var response = client.send(HttpRequest.newBuilder(uri).POST(HttpRequest.BodyPublishers.noBody()).build(),
+                            HttpResponse.BodyHandlers.ofString());
+                    if (response.statusCode() != 200 || !response.body().contains("\"code\":0")) errors.incrementAndGet();
+                } catch (Exception e) {
+                    errors.incrementAndGet();
+                }
+                latencies.add((System.nanoTime()-t)/1000);
+                return null;
+            });
+        }
+        go.countDown();
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.MINUTES);
+        Phase phase = Phase.of(latencies, errors.get(), System.nanoTime()-start);
+        phase.executions = plugIn.installs.get();
+        return phase;
+    }
+
+    /**
+     * Plugin whose install takes time, to keep the requests concurrent
+     */
+    static class SlowPlugIn extends Fixtures.StubPlugIn {
+        final AtomicInteger installs = new AtomicInteger();
+        private final int installMs;
+        private volatile boolean installed;
+
+        SlowPlugIn(String name, int installMs){
+            super(name, List.of("1.0.0"));
+            this.installMs = installMs;
+        }
+
+        @Override
+        public int install(String version) {
+            installs.incrementAndGet();
+            try {
+                Thread.sleep(installMs);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return 1;
+            }
+            installed = true;
+            return 0;
+        }
+
+        @Override
+        public boolean isInstalled(String version) { return installed; }
+    }
+
+    public static class Report {
+        public String fixture;
+        public Phase resolve;
+        public Phase install;
+    }
+
+    public static class Phase {
+        public int requests;
+        public int errors;
+        public int executions;
+        public long p50Micros;
+        public long p95Micros;
+        public long p99Micros;
+        public long maxMicros;
+        public double throughput;
+
+        static Phase of(List<Long> latencies, int errors, long durationNanos) {
+            Phase p = new Phase();
+            p.requests = latencies.size();
+            p.errors = errors;
+            if (latencies.isEmpty()) return p;
+            long[] sorted = latencies.stream().mapToLong(Long::longValue).sorted().toArray();
+            p.p50Micros = CliLatencyHarness.Stats.percentile(sorted, 50);
+            p.p95Micros = CliLatencyHarness.Stats.percentile(sorted, 95);
+            p.p99Micros = CliLatencyHarness.Stats.percentile(sorted, 99);
+            p.maxMicros = sorted[sorted.length - 1];
+            p.throughput = p.requests / (durationNanos / 1e9);
+            return p;
+        }
+    }
+}
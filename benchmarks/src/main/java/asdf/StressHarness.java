@@ -0,0 +1,440 @@
+package asdf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import picocli.CommandLine;
+import picocli.CommandLine.Command;
+import picocli.CommandLine.Option;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stress test of qsdf at scale, on one config folder shared by many processes:
+ * <ul>
+ *     <li>a synthetic config.yml of --tools x --versions entries (100k by default) and a deep
+ *     .tool-versions tree are generated; their load and save costs are measured</li>
+ *     <li>--processes JVMs run this class in worker mode: random installs, uninstalls and resolves of the
+ *     --hot tools, through the qsdf jobs, with stub plugins publishing small staged installations</li>
+ *     <li>the invariants are checked: no registry entry is lost (every generated entry is kept, the registry
+ *     and the installation folders agree at the end), no partial installation is visible, the p99 latency
+ *     stays under --max-p99-ms</li>
+ * </ul>
+ * Throughput, latencies per operation, max RSS (/usr/bin/time) and heap of the workers are written as JSON.
+ * The exit code is 1 when an invariant is violated or an operation fails.
+ */
+@Command(name = "stress", mixinStandardHelpOptions = true,
+        description = "Run concurrent qsdf processes on a large registry and check its invariants")
+public class StressHarness implements Callable<Integer> {
+    private static final List<String> OPERATIONS = List.of("install", "uninstall", "resolve");
+
+    @Option(names = {"--tools"}, description = "number of tools in config.yml (default: ${DEFAULT-VALUE})")
+    int nbTools = 10_000;
+
+    @Option(names = {"--versions"}, description = "number of installed versions per tool (default: ${DEFAULT-VALUE})")
+    int nbVersions = 10;
+
+    @Option(names = {"--depth"}, description = "depth of the directory chain (default: ${DEFAULT-VALUE})")
+    int depth = 60;
+
+    @Option(names = {"--processes"}, description = "concurrent worker processes (default: ${DEFAULT-VALUE})")
+    int processes = 8;
+
+    @Option(names = {"--threads"}, description = "threads per worker process (default: ${DEFAULT-VALUE})")
+    int threads = 2;
+
+    @Option(names = {"--ops"}, description = "operations per thread (default: ${DEFAULT-VALUE})")
+    int ops = 20;
+
+    @Option(names = {"--hot"}, description = "tools installed and uninstalled by the workers (default: ${DEFAULT-VALUE})")
+    int hot = 10;
+
+    @Option(names = {"--pool"}, description = "versions per hot tool shared by the workers (default: ${DEFAULT-VALUE})")
+    int pool = 5;
+
+    @Option(names = {"--files"}, description = "files per stub installation (default: ${DEFAULT-VALUE})")
+    int files = 20;
+
+    @Option(names = {"--max-p99-ms"}, description = "bound of the p99 latency of every operation (default: ${DEFAULT-VALUE})")
+    long maxP99Ms = 60_000;
+
+    @Option(names = {"--out"}, description = "JSON report (default: ${DEFAULT-VALUE})")
+    File out = new File("stress.json");
+
+    @Option(names = {"--worker"}, hidden = true, description = "id of a worker process")
+    int worker = -1;
+
+    @Option(names = {"--config"}, hidden = true, description = "config folder of a worker process")
+    File configFolder;
+
+    @Option(names = {"--dir"}, hidden = true, description = "working directory of a worker process")
+    File workDir;
+
+    @Option(names = {"--worker-out"}, hidden = true, description = "JSON result of a worker process")
+    File workerOut;
+
+    private final ObjectMapper om = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+
+    public static void main(String[] args) {
+        System.exit(new CommandLine(new StressHarness()).execute(args));
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        return worker >= 0 ? work() : run();
+    }
+
+    private int run() throws Exception {
+        File root = Files.createTempDirectory("qsdf-stress").toFile();
+        Report report = new Report();
+        report.fixture = String.format("tools=%d versions=%d depth=%d processes=%d threads=%d ops=%d hot=%d pool=%d",
+                nbTools, nbVersions, depth, processes, threads, ops, hot, pool);
+        try {
+            File configFolder = new File(root, "config");
+            report.registry = registry(configFolder);
+            File workDir = Fixtures.toolVersionsTree(root, depth, nbTools);
+
+            List<Process> started = new ArrayList<>();
+            List<Worker> workers = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int w=0;w<processes;w++){
+                Worker wk = new Worker();
+                wk.id = w;
+                wk.log = new File(root, "worker-"+w+".log");
+                wk.result = new File(root, "worker-"+w+".json");
+                started.add(spawn(wk, configFolder, workDir, root));
+                workers.add(wk);
+            }
+            for (int w=0;w<processes;w++){
+                workers.get(w).exitCode = started.get(w).waitFor();
+            }
+            long duration = System.nanoTime()-start;
+
+            Map<String, List<Long>> latencies = new LinkedHashMap<>();
+            Map<String, Integer> errors = new HashMap<>();
+            for (Worker wk : workers){
+                if (wk.rssFile != null){
+                    var lines = Files.readAllLines(wk.rssFile.toPath());
+                    wk.maxRssKb = lines.isEmpty() ? -1 : parseLong(lines.get(lines.size()-1));
+                }
+                if (wk.exitCode != 0 || !wk.result.isFile()){
+                    report.violations.add(String.format("worker %d exited with %d, see %s", wk.id, wk.exitCode, wk.log));
+                    continue;
+                }
+                WorkerResult result = om.readValue(wk.result, WorkerResult.class);
+                wk.heapPeakKb = result.heapPeakKb;
+                result.latencies.forEach((op, l) -> latencies.computeIfAbsent(op, k -> new ArrayList<>()).addAll(l));
+                result.errors.forEach((op, n) -> errors.merge(op, n, Integer::sum));
+                report.violations.addAll(result.violations);
+            }
+            report.workers = workers;
+            int total = 0;
+            for (String op : OPERATIONS){
+                var phase = ServerLoadHarness.Phase.of(latencies.getOrDefault(op, List.of()), errors.getOrDefault(op, 0), duration);
+                report.operations.put(op, phase);
+                total += phase.requests;
+                if (phase.p99Micros > maxP99Ms*1000){
+                    report.violations.add(String.format("%s: p99 %dms over %dms", op, phase.p99Micros/1000, maxP99Ms));
+                }
+            }
+            report.durationMs = duration/1_000_000;
+            report.throughput = total/(duration/1e9);
+            check(configFolder, report.violations);
+
+            om.writeValue(out, report);
+            print(report);
+            int failed = report.operations.values().stream().mapToInt(p -> p.errors).sum();
+            return report.violations.isEmpty() && failed == 0 ? 0 : 1;
+        } finally {
+            Fixtures.delete(root);
+        }
+    }
+
+    /**
+     * Generate config.yml and measure its cost in one process
+     */
+    private Registry registry(File configFolder) throws IOException {
+        Registry registry = new Registry();
+        long t = System.nanoTime();
+        ConfigManager generated = new ConfigManager(configFolder);
+        generated.replace(Fixtures.dataConfig(nbTools, nbVersions));
+        registry.generateMs = (System.nanoTime()-t)/1_000_000;
+        registry.entries = (long) nbTools*nbVersions;
+        registry.fileKb = new File(configFolder, "config.yml").length()/1024;
+        generated = null;
+
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long before = runtime.totalMemory()-runtime.freeMemory();
+        t = System.nanoTime();
+        ConfigManager config = new ConfigManager(configFolder);
+        registry.readMs = (System.nanoTime()-t)/1_000_000;
+        System.gc();
+        registry.heapKb = Math.max(0, runtime.totalMemory()-runtime.freeMemory()-before)/1024;
+        t = System.nanoTime();
+        config.save();
+        registry.saveMs = (System.nanoTime()-t)/1_000_000;
+        return registry;
+    }
+
+    private Process spawn(Worker wk, File configFolder, File workDir, File root) throws IOException {
+        List<String> command = new ArrayList<>();
+        if (new File("/usr/bin/time").canExecute()){
+            wk.rssFile = new File(root, "worker-"+wk.id+".rss");
+            command.addAll(List.of("/usr/bin/time", "-f", "%M", "-o", wk.rssFile.getAbsolutePath()));
+        }
+        command.addAll(List.of(javaExecutable(), "-cp", System.getProperty("java.class.path"), StressHarness.class.getName(),
+                "--worker", String.valueOf(wk.id),
+                "--config", configFolder.getAbsolutePath(),
+                "--dir", workDir.getAbsolutePath(),
+                "--worker-out", wk.result.getAbsolutePath(),
+                "--threads", String.valueOf(threads),
+                "--ops", String.valueOf(ops),
+                "--hot", String.valueOf(hot),
+                "--pool", String.valueOf(pool),
+                "--files", String.valueOf(files)));
+        return new ProcessBuilder(command).redirectErrorStream(true).redirectOutput(wk.log).start();
+    }
+
+    /**
+     * Check the registry left by the workers against the installation folders
+     */
+    private void check(File configFolder, List<String> violations) throws IOException {
+        ConfigManager config = new ConfigManager(configFolder);
+        ConfigManager.intance = config;
+        int lost = 0;
+        var versions = Fixtures.versions(nbVersions);
+        for (int t=0;t<nbTools;t++){
+            for (String v : versions){
+                if (!config.isInstalled(Fixtures.toolName(t), v)) lost++;
+            }
+        }
+        if (lost > 0){
+            violations.add(String.format("%d generated entries lost from config.yml", lost));
+        }
+        for (StressPlugIn plugIn : plugIns(hot, pool, files).values()){
+            for (String v : plugIn.getAllRemoteVersions()){
+                boolean declared = config.isInstalled(plugIn.getName(), v);
+                boolean installed = plugIn.isInstalled(v);
+                if (declared != installed){
+                    violations.add(String.format("%s %s: declared in config.yml %s, installed %s", plugIn.getName(), v, declared, installed));
+                }
+                plugIn.check(v).ifPresent(violations::add);
+            }
+        }
+    }
+
+    /**
+     * Worker process: random operations on the shared config folder
+     */
+    private int work() throws Exception {
+        ConfigManager config = new ConfigManager(configFolder);
+        ConfigManager.intance = config;
+        Map<String, PlugIn> plugIns = new HashMap<>(plugIns(hot, pool, files));
+        WorkerResult result = new WorkerResult();
+        OPERATIONS.forEach(op -> {
+            result.latencies.put(op, Collections.synchronizedList(new ArrayList<>()));
+            result.errors.put(op, 0);
+        });
+        Map<String, AtomicInteger> errors = new ConcurrentHashMap<>();
+        List<String> violations = Collections.synchronizedList(new ArrayList<>());
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int th=0;th<threads;th++){
+            Random random = new Random(worker*31L+th);
+            executor.submit(() -> {
+                for (int i=0;i<ops;i++){
+                    var plugIn = (StressPlugIn) plugIns.get(Fixtures.toolName(random.nextInt(hot)));
+                    var version = plugIn.getAllRemoteVersions().get(random.nextInt(pool));
+                    int dice = random.nextInt(100);
+                    String op = dice < 40 ? "install" : dice < 60 ? "uninstall" : "resolve";
+                    long t = System.nanoTime();
+                    boolean ok;
+                    try {
+                        ok = operation(op, plugIns, config, plugIn, version, violations);
+                    } catch (RuntimeException e){
+                        violations.add(String.format("worker %d: %s %s %s failed: %s", worker, op, plugIn.getName(), version, e));
+                        ok = false;
+                    }
+                    result.latencies.get(op).add((System.nanoTime()-t)/1000);
+                    if (!ok) errors.computeIfAbsent(op, k -> new AtomicInteger()).incrementAndGet();
+                }
+                return null;
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.HOURS);
+        errors.forEach((op, n) -> result.errors.put(op, n.get()));
+        result.violations = new ArrayList<>(violations);
+        result.heapPeakKb = ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(p -> p.getType() == MemoryType.HEAP)
+                .mapToLong(p -> p.getPeakUsage().getUsed()).sum()/1024;
+        om.writeValue(workerOut, result);
+        return 0;
+    }
+
+    private boolean operation(String op, Map<String, PlugIn> plugIns, ConfigManager config, StressPlugIn plugIn,
+                              String version, List<String> violations){
+        switch (op){
+            case "install":
+                return new Job(Action.INSTALL, plugIn.getName(), version).doJob(plugIns, config).getReturnedCode() == 0;
+            case "uninstall":
+                return new Job(Action.UNINSTALL, plugIn.getName(), version).doJob(plugIns, config).getReturnedCode() == 0;
+            default:
+                //what a qsdf command does: read the registry, walk the tree, find the installation
+                config.reload();
+                if (config.resolveToolVersions(workDir, Map.of()).getTools().isEmpty()){
+                    violations.add(String.format("worker %d: no version resolved in %s", worker, workDir));
+                    return false;
+                }
+                var where = new Job(Action.WHERE, plugIn.getName(), version).doJob(plugIns, config);
+                if (where.getReturnedCode() == 0){
+                    plugIn.check(version).ifPresent(violations::add);
+                }
+                return true;
+        }
+    }
+
+    private static Map<String, StressPlugIn> plugIns(int hot, int pool, int files){
+        List<String> versions = new ArrayList<>();
+        for (int v=0;v<pool;v++){
+            versions.add("s"+v);
+        }
+        Map<String, StressPlugIn> plugIns = new LinkedHashMap<>();
+        for (int t=0;t<hot;t++){
+            plugIns.put(Fixtures.toolName(t), new StressPlugIn(Fixtures.toolName(t), versions, files));
+        }
+        return plugIns;
+    }
+
+    private void print(Report report){
+        System.out.printf("registry: %d entries, %dKB, read %dms, save %dms, heap %dKB%n", report.registry.entries,
+                report.registry.fileKb, report.registry.readMs, report.registry.saveMs, report.registry.heapKb);
+        report.operations.forEach((op, p) -> System.out.printf("%-9s %6d ops, %d errors, p50 %.1fms p95 %.1fms p99 %.1fms max %.1fms%n",
+                op, p.requests, p.errors, p.p50Micros/1000.0, p.p95Micros/1000.0, p.p99Micros/1000.0, p.maxMicros/1000.0));
+        System.out.printf("%.1f ops/s in %dms, max RSS %dKB, max heap %dKB per worker%n", report.throughput, report.durationMs,
+                report.workers.stream().mapToLong(w -> w.maxRssKb).max().orElse(-1),
+                report.workers.stream().mapToLong(w -> w.heapPeakKb).max().orElse(-1));
+        report.violations.forEach(v -> System.out.printf("VIOLATION: %s%n", v));
+        System.out.printf("report: %s%n", out.getAbsolutePath());
+    }
+
+    private static String javaExecutable() {
+        return System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    }
+
+    private static long parseLong(String s) {
+        try {
+            return Long.parseLong(s.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Plugin publishing small real installations the way the qsdf plugins do: staged, then renamed
+     */
+    static class StressPlugIn extends Fixtures.StubPlugIn {
+        private final int files;
+
+        StressPlugIn(String name, List<String> versions, int files){
+            super(name, versions);
+            this.files = files;
+        }
+
+        @Override
+        public int install(String version) {
+            try {
+                File target = getFolderForVersion(version);
+                File staging = StagedInstall.stage(target);
+                for (int i=0;i<files;i++){
+                    Files.writeString(new File(staging, "f"+i).toPath(), getName()+" "+version+" "+i);
+                }
+                StagedInstall.publish(target, staging, InstallManifest.of(getName(), version, staging));
+                return 0;
+            } catch (IOException e) {
+                Log.error(e.getMessage());
+                return 1;
+            }
+        }
+
+        @Override
+        public int uninstall(String version) {
+            try {
+                StagedInstall.remove(this, version);
+                return 0;
+            } catch (IOException e) {
+                Log.error(e.getMessage());
+                return 1;
+            }
+        }
+
+        @Override
+        public File getPath(String version) { return getFolderForVersion(version); }
+
+        @Override
+        public boolean isInstalled(String version) { return StagedInstall.isComplete(getFolderForVersion(version)); }
+
+        /**
+         * @return a violation if the installation folder is visible but incomplete
+         */
+        Optional<String> check(String version){
+            File folder = getFolderForVersion(version);
+            for (int attempt=0;attempt<2;attempt++){
+                if (!folder.exists()){
+                    return Optional.empty();
+                }
+                boolean complete = StagedInstall.isComplete(folder);
+                for (int i=0;i<files && complete;i++){
+                    complete = new File(folder, "f"+i).isFile();
+                }
+                if (complete){
+                    return Optional.empty();
+                }
+                //removed or replaced while checked: look again
+            }
+            return Optional.of(String.format("%s %s: partial installation visible in %s", getName(), version, folder));
+        }
+    }
+
+    public static class Worker {
+        public int id;
+        public int exitCode;
+        public long maxRssKb = -1;
+        public long heapPeakKb;
+        transient File log;
+        transient File result;
+        transient File rssFile;
+    }
+
+    public static class WorkerResult {
+        public Map<String, List<Long>> latencies = new LinkedHashMap<>();
+        public Map<String, Integer> errors = new LinkedHashMap<>();
+        public List<String> violations = new ArrayList<>();
+        public long heapPeakKb;
+    }
+
+    public static class Registry {
+        public long entries;
+        public long fileKb;
+        public long generateMs;
+        public long readMs;
+        public long saveMs;
+        public long heapKb;
+    }
+
+    public static class Report {
+        public String fixture;
+        public Registry registry;
+        public Map<String, ServerLoadHarness.Phase> operations = new LinkedHashMap<>();
+        public long durationMs;
+        public double throughput;
+        public List<Worker> workers = new ArrayList<>();
+        public List<String> violations = new ArrayList<>();
+    }
+}
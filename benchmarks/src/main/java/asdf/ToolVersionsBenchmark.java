@@ -0,0 +1,46 @@
+package asdf;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of .tool-versions content
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class ToolVersionsBenchmark {
+
+    @Param({"1", "10", "100", "1000"})
+    int nbLines;
+
+    private byte[] content;
+    private File folder;
+    private ConfigManager configManager;
+
+    @Setup
+    public void setup() throws IOException {
+        content = Fixtures.toolVersions(nbLines).getBytes(StandardCharsets.UTF_8);
+        folder = Fixtures.configFolder(1, 1);
+        configManager = new ConfigManager(folder);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.delete(folder);
+    }
+
+    @Benchmark
+    public List<Tool> readFromInputStream() throws IOException {
+        return configManager.readFromInputStream(new ByteArrayInputStream(content));
+    }
+}
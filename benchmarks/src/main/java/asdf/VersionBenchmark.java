@@ -0,0 +1,67 @@
+package asdf;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Version resolution and sorting: {@link PlugIn#latestVersion(List, String)},
+ * {@link ConfigManager#getAllInstalledVersion(String)} and {@link Tool#compareTo(Tool)}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class VersionBenchmark {
+
+    @Param({"100", "1000", "10000"})
+    int nbVersions;
+
+    private PlugIn plugIn;
+    private List<Tool> tools;
+    private File folder;
+    private ConfigManager configManager;
+
+    @Setup
+    public void setup() throws IOException {
+        plugIn = new Fixtures.StubPlugIn("java", Fixtures.versions(nbVersions));
+        tools = Fixtures.tools(10, nbVersions/10);
+        folder = Fixtures.configFolder(1, 1);
+        configManager = new ConfigManager(folder);
+        configManager.replace(Fixtures.dataConfig(10, nbVersions/10));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Fixtures.delete(folder);
+    }
+
+    @Benchmark
+    public String getLastVersion() {
+        return PlugIn.latestVersion(plugIn.getAllRemoteVersions(), "").orElseThrow();
+    }
+
+    @Benchmark
+    public String getLastVersionStartingWith() {
+        return PlugIn.latestVersion(plugIn.getAllRemoteVersions(), "5.").orElseThrow();
+    }
+
+    @Benchmark
+    public List<Tool> getAllInstalledVersion() {
+        return configManager.getAllInstalledVersion(Fixtures.toolName(0));
+    }
+
+    @Benchmark
+    public List<Tool> sortTools() {
+        List<Tool> copy = new ArrayList<>(tools);
+        Collections.sort(copy);
+        return copy;
+    }
+}
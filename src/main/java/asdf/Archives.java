@@ -0,0 +1,242 @@
+package asdf;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipFile;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorInputStream;
+import org.apache.commons.compress.compressors.gzip.GzipCompressorOutputStream;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Extraction of the archives downloaded by the plugins (tar.gz, tgz and zip) and creation of
+ * tar.gz archives (bundles), keeping modes, mtimes and links. The root folder of the archive can be stripped.
+ * Symbolic links are created after the other entries and no entry is written through a link leaving the target
+ * folder, so an archive cannot write outside of it (e.g. {@code x -> /etc} then {@code x/passwd}).
+ * Extractions wait for a slot of the {@link Scheduler}.
+ */
+class Archives {
+    private static final int BUFFER_SIZE = 64*1024;
+    private static final PosixFilePermission[] PERMISSIONS = {
+            PosixFilePermission.OTHERS_EXECUTE, PosixFilePermission.OTHERS_WRITE, PosixFilePermission.OTHERS_READ,
+            PosixFilePermission.GROUP_EXECUTE, PosixFilePermission.GROUP_WRITE, PosixFilePermission.GROUP_READ,
+            PosixFilePermission.OWNER_EXECUTE, PosixFilePermission.OWNER_WRITE, PosixFilePermission.OWNER_READ};
+
+    private Archives(){}
+
+    /**
+     * @param archive a tar.gz, tgz or zip file
+     * @param target the folder to fill
+     * @param stripRoot remove the first folder of every entry
+     */
+    static void extract(Path archive, Path target, boolean stripRoot) throws IOException {
+        var name = archive.getFileName().toString().toLowerCase();
+        if (!name.endsWith(".zip") && !name.endsWith(".tar.gz") && !name.endsWith(".tgz")){
+            throw new IOException("unsupported archive "+archive);
+        }
+        Files.createDirectories(target);
+        try (var slot = Scheduler.get().extraction(); var timer = Metrics.time(Metrics.Phase.EXTRACT)) {
+            if (name.endsWith(".zip")){
+                extractZip(archive, target, stripRoot);
+            } else {
+                try (InputStream is = new GzipCompressorInputStream(new BufferedInputStream(Files.newInputStream(archive)))) {
+                    extractTar(is, target, stripRoot);
+                }
+            }
+        }
+    }
+
+    static void extractTar(InputStream is, Path target, boolean stripRoot) throws IOException {
+        Path realTarget = target.toRealPath();
+        Map<Path, String> symlinks = new LinkedHashMap<>();
+        try (TarArchiveInputStream tar = new TarArchiveInputStream(is)) {
+            TarArchiveEntry entry;
+            long entries = 0;
+            while ((entry = tar.getNextTarEntry()) != null){
+                JobEvents.progress(JobEvent.Type.EXTRACTED, ++entries, -1);
+                Metrics.count(Metrics.Counter.EXTRACTED_ENTRIES);
+                Path path = resolve(target, entry.getName(), stripRoot);
+                if (path == null) continue;
+                if (entry.isDirectory()){
+                    createParents(realTarget, path);
+                    Files.createDirectories(path);
+                } else if (entry.isSymbolicLink()){
+                    symlinks.put(path, entry.getLinkName());
+                    continue;
+                } else if (entry.isLink()){
+                    createParents(realTarget, path);
+                    Path linked = resolve(target, entry.getLinkName(), stripRoot);
+                    if (linked == null) throw new IOException("invalid link "+entry.getLinkName());
+                    Files.createLink(path, linked);
+                    continue;
+                } else {
+                    createParents(realTarget, path);
+                    Files.copy(tar, path, StandardCopyOption.REPLACE_EXISTING);
+                }
+                setAttributes(path, entry.getMode(), entry.getModTime().getTime());
+            }
+        }
+        createSymlinks(realTarget, symlinks);
+    }
+
+    private static void extractZip(Path archive, Path target, boolean stripRoot) throws IOException {
+        Path realTarget = target.toRealPath();
+        Map<Path, String> symlinks = new LinkedHashMap<>();
+        try (ZipFile zip = new ZipFile(archive.toFile())) {
+            List<ZipArchiveEntry> all = Collections.list(zip.getEntries());
+            long entries = 0;
+            for (ZipArchiveEntry entry : all){
+                JobEvents.progress(JobEvent.Type.EXTRACTED, ++entries, all.size());
+                Metrics.count(Metrics.Counter.EXTRACTED_ENTRIES);
+                Path path = resolve(target, entry.getName(), stripRoot);
+                if (path == null) continue;
+                if (entry.isDirectory()){
+                    createParents(realTarget, path);
+                    Files.createDirectories(path);
+                } else if (entry.isUnixSymlink()){
+                    symlinks.put(path, zip.getUnixSymlink(entry));
+                    continue;
+                } else {
+                    createParents(realTarget, path);
+                    try (InputStream is = zip.getInputStream(entry)) {
+                        Files.copy(is, path, StandardCopyOption.REPLACE_EXISTING);
+                    }
+                }
+                setAttributes(path, entry.getPlatform() == ZipArchiveEntry.PLATFORM_UNIX ? entry.getUnixMode() : 0,
+                        entry.getTime());
+            }
+        }
+        createSymlinks(realTarget, symlinks);
+    }
+
+    /**
+     * Create the symbolic links once the other entries are written: no entry is extracted through a link.
+     * A link whose parent is a link leaving the target folder is refused.
+     */
+    private static void createSymlinks(Path realTarget, Map<Path, String> symlinks) throws IOException {
+        for (var link : symlinks.entrySet()){
+            createParents(realTarget, link.getKey());
+            Files.createSymbolicLink(link.getKey(), Paths.get(link.getValue()));
+        }
+    }
+
+    /**
+     * Create the parent folders of an entry, checking that they really are in the target folder
+     * (a parent may be a symbolic link)
+     */
+    private static void createParents(Path realTarget, Path path) throws IOException {
+        Path parent = path.getParent();
+        Path existing = parent;
+        while (!Files.exists(existing)){
+            existing = existing.getParent();
+        }
+        if (!existing.toRealPath().startsWith(realTarget)){
+            throw new IOException("entry outside of the target folder through a link: "+path);
+        }
+        Files.createDirectories(parent);
+    }
+
+    /**
+     * Write a folder in a tar.gz archive, keeping modes, mtimes and symbolic links
+     * @param folder the folder
+     * @param archive the tar.gz file to write
+     */
+    static void createTarGz(Path folder, Path archive) throws IOException {
+        try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(archive), BUFFER_SIZE);
+             TarArchiveOutputStream tar = new TarArchiveOutputStream(new GzipCompressorOutputStream(os))) {
+            tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+            tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+            List<Path> paths;
+            try (Stream<Path> walk = Files.walk(folder)) {
+                paths = walk.filter(p -> !p.equals(folder)).sorted().collect(Collectors.toList());
+            }
+            for (Path path : paths){
+                var name = folder.relativize(path).toString().replace(File.separatorChar, '/');
+                TarArchiveEntry entry;
+                if (Files.isSymbolicLink(path)){
+                    entry = new TarArchiveEntry(name, TarArchiveEntry.LF_SYMLINK);
+                    entry.setLinkName(Files.readSymbolicLink(path).toString());
+                } else if (Files.isDirectory(path)){
+                    entry = new TarArchiveEntry(name+"/");
+                } else {
+                    entry = new TarArchiveEntry(name);
+                    entry.setSize(Files.size(path));
+                }
+                int mode = mode(path);
+                if (mode != 0) entry.setMode(mode);
+                entry.setModTime(Files.getLastModifiedTime(path, LinkOption.NOFOLLOW_LINKS).toMillis());
+                tar.putArchiveEntry(entry);
+                if (Files.isRegularFile(path, LinkOption.NOFOLLOW_LINKS)){
+                    Files.copy(path, tar);
+                }
+                tar.closeArchiveEntry();
+            }
+            tar.finish();
+        }
+    }
+
+    /**
+     * @return the permission bits of the file, 0 if unknown
+     */
+    private static int mode(Path path) throws IOException {
+        try {
+            var permissions = Files.getPosixFilePermissions(path, LinkOption.NOFOLLOW_LINKS);
+            int mode = 0;
+            for (int i=0;i<PERMISSIONS.length;i++){
+                if (permissions.contains(PERMISSIONS[i])) mode |= 1 << i;
+            }
+            return mode;
+        } catch (UnsupportedOperationException e){
+            return 0;
+        }
+    }
+
+    /**
+     * @return the path of the entry in the target, null for the stripped root itself
+     */
+    private static Path resolve(Path target, String entryName, boolean stripRoot) throws IOException {
+        var name = entryName.replace('\\', '/');
+        while (name.startsWith("./")) name = name.substring(2);
+        if (stripRoot){
+            int idx = name.indexOf('/');
+            if (idx < 0 || idx == name.length()-1) return null;
+            name = name.substring(idx+1);
+        }
+        if (name.isEmpty()) return null;
+        Path path = target.resolve(name).normalize();
+        if (!path.startsWith(target.normalize())){
+            throw new IOException("entry outside of the target folder: "+entryName);
+        }
+        return path;
+    }
+
+    private static void setAttributes(Path path, int mode, long mtime) throws IOException {
+        if (mode != 0){
+            Set<PosixFilePermission> permissions = EnumSet.noneOf(PosixFilePermission.class);
+            for (int i=0;i<PERMISSIONS.length;i++){
+                if ((mode & (1 << i)) != 0) permissions.add(PERMISSIONS[i]);
+            }
+            try {
+                Files.setPosixFilePermissions(path, permissions);
+            } catch (UnsupportedOperationException e){
+                //not a posix file system
+            }
+        }
+        if (mtime > 0){
+            Files.setLastModifiedTime(path, FileTime.fromMillis(mtime));
+        }
+    }
+}
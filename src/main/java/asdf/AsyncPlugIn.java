@@ -0,0 +1,198 @@
+package asdf;
+
+import io.smallrye.mutiny.Uni;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking variant of {@link PlugIn}: the calls return a {@link Uni}, started on subscription.
+ * <ul>
+ *     <li>cancelling the subscription (or a timeout: {@code ifNoItem().after(...).fail()}) interrupts
+ *     the blocking work behind it</li>
+ *     <li>the remote versions fail after {@link #REMOTE_VERSIONS_TIMEOUT}</li>
+ * </ul>
+ * A plugin implementing this interface is used as is; the others are wrapped by {@link #of(PlugIn)}.
+ */
+interface AsyncPlugIn {
+    Duration REMOTE_VERSIONS_TIMEOUT = Duration.ofMinutes(2);
+
+    String getName();
+
+    Uni<List<String>> getAllRemoteVersions();
+
+    Uni<Boolean> isVersionInstallable(String version);
+
+    Uni<Integer> install(String version);
+
+    Uni<Integer> uninstall(String version);
+
+    Uni<Integer> createShims();
+
+    Uni<Integer> deleteShims();
+
+    /**
+     * Resolve "latest" and "latest:&lt;prefix&gt;" to a version available remotely, without blocking
+     * @param version a version or latest[:&lt;prefix&gt;]
+     * @return the version to use, a NoSuchElementException if no remote version matches
+     */
+    default Uni<String> resolveVersion(String version){
+        if (!version.equals("latest") && !version.startsWith("latest:")){
+            return Uni.createFrom().item(version);
+        }
+        var prefix = version.equals("latest") ? "" : version.substring("latest:".length());
+        return getAllRemoteVersions().onItem().transform(remotes -> PlugIn.latestVersion(remotes, prefix)
+                .orElseThrow(() -> new NoSuchElementException(String.format("No version %s found for package %s", version, getName()))));
+    }
+
+    /**
+     * @param plugIn a plugin
+     * @return the plugin itself if asynchronous, else its adapter (one per plugin)
+     */
+    static AsyncPlugIn of(PlugIn plugIn){
+        if (plugIn instanceof AsyncPlugIn){
+            return (AsyncPlugIn) plugIn;
+        }
+        return BlockingPlugIn.ADAPTERS.computeIfAbsent(plugIn, BlockingPlugIn::new);
+    }
+
+    /**
+     * Run blocking work on the plugin threads, in the job of the calling thread ({@link JobEvents})
+     * @param work the blocking work
+     * @return its result, the thread is interrupted if the subscription is cancelled
+     */
+    static <T> Uni<T> offload(Supplier<T> work){
+        return offload(JobEvents.current(), work);
+    }
+
+    /**
+     * Run blocking work on the plugin threads, in a job
+     * @param job the job of the work, null if none
+     * @param work the blocking work
+     * @return its result, or its failure (errors included), the thread is interrupted if the subscription is cancelled
+     */
+    static <T> Uni<T> offload(Job job, Supplier<T> work){
+        return Uni.createFrom().emitter(emitter -> {
+            Future<?> running = BlockingPlugIn.WORKERS.submit(() -> {
+                var previous = JobEvents.enter(job);
+                try {
+                    T result;
+                    try {
+                        result = work.get();
+                    } catch (Throwable e){
+                        //a LinkageError of a plugin jar fails the job instead of leaving it pending
+                        emitter.fail(e);
+                        return;
+                    }
+                    emitter.complete(result);
+                } finally {
+                    JobEvents.enter(previous);
+                }
+            });
+            emitter.onTermination(() -> running.cancel(true));
+        });
+    }
+}
+
+/**
+ * Adapter of a blocking {@link PlugIn}: each call takes a plugin thread while it runs.
+ * Concurrent remote-version queries of a plugin are coalesced: one thread serves all of them.
+ */
+class BlockingPlugIn implements AsyncPlugIn {
+    static final Map<PlugIn, AsyncPlugIn> ADAPTERS = new ConcurrentHashMap<>();
+    static final int WORKER_THREADS = Math.max(4, 2*Runtime.getRuntime().availableProcessors());
+    /**
+     * Bounded: a task never waits for another task of the pool (the actions compose the calls and wait
+     * for the install locks without a thread), the calls beyond the threads are queued
+     */
+    static final ExecutorService WORKERS = workers();
+
+    private static ExecutorService workers(){
+        var pool = new ThreadPoolExecutor(WORKER_THREADS, WORKER_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "qsdf-plugin-"+count.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        pool.allowCoreThreadTimeOut(true);
+        return pool;
+    }
+
+    private final PlugIn plugIn;
+    private CompletableFuture<List<String>> remoteVersions;
+
+    BlockingPlugIn(PlugIn plugIn){
+        this.plugIn = plugIn;
+    }
+
+    @Override
+    public String getName() {
+        return plugIn.getName();
+    }
+
+    @Override
+    public Uni<List<String>> getAllRemoteVersions() {
+        return Uni.createFrom().<List<String>>emitter(emitter -> sharedRemoteVersions().whenComplete((versions, error) -> {
+            //a cancelled subscriber does not cancel the query shared with the others
+            if (error != null) emitter.fail(error instanceof CompletionException ? error.getCause() : error);
+            else emitter.complete(versions);
+        })).ifNoItem().after(REMOTE_VERSIONS_TIMEOUT).fail();
+    }
+
+    /**
+     * @return the running query, or a new one
+     */
+    private synchronized CompletableFuture<List<String>> sharedRemoteVersions(){
+        if (remoteVersions != null){
+            return remoteVersions;
+        }
+        var query = CompletableFuture.supplyAsync(() -> {
+            try (var timer = Metrics.time(Metrics.Phase.REMOTE_VERSIONS)) {
+                return plugIn.getAllRemoteVersions();
+            }
+        }, WORKERS);
+        remoteVersions = query;
+        //the plugin caches the versions itself: only the running query is shared
+        query.whenComplete((versions, error) -> {
+            synchronized (this){
+                if (remoteVersions == query) remoteVersions = null;
+            }
+        });
+        return query;
+    }
+
+    @Override
+    public Uni<Boolean> isVersionInstallable(String version) {
+        return AsyncPlugIn.offload(() -> plugIn.isVersionInstallable(version));
+    }
+
+    @Override
+    public Uni<Integer> install(String version) {
+        return AsyncPlugIn.offload(() -> plugIn.install(version));
+    }
+
+    @Override
+    public Uni<Integer> uninstall(String version) {
+        return AsyncPlugIn.offload(() -> plugIn.uninstall(version));
+    }
+
+    @Override
+    public Uni<Integer> createShims() {
+        return AsyncPlugIn.offload(plugIn::createShims);
+    }
+
+    @Override
+    public Uni<Integer> deleteShims() {
+        return AsyncPlugIn.offload(plugIn::deleteShims);
+    }
+}
@@ -0,0 +1,104 @@
+package asdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Install on demand: with settings.autoInstall (or QSDF_AUTO_INSTALL=true), a shim or
+ * {@code qsdf exec} finding its version missing installs it, then starts a detached
+ * {@code qsdf install --background} for the other missing versions of the .tool-versions files.
+ * The prefetch starts after the foreground install, so it never holds the lock of the version being run.
+ * One prefetch process runs at a time (pid in config/locks/prefetch.pid, checked and written under
+ * the prefetch lock of {@link FileLocks}), its output goes to
+ * config/logs/prefetch.log.
+ */
+class AutoInstall {
+    public static final String ENV_AUTO_INSTALL = "QSDF_AUTO_INSTALL";
+
+    private AutoInstall(){}
+
+    /**
+     * @return true if missing versions are installed by qsdf exec
+     */
+    static boolean isEnabled(ConfigManager config){
+        var env = System.getenv(ENV_AUTO_INSTALL);
+        if (env != null && !env.isBlank()){
+            return Boolean.parseBoolean(env.trim());
+        }
+        return config.getSettings().isAutoInstall();
+    }
+
+    /**
+     * @return the command line starting this qsdf: the native executable, java -jar &lt;runner&gt; or qsdf
+     */
+    static List<String> selfCommand(){
+        var command = ProcessHandle.current().info().command().orElse(null);
+        if (command != null){
+            var name = new File(command).getName();
+            if (!name.equals("java") && !name.equals("java.exe")){
+                return List.of(command);
+            }
+            var classPath = System.getProperty("java.class.path", "");
+            if (classPath.endsWith(".jar") && !classPath.contains(File.pathSeparator)){
+                return List.of(command, "-jar", new File(classPath).getAbsolutePath());
+            }
+        }
+        return List.of("qsdf");
+    }
+
+    /**
+     * Start a background install of the missing versions, unless there is none or a prefetch runs
+     * @param config the config
+     * @param plugins the plugins
+     * @param except the tool installed in the foreground
+     */
+    static void prefetch(ConfigManager config, Map<String, PlugIn> plugins, String except){
+        var missing = config.resolveToolVersions().getTools().stream()
+                .filter(t -> !t.toolName.equals(except) && plugins.containsKey(t.toolName))
+                .filter(t -> !plugins.get(t.toolName).isInstalled(t.version))
+                .map(t -> t.toolName+" "+t.version)
+                .collect(Collectors.toList());
+        if (missing.isEmpty()){
+            return;
+        }
+        File pidFile = new File(config.getFolder(), FileLocks.LOCK_FOLDER+File.separator+"prefetch.pid");
+        List<String> command = new ArrayList<>(selfCommand());
+        command.add("install");
+        command.add("--background");
+        File log = new File(config.getFolder(), "logs"+File.separator+"prefetch.log");
+        //two shims must not both see no prefetch then both start one
+        try (var lock = FileLocks.prefetch(config.getFolder())) {
+            if (isRunning(pidFile)){
+                Log.verbose("a prefetch is already running");
+                return;
+            }
+            Files.createDirectories(log.getParentFile().toPath());
+            Files.createDirectories(pidFile.getParentFile().toPath());
+            Process process = new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.appendTo(log))
+                    .start();
+            process.getOutputStream().close();
+            Files.writeString(pidFile.toPath(), String.valueOf(process.pid()), StandardCharsets.UTF_8);
+            Log.verbose("prefetch of %s started (pid %d, log %s)", String.join(", ", missing), process.pid(), log);
+        } catch (IOException | UncheckedIOException e){
+            Log.verbose("cannot start the prefetch: %s", e.getMessage());
+        }
+    }
+
+    private static boolean isRunning(File pidFile){
+        try {
+            long pid = Long.parseLong(Files.readString(pidFile.toPath(), StandardCharsets.UTF_8).trim());
+            return ProcessHandle.of(pid).map(ProcessHandle::isAlive).orElse(false);
+        } catch (IOException | NumberFormatException e){
+            return false;
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package asdf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * A portable set of installed versions, to provision an image or an agent without network nor plugin.
+ * A bundle is a tar file:
+ * <pre>
+ * bundle.yml                    the versions, their home and global flag
+ * &lt;tool&gt;/&lt;version&gt;.tar.gz       the installation folder, with its manifest
+ * shims.tar.gz                  the shims folder
+ * </pre>
+ * Installation folders are compressed in parallel on export and extracted in parallel on import;
+ * the imported versions are registered in config.yml by one update.
+ */
+class Bundle {
+    public static final String MANIFEST = "bundle.yml";
+    public static final String SHIMS = "shims.tar.gz";
+    private static final String INSTALLATION_FOLDER = "installation";
+
+    private final ConfigManager config;
+    private final int threads;
+
+    @Data
+    @NoArgsConstructor
+    static class Manifest {
+        private int format = 1;
+        private String createdAt;
+        private List<Entry> versions = new ArrayList<>();
+    }
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class Entry {
+        private String tool;
+        private String version;
+        /** path of the version, relative to its installation folder */
+        private String home;
+        private boolean global;
+
+        String archiveName(){
+            return tool+"/"+version+".tar.gz";
+        }
+    }
+
+    Bundle(ConfigManager config, int threads){
+        this.config = config;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * @return the absolute installation folder of a version, whatever its plugin
+     */
+    private File installationFolder(String tool, String version){
+        return new File(config.getFolder().getAbsoluteFile(), INSTALLATION_FOLDER+File.separator+tool+File.separator+version)
+                .toPath().normalize().toFile();
+    }
+
+    /**
+     * Write the installed versions in a bundle
+     * @param output the bundle file
+     * @param selection name or name@version of the versions to export, all if empty
+     * @return a row (name, version, status) per installed version selected
+     */
+    List<List<String>> export(File output, List<String> selection) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.setCreatedAt(Instant.now().toString());
+        List<List<String>> rows = new ArrayList<>();
+        for (var tool : new TreeMap<>(config.getConf().getTools()).values()){
+            for (var v : tool.getVersions()){
+                if (!isSelected(selection, tool.getName(), v.getVersion())) continue;
+                File folder = installationFolder(tool.getName(), v.getVersion());
+                if (!StagedInstall.isComplete(folder)){
+                    rows.add(List.of(tool.getName(), v.getVersion(), "skipped (incomplete installation)"));
+                    continue;
+                }
+                var home = folder.toPath().relativize(config.resolvePath(v.getPath()).toPath().toAbsolutePath().normalize())
+                        .toString().replace(File.separatorChar, '/');
+                manifest.getVersions().add(new Entry(tool.getName(), v.getVersion(), home,
+                        v.getVersion().equals(tool.getGlobal())));
+                rows.add(List.of(tool.getName(), v.getVersion(), "exported"));
+            }
+        }
+        Path work = Files.createTempDirectory(output.getAbsoluteFile().getParentFile().toPath(), ".bundle");
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            Map<String, Future<Path>> archives = new LinkedHashMap<>();
+            for (Entry entry : manifest.getVersions()){
+                Path archive = work.resolve(entry.getTool()+"-"+entry.getVersion()+".tar.gz");
+                archives.put(entry.archiveName(), executor.submit(() -> {
+                    Archives.createTarGz(installationFolder(entry.getTool(), entry.getVersion()).toPath(), archive);
+                    return archive;
+                }));
+            }
+            File shims = new File(config.getFolder(), "shims");
+            if (shims.isDirectory()){
+                Path archive = work.resolve(SHIMS);
+                archives.put(SHIMS, executor.submit(() -> {
+                    Archives.createTarGz(shims.toPath(), archive);
+                    return archive;
+                }));
+            }
+            Path tmp = work.resolve(output.getName());
+            try (TarArchiveOutputStream tar = new TarArchiveOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                tar.setLongFileMode(TarArchiveOutputStream.LONGFILE_POSIX);
+                tar.setBigNumberMode(TarArchiveOutputStream.BIGNUMBER_POSIX);
+                byte[] yaml = new ObjectMapper(new YAMLFactory()).writeValueAsBytes(manifest);
+                var entry = new TarArchiveEntry(MANIFEST);
+                entry.setSize(yaml.length);
+                tar.putArchiveEntry(entry);
+                tar.write(yaml);
+                tar.closeArchiveEntry();
+                //members written in order as soon as they are compressed
+                for (var archive : archives.entrySet()){
+                    Path file = archive.getValue().get();
+                    entry = new TarArchiveEntry(archive.getKey());
+                    entry.setSize(Files.size(file));
+                    tar.putArchiveEntry(entry);
+                    Files.copy(file, tar);
+                    tar.closeArchiveEntry();
+                    Files.delete(file);
+                }
+                tar.finish();
+            }
+            Files.move(tmp, output.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return rows;
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e){
+            throw e.getCause() instanceof IOException ? (IOException) e.getCause() : new IOException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            StagedInstall.delete(work.toFile());
+        }
+    }
+
+    private static boolean isSelected(List<String> selection, String tool, String version){
+        return selection.isEmpty() || selection.contains(tool) || selection.contains(tool+"@"+version);
+    }
+
+    /**
+     * Install the versions of a bundle: members are extracted while the bundle is read, versions
+     * already installed are kept
+     * @param input the bundle file
+     * @return a row (name, version, status) per version of the bundle
+     */
+    List<List<String>> importFrom(File input) throws IOException {
+        Manifest manifest = null;
+        Map<String, Future<String>> tasks = new LinkedHashMap<>();
+        Files.createDirectories(config.getFolder().toPath());
+        Path work = Files.createTempDirectory(config.getFolder().toPath(), ".bundle");
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            try (TarArchiveInputStream tar = new TarArchiveInputStream(new BufferedInputStream(Files.newInputStream(input.toPath())))) {
+                TarArchiveEntry member;
+                while ((member = tar.getNextTarEntry()) != null){
+                    String name = member.getName();
+                    if (name.equals(MANIFEST)){
+                        manifest = new ObjectMapper(new YAMLFactory()).readValue(tar.readAllBytes(), Manifest.class);
+                        for (Entry entry : manifest.getVersions()){
+                            validate(input, entry);
+                        }
+                        continue;
+                    }
+                    if (manifest == null){
+                        throw new IOException(input+": "+MANIFEST+" expected first");
+                    }
+                    Path archive = work.resolve(tasks.size()+".tar.gz");
+                    Files.copy(tar, archive);
+                    if (name.equals(SHIMS)){
+                        tasks.put(SHIMS, executor.submit(() -> importShims(archive)));
+                        continue;
+                    }
+                    var entry = manifest.getVersions().stream()
+                            .filter(e -> e.archiveName().equals(name)).findFirst();
+                    if (entry.isEmpty()){
+                        Log.verbose("%s: unknown member %s", input, name);
+                        continue;
+                    }
+                    tasks.put(name, executor.submit(() -> importVersion(entry.get(), archive)));
+                }
+            }
+            if (manifest == null){
+                throw new IOException(input+": "+MANIFEST+" not found");
+            }
+            List<List<String>> rows = new ArrayList<>();
+            List<Entry> installed = new ArrayList<>();
+            for (Entry entry : manifest.getVersions()){
+                var task = tasks.get(entry.archiveName());
+                String status;
+                if (task == null){
+                    status = "failed: missing in the bundle";
+                } else {
+                    try {
+                        status = task.get();
+                        installed.add(entry);
+                    } catch (ExecutionException e){
+                        status = "failed: "+e.getCause().getMessage();
+                    }
+                }
+                rows.add(List.of(entry.getTool(), entry.getVersion(), status));
+            }
+            if (tasks.containsKey(SHIMS)){
+                try {
+                    tasks.get(SHIMS).get();
+                } catch (ExecutionException e){
+                    Log.error("shims: %s", e.getCause().getMessage());
+                }
+            }
+            config.update(conf -> installed.forEach(e -> {
+                var tool = ConfigManager.addInstalledVersion(conf, e.getTool(), e.getVersion(),
+                        new File(installationFolder(e.getTool(), e.getVersion()), e.getHome()).toPath().normalize().toFile());
+                if (e.isGlobal() && tool.getGlobal() == null){
+                    tool.setGlobal(e.getVersion());
+                }
+            }));
+            return rows;
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            executor.shutdownNow();
+            StagedInstall.delete(work.toFile());
+        }
+    }
+
+    /**
+     * The tool, version and home of an entry become paths of the config folder: they must stay in
+     * the installation folder of the version
+     */
+    private void validate(File input, Entry entry) throws IOException {
+        if (!StagedInstall.isFileName(entry.getTool()) || !StagedInstall.isFileName(entry.getVersion())){
+            throw new IOException(String.format("%s: invalid tool or version '%s' '%s'", input, entry.getTool(), entry.getVersion()));
+        }
+        Path folder = installationFolder(entry.getTool(), entry.getVersion()).toPath();
+        var home = entry.getHome() == null ? "" : entry.getHome();
+        if (new File(home).isAbsolute() || !folder.resolve(home).normalize().startsWith(folder)){
+            throw new IOException(String.format("%s: home of %s %s outside of its installation: %s", input,
+                    entry.getTool(), entry.getVersion(), home));
+        }
+    }
+
+    private String importVersion(Entry entry, Path archive) throws IOException {
+        File target = installationFolder(entry.getTool(), entry.getVersion());
+        try (var lock = FileLocks.install(config.getFolder(), entry.getTool(), entry.getVersion())) {
+            if (StagedInstall.isComplete(target)){
+                return "already installed";
+            }
+            File staging = StagedInstall.stage(target);
+            try {
+                Archives.extract(archive, staging.toPath(), false);
+                var manifest = StagedInstall.isComplete(staging)
+                        ? InstallManifest.read(staging)
+                        : InstallManifest.of(entry.getTool(), entry.getVersion(), staging);
+                StagedInstall.publish(target, staging, manifest);
+            } catch (IOException | RuntimeException e){
+                StagedInstall.delete(staging);
+                throw e;
+            }
+            return "imported";
+        } finally {
+            Files.deleteIfExists(archive);
+        }
+    }
+
+    private String importShims(Path archive) throws IOException {
+        try {
+            Archives.extract(archive, new File(config.getFolder(), "shims").toPath(), false);
+            return "imported";
+        } finally {
+            Files.deleteIfExists(archive);
+        }
+    }
+}
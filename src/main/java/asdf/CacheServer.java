@@ -0,0 +1,240 @@
+package asdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * HTTP endpoint of {@code qsdf cache serve}: the archives of config/cache/archives are served to the
+ * other qsdf nodes (settings.peers) by their SHA-256:
+ * <pre>
+ * GET|HEAD /sha256/&lt;hex&gt;
+ * </pre>
+ * The server hashes the archives itself (once per file, size and mtime), so it only answers with
+ * content matching the requested checksum. The file is sent with {@link FileChannel#transferTo}
+ * on the socket channel: no copy through the Java heap. One request per connection, whose request
+ * line and headers must arrive within a deadline: a client sending nothing does not hold a thread.
+ */
+class CacheServer implements AutoCloseable {
+    public static final String PATH_PREFIX = "/sha256/";
+    private static final int MAX_HEAD = 8192;
+    private static final long HEAD_TIMEOUT_MS = 10_000;
+
+    private final Path folder;
+    private final ServerSocketChannel server;
+    private final ExecutorService connections;
+    private final Map<String, Path> byHash = new ConcurrentHashMap<>();
+    private final Map<Path, String> stamps = new HashMap<>();
+    private final long headTimeoutMs;
+    private volatile boolean closed;
+
+    /**
+     * @param folder the archive folder
+     * @param address the address to listen on, port 0 for any free port
+     * @param threads the number of connections served at the same time
+     */
+    CacheServer(Path folder, InetSocketAddress address, int threads) throws IOException {
+        this(folder, address, threads, HEAD_TIMEOUT_MS);
+    }
+
+    /**
+     * @param folder the archive folder
+     * @param address the address to listen on, port 0 for any free port
+     * @param threads the number of connections served at the same time
+     * @param headTimeoutMs the time given to a client to send its request line and headers
+     */
+    CacheServer(Path folder, InetSocketAddress address, int threads, long headTimeoutMs) throws IOException {
+        this.folder = folder;
+        this.headTimeoutMs = headTimeoutMs;
+        this.connections = Executors.newFixedThreadPool(Math.max(1, threads));
+        this.server = ServerSocketChannel.open();
+        server.bind(address);
+    }
+
+    /**
+     * @param configFolder the config folder
+     * @return the folder of the downloaded archives
+     */
+    static Path archiveFolder(File configFolder){
+        return configFolder.toPath().resolve(Path.of("cache", "archives"));
+    }
+
+    int getPort() throws IOException {
+        return ((InetSocketAddress) server.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Index the archives and accept connections in a background thread
+     */
+    void start(){
+        refresh();
+        Thread acceptor = new Thread(this::accept, "qsdf-cache-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        server.close();
+        connections.shutdownNow();
+    }
+
+    private void accept(){
+        while (!closed){
+            try {
+                SocketChannel channel = server.accept();
+                connections.submit(() -> serve(channel));
+            } catch (IOException e){
+                if (!closed) Log.error("cache server: %s", e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Hash the archives added or changed since the last refresh
+     */
+    synchronized void refresh(){
+        List<Path> files;
+        try (Stream<Path> list = Files.list(folder)) {
+            files = list.filter(Files::isRegularFile)
+                    .filter(p -> !p.getFileName().toString().startsWith(".") && !p.getFileName().toString().endsWith(".part"))
+                    .collect(Collectors.toList());
+        } catch (IOException e){
+            Log.verbose("cache server: %s", e.getMessage());
+            return;
+        }
+        stamps.keySet().retainAll(files);
+        byHash.values().retainAll(files);
+        for (Path file : files){
+            try {
+                var stamp = stamp(file);
+                if (stamp.equals(stamps.get(file))) continue;
+                byHash.values().remove(file);
+                byHash.put(InstallManifest.sha256(file), file);
+                stamps.put(file, stamp);
+            } catch (IOException e){
+                Log.verbose("cache server: %s", e.getMessage());
+            }
+        }
+        Log.debug("cache server: %d archives", byHash.size());
+    }
+
+    private static String stamp(Path file) throws IOException {
+        return Files.size(file)+"/"+Files.getLastModifiedTime(file).toMillis();
+    }
+
+    /**
+     * @return the archive with this hash, unchanged since it was hashed
+     */
+    private Path lookup(String sha256) throws IOException {
+        Path file = byHash.get(sha256);
+        synchronized (this){
+            if (file == null || !Files.isRegularFile(file) || !stamp(file).equals(stamps.get(file))){
+                refresh();
+                file = byHash.get(sha256);
+            }
+        }
+        return file;
+    }
+
+    private void serve(SocketChannel channel){
+        try (channel) {
+            var head = readHead(channel);
+            if (head == null) return;
+            var requestLine = head.split("\r\n", 2)[0].split(" ");
+            if (requestLine.length < 2){
+                respond(channel, 400, "Bad Request", null);
+                return;
+            }
+            var method = requestLine[0];
+            var path = requestLine[1];
+            if (!method.equals("GET") && !method.equals("HEAD")){
+                respond(channel, 405, "Method Not Allowed", null);
+                return;
+            }
+            var sha256 = path.startsWith(PATH_PREFIX) ? path.substring(PATH_PREFIX.length()).toLowerCase() : "";
+            Path file = sha256.matches("[0-9a-f]{64}") ? lookup(sha256) : null;
+            if (file == null){
+                respond(channel, 404, "Not Found", null);
+                return;
+            }
+            try (FileChannel content = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = content.size();
+                respond(channel, 200, "OK", Map.of(
+                        "Content-Length", String.valueOf(size),
+                        "Content-Type", "application/octet-stream",
+                        "X-Checksum-Sha256", sha256));
+                if (method.equals("GET")){
+                    long sent = 0;
+                    while (sent < size){
+                        sent += content.transferTo(sent, size-sent, channel);
+                    }
+                    Log.verbose("cache server: %s sent to %s", file.getFileName(), channel.getRemoteAddress());
+                }
+            }
+        } catch (IOException e){
+            Log.verbose("cache server: %s", e.getMessage());
+        }
+    }
+
+    /**
+     * Read the head through the socket stream: unlike the channel, it honors a read timeout
+     * @return the request line and headers, null if the connection was closed before
+     * @throws SocketTimeoutException if the head is not complete within the deadline
+     */
+    private String readHead(SocketChannel channel) throws IOException {
+        long deadline = System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(headTimeoutMs);
+        Socket socket = channel.socket();
+        InputStream in = socket.getInputStream();
+        byte[] buffer = new byte[MAX_HEAD];
+        int length = 0;
+        while (length < buffer.length){
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline-System.nanoTime());
+            if (remaining <= 0){
+                throw new SocketTimeoutException(String.format("no request from %s within %d ms", socket.getRemoteSocketAddress(), headTimeoutMs));
+            }
+            socket.setSoTimeout((int) Math.min(Integer.MAX_VALUE, remaining));
+            int read = in.read(buffer, length, buffer.length-length);
+            if (read < 0) return null;
+            length += read;
+            var head = new String(buffer, 0, length, StandardCharsets.ISO_8859_1);
+            int end = head.indexOf("\r\n\r\n");
+            if (end >= 0) return head.substring(0, end);
+        }
+        return null;
+    }
+
+    private static void respond(SocketChannel channel, int status, String reason, Map<String, String> headers) throws IOException {
+        StringBuilder sb = new StringBuilder("HTTP/1.1 ").append(status).append(' ').append(reason).append("\r\n");
+        if (headers == null){
+            headers = Map.of("Content-Length", "0");
+        }
+        headers.forEach((k, v) -> sb.append(k).append(": ").append(v).append("\r\n"));
+        sb.append("Connection: close\r\n\r\n");
+        ByteBuffer bytes = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+        while (bytes.hasRemaining()){
+            channel.write(bytes);
+        }
+    }
+}
@@ -3,6 +3,8 @@ package asdf;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import io.quarkus.picocli.runtime.PicocliCommandLineFactory;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.Uni;
 import io.quarkus.picocli.runtime.annotations.TopCommand;
 import lombok.*;
 import org.eclipse.microprofile.config.ConfigProvider;
@@ -22,13 +24,24 @@ import picocli.CommandLine.Model.UsageMessageSpec;
 import static picocli.CommandLine.Model.UsageMessageSpec.SECTION_KEY_COMMAND_LIST;
 
 import javax.enterprise.context.ApplicationScoped;
-import javax.enterprise.inject.Instance;
 import javax.enterprise.inject.Produces;
+import javax.enterprise.inject.spi.Bean;
+import javax.enterprise.inject.spi.BeanManager;
 import javax.inject.Inject;
 import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -135,15 +148,26 @@ class CliCommandConfiguration {
 
 class Log {
     private static boolean[] verbose = {};
+    private static volatile PrintStream output = System.out;
     private Log(){};
 
     public static void setVerbosity(boolean[] verbose) {
         Log.verbose = verbose;
     }
 
+    /**
+     * @param output the stream of the logs, System.out by default
+     */
+    public static void setOutput(PrintStream output) {
+        Log.output = output;
+    }
+
     private static void log(int level, String format, Object ...args){
         if (verbose.length>=level) {
-            System.out.printf(format+"\n", args);
+            synchronized (Log.class){
+                ProgressRenderer.clear();
+                output.printf(format+"\n", args);
+            }
         }
     }
     public static void error(String format, Object ...args){
@@ -353,19 +377,40 @@ abstract class Cmd implements Runnable {
     @Option(names = { "--proxy-port"}, description = "port proxy to use")
     private int proxyPort;
 
+    @Option(names = { "--timings"}, description = "print the duration of the phases and the counters of the command")
+    private boolean timings;
+
+    @Option(names = { "--trace"}, paramLabel = "<file>", description = "write the spans of the command to a Chrome trace file (chrome://tracing, ui.perfetto.dev), shared with the qsdf commands running at the same time")
+    private File trace;
+
+    @Option(names = { "--json-events"}, description = "write the events of the jobs as JSON lines (queued, started, downloaded, extracted, done, failed)")
+    private boolean jsonEvents;
+
 
     @Inject
-    Instance<PlugIn> plugIns;
+    BeanManager beanManager;
 
     @Spec
     CommandSpec spec;
 
+    /** external plugins of the index, read once per command */
+    private Map<String, PlugIn> externalPlugIns;
+
     /**
-     * @return a Map of registered plugins
+     * @return a Map of registered plugins: the external ones are not loaded, the built-in ones are
+     * client proxies named by their bean name, created on their first call. A built-in plugin hides
+     * an external one of the same name.
      */
     public Map<String, PlugIn> getPlugins(){
-        Map<String,PlugIn> mapPlugins = new TreeMap<>();
-        plugIns.forEach(pi -> mapPlugins.put(pi.getName(), pi));
+        if (externalPlugIns == null){
+            externalPlugIns = ExternalPlugIns.plugIns(ConfigManager.intance);
+        }
+        Map<String,PlugIn> mapPlugins = new TreeMap<>(externalPlugIns);
+        for (Bean<?> bean : beanManager.getBeans(PlugIn.class)){
+            var plugIn = (PlugIn) beanManager.getReference(bean, PlugIn.class, beanManager.createCreationalContext(bean));
+            //a plugin without @Named is created for its name
+            mapPlugins.put(bean.getName() != null ? bean.getName() : plugIn.getName(), plugIn);
+        }
         return mapPlugins;
     }
 
@@ -385,17 +430,77 @@ abstract class Cmd implements Runnable {
     }
 
 
+    /**
+     * Print a table in one batch, columns are sized on their content
+     * @param headers the headers
+     * @param rows the rows
+     */
+    public void printTable(List<String> headers, List<List<String>> rows){
+        List<Log.SubLog.TableLog.Head> heads = new ArrayList<>();
+        for (int i=0;i<headers.size();i++){
+            final int col = i;
+            int size = Stream.concat(Stream.of(headers.get(i)), rows.stream().map(r -> r.get(col)))
+                    .mapToInt(String::length).max().orElse(0)+1;
+            heads.add(new Log.SubLog.TableLog.Head().setMsg(headers.get(i)).setSize(size));
+        }
+        var header = Log.START().TABLE().HEADER().ADD(heads);
+        if (rows.isEmpty()){
+            header.ROW().TABLE_END().END().info();
+            return;
+        }
+        Log.SubLog.TableLog.TableLogBody body = null;
+        for (List<String> row : rows){
+            var cells = row.toArray(new String[0]);
+            body = (body==null) ? header.ROW(cells) : body.ROW(cells);
+        }
+        body.TABLE_END().END().info();
+    }
+
     @Override
     public void run() {
         Log.setVerbosity(verbose);
+        if (proxyHost != null){
+            Downloader.setProxy(proxyHost, proxyPort);
+        }
         if (help){
             showHelp();
             System.exit(0);
         }
+        try {
+            ConfigManager.load();
+        } catch (IOException e){
+            //config.yml of the config folder cannot be read
+            Log.error(e.getMessage());
+            System.exit(1);
+        }
+        if (trace != null){
+            Trace.start();
+        }
+        if (jsonEvents){
+            JobEvents.writeJson(System.out);
+        } else if (showProgress()){
+            ProgressRenderer.start();
+        }
         var exitCode = runner();
+        JobEvents.complete();
+        if (trace != null){
+            Trace.write(trace.toPath(), "qsdf "+getClass().getAnnotation(Command.class).name());
+        }
+        if (timings){
+            printTable(List.of("phase", "count", "total ms", "p50 ms", "p95 ms", "p99 ms", "max ms"), Metrics.phaseRows());
+            printTable(List.of("counter", "value"), Metrics.counterRows());
+        }
+        Metrics.textfile(ConfigManager.intance).ifPresent(Metrics::addTo);
         System.exit(exitCode);
     }
 
+    /**
+     * @return true to draw the progress bars of the jobs in a terminal
+     */
+    boolean showProgress(){
+        return false;
+    }
+
     abstract int runner();
 }
 
@@ -408,7 +513,19 @@ abstract class Cmd implements Runnable {
         subcommands = {
                 CmdPlugin.class,
                 CmdInstall.class,
-                CmdUninstall.class
+                CmdUninstall.class,
+                CmdCurrent.class,
+                CmdWhere.class,
+                CmdWhich.class,
+                CmdExec.class,
+                CmdLocal.class,
+                CmdShell.class,
+                CmdEnv.class,
+                CmdDoctor.class,
+                CmdServe.class,
+                CmdCache.class,
+                CmdMirror.class,
+                CmdBundle.class
         },
         exitCodeListHeading = "Exit Codes:%n",
         exitCodeList = {
@@ -484,17 +601,30 @@ class CmdPlugin extends Cmd {
         @Parameters(description = "name of the tool")
         private String name = null;
 
-        @Option(names = {"--url"})
+        @Option(names = {"--url"}, description = "path or URL of the jar of the plugin")
         private String url = null;
 
         @Override
         public int runner() {
             Log.info("configure Plugin for %s", name);
-            if (url != null) {
-                Log.verbose("url: %s", url);
+            if (url == null) {
+                Log.info("No plugin repository: use --url <jar> to add the plugin from its jar");
+                return 1;
+            }
+            Log.verbose("url: %s", url);
+            var plugIn = getPlugins().get(name);
+            if (plugIn != null && !(plugIn instanceof ExternalPlugIn)) {
+                Log.info("The plugin %s is built in qsdf", name);
+                return 1;
+            }
+            try {
+                var entry = ExternalPlugIns.add(ConfigManager.intance, name, url);
+                Log.info("Plugin %s added: %s from %s", name, entry.getClassName(), entry.getJar());
+                return 0;
+            } catch (IOException e) {
+                Log.error(e.getMessage());
+                return 1;
             }
-            //TODO (Plugin) To be implemented
-            return 0;
         }
     }
 
@@ -513,9 +643,16 @@ class CmdPlugin extends Cmd {
 
         @Override
         public int runner() {
-            Log.info("Plugin 1");
-            Log.info("Plugin 2");
-            //TODO (Plugin) To be implemented
+            List<List<String>> rows = new ArrayList<>();
+            getPlugins().forEach((name, plugIn) -> {
+                if (plugIn instanceof ExternalPlugIn) {
+                    var entry = ((ExternalPlugIn) plugIn).getEntry();
+                    rows.add(List.of(name, entry.getJar(), entry.getClassName(), String.join(",", entry.getCapabilities())));
+                } else {
+                    rows.add(List.of(name, "built-in", "", ""));
+                }
+            });
+            printTable(List.of("plugin", "jar", "class", "capabilities"), rows);
             return 0;
         }
     }
@@ -546,8 +683,27 @@ class CmdPlugin extends Cmd {
         @Override
         public int runner() {
             Log.info("remove Plugin for %s", name);
-            //TODO (Plugin) To be implemented
-            return 0;
+            var config = ConfigManager.intance;
+            var plugIn = getPlugins().get(name);
+            if (!(plugIn instanceof ExternalPlugIn)) {
+                Log.info(plugIn == null ? "The plugin %s is not installed" : "The plugin %s is built in qsdf", name);
+                return 1;
+            }
+            //the versions are uninstalled by the plugin before it is removed
+            var jobs = new Jobs().addJob(Action.UNINSTALL, config.getAllInstalledVersion(name));
+            int returnedCode = jobs.doJob(Map.of(name, plugIn), config).getReturnedCode();
+            if (returnedCode != 0) {
+                Log.info("Some versions of %s are still installed: the plugin is kept", name);
+                return returnedCode;
+            }
+            try {
+                ExternalPlugIns.remove(config, name);
+                Log.info("Plugin %s removed", name);
+                return 0;
+            } catch (IOException e) {
+                Log.error(e.getMessage());
+                return 1;
+            }
         }
     }
 
@@ -593,7 +749,8 @@ class CmdPlugin extends Cmd {
         "<@@@USAGE@@@>qsdf install<@@@DESC@@@>Install all the package versions listed in the .tool-versions file" +
         "<@@@USAGE@@@>qsdf install <name><@@@DESC@@@>Install one tool at the version specified in the .tool-versions file" +
         "<@@@USAGE@@@>qsdf install <name> <version><@@@DESC@@@>Install a specific version of a package" +
-        "<@@@USAGE@@@>qsdf install <name> latest[:<version>]<@@@DESC@@@>Install the latest stable version of a package, or with optional version, install the latest stable version that begins with the given string"
+        "<@@@USAGE@@@>qsdf install <name> latest[:<version>]<@@@DESC@@@>Install the latest stable version of a package, or with optional version, install the latest stable version that begins with the given string" +
+        "<@@@USAGE@@@>qsdf install --recursive <root><@@@DESC@@@>Install the package versions of every .tool-versions file under the root folder"
 )
 class CmdInstall extends Cmd {
 
@@ -603,9 +760,29 @@ class CmdInstall extends Cmd {
     @Parameters(arity="0..1", description= "version of the package")
     private String version=null;
 
+    @Option(names = {"-r", "--recursive"}, description = "root folder of the .tool-versions files to install")
+    private File recursive=null;
+
+    @Option(names = {"--threads"}, description = "number of packages installed in parallel with --recursive")
+    private int threads=4;
+
+    @Option(names = {"--background"}, hidden = true, description = "low priority install (prefetch)")
+    private boolean background=false;
+
+    @Override
+    boolean showProgress() {
+        return true;
+    }
+
     @Override
     public int runner() {
+        if (background){
+            Scheduler.setPriority(Scheduler.Priority.BACKGROUND);
+        }
         var plugins = getPlugins();
+        if (recursive != null){
+            return installRecursive(plugins);
+        }
         if (name !=null){
             if (!plugins.containsKey(name)){
                 Log.info("No plugin found for %s\n==> Please install corresponding plugin first.", name);
@@ -644,6 +821,52 @@ class CmdInstall extends Cmd {
         return jobs;
     }
 
+    /**
+     * Install the union of the versions of the .tool-versions files of a workspace: one parallel
+     * batch, one config write
+     */
+    private int installRecursive(Map<String, PlugIn> plugins){
+        var config = ConfigManager.intance;
+        Map<File, List<Tool>> files;
+        try {
+            files = Workspace.scan(recursive, config, threads);
+        } catch (IOException e){
+            Log.error(e.getMessage());
+            return 1;
+        }
+        Log.verbose("%d %s files found in %s", files.size(), ToolVersions.FILE_NAME, recursive);
+        //the latest versions of all the files are resolved at the same time
+        Map<String, CompletableFuture<String>> latest = new HashMap<>();
+        files.values().forEach(tools -> tools.stream()
+                .filter(t -> plugins.containsKey(t.toolName) && t.version.startsWith("latest"))
+                .forEach(t -> latest.computeIfAbsent(t.toolName+" "+t.version,
+                        k -> AsyncPlugIn.of(plugins.get(t.toolName)).resolveVersion(t.version).subscribeAsCompletionStage())));
+        Map<String, String> resolved = new HashMap<>();
+        try {
+            for (var entry : latest.entrySet()){
+                resolved.put(entry.getKey(), entry.getValue().join());
+            }
+        } catch (CompletionException e){
+            Log.error(e.getCause().getMessage());
+            return 1;
+        }
+        Map<Tool, Set<String>> modules = new TreeMap<>();
+        files.forEach((file, tools) -> tools.forEach(t -> {
+            var v = resolved.getOrDefault(t.toolName+" "+t.version, t.version);
+            var module = recursive.toPath().toAbsolutePath().normalize()
+                    .relativize(file.getAbsoluteFile().getParentFile().toPath()).toString();
+            modules.computeIfAbsent(new Tool(t.toolName, v), k -> new TreeSet<>()).add(module.isEmpty() ? "." : module);
+        }));
+        var jobs = new Jobs();
+        jobs.addJob(Action.INSTALL, new ArrayList<>(modules.keySet()));
+        config.batch(() -> jobs.doJob(plugins, config, threads));
+        printTable(List.of("name", "version", "status", "modules"), jobs.stream()
+                .map(j -> List.of(j.getTool().toolName, j.getTool().version, j.getReturnedCode()==0 ? "ok" : "failed",
+                        String.join(", ", modules.get(j.getTool()))))
+                .collect(Collectors.toList()));
+        return jobs.getReturnedCode();
+    }
+
     private Job installOnePackage(Map<String, PlugIn> plugIns, String name){
         Log.debug("Install package %s", name);
         var tools = ConfigManager.intance.getToolsFromFile();
@@ -668,8 +891,19 @@ class CmdInstall extends Cmd {
     private Job installPackageLatestVersion(Map<String, PlugIn> plugIns, PlugIn plugin, String name, String version){
         Log.debug("Install package %s latest version %s", name, version);
         Job job = new Job(Action.INSTALL, name, version);
-        var v = plugin.getLastVersionStartingWith(version);
-        job.getTool().version=v;
+        if (plugin == null){
+            job.addMessage("No plugin found for %s", name); //logged by the caller
+            job.setReturnedCode(1);
+            return job;
+        }
+        try {
+            job.getTool().version = AsyncPlugIn.of(plugin).resolveVersion(version).await().indefinitely();
+        } catch (RuntimeException e){
+            //no remote version matches, or the remote versions cannot be read
+            Log.info(job.addMessage("%s", e.getMessage()));
+            job.setReturnedCode(1);
+            return job;
+        }
         job.doJob(plugIns, ConfigManager.intance);
         return job;
     }
@@ -695,6 +929,11 @@ class CmdUninstall extends Cmd {
     @Option(names = {"-f","--force"}, description={"force uninstall package"})
     private boolean force=false;
 
+    @Override
+    boolean showProgress() {
+        return true;
+    }
+
     @Override
     public int runner() {
         var plugins = getPlugins();
@@ -724,185 +963,1208 @@ class CmdUninstall extends Cmd {
             var p = plugins.get(name);
             var versions = ConfigManager.intance.getAllInstalledVersion(p.getName());
             jobs.addJob(Action.UNINSTALL, versions);
-            jobs.stream().forEach(j -> {
-                p.uninstall(j.getTool().version);
-            });
+            jobs.doJob(plugins, ConfigManager.intance);
             return jobs.getReturnedCode();
         } else {
-            var p = plugins.get(name);
             Job job = new Job(Action.UNINSTALL, name, version);
-            job.setReturnedCode(p.uninstall(job.getTool().version));
+            job.doJob(plugins, ConfigManager.intance);
             return job.getReturnedCode();
-
         }
     }
 }
 
 
-/**
- * This interface configuration force controle of yaml file and mandatory configurations needed
- */
-interface Config {
-
-    //    @ConfigMapping(prefix = "greeting")
-    interface GreetingConfig {
+@Command(
+        name="current",
+        description="Display current version set or being used for package"+
+                "<@@@USAGE@@@>qsdf current<@@@DESC@@@>Display current version set or being used for all packages" +
+                "<@@@USAGE@@@>qsdf current <name><@@@DESC@@@>Display current version set or being used for package"
+)
+class CmdCurrent extends Cmd {
 
-        //        @WithName("message")
-        String message();
+    @Parameters(arity="0..1", description= "name of the package")
+    private String name=null;
 
+    @Override
+    public int runner() {
+        var plugins = getPlugins();
+        var toolVersions = ConfigManager.intance.resolveToolVersions();
+        Set<String> names = new TreeSet<>();
+        if (name != null){
+            names.add(name);
+        } else {
+            names.addAll(plugins.keySet());
+            toolVersions.getTools().forEach(t -> names.add(t.toolName));
+        }
+        Jobs jobs = new Jobs();
+        Map<String, Job> jobByName = new HashMap<>();
+        names.forEach(n -> toolVersions.getTool(n).ifPresent(t -> {
+            Job job = new Job(Action.CURRENT, t);
+            jobs.addJob(job);
+            jobByName.put(n, job);
+        }));
+        jobs.doJob(plugins, ConfigManager.intance);
+        List<List<String>> rows = new ArrayList<>();
+        names.forEach(n -> {
+            Job job = jobByName.get(n);
+            if (job == null){
+                rows.add(List.of(n, "______", "No version set", ""));
+            } else {
+                var status = job.getReturnedCode()==0 ? "" : String.join(" ", job.getMessages()).replace("\n", " ");
+                rows.add(List.of(n, job.getTool().version, toolVersions.getSource(n), status));
+            }
+        });
+        printTable(List.of("name", "version", "source", "status"), rows);
+        if (name != null && jobByName.isEmpty()){
+            return 1;
+        }
+        return jobs.getReturnedCode();
     }
 }
-@Data
-@NoArgsConstructor
-class DataConfig {
-    private Map<String, DataTool> tools = new HashMap<>();
 
-    @Data
-    @NoArgsConstructor
-    static class DataTool {
-        private String name;
-        private String global;
-        private Set<Version> versions = new LinkedHashSet<>();
+/**
+ * Build a job on the version given or resolved from .tool-versions files
+ */
+abstract class CmdResolved extends Cmd {
 
-        @Data
-        @NoArgsConstructor
-        @AllArgsConstructor
-        static class Version {
-            private String version;
-            private String path;
+    Job resolvedJob(Action action, String name, String version){
+        if (version != null){
+            return new Job(action, name, version);
+        }
+        var tool = ConfigManager.intance.resolveToolVersions().getTool(name);
+        if (tool.isEmpty()){
+            Job job = new Job(action, name, "???");
+            Log.info(job.addMessage("No version set for %s", name));
+            job.setReturnedCode(1);
+            return job;
+        }
+        return new Job(action, tool.get());
+    }
+
+    int printResult(Job job){
+        if (job.getReturnedCode()==0){
+            Log.info("%s", job.getResult());
         }
+        return job.getReturnedCode();
     }
 }
-class ConfigManager{
 
-    public static ConfigManager intance = new ConfigManager();
-    @Getter
-    private final File folder = new File("./config");
-    private final File confFile = new File("./config/config.yml");
-    @Getter
-    @Setter
-    private DataConfig conf;
+@Command(
+        name="where",
+        description="Display install path of a package"+
+                "<@@@USAGE@@@>qsdf where <name><@@@DESC@@@>Display install path for the current version" +
+                "<@@@USAGE@@@>qsdf where <name> <version><@@@DESC@@@>Display install path for an installed version"
+)
+class CmdWhere extends CmdResolved {
 
-    public ConfigManager(){
-        conf = read();
-    }
+    @Parameters(arity="1", description= "name of the package")
+    private String name=null;
 
-    private DataConfig read () {
-        ObjectMapper om = new ObjectMapper(new YAMLFactory());
-        try {
-            DataConfig conf = om.readValue(confFile, DataConfig.class);
-            Log.debug("conf: %s", conf);
-            return conf;
-        } catch (Exception e ) {
-            Log.error(e.getMessage());
-            return null;
+    @Parameters(arity="0..1", description= "version of the package")
+    private String version=null;
+
+    @Override
+    public int runner() {
+        Job job = resolvedJob(Action.WHERE, name, version);
+        if (job.getReturnedCode() > 0){
+            return job.getReturnedCode();
         }
+        return printResult(job.doJob(getPlugins(), ConfigManager.intance));
     }
+}
 
-    /**
-     * Sauvegarde la configuration dans un fichier yaml
-     */
-    public void save(){
-        ObjectMapper om = new ObjectMapper(new YAMLFactory());
-        try {
-            Log.debug("writing conf file");
-            var file = new File("./config/config.yml");
-            file.getParentFile().mkdirs();
-            om.writeValue(file, conf);
-        } catch (Exception e){
-            Log.error(e.getMessage());
+@Command(
+        name="which",
+        description="Display the path to an executable"+
+                "<@@@USAGE@@@>qsdf which <command><@@@DESC@@@>Display the path to the executable of the current version"
+)
+class CmdWhich extends CmdResolved {
+
+    @Parameters(arity="1", description= "name of the command")
+    private String command=null;
+
+    @Override
+    public int runner() {
+        Job job = resolvedJob(Action.WHICH, command, null);
+        if (job.getReturnedCode() > 0){
+            return job.getReturnedCode();
         }
+        return printResult(job.doJob(getPlugins(), ConfigManager.intance));
     }
+}
 
-    /**
-     * Return a sorted List of all PackageVersion from .tool-versions file
-     * @return
-     */
-    public List<Tool> getToolsFromFile(){
-        List<Tool> tools = new ArrayList<>();
-        File file = new File(System.getProperty("user.dir"));
-        Log.debug("scanning tree");
-        while (!isFileContainToolVersions(file) && file==null){
-            Log.debug("|--> %s (%s)", file, file.getParentFile());
-            file = file.getParentFile();
+@Command(
+        name="exec",
+        description="Run a command of the current version of a package"+
+                "<@@@USAGE@@@>qsdf exec <command> [<args>...]<@@@DESC@@@>Run the command of the package of the same name" +
+                "<@@@USAGE@@@>qsdf exec --tool <name> -- <command> [<args>...]<@@@DESC@@@>Run a command of a package (used by the shims)" +
+                "<@@@USAGE@@@>settings.autoInstall: true<@@@DESC@@@>Install a missing version on demand and the other missing versions in background (or QSDF_AUTO_INSTALL=true)"
+)
+class CmdExec extends CmdResolved {
+
+    @Option(names = {"--tool"}, description = "name of the package, the command by default")
+    private String tool=null;
+
+    @Parameters(index = "0", description = "name of the command")
+    private String command=null;
+
+    @Parameters(index = "1..*", arity = "0..*", description = "arguments of the command")
+    private List<String> args = new ArrayList<>();
+
+    @Override
+    public int runner() {
+        //the output of qsdf exec is the one of the command: the logs (install on demand) go to stderr
+        Log.setOutput(System.err);
+        var name = tool != null ? tool : command;
+        Job job = resolvedJob(Action.EXEC, name, null);
+        if (job.getReturnedCode() > 0){
+            return job.getReturnedCode();
         }
-        if (isFileContainToolVersions(file)){
-            File toolVersions = new File(file.toString()+File.separator+".tool-versions");
-            try {
-                InputStream is = new FileInputStream(toolVersions);
-                tools = readFromInputStream(is);
-            } catch(Exception e){
-                Log.error(e.getMessage());
-            }
+        var config = ConfigManager.intance;
+        var plugins = getPlugins();
+        var plugIn = plugins.get(name);
+        var prefetch = plugIn != null && !plugIn.isInstalled(job.getTool().version) && AutoInstall.isEnabled(config);
+        if (job.doJob(plugins, config).getReturnedCode() != 0){
+            return job.getReturnedCode();
         }
-        Log.debug("tools found in .tool-versions: %s", tools.size());
-        return tools;
-    }
-    private boolean isFileContainToolVersions(File file){
-        var res = !Arrays.stream(file.list()).noneMatch(s->".tool-versions".equals(s));
-        Log.debug("test: %s", res);
-        return res;
-    }
-    private List<Tool> readFromInputStream(InputStream inputStream) throws IOException {
-        List<Tool> tools = new ArrayList<>();
-        try (BufferedReader br
-                     = new BufferedReader(new InputStreamReader(inputStream))) {
-            String line;
-            while ((line = br.readLine()) != null) {
-                if (!"".equals(line.trim())){
-                    var infos = line.split(" ");
-                    var tool = new Tool(infos[0], infos[1]);
-                    tools.add(tool);
-                }
+        if (prefetch){
+            //started once the version is installed: the background install does not wait for its lock
+            AutoInstall.prefetch(config, plugins, name);
+        }
+        File bin = new File(job.getResult(), "bin");
+        File executable = null;
+        for (String ext : List.of("", ".exe", ".cmd", ".bat")){
+            File f = new File(bin, command+ext);
+            if (f.isFile()){
+                executable = f;
+                break;
             }
         }
-        return tools;
+        if (executable == null){
+            Log.error("No command %s in %s", command, bin);
+            return 1;
+        }
+        List<String> commandLine = new ArrayList<>();
+        commandLine.add(executable.toString());
+        commandLine.addAll(args);
+        ProcessBuilder builder = new ProcessBuilder(commandLine).inheritIO();
+        builder.environment().put(plugIn.getHomeVariable(), job.getResult());
+        builder.environment().merge("PATH", bin.toString(), (path, b) -> b+File.pathSeparator+path);
+        try {
+            return builder.start().waitFor();
+        } catch (IOException e){
+            Log.error(e.getMessage());
+            return 1;
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return 1;
+        }
     }
+}
 
+@Command(
+        name="local",
+        description="Set the package local version"+
+                "<@@@USAGE@@@>qsdf local <name> <version><@@@DESC@@@>Set the version in the .tool-versions file of the current directory" +
+                "<@@@USAGE@@@>qsdf local <name> latest[:<version>]<@@@DESC@@@>Set the latest stable version, or the latest beginning with the given string"
+)
+class CmdLocal extends Cmd {
 
-    /**
-     * Return a list of all version installed for the provided package name
-     * @param toolName
-     * @return
-     */
-    public List<Tool> getAllInstalledVersion(String toolName){
-        var result = conf.getTools().values().stream().map(dt -> dt.getVersions().stream().map(v->new Tool(dt.getName(), v.getVersion())))
-                .flatMap(Stream::sorted)
-                .sorted()
-                .collect(Collectors.toList());
-        return result;
-    }
+    @Parameters(arity="1", description= "name of the package")
+    private String name=null;
 
-    /**
-     * This methode check in the yaml file for informations about package and installed versions.
-     * If version is found in the yaml file, folder is checked for existenz
-     * @param toolName
-     * @param version
-     * @return
-     */
-    public boolean isInstalled(String toolName, String version) {
-        if (!conf.getTools().containsKey(toolName)){
-            return false;
-        }
-        var tool = conf.getTools().get(toolName);
-        if (!tool.getVersions().stream().noneMatch(v -> v.getVersion().equals(version))){
-            return true;
-        }
-        return false;
+    @Parameters(arity="1", description= "version of the package")
+    private String version=null;
+
+    @Override
+    public int runner() {
+        Job job = new Job(Action.LOCAL, name, version);
+        return job.doJob(getPlugins(), ConfigManager.intance).getReturnedCode();
     }
+}
 
-    /**
-     * This methode update the yaml file containing installed resources ref in adding version
-     * @param toolName
-     * @param version
-     * @param path
-     */
+@Command(
+        name="shell",
+        description="Set the package version for the current shell session"+
+                "<@@@USAGE@@@>eval \"$(qsdf shell <name> <version>)\"<@@@DESC@@@>Set QSDF_<NAME>_VERSION in the current shell session"
+)
+class CmdShell extends Cmd {
+
+    @Parameters(arity="1", description= "name of the package")
+    private String name=null;
+
+    @Parameters(arity="1", description= "version of the package")
+    private String version=null;
+
+    @Override
+    public int runner() {
+        Job job = new Job(Action.SHELL, name, version);
+        job.doJob(getPlugins(), ConfigManager.intance);
+        if (job.getReturnedCode()==0){
+            Log.info("%s", job.getResult());
+        }
+        return job.getReturnedCode();
+    }
+}
+
+
+@Command(
+        name="env",
+        description="Display the environment of the current versions"+
+                "<@@@USAGE@@@>eval \"$(qsdf env --hook bash|zsh)\"<@@@DESC@@@>Load the environment on each directory change (in .bashrc or .zshrc)" +
+                "<@@@USAGE@@@>eval \"$(qsdf env)\"<@@@DESC@@@>Load the environment of the current directory once"
+)
+class CmdEnv extends Cmd {
+
+    @Option(names = {"--hook"}, description = "print the hook for the shell (bash or zsh)")
+    private String hook=null;
+
+    @Option(names = {"--output"}, description = "write the script sourced by the hook in this cache file")
+    private File output=null;
+
+    @Override
+    public int runner() {
+        var config = ConfigManager.intance;
+        try {
+            if (hook != null){
+                var script = ShellEnvironment.hook(hook, config.getFolder());
+                if (script.isEmpty()){
+                    Log.info("Unsupported shell %s", hook);
+                    return 1;
+                }
+                System.out.print(script.get());
+                return 0;
+            }
+            var plugins = getPlugins();
+            Jobs jobs = new Jobs();
+            jobs.addJob(Action.ENV, config.resolveToolVersions().getTools());
+            jobs.doJob(plugins, config);
+            ShellEnvironment env = new ShellEnvironment();
+            jobs.stream().filter(j -> j.getReturnedCode()==0)
+                    .forEach(j -> env.add(plugins.get(j.getTool().toolName), new File(j.getResult())));
+            if (output != null){
+                env.write(output);
+                File cache = ShellEnvironment.cacheFolder(config.getFolder());
+                if (cache.toPath().toAbsolutePath().normalize().equals(output.toPath().toAbsolutePath().normalize().getParent())){
+                    ShellEnvironment.prune(cache, ShellEnvironment.CACHE_MAX_ENTRIES, ShellEnvironment.CACHE_MAX_AGE);
+                }
+            } else {
+                System.out.print(env.toExports());
+            }
+            return 0;
+        } catch (IOException e){
+            Log.error(e.getMessage());
+            return 1;
+        }
+    }
+}
+
+@Command(
+        name="doctor",
+        description="Check installed packages"+
+                "<@@@USAGE@@@>qsdf doctor --verify [<name> [<version>]]<@@@DESC@@@>Check installed files against the manifest of each installation (size, mode, mtime, hash of changed files)" +
+                "<@@@USAGE@@@>qsdf doctor --verify --full<@@@DESC@@@>Hash every installed file" +
+                "<@@@USAGE@@@>qsdf doctor --dedup<@@@DESC@@@>Show the deduplication of installed files (dedup setting)"
+)
+class CmdDoctor extends Cmd {
+
+    @Parameters(arity="0..1", description= "name of the package")
+    private String name=null;
+
+    @Parameters(arity="0..1", description= "version of the package")
+    private String version=null;
+
+    @Option(names = {"--verify"}, description = "verify the installed files")
+    private boolean verify=false;
+
+    @Option(names = {"--full"}, description = "hash every file, not only the ones whose mtime changed")
+    private boolean full=false;
+
+    @Option(names = {"--threads"}, description = "number of threads hashing files")
+    private int threads=Runtime.getRuntime().availableProcessors();
+
+    @Option(names = {"--dedup"}, description = "show the deduplication ratio and the bytes saved")
+    private boolean dedup=false;
+
+    @Override
+    public int runner() {
+        if (dedup){
+            return dedupReport();
+        }
+        if (!verify){
+            showHelp();
+            return 0;
+        }
+        var config = ConfigManager.intance;
+        List<List<String>> rows = new ArrayList<>();
+        List<String> differences = new ArrayList<>();
+        int invalid = 0;
+        try (InstallVerifier verifier = new InstallVerifier(threads, full)) {
+            for (var tool : new TreeMap<>(config.getConf().getTools()).values()){
+                if (name != null && !name.equals(tool.getName())) continue;
+                for (var v : tool.getVersions()){
+                    if (version != null && !version.equals(v.getVersion())) continue;
+                    var result = verifier.verify(config.resolvePath(v.getPath()));
+                    String status;
+                    if (!result.complete){
+                        status = "incomplete (no manifest)";
+                    } else if (result.problems.isEmpty()){
+                        status = "ok";
+                    } else {
+                        status = result.problems.size()+" file(s) differ";
+                    }
+                    if (!result.isValid()) invalid++;
+                    rows.add(List.of(tool.getName(), v.getVersion(), status,
+                            String.valueOf(result.files), String.valueOf(result.hashed)));
+                    result.problems.forEach((path, problem) ->
+                            differences.add(String.format("%s %s: %s (%s)", tool.getName(), v.getVersion(), path, problem)));
+                }
+            }
+        } catch (IOException e){
+            Log.error(e.getMessage());
+            return 1;
+        }
+        printTable(List.of("name", "version", "status", "files", "hashed"), rows);
+        differences.forEach(d -> Log.info("%s", d));
+        return invalid==0 ? 0 : 1;
+    }
+
+    private int dedupReport() {
+        var config = ConfigManager.intance;
+        if (!config.getSettings().isDedup()){
+            Log.info("dedup is disabled (settings.dedup in %s)", new File(config.getFolder(), "config.yml"));
+        }
+        try {
+            var report = new FileStore(config.getFolder()).report();
+            printTable(List.of("objects", "references", "installed bytes", "stored bytes", "bytes saved", "ratio"),
+                    List.of(List.of(String.valueOf(report.objects), String.valueOf(report.references),
+                            String.valueOf(report.logicalBytes), String.valueOf(report.physicalBytes),
+                            String.valueOf(report.bytesSaved()), String.format("%.2f", report.ratio()))));
+            return 0;
+        } catch (IOException e){
+            Log.error(e.getMessage());
+            return 1;
+        }
+    }
+}
+
+/**
+ * This interface configuration force controle of yaml file and mandatory configurations needed
+ */
+interface Config {
+
+    //    @ConfigMapping(prefix = "greeting")
+    interface GreetingConfig {
+
+        //        @WithName("message")
+        String message();
+
+    }
+}
+@Command(
+        name="serve",
+        description="Serve the package management of this node over HTTP"+
+                "<@@@USAGE@@@>qsdf serve [--bind <address>] [--port <port>]<@@@DESC@@@>Run the service: GET /tools, GET /resolve?dir=<folder>, POST|DELETE /install/<name>/<version>, GET /jobs"
+)
+class CmdServe extends Cmd {
+
+    @Option(names = {"--bind"}, description = "address to listen on")
+    private String bind = "127.0.0.1";
+
+    @Option(names = {"--port"}, description = "port to listen on")
+    private int port = 8787;
+
+    @Option(names = {"--threads"}, description = "number of jobs run at the same time")
+    private int threads = 4;
+
+    @Override
+    public int runner() {
+        var stopped = new CountDownLatch(1);
+        try (var server = new ToolchainServer(new InetSocketAddress(bind, port), getPlugins(), ConfigManager.intance, threads)) {
+            Runtime.getRuntime().addShutdownHook(new Thread(stopped::countDown));
+            server.start();
+            Log.info("qsdf serving on http://%s:%d", bind, server.getPort());
+            stopped.await();
+            return 0;
+        } catch (IOException e){
+            Log.error(e.getMessage());
+            return 1;
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            return 0;
+        }
+    }
+}
+
+@Command(
+        name="cache",
+        description="Manage the archive cache",
+        subcommands = {
+                CmdCache.CmdCacheServe.class
+        }
+)
+class CmdCache extends Cmd {
+
+    @Override
+    public int runner() {
+        showHelp();
+        return 0;
+    }
+
+    @Command(
+            name = "serve",
+            description = "Serve the cached archives to other nodes"+
+                    "<@@@USAGE@@@>qsdf cache serve [--bind <address>] [--port <port>]<@@@DESC@@@>Serve config/cache/archives by SHA-256: GET /sha256/<hex>, on the loopback only by default" +
+                    "<@@@USAGE@@@>qsdf cache serve --bind 0.0.0.0<@@@DESC@@@>Serve the archives to the other nodes of the network" +
+                    "<@@@USAGE@@@>settings.peers: [http://<node>:<port>]<@@@DESC@@@>Download archives from these nodes before the upstream mirrors"
+    )
+    static class CmdCacheServe extends Cmd {
+
+        @Option(names = {"--bind"}, description = "address to listen on, 0.0.0.0 to serve the other nodes")
+        private String bind = "127.0.0.1";
+
+        @Option(names = {"--port"}, description = "port to listen on")
+        private int port = 8788;
+
+        @Option(names = {"--threads"}, description = "number of archives sent at the same time")
+        private int threads = 8;
+
+        @Override
+        public int runner() {
+            var stopped = new CountDownLatch(1);
+            var folder = CacheServer.archiveFolder(ConfigManager.intance.getFolder());
+            try (var server = new CacheServer(folder, new InetSocketAddress(bind, port), threads)) {
+                Files.createDirectories(folder);
+                Runtime.getRuntime().addShutdownHook(new Thread(stopped::countDown));
+                server.start();
+                Log.info("qsdf serving %s on http://%s:%d", folder, bind, server.getPort());
+                stopped.await();
+                return 0;
+            } catch (IOException e){
+                Log.error(e.getMessage());
+                return 1;
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                return 0;
+            }
+        }
+    }
+}
+
+@Command(
+        name="mirror",
+        description="Manage an offline mirror of the packages",
+        subcommands = {
+                CmdMirror.CmdMirrorSync.class
+        }
+)
+class CmdMirror extends Cmd {
+
+    @Override
+    public int runner() {
+        showHelp();
+        return 0;
+    }
+
+    @Command(
+            name = "sync",
+            description = "Copy packages and their index in a mirror folder"+
+                    "<@@@USAGE@@@>qsdf mirror sync <folder><@@@DESC@@@>Copy the packages of the .tool-versions files of the current folder" +
+                    "<@@@USAGE@@@>qsdf mirror sync <folder> --file <.tool-versions>...<@@@DESC@@@>Copy the packages of the files" +
+                    "<@@@USAGE@@@>qsdf mirror sync <folder> --tool <name>=<version>...<@@@DESC@@@>Copy a version or latest[:<prefix>]" +
+                    "<@@@USAGE@@@>settings.offlineMirror: <folder><@@@DESC@@@>Install from the mirror (folder, file:// or http:// URI) without network"
+    )
+    static class CmdMirrorSync extends Cmd {
+
+        @Parameters(description = "mirror folder")
+        private File folder;
+
+        @Option(names = {"--file"}, description = ".tool-versions file to copy")
+        private List<File> files = new ArrayList<>();
+
+        @Option(names = {"--tool"}, description = "<name>=<version> to copy, version can be latest[:<prefix>]")
+        private List<String> rules = new ArrayList<>();
+
+        @Option(names = {"--threads"}, description = "number of parallel downloads")
+        private int threads = 4;
+
+        @Override
+        public int runner() {
+            var config = ConfigManager.intance;
+            List<Tool> tools = new ArrayList<>();
+            try {
+                for (File file : files){
+                    try (InputStream is = new FileInputStream(file)) {
+                        tools.addAll(config.readFromInputStream(is));
+                    }
+                }
+            } catch (IOException e){
+                Log.error(e.getMessage());
+                return 1;
+            }
+            for (String rule : rules){
+                int idx = rule.indexOf('=');
+                if (idx <= 0){
+                    Log.error("invalid rule %s, <name>=<version> expected", rule);
+                    return 1;
+                }
+                tools.add(new Tool(rule.substring(0, idx), rule.substring(idx+1)));
+            }
+            if (files.isEmpty() && rules.isEmpty()){
+                tools.addAll(config.getToolsFromFile());
+            }
+            var plugins = getPlugins();
+            Map<PlugIn, Set<String>> versions = new LinkedHashMap<>();
+            int errors = 0;
+            //the rules are resolved at the same time, one remote query per plugin
+            Map<Tool, CompletableFuture<String>> queries = new LinkedHashMap<>();
+            for (Tool tool : tools){
+                var plugIn = plugins.get(tool.toolName);
+                if (plugIn == null){
+                    Log.info("No plugin found for %s", tool.toolName);
+                    errors++;
+                    continue;
+                }
+                queries.put(tool, AsyncPlugIn.of(plugIn).resolveVersion(tool.version).subscribeAsCompletionStage());
+            }
+            for (var query : queries.entrySet()){
+                var tool = query.getKey();
+                try {
+                    versions.computeIfAbsent(plugins.get(tool.toolName), p -> new TreeSet<>(PlugIn::compareVersions))
+                            .add(query.getValue().join());
+                } catch (CompletionException e){
+                    if (e.getCause() instanceof NoSuchElementException){
+                        Log.info("No version %s found for package %s", tool.version, tool.toolName);
+                    } else {
+                        Log.error(e.getCause().getMessage());
+                    }
+                    errors++;
+                }
+            }
+            try {
+                var rows = OfflineMirror.sync(folder, versions, threads);
+                printTable(List.of("name", "version", "files", "status"), rows);
+                errors += rows.stream().filter(r -> r.get(3).startsWith("failed")).count();
+            } catch (IOException e){
+                Log.error(e.getMessage());
+                return 1;
+            }
+            return errors == 0 ? 0 : 1;
+        }
+    }
+}
+
+@Command(
+        name="bundle",
+        description="Export and import installed packages",
+        subcommands = {
+                CmdBundle.CmdBundleExport.class,
+                CmdBundle.CmdBundleImport.class
+        }
+)
+class CmdBundle extends Cmd {
+
+    @Override
+    public int runner() {
+        showHelp();
+        return 0;
+    }
+
+    @Command(
+            name = "export",
+            description = "Write installed packages, their configuration and the shims in a bundle"+
+                    "<@@@USAGE@@@>qsdf bundle export <file><@@@DESC@@@>Export all the installed packages" +
+                    "<@@@USAGE@@@>qsdf bundle export <file> <name>[@<version>]...<@@@DESC@@@>Export all the versions of a package or one version"
+    )
+    static class CmdBundleExport extends Cmd {
+
+        @Parameters(index = "0", description = "bundle file")
+        private File file;
+
+        @Parameters(index = "1..*", arity = "0..*", description = "<name> or <name>@<version> to export")
+        private List<String> selection = new ArrayList<>();
+
+        @Option(names = {"--threads"}, description = "number of packages compressed in parallel")
+        private int threads = Runtime.getRuntime().availableProcessors();
+
+        @Override
+        public int runner() {
+            try {
+                var rows = new Bundle(ConfigManager.intance, threads).export(file, selection);
+                printTable(List.of("name", "version", "status"), rows);
+                return rows.stream().anyMatch(r -> r.get(2).equals("exported")) ? 0 : 1;
+            } catch (IOException e){
+                Log.error(e.getMessage());
+                return 1;
+            }
+        }
+    }
+
+    @Command(
+            name = "import",
+            description = "Install the packages of a bundle, without network nor plugin"+
+                    "<@@@USAGE@@@>qsdf bundle import <file><@@@DESC@@@>Install and register the packages of the bundle"
+    )
+    static class CmdBundleImport extends Cmd {
+
+        @Parameters(description = "bundle file")
+        private File file;
+
+        @Option(names = {"--threads"}, description = "number of packages extracted in parallel")
+        private int threads = Runtime.getRuntime().availableProcessors();
+
+        @Override
+        public int runner() {
+            try {
+                var rows = new Bundle(ConfigManager.intance, threads).importFrom(file);
+                printTable(List.of("name", "version", "status"), rows);
+                return rows.stream().anyMatch(r -> r.get(2).startsWith("failed")) ? 1 : 0;
+            } catch (IOException e){
+                Log.error(e.getMessage());
+                return 1;
+            }
+        }
+    }
+}
+
+@Data
+@NoArgsConstructor
+class DataConfig {
+    private Settings settings = new Settings();
+    private Map<String, DataTool> tools = new HashMap<>();
+
+    /**
+     * @return a copy with its own settings and tool map, sharing the tools: a tool is copied by
+     * {@link #editTool(String)} before being modified
+     */
+    DataConfig copy(){
+        DataConfig copy = new DataConfig();
+        copy.setSettings(settings == null ? null : settings.copy());
+        copy.setTools(new HashMap<>(tools));
+        return copy;
+    }
+
+    /**
+     * Make the collections of a configuration about to be published unmodifiable.
+     * The tools shared with the snapshot it was copied from already are: only the new or edited ones are wrapped.
+     * @param previous the snapshot this configuration is a copy of, null if it was read from the yaml file
+     * @return this configuration
+     */
+    DataConfig freeze(DataConfig previous){
+        if (tools == null){
+            tools = new HashMap<>();
+        }
+        for (var entry : tools.entrySet()){
+            var tool = entry.getValue();
+            if (previous == null || previous.getTools().get(entry.getKey()) != tool){
+                tool.setVersions(tool.getVersions() == null ? Set.of() : Collections.unmodifiableSet(tool.getVersions()));
+            }
+        }
+        tools = Collections.unmodifiableMap(tools);
+        if (settings != null){
+            settings.freeze();
+        }
+        return this;
+    }
+
+    /**
+     * Replace a tool by a copy that can be modified, the tool of the snapshots being read is unchanged
+     * @param toolName the tool
+     * @return the copy, null if the tool is not configured
+     */
+    DataTool editTool(String toolName){
+        var tool = tools.get(toolName);
+        if (tool == null){
+            return null;
+        }
+        DataTool copy = tool.copy();
+        tools.put(toolName, copy);
+        return copy;
+    }
+
+    @Data
+    @NoArgsConstructor
+    static class Settings {
+        /** hardlink identical installed files to one copy in config/store */
+        private boolean dedup = false;
+        /** release feed URL by plugin name */
+        private Map<String, String> feeds = new HashMap<>();
+        /** alternative URL prefixes by download URL prefix */
+        private Map<String, List<String>> mirrors = new HashMap<>();
+        /** folder or URI of a mirror filled by qsdf mirror sync, used instead of the remote feeds */
+        private String offlineMirror;
+        /** base URLs of the qsdf cache serve of other nodes, tried before the upstream mirrors */
+        private List<String> peers = new ArrayList<>();
+        /** install the missing versions when a shim or qsdf exec needs them */
+        private boolean autoInstall = false;
+        /** network and disk limits of the downloads and extractions */
+        private Limits limits = new Limits();
+        /** Prometheus text file the metrics of every command are added to, none if not set */
+        private String metricsFile;
+
+        /**
+         * @return a deep copy, whose collections can be modified (a new field is copied here too)
+         */
+        Settings copy(){
+            Settings copy = new Settings();
+            copy.setDedup(dedup);
+            copy.setFeeds(feeds == null ? new HashMap<>() : new HashMap<>(feeds));
+            Map<String, List<String>> mirrorsCopy = new HashMap<>();
+            if (mirrors != null){
+                mirrors.forEach((prefix, alternatives) -> mirrorsCopy.put(prefix, alternatives == null ? new ArrayList<>() : new ArrayList<>(alternatives)));
+            }
+            copy.setMirrors(mirrorsCopy);
+            copy.setOfflineMirror(offlineMirror);
+            copy.setPeers(peers == null ? new ArrayList<>() : new ArrayList<>(peers));
+            copy.setAutoInstall(autoInstall);
+            copy.setLimits(limits == null ? null : limits.copy());
+            copy.setMetricsFile(metricsFile);
+            return copy;
+        }
+
+        /**
+         * Wrap the collections as unmodifiable, before the publication of the settings
+         * @return these settings
+         */
+        Settings freeze(){
+            feeds = feeds == null ? Map.of() : Collections.unmodifiableMap(feeds);
+            Map<String, List<String>> frozen = new HashMap<>();
+            if (mirrors != null){
+                mirrors.forEach((prefix, alternatives) -> frozen.put(prefix, alternatives == null ? List.of() : Collections.unmodifiableList(alternatives)));
+            }
+            mirrors = Collections.unmodifiableMap(frozen);
+            peers = peers == null ? List.of() : Collections.unmodifiableList(peers);
+            return this;
+        }
+    }
+
+    @Data
+    @NoArgsConstructor
+    static class Limits {
+        /** bytes per second for all the downloads of a process, 0 for no limit */
+        private long bandwidth = 0;
+        /** bytes per second for the background downloads, 0 for no limit */
+        private long backgroundBandwidth = 0;
+        /** archives extracted at the same time by all the processes */
+        private int extractions = 2;
+        /** milliseconds to wait for the response headers of a download, 0 for no limit */
+        private long requestTimeoutMs = 60_000;
+        /** milliseconds without any byte received before a download is abandoned, 0 for no limit */
+        private long readIdleTimeoutMs = 30_000;
+
+        Limits copy(){
+            Limits copy = new Limits();
+            copy.setBandwidth(bandwidth);
+            copy.setBackgroundBandwidth(backgroundBandwidth);
+            copy.setExtractions(extractions);
+            copy.setRequestTimeoutMs(requestTimeoutMs);
+            copy.setReadIdleTimeoutMs(readIdleTimeoutMs);
+            return copy;
+        }
+    }
+
+    @Data
+    @NoArgsConstructor
+    static class DataTool {
+        private String name;
+        private String global;
+        private Set<Version> versions = new LinkedHashSet<>();
+
+        /**
+         * @return a copy whose versions can be modified
+         */
+        DataTool copy(){
+            DataTool copy = new DataTool();
+            copy.setName(name);
+            copy.setGlobal(global);
+            copy.setVersions(versions == null ? new LinkedHashSet<>() : new LinkedHashSet<>(versions));
+            return copy;
+        }
+
+        @Data
+        @NoArgsConstructor
+        @AllArgsConstructor
+        static class Version {
+            private String version;
+            private String path;
+        }
+    }
+}
+/**
+ * Registry of the installed versions (config.yml).
+ * The configuration is published as a snapshot that is never modified, its collections are unmodifiable:
+ * readers use it without lock, from any thread. Modifications go through {@link #update(Consumer)} only,
+ * serialized in the process and between processes (registry lock); they build a new configuration and
+ * publish it atomically.
+ */
+class ConfigManager{
+
+    /** environment variable overriding the config folder (./config by default) */
+    public static final String ENV_DIR = "QSDF_DIR";
+    /** the registry of the process, set by {@link #load()} */
+    public static volatile ConfigManager intance;
+    @Getter
+    private final File folder;
+    private final File confFile;
+    private static final DataConfig.Settings DEFAULT_SETTINGS = new DataConfig.Settings().freeze();
+    /** the published snapshot, replaced and never modified */
+    @Getter
+    private volatile DataConfig conf;
+    /** updates of the running batch, null outside a batch */
+    private List<Consumer<DataConfig>> pending;
+    /** modification time, size and file key of the yaml file when it was last read */
+    private volatile String readStamp;
+
+    public ConfigManager(){
+        this(defaultFolder());
+    }
+
+    private static File defaultFolder(){
+        return new File(Optional.ofNullable(System.getenv(ENV_DIR)).orElse("./config"));
+    }
+
+    /**
+     * Read the registry of the config folder (QSDF_DIR or ./config) as the one of the process
+     * @return the registry, set as {@link #intance}
+     * @throws IOException if config.yml cannot be read or parsed
+     */
+    static ConfigManager load() throws IOException {
+        return load(defaultFolder());
+    }
+
+    /**
+     * @param folder the config folder
+     * @return the registry of the folder, set as {@link #intance}
+     * @throws IOException if config.yml cannot be read or parsed: {@link #intance} is not changed
+     */
+    static ConfigManager load(File folder) throws IOException {
+        try {
+            intance = new ConfigManager(folder);
+        } catch (UncheckedIOException e){
+            throw new IOException(e.getMessage(), e.getCause());
+        }
+        return intance;
+    }
+
+    /**
+     * @param folder the folder containing config.yml, installations and shims
+     * @throws UncheckedIOException if config.yml cannot be read
+     */
+    public ConfigManager(File folder){
+        this.folder = folder;
+        this.confFile = new File(folder, "config.yml");
+        conf = read().freeze(null);
+    }
+
+    /**
+     * @return the configuration of the yaml file, an empty one if there is none
+     * @throws UncheckedIOException if the yaml file cannot be read or parsed
+     */
+    private DataConfig read () {
+        readStamp = stamp();
+        if (!confFile.exists()){
+            Log.debug("no conf file %s", confFile);
+            return new DataConfig();
+        }
+        ObjectMapper om = new ObjectMapper(new YAMLFactory());
+        try (var timer = Metrics.time(Metrics.Phase.CONFIG_LOAD)) {
+            DataConfig conf = om.readValue(confFile, DataConfig.class);
+            Log.debug("conf: %s", conf);
+            return conf;
+        } catch (IOException e) {
+            throw new UncheckedIOException(String.format("invalid config file %s: %s", confFile, e.getMessage()), e);
+        }
+    }
+
+    /**
+     * @return the settings of the yaml file, defaults if not set
+     */
+    public DataConfig.Settings getSettings(){
+        var settings = conf.getSettings();
+        return settings == null ? DEFAULT_SETTINGS : settings;
+    }
+
+    /**
+     * @return the modification time, size and file key of the yaml file, null if there is none
+     */
+    private String stamp(){
+        try {
+            var attributes = Files.readAttributes(confFile.toPath(), BasicFileAttributes.class);
+            return attributes.lastModifiedTime().toMillis()+" "+attributes.size()+" "+attributes.fileKey();
+        } catch (IOException e){
+            return null;
+        }
+    }
+
+    /**
+     * Read again the yaml file if it was replaced since it was read: one stat when it was not.
+     * For the long running processes (qsdf serve), whose snapshot would miss the other processes.
+     */
+    public void reloadIfModified(){
+        if (!Objects.equals(stamp(), readStamp)){
+            reload();
+        }
+    }
+
+    /**
+     * Read again the yaml file, modified by another process.
+     * If it cannot be read, the error is logged and the current snapshot is kept.
+     */
+    public synchronized void reload(){
+        DataConfig read;
+        try {
+            read = read();
+        } catch (UncheckedIOException e){
+            Log.error("%s, the configuration read before is kept", e.getMessage());
+            return;
+        }
+        if (pending != null){
+            pending.forEach(mutation -> mutation.accept(read));
+        }
+        conf = read.freeze(null);
+    }
+
+    /**
+     * Sauvegarde la configuration dans un fichier yaml.
+     * The file is replaced atomically: a reader never sees a partial file.
+     */
+    public void save(){
+        ObjectMapper om = new ObjectMapper(new YAMLFactory());
+        File tmp = null;
+        try (var timer = Metrics.time(Metrics.Phase.CONFIG_SAVE)) {
+            Log.debug("writing conf file");
+            confFile.getParentFile().mkdirs();
+            tmp = File.createTempFile("config", ".yml.tmp", confFile.getParentFile());
+            om.writeValue(tmp, conf);
+            Files.move(tmp.toPath(), confFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception e){
+            Log.error(e.getMessage());
+        } finally {
+            if (tmp != null) tmp.delete();
+        }
+    }
+
+    /**
+     * Apply a modification while holding the registry lock: the yaml file is read again,
+     * modified and saved, so modifications done by other processes are kept.
+     * @param mutation the modification, of a configuration whose tools are modified through
+     * {@link DataConfig#editTool(String)}
+     * @throws UncheckedIOException if the yaml file cannot be read: it is not overwritten
+     */
+    public synchronized void update(Consumer<DataConfig> mutation){
+        if (pending != null){
+            var next = conf.copy();
+            mutation.accept(next);
+            conf = next.freeze(conf);
+            pending.add(mutation);
+            return;
+        }
+        try (var lock = FileLocks.registry(folder)) {
+            var next = read();
+            mutation.accept(next);
+            Log.debug("Config: %s", next);
+            conf = next.freeze(null);
+            save();
+        }
+    }
+
+    /**
+     * Replace the whole configuration and save it, e.g. by a generated one
+     * @param replacement the configuration, copied: it is not modified
+     */
+    public void replace(DataConfig replacement){
+        update(c -> {
+            var copy = replacement.copy();
+            copy.getTools().replaceAll((name, tool) -> tool.copy());
+            c.setSettings(copy.getSettings());
+            c.setTools(copy.getTools());
+        });
+    }
+
+    /**
+     * Run a work whose updates are applied in memory, then written by one update at its end.
+     * Until then, the other processes see the installations of the batch without their registry entry:
+     * the install action registers such a complete installation instead of installing it again.
+     * @param work the work, its threads may update the config
+     */
+    public void batch(Runnable work){
+        boolean outer;
+        synchronized (this){
+            outer = pending == null;
+            if (outer) pending = new ArrayList<>();
+        }
+        try {
+            work.run();
+        } finally {
+            if (outer){
+                List<Consumer<DataConfig>> mutations;
+                synchronized (this){
+                    mutations = pending;
+                    pending = null;
+                }
+                if (!mutations.isEmpty()){
+                    update(c -> mutations.forEach(mutation -> mutation.accept(c)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Return a sorted List of all PackageVersion from .tool-versions files
+     * @return
+     */
+    public List<Tool> getToolsFromFile(){
+        var tools = resolveToolVersions().getTools();
+        Log.debug("tools found in .tool-versions: %s", tools.size());
+        return tools;
+    }
+
+    /**
+     * Resolve the versions from the working directory and the environment
+     * @return
+     */
+    public ToolVersions resolveToolVersions(){
+        return resolveToolVersions(new File(System.getProperty("user.dir")), System.getenv());
+    }
+
+    /**
+     * Resolve the version of every tool in one walk up the directory tree: the closest .tool-versions
+     * defining a tool wins, then QSDF_&lt;TOOL&gt;_VERSION environment variables override it.
+     * Only one stat is done per directory.
+     * @param dir the starting directory
+     * @param env the environment
+     * @return
+     */
+    public ToolVersions resolveToolVersions(File dir, Map<String, String> env){
+        try (var timer = Metrics.time(Metrics.Phase.RESOLVE)) {
+            return readToolVersions(dir, env);
+        }
+    }
+
+    private ToolVersions readToolVersions(File dir, Map<String, String> env){
+        ToolVersions toolVersions = new ToolVersions();
+        Log.debug("scanning tree");
+        for (File file = dir.getAbsoluteFile(); file != null; file = file.getParentFile()){
+            File toolVersionsFile = new File(file, ToolVersions.FILE_NAME);
+            if (toolVersionsFile.isFile()){
+                Log.debug("|--> %s", toolVersionsFile);
+                try (InputStream is = new FileInputStream(toolVersionsFile)) {
+                    toolVersions.addFile(toolVersionsFile, readFromInputStream(is));
+                } catch(Exception e){
+                    Log.error(e.getMessage());
+                }
+            }
+        }
+        toolVersions.addEnv(env);
+        Log.debug("resolved versions: %s", toolVersions);
+        return toolVersions;
+    }
+
+    List<Tool> readFromInputStream(InputStream inputStream) throws IOException {
+        List<Tool> tools = new ArrayList<>();
+        try (BufferedReader br
+                     = new BufferedReader(new InputStreamReader(inputStream))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                line = line.trim();
+                if (!"".equals(line) && !line.startsWith("#")){
+                    var infos = line.split("\\s+");
+                    if (infos.length < 2){
+                        Log.verbose("no version for %s in .tool-versions", infos[0]);
+                        continue;
+                    }
+                    var tool = new Tool(infos[0], infos[1]);
+                    tools.add(tool);
+                }
+            }
+        }
+        return tools;
+    }
+
+
+    /**
+     * Return a list of all version installed for the provided package name
+     * @param toolName
+     * @return
+     */
+    public List<Tool> getAllInstalledVersion(String toolName){
+        var tool = conf.getTools().get(toolName);
+        if (tool == null || tool.getVersions() == null){
+            return new ArrayList<>();
+        }
+        return tool.getVersions().stream()
+                .map(v -> new Tool(toolName, v.getVersion()))
+                .sorted()
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * This methode check in the yaml file for informations about package and installed versions.
+     * If version is found in the yaml file, folder is checked for existenz
+     * @param toolName
+     * @param version
+     * @return
+     */
+    public boolean isInstalled(String toolName, String version) {
+        var tool = conf.getTools().get(toolName);
+        if (tool == null){
+            return false;
+        }
+        return tool.getVersions().stream().anyMatch(v -> v.getVersion().equals(version));
+    }
+
+    /**
+     * @param toolName
+     * @param version
+     * @return the path declared in the yaml file for this version
+     */
+    public Optional<String> getInstalledPath(String toolName, String version) {
+        var tool = conf.getTools().get(toolName);
+        if (tool == null){
+            return Optional.empty();
+        }
+        return tool.getVersions().stream()
+                .filter(v -> v.getVersion().equals(version))
+                .map(DataConfig.DataTool.Version::getPath)
+                .findFirst();
+    }
+
+    /**
+     * Paths of the yaml file are relative to the parent of the config folder
+     * @param path a path read from the yaml file
+     * @return the absolute path
+     */
+    public File resolvePath(String path) {
+        File file = new File(path);
+        if (file.isAbsolute()){
+            return file;
+        }
+        return new File(folder.getAbsoluteFile().getParentFile(), path).toPath().normalize().toFile();
+    }
+
+    /**
+     * This methode update the yaml file containing installed resources ref in adding version
+     * @param toolName
+     * @param version
+     * @param path
+     */
     public void updateInstalledVersion(String toolName, String version, File path) {
         Log.debug("updating Yaml File for package %s version %s", toolName, version);
-        DataConfig.DataTool tool = null;
-        if (conf.getTools().containsKey(toolName)){
+        update(conf -> addInstalledVersion(conf, toolName, version, path));
+    }
+
+    /**
+     * Add an installed version to a configuration being updated
+     * @param conf the configuration
+     * @param toolName the tool
+     * @param version the version
+     * @param path the installation path
+     * @return the tool entry
+     */
+    static DataConfig.DataTool addInstalledVersion(DataConfig conf, String toolName, String version, File path) {
+        DataConfig.DataTool tool = conf.editTool(toolName);
+        if (tool != null){
             Log.debug("The tool %s already exist", toolName);
-            tool = conf.getTools().get(toolName);
         } else {
             Log.debug("Add information for tool %s", toolName);
             tool = new DataConfig.DataTool();
@@ -913,8 +2175,7 @@ class ConfigManager{
             tool.setVersions(new LinkedHashSet<>());
         }
         tool.getVersions().add(new DataConfig.DataTool.Version(version, path.toString()));
-        Log.debug("Config: %s", conf);
-        ConfigManager.intance.save();
+        return tool;
     }
 
     /**
@@ -924,19 +2185,17 @@ class ConfigManager{
      */
     public void updateUninstalledVersion(String toolName, String version) {
         Log.debug("updating Yaml File removing package %s version %s", toolName, version);
-        if (conf.getTools().containsKey(toolName)){
-            Log.debug("The tool %s already exist", toolName);
-            DataConfig.DataTool tool = conf.getTools().get(toolName);
-            var ver = tool.getVersions().stream().filter(v->v.getVersion().equals(version)).findFirst();
-            if (ver.isPresent()){
-                Log.debug("VVersion found... removing!");
-                tool.getVersions().remove(ver);
+        update(conf -> {
+            if (conf.getTools().containsKey(toolName)){
+                Log.debug("The tool %s already exist", toolName);
+                DataConfig.DataTool tool = conf.editTool(toolName);
+                if (tool.getVersions().removeIf(v -> v.getVersion().equals(version))){
+                    Log.debug("Version found... removed");
+                }
+            } else {
+                Log.debug("The tool %s is not configured...", toolName);
             }
-        } else {
-            Log.debug("The tool %s is not configured...", toolName);
-        }
-        Log.debug("Config: %s", conf);
-        ConfigManager.intance.save();
+        });
     }
 
     /**
@@ -945,7 +2204,6 @@ class ConfigManager{
      * @param version
      */
     public void addToToolVersions(String toolName, String version){
-        //TODO create associated command and test !
         File file = new File(System.getProperty("user.dir")+File.separator+".tool-versions");
         List<Tool> tools = new ArrayList<>();
         if (file.exists()){
@@ -962,72 +2220,14 @@ class ConfigManager{
         } else {
             tools.add(new Tool(toolName, version));
         }
-        try {
-            FileWriter fw = new FileWriter(file);
-            tools.stream().sorted().forEach(t->{
-                try {
-                    fw.write(t.toolName+" "+t.version+"\n");
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            });
+        try (FileWriter fw = new FileWriter(file)) {
+            for (Tool t : tools.stream().sorted().collect(Collectors.toList())){
+                fw.write(t.toolName+" "+t.version+"\n");
+            }
         }catch(Exception e){
-            e.printStackTrace();
-        }
-    }
-}
-
-/**
- * Iterface for tools
- */
-interface PlugIn {
-    /**
-     * The name of the tool
-     * @return
-     */
-    String getName();
-
-    default String getLastVersionStartingWith(String ...version) {
-        var remotes = getAllRemoteVersions();
-        if (remotes.size()==0){
-            System.out.printf("No version found for package %s\n", getName());
-            System.exit(1);
-        }
-        //On trie
-        remotes = remotes.stream().sorted((a,b)->-1*a.compareTo(b)).collect(Collectors.toList());
-        if (version.length>0){
-            //On supprime ceux qui ne commencent pas par le prefix
-            var ver = version[0];
-            remotes = remotes.stream().filter(v->v.startsWith(ver)).collect(Collectors.toList());
+            Log.error(e.getMessage());
         }
-        var latest = remotes.stream().findFirst().get();
-        return latest;
-    }
-
-    default File getFolderForVersion(String version){
-        File folder = new File(ConfigManager.intance.getFolder().toString()+File.separator+"installation"+File.separator+getName()+File.separator+version);
-        return folder;
-    }
-    default File getFolderShim(){
-        File folder = new File(ConfigManager.intance.getFolder().toString()+File.separator+"shims");
-        return folder;
     }
-
-    List<String> getAllRemoteVersions();
-
-    boolean isVersionInstallable(String version);
-
-    int install(String version);
-
-    int createShims();
-
-    int deleteShims();
-
-    int uninstall(String version);
-
-    File getPath(String version);
-
-    boolean isInstalled(String version);
 }
 
 @AllArgsConstructor
@@ -1064,12 +2264,31 @@ enum Action {
     EXEC, ENV, INFO, RE_SHIM, SHIM_VERSIONS, UPDATE, UPDATE_HEAD;
 
     public Job doAction(Map<String,PlugIn> plugIns, ConfigManager config, Job job){
+        return doActionAsync(plugIns, config, job).await().indefinitely();
+    }
+
+    /**
+     * Run the action on its plugin through {@link AsyncPlugIn}:
+     * <ul>
+     *     <li>install and uninstall wait for their install lock without a thread, then compose the calls of the
+     *     plugin through {@link AsyncPlugIn#of(PlugIn)}: only the blocking steps take a plugin thread</li>
+     *     <li>local and shell resolve the latest version without blocking</li>
+     *     <li>the other actions only read local files and complete on the calling thread</li>
+     * </ul>
+     * @return the job, completed when the action is done
+     */
+    public Uni<Job> doActionAsync(Map<String,PlugIn> plugIns, ConfigManager config, Job job){
         String toolName=job.getTool().toolName;
         //Check for plugin
         if (!plugIns.containsKey(toolName)){
-            Log.info(job.addMessage("No plugin found for %s\n==> Please install corresponding plugin first.", toolName));
+            var msg = job.addMessage("No plugin found for %s\n==> Please install corresponding plugin first.", toolName);
+            if (this==CURRENT || this==ENV){
+                Log.verbose(msg); //the output of current and env must only contain their result
+            } else {
+                Log.info(msg);
+            }
             job.setReturnedCode(1);
-            return job;
+            return Uni.createFrom().item(job);
         }
         var plugIn = plugIns.get(toolName);
         switch (this) {
@@ -1079,13 +2298,185 @@ enum Action {
                 return actionUninstallTool(plugIn, config, job);
             case EXEC:
                 return actionExecTool(plugIn, config, job);
+            case CURRENT:
+                return Uni.createFrom().item(() -> actionCurrentTool(plugIn, config, job));
+            case WHERE:
+                return Uni.createFrom().item(() -> actionWhereTool(plugIn, config, job));
+            case WHICH:
+                return Uni.createFrom().item(() -> actionWhichTool(plugIn, config, job));
+            case LOCAL:
+                return AsyncPlugIn.of(plugIn).resolveVersion(job.getTool().version)
+                        .onItem().transform(version -> actionLocalTool(version, config, job))
+                        .onFailure(NoSuchElementException.class).recoverWithItem(e -> noVersion(job, e));
+            case SHELL:
+                return AsyncPlugIn.of(plugIn).resolveVersion(job.getTool().version)
+                        .onItem().transform(version -> actionShellTool(version, job))
+                        .onFailure(NoSuchElementException.class).recoverWithItem(e -> noVersion(job, e));
+            case ENV:
+                return Uni.createFrom().item(() -> actionEnvTool(plugIn, config, job));
             default:
                 job.addMessage("Action %s is not implemented", this.name());
         }
+        return Uni.createFrom().item(job);
+    }
+
+    /**
+     * @param job a job whose latest[:&lt;prefix&gt;] version matches no remote version
+     * @param e the failure of the resolution
+     * @return the failed job
+     */
+    private Job noVersion(Job job, Throwable e) {
+        Log.info(job.addMessage("%s", e.getMessage()));
+        job.setReturnedCode(1);
+        return job;
+    }
+
+    /**
+     * Find the installation of the resolved version to run one of its commands. With auto install,
+     * a missing version is installed first.
+     * @param plugIn the plugin managing the tool
+     * @param config the configManager
+     * @param job the job contains informations like Action, tool name, version
+     * @return the job with the installation path as result
+     */
+    private Uni<Job> actionExecTool(PlugIn plugIn, ConfigManager config, Job job) {
+        String toolName=job.getTool().toolName;
+        String version = job.getTool().version;
+        if (plugIn.isInstalled(version) && config.isInstalled(toolName, version)){
+            return Uni.createFrom().item(() -> installed(plugIn, job));
+        }
+        if (!AutoInstall.isEnabled(config)){
+            Log.info(job.addMessage("Version %s of %s is not installed. Run \"qsdf install %s %s\"", version, toolName, toolName, version));
+            job.setReturnedCode(1);
+            return Uni.createFrom().item(job);
+        }
+        return actionInstallTool(plugIn, config, new Job(INSTALL, job.getTool())).onItem().transform(install -> {
+            if (install.getReturnedCode() != 0){
+                job.getMessages().addAll(install.getMessages());
+                job.setReturnedCode(install.getReturnedCode());
+                return job;
+            }
+            return installed(plugIn, job);
+        });
+    }
+
+    private Job installed(PlugIn plugIn, Job job) {
+        job.setResult(plugIn.getPath(job.getTool().version).toString());
+        job.setReturnedCode(0);
+        return job;
+    }
+
+    /**
+     * Check that the resolved version of the tool is installed
+     * @param plugIn the plugin managing the tool
+     * @param config the configManager
+     * @param job the job contains informations like Action, tool name, version
+     * @return the job with the version as result
+     */
+    private Job actionCurrentTool(PlugIn plugIn, ConfigManager config, Job job) {
+        String toolName=job.getTool().toolName;
+        String version = job.getTool().version;
+        job.setResult(version);
+        if (!(plugIn.isInstalled(version) && config.isInstalled(toolName, version))){
+            job.addMessage("Not installed. Run \"qsdf install %s %s\"", toolName, version);
+            job.setReturnedCode(1);
+            return job;
+        }
+        job.setReturnedCode(0);
+        return job;
+    }
+
+    /**
+     * Find the installation path of a version
+     * @param plugIn the plugin managing the tool
+     * @param config the configManager
+     * @param job the job contains informations like Action, tool name, version
+     * @return the job with the installation path as result
+     */
+    private Job actionWhereTool(PlugIn plugIn, ConfigManager config, Job job) {
+        String toolName=job.getTool().toolName;
+        String version = job.getTool().version;
+        if (!(plugIn.isInstalled(version) && config.isInstalled(toolName, version))){
+            Log.info(job.addMessage("Version %s of %s is not installed", version, toolName));
+            job.setReturnedCode(1);
+            return job;
+        }
+        job.setResult(config.getInstalledPath(toolName, version).orElse(plugIn.getPath(version).toString()));
+        job.setReturnedCode(0);
+        return job;
+    }
+
+    /**
+     * Find the executable of a version
+     * @param plugIn the plugin managing the tool
+     * @param config the configManager
+     * @param job the job contains informations like Action, tool name, version
+     * @return the job with the executable path as result
+     */
+    private Job actionWhichTool(PlugIn plugIn, ConfigManager config, Job job) {
+        String toolName=job.getTool().toolName;
+        String version = job.getTool().version;
+        if (!(plugIn.isInstalled(version) && config.isInstalled(toolName, version))){
+            Log.info(job.addMessage("Version %s of %s is not installed", version, toolName));
+            job.setReturnedCode(1);
+            return job;
+        }
+        job.setResult(plugIn.getExecutable(version).toString());
+        job.setReturnedCode(0);
+        return job;
+    }
+
+    /**
+     * Set the version of the tool in the .tool-versions file of the working directory
+     * @param version the resolved version
+     * @param config the configManager
+     * @param job the job contains informations like Action, tool name, version
+     * @return the job with the version as result
+     */
+    private Job actionLocalTool(String version, ConfigManager config, Job job) {
+        job.getTool().version = version;
+        config.addToToolVersions(job.getTool().toolName, version);
+        job.setResult(version);
+        job.setReturnedCode(0);
+        return job;
+    }
+
+    /**
+     * Find the installation folder to put in the environment
+     * @param plugIn the plugin managing the tool
+     * @param config the configManager
+     * @param job the job contains informations like Action, tool name, version
+     * @return the job with the absolute installation path as result
+     */
+    private Job actionEnvTool(PlugIn plugIn, ConfigManager config, Job job) {
+        String toolName=job.getTool().toolName;
+        String version = job.getTool().version;
+        var path = config.getInstalledPath(toolName, version);
+        if (path.isEmpty()){
+            Log.verbose(job.addMessage("Version %s of %s is not installed", version, toolName));
+            job.setReturnedCode(1);
+            return job;
+        }
+        job.setResult(config.resolvePath(path.get()).getPath());
+        job.setReturnedCode(0);
         return job;
     }
 
-    private Job actionExecTool(PlugIn plugIn, ConfigManager config, Job job) {
+    /**
+     * Build the shell statement setting the version of the tool for the current shell session
+     * @param version the resolved version
+     * @param job the job contains informations like Action, tool name, version
+     * @return the job with the statement as result
+     */
+    private Job actionShellTool(String version, Job job) {
+        job.getTool().version = version;
+        var envName = ToolVersions.envName(job.getTool().toolName);
+        if (System.getProperty("os.name").toLowerCase(Locale.ROOT).startsWith("windows")){
+            job.setResult(String.format("set %s=%s", envName, version));
+        } else {
+            job.setResult(String.format("export %s=%s", envName, version));
+        }
+        job.setReturnedCode(0);
         return job;
     }
 
@@ -1094,34 +2485,90 @@ enum Action {
      * @param plugIn the plugin needed to do the real job
      * @param config the configManager
      * @param job the job contains informations like Action, tool name, version
-     * @return
+     * @return the job, once the version is installed or the install failed
      */
-    private Job actionInstallTool(PlugIn plugIn, ConfigManager config, Job job) {
+    private Uni<Job> actionInstallTool(PlugIn plugIn, ConfigManager config, Job job) {
         String toolName=job.getTool().toolName;
         String version = job.getTool().version;
         Log.info("Installing %s version %s", toolName, version);
+        var async = AsyncPlugIn.of(plugIn);
+        return locked("install", config, job, lock -> AsyncPlugIn.offload(job, () -> isInstallNeeded(plugIn, config, job, lock))
+                .onItem().transformToUni(needed -> !needed ? Uni.createFrom().item(job) : async.isVersionInstallable(version)
+                        .onItem().transformToUni(installable -> {
+                            if (!installable){
+                                Log.info(job.addMessage("The package %s with version %s can not be found by plugin", toolName, version));
+                                job.setReturnedCode(1);
+                                return Uni.createFrom().item(job);
+                            }
+                            var plugInSpan = Trace.asyncSpan(plugIn.getName()+" install", "plugin");
+                            return async.install(version).onTermination().invoke(plugInSpan::close)
+                                    .onItem().transformToUni(exitCode -> AsyncPlugIn.offload(job, () -> {
+                                        if (exitCode==0){
+                                            config.updateInstalledVersion(toolName, version, plugIn.getPath(version));
+                                        }
+                                        job.setReturnedCode(exitCode);
+                                        return job;
+                                    }));
+                        })));
+    }
+
+    /**
+     * Run an action holding the install lock of its version: the lock is waited for without a thread,
+     * then released by the thread ending the action
+     * @param name install or uninstall
+     * @param action the action, given the held lock
+     * @return the job of the action
+     */
+    private Uni<Job> locked(String name, ConfigManager config, Job job, Function<FileLocks.Held, Uni<Job>> action) {
+        String toolName=job.getTool().toolName;
+        String version = job.getTool().version;
+        var span = Trace.asyncSpan(name+" "+toolName+" "+version, "action");
+        return Uni.createFrom().<FileLocks.Held>emitter(emitter -> {
+            var acquiring = FileLocks.installAsync(config.getFolder(), toolName, version, BlockingPlugIn.WORKERS);
+            //0 waiting, 1 lock emitted, 2 cancelled: a lock taken after the cancellation is released at once
+            var state = new AtomicInteger();
+            acquiring.whenComplete((lock, error) -> {
+                if (error != null) emitter.fail(error instanceof CompletionException ? error.getCause() : error);
+                else if (state.compareAndSet(0, 1)) emitter.complete(lock);
+                else lock.close();
+            });
+            emitter.onTermination(() -> {
+                if (state.compareAndSet(0, 2)) acquiring.cancel(false);
+            });
+        }).onItem().transformToUni(lock -> action.apply(lock).onTermination().invoke(lock::close))
+                .onTermination().invoke(span::close);
+    }
+
+    /**
+     * @return true if the version has to be installed by its plugin, else the job is done
+     */
+    private boolean isInstallNeeded(PlugIn plugIn, ConfigManager config, Job job, FileLocks.Held lock) {
+        String toolName=job.getTool().toolName;
+        String version = job.getTool().version;
+        //another process may have installed this version since the config was read
+        config.reload();
         var physicalInst = plugIn.isInstalled(version);
         Log.debug("|--> version physically installed: %s", physicalInst);
         var configDeclaration = config.isInstalled(toolName, version);
         Log.debug("|--> version declared in config: %s", configDeclaration);
-        var stop  = physicalInst && configDeclaration;
-        if (stop){
-            Log.verbose(job.addMessage("The package %s (version: %s) is already installed. If you want to reinstall, please remove package first.", toolName, version));
+        if (physicalInst && configDeclaration){
+            if (lock.hasWaited()){
+                Log.info(job.addMessage("The package %s (version: %s) has been installed by another process.", toolName, version));
+            } else {
+                Log.verbose(job.addMessage("The package %s (version: %s) is already installed. If you want to reinstall, please remove package first.", toolName, version));
+            }
             job.setReturnedCode(0);
-            return job;
-        }
-        stop = !plugIn.isVersionInstallable(version);
-        if (stop){
-            Log.info(job.addMessage("The package %s with version %s can not be found by plugin", toolName, version));
-            job.setReturnedCode(1);
-            return job;
+            return false;
         }
-        var exitCode =  plugIn.install(version);
-        if (exitCode==0){
+        if (StagedInstall.isComplete(plugIn.getFolderForVersion(version))){
+            //published by a process whose registry write is still pending (batch) or was interrupted:
+            //installing again would move the live installation to the trash
+            Log.verbose(job.addMessage("The package %s (version: %s) is installed but not registered yet, registering it.", toolName, version));
             config.updateInstalledVersion(toolName, version, plugIn.getPath(version));
+            job.setReturnedCode(0);
+            return false;
         }
-        job.setReturnedCode(exitCode);
-        return job;
+        return true;
     }
 
     /**
@@ -1131,23 +2578,31 @@ enum Action {
      * @param job the job contains informations like Action, tool name, version
      * @return the job containing result informations
      */
-    private Job actionUninstallTool(PlugIn plugIn, ConfigManager config, Job job) {
+    private Uni<Job> actionUninstallTool(PlugIn plugIn, ConfigManager config, Job job) {
         String toolName=job.getTool().toolName;
         String version = job.getTool().version;
         Log.info("Uninstalling %s version %s", toolName, version);
-        var stop  = !(plugIn.isInstalled(version) && config.isInstalled(toolName, version));
-        if (stop){
-            Log.verbose(job.addMessage("The package %s (version: %s) is not installed.", toolName, version));
-            job.setReturnedCode(0);
-            return job;
-        }
-        var exitCode =  plugIn.uninstall(version);
-        if (exitCode==0){
-            //We save modification with configManager
-            config.updateUninstalledVersion(toolName, version);
-        }
-        job.setReturnedCode(exitCode);
-        return job;
+        return locked("uninstall", config, job, lock -> AsyncPlugIn.offload(job, () -> {
+                    config.reload();
+                    return plugIn.isInstalled(version) && config.isInstalled(toolName, version);
+                })
+                .onItem().transformToUni(installed -> {
+                    if (!installed){
+                        Log.verbose(job.addMessage("The package %s (version: %s) is not installed.", toolName, version));
+                        job.setReturnedCode(0);
+                        return Uni.createFrom().item(job);
+                    }
+                    var plugInSpan = Trace.asyncSpan(plugIn.getName()+" uninstall", "plugin");
+                    return AsyncPlugIn.of(plugIn).uninstall(version).onTermination().invoke(plugInSpan::close)
+                            .onItem().transformToUni(exitCode -> AsyncPlugIn.offload(job, () -> {
+                                if (exitCode==0){
+                                    //We save modification with configManager
+                                    config.updateUninstalledVersion(toolName, version);
+                                }
+                                job.setReturnedCode(exitCode);
+                                return job;
+                            }));
+                }));
     }
 }
 
@@ -1158,6 +2613,8 @@ class Job{
     private List<String> messages = new ArrayList<>();
     private Action action;
     private int returnedCode=-1;
+    /** value produced by the action (path, version, shell statement...) */
+    private String result;
 
     public String addMessage(String format, Object ...args){
         var msg = String.format(format, args);
@@ -1180,8 +2637,32 @@ class Job{
      * @return the job containing result informations
      */
     public Job doJob(Map<String,PlugIn> plugIns, ConfigManager config){
-        action.doAction(plugIns, config, this);
-        return this;
+        return doJobAsync(plugIns, config).await().indefinitely();
+    }
+
+    /**
+     * Run the job on subscription, traced from the subscription to its completion, failure or cancellation
+     * @param plugIns
+     * @param config
+     * @return the job containing result informations, when it is done
+     */
+    public Uni<Job> doJobAsync(Map<String,PlugIn> plugIns, ConfigManager config){
+        return Uni.createFrom().<Job>deferred(() -> {
+            //completed on the thread of the plugin: an async span
+            var span = Trace.asyncSpan(action.name().toLowerCase(Locale.ROOT)+" "+tool.toolName+" "+tool.version, "job");
+            JobEvents.publish(JobEvent.Type.STARTED, this);
+            //the blocking parts of the action are offloaded in the job of the current thread
+            var previous = JobEvents.enter(this);
+            try {
+                return action.doActionAsync(plugIns, config, this).onTermination().invoke(span::close);
+            } catch (RuntimeException e){
+                span.close();
+                throw e;
+            } finally {
+                JobEvents.enter(previous);
+            }
+        }).onItemOrFailure().invoke((job, failure) ->
+                JobEvents.publish(returnedCode == 0 ? JobEvent.Type.DONE : JobEvent.Type.FAILED, this));
     }
 
 }
@@ -1231,9 +2712,31 @@ class Jobs{
     }
 
     public Jobs doJob(Map<String,PlugIn> plugIns, ConfigManager config){
-        stream().forEach(j -> {
-            j.doJob(plugIns, config);
-        });
+        stream().forEach(j -> JobEvents.publish(JobEvent.Type.QUEUED, j));
+        try (var span = Trace.span(jobs.size()+" jobs", "jobs")) {
+            stream().forEach(j -> {
+                j.doJob(plugIns, config);
+            });
+        }
+        return this;
+    }
+
+    /**
+     * Run the jobs in parallel: jobs on the same version are serialized by its install lock,
+     * downloads and extractions are limited by the {@link Scheduler}
+     * @param threads the number of jobs run at the same time
+     */
+    public Jobs doJob(Map<String,PlugIn> plugIns, ConfigManager config, int threads){
+        if (threads <= 1 || jobs.size() <= 1){
+            return doJob(plugIns, config);
+        }
+        stream().forEach(j -> JobEvents.publish(JobEvent.Type.QUEUED, j));
+        try (var span = Trace.span(jobs.size()+" jobs on "+threads+" threads", "jobs")) {
+            Multi.createFrom().iterable(jobs)
+                    .onItem().transformToUni(j -> j.doJobAsync(plugIns, config)).merge(threads)
+                    .subscribe().asIterable()
+                    .forEach(j -> Log.debug("%s %s %s: %d", j.getAction(), j.getTool().toolName, j.getTool().version, j.getReturnedCode()));
+        }
         return this;
     }
 
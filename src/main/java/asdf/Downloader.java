@@ -0,0 +1,471 @@
+package asdf;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.InetSocketAddress;
+import java.net.ProxySelector;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Downloads used by the plugins (http, https and file URIs).
+ * A download is written in a temporary file, verified against its SHA-256 and renamed: the
+ * target is either complete or absent.
+ * Artifacts available on several mirrors are downloaded with hedged requests, see {@link Mirrors}.
+ * Artifacts with a known checksum are first asked to the peer caches ({@link CacheServer}).
+ * A request fails when its headers do not arrive within settings.limits.requestTimeoutMs and a transfer
+ * when no byte arrives during settings.limits.readIdleTimeoutMs.
+ */
+class Downloader {
+    private static final int BUFFER_SIZE = 64*1024;
+    private static final int MAX_ATTEMPTS = 4;
+    private static final long BASE_BACKOFF_MS = 250;
+    private static final long MAX_BACKOFF_MS = 8_000;
+    private static ProxySelector proxy = null;
+    private static HttpClient client = null;
+
+    private Downloader(){}
+
+    /**
+     * Use a proxy for the next downloads
+     * @param host the proxy host
+     * @param port the proxy port
+     */
+    static synchronized void setProxy(String host, int port){
+        proxy = ProxySelector.of(new InetSocketAddress(host, port));
+        client = null;
+    }
+
+    static synchronized HttpClient client(){
+        if (client == null){
+            var builder = HttpClient.newBuilder()
+                    .followRedirects(HttpClient.Redirect.NORMAL)
+                    .connectTimeout(Duration.ofSeconds(30));
+            if (proxy != null){
+                builder.proxy(proxy);
+            }
+            client = builder.build();
+        }
+        return client;
+    }
+
+    /**
+     * @param uri http(s) or file URI
+     * @return the content, to be closed
+     */
+    static InputStream open(URI uri) throws IOException {
+        return opened(uri).body;
+    }
+
+    private static Opened opened(URI uri) throws IOException {
+        if ("file".equals(uri.getScheme())){
+            Path path = Path.of(uri);
+            return new Opened(uri, Files.newInputStream(path), Files.size(path));
+        }
+        try {
+            var response = client().send(request(uri), HttpResponse.BodyHandlers.ofInputStream());
+            if (response.statusCode() != 200){
+                response.body().close();
+                throw new IOException(String.format("%s: HTTP %d", uri, response.statusCode()));
+            }
+            return new Opened(uri, idleTimeout(uri, response.body()), contentLength(response));
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private static HttpRequest request(URI uri){
+        var builder = HttpRequest.newBuilder(uri).GET();
+        long timeoutMs = ConfigManager.intance.getSettings().getLimits().getRequestTimeoutMs();
+        if (timeoutMs > 0){
+            builder.timeout(Duration.ofMillis(timeoutMs));
+        }
+        return builder.build();
+    }
+
+    private static InputStream idleTimeout(URI uri, InputStream body){
+        long timeoutMs = ConfigManager.intance.getSettings().getLimits().getReadIdleTimeoutMs();
+        return timeoutMs > 0 ? new IdleTimeoutInputStream(uri, body, timeoutMs) : body;
+    }
+
+    private static long contentLength(HttpResponse<?> response){
+        return response.headers().firstValueAsLong("Content-Length").orElse(-1);
+    }
+
+    /**
+     * Download a file unless the target already exists with the expected checksum.
+     * The file is taken from the URI or one of its mirrors ({@link Mirrors#candidates(URI)}).
+     * @param uri the source
+     * @param target the file to write
+     * @param sha256 the expected SHA-256 in hexadecimal, null if unknown
+     */
+    static void download(URI uri, Path target, String sha256) throws IOException {
+        try (var timer = Metrics.time(Metrics.Phase.DOWNLOAD)) {
+            if (isCached(target, sha256) || (sha256 != null && fromPeers(target, sha256))){
+                return;
+            }
+            downloadMissing(Mirrors.candidates(uri), target, sha256);
+        }
+    }
+
+    /**
+     * The target is hashed once: by the caller checking the archive cache, not again by the peers and mirrors
+     * @return true if the target already exists with the expected checksum
+     */
+    private static boolean isCached(Path target, String sha256) throws IOException {
+        if (sha256 != null && Files.isRegularFile(target) && sha256.equalsIgnoreCase(InstallManifest.sha256(target))){
+            Log.verbose("%s already downloaded", target);
+            Metrics.count(Metrics.Counter.ARCHIVE_CACHE_HIT);
+            return true;
+        }
+        Metrics.count(Metrics.Counter.ARCHIVE_CACHE_MISS);
+        return false;
+    }
+
+    /**
+     * Try the archive caches of the other nodes (settings.peers) one by one, the target not being cached
+     * @return true if a peer sent the file with the expected checksum
+     */
+    private static boolean fromPeers(Path target, String sha256) throws IOException {
+        var peers = ConfigManager.intance.getSettings().getPeers();
+        if (peers.isEmpty()){
+            return false;
+        }
+        var mirrors = Mirrors.get();
+        try {
+            for (String peer : peers){
+                var uri = URI.create(peer.endsWith("/") ? peer : peer+"/")
+                        .resolve(CacheServer.PATH_PREFIX.substring(1)+sha256.toLowerCase());
+                if (mirrors.isOpen(uri)){
+                    continue;
+                }
+                try {
+                    fetch(mirrors, List.of(uri), target, sha256);
+                    Metrics.count(Metrics.Counter.PEER_HIT);
+                    Log.verbose("%s downloaded from the peer %s", target.getFileName(), peer);
+                    return true;
+                } catch (ConnectException | HttpTimeoutException e){
+                    //unreachable peer: skipped once its circuit opens
+                    mirrors.recordFailure(uri);
+                    Log.verbose("peer %s: %s", peer, e.getMessage());
+                } catch (IOException e){
+                    Log.verbose("peer %s: %s", peer, e.getMessage());
+                }
+            }
+            Metrics.count(Metrics.Counter.PEER_MISS);
+            return false;
+        } finally {
+            mirrors.save();
+        }
+    }
+
+    /**
+     * Download a file from the fastest of several sources, retried with an exponential backoff
+     * @param sources the same file on several mirrors
+     * @param target the file to write
+     * @param sha256 the expected SHA-256 in hexadecimal, null if unknown
+     */
+    static void download(List<URI> sources, Path target, String sha256) throws IOException {
+        if (!isCached(target, sha256)){
+            downloadMissing(sources, target, sha256);
+        }
+    }
+
+    private static void downloadMissing(List<URI> sources, Path target, String sha256) throws IOException {
+        var mirrors = Mirrors.get();
+        IOException last = null;
+        try {
+            for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++){
+                if (attempt > 0){
+                    Metrics.count(Metrics.Counter.DOWNLOAD_RETRIES);
+                    sleep(backoffMs(attempt));
+                }
+                try {
+                    fetch(mirrors, mirrors.order(sources), target, sha256);
+                    return;
+                } catch (IOException e){
+                    Log.verbose("download attempt %d of %s failed: %s", attempt+1, target.getFileName(), e.getMessage());
+                    last = e;
+                }
+            }
+        } finally {
+            mirrors.save();
+        }
+        throw last;
+    }
+
+    /**
+     * @return 250ms, 500ms, 1s... up to 8s, with a random jitter of up to 50%
+     */
+    static long backoffMs(int attempt){
+        long base = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(attempt-1, 10));
+        return base + ThreadLocalRandom.current().nextLong(base/2+1);
+    }
+
+    private static void sleep(long ms) throws IOException {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        }
+    }
+
+    private static void fetch(Mirrors mirrors, List<URI> sources, Path target, String sha256) throws IOException {
+        Files.createDirectories(target.getParent());
+        var opened = race(mirrors, sources);
+        Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".part");
+        try {
+            Log.verbose("downloading %s", opened.uri);
+            var digest = sha256();
+            long bytes = 0;
+            long start = System.nanoTime();
+            try (InputStream is = Scheduler.get().throttle(opened.body); OutputStream os = Files.newOutputStream(tmp)) {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = is.read(buffer)) > 0){
+                    digest.update(buffer, 0, read);
+                    os.write(buffer, 0, read);
+                    bytes += read;
+                    JobEvents.progress(JobEvent.Type.DOWNLOADED, bytes, opened.length);
+                }
+            } catch (IOException e){
+                mirrors.recordFailure(opened.uri);
+                throw e;
+            }
+            var actual = hex(digest.digest());
+            if (sha256 != null && !sha256.equalsIgnoreCase(actual)){
+                mirrors.recordFailure(opened.uri);
+                throw new IOException(String.format("%s: checksum %s instead of %s", opened.uri, actual, sha256));
+            }
+            mirrors.recordSuccess(opened.uri, bytes, (System.nanoTime()-start)/1_000_000);
+            Metrics.count(Metrics.Counter.DOWNLOADED_BYTES, bytes);
+            Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static class Opened {
+        final URI uri;
+        final InputStream body;
+        /** content length, -1 if unknown */
+        final long length;
+
+        Opened(URI uri, InputStream body, long length){
+            this.uri = uri;
+            this.body = body;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Hedged request: ask the first source; each time the current source does not answer within the
+     * p95 of its time to first byte (or fails), ask the next one as well. The first answer wins, the
+     * other transfers are cancelled.
+     */
+    private static Opened race(Mirrors mirrors, List<URI> sources) throws IOException {
+        if (sources.size() == 1 || "file".equals(sources.get(0).getScheme())){
+            return opened(sources.get(0));
+        }
+        BlockingQueue<Object> answers = new LinkedBlockingQueue<>();
+        AtomicBoolean decided = new AtomicBoolean();
+        List<CompletableFuture<?>> pending = new ArrayList<>();
+        int started = 0;
+        int failed = 0;
+        IOException lastFailure = null;
+        try {
+            while (true){
+                if (started == failed && started < sources.size()){
+                    pending.add(start(mirrors, sources.get(started++), answers, decided));
+                }
+                Object answer;
+                if (started < sources.size()){
+                    answer = answers.poll(mirrors.hedgeDelayMs(sources.get(started-1)), TimeUnit.MILLISECONDS);
+                    if (answer == null){
+                        Log.verbose("%s is slow, asking %s", sources.get(started-1), sources.get(started));
+                        pending.add(start(mirrors, sources.get(started++), answers, decided));
+                        continue;
+                    }
+                } else {
+                    answer = answers.take();
+                }
+                if (answer instanceof Opened){
+                    return (Opened) answer;
+                }
+                lastFailure = (IOException) answer;
+                if (++failed == sources.size()){
+                    throw lastFailure;
+                }
+            }
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            synchronized (answers){
+                decided.set(true);
+                //the answers arrived after the winner are not read
+                answers.stream().filter(a -> a instanceof Opened).forEach(a -> closeQuietly(((Opened) a).body));
+                answers.clear();
+            }
+            pending.forEach(f -> f.cancel(true));
+        }
+    }
+
+    /**
+     * @return the future of the request itself: cancelling it cancels the request
+     */
+    private static CompletableFuture<?> start(Mirrors mirrors, URI uri, BlockingQueue<Object> answers, AtomicBoolean decided){
+        long start = System.nanoTime();
+        var request = client().sendAsync(request(uri), HttpResponse.BodyHandlers.ofInputStream());
+        request.whenComplete((response, error) -> {
+            Object answer;
+            if (error != null){
+                var cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+                if (cause instanceof CancellationException){
+                    return; //lost the race
+                }
+                mirrors.recordFailure(uri);
+                answer = cause instanceof HttpTimeoutException
+                        ? new HttpTimeoutException(uri+": "+cause.getMessage())
+                        : new IOException(uri+": "+cause.getMessage(), cause);
+            } else if (response.statusCode() != 200){
+                mirrors.recordFailure(uri);
+                closeQuietly(response.body());
+                answer = new IOException(String.format("%s: HTTP %d", uri, response.statusCode()));
+            } else {
+                mirrors.recordFirstByte(uri, (System.nanoTime()-start)/1_000_000);
+                answer = new Opened(uri, idleTimeout(uri, response.body()), contentLength(response));
+            }
+            synchronized (answers){
+                if (decided.get()){
+                    //lost the race: cancel the transfer
+                    if (answer instanceof Opened) closeQuietly(((Opened) answer).body);
+                } else {
+                    answers.add(answer);
+                }
+            }
+        });
+        return request;
+    }
+
+    private static void closeQuietly(InputStream is){
+        try {
+            is.close();
+        } catch (IOException e){
+            //cancelled transfer
+        }
+    }
+
+    /**
+     * A response body failing when no byte arrives during the timeout: a watchdog closes the stream,
+     * which ends the blocked read, and the read fails with an {@link HttpTimeoutException}.
+     */
+    private static class IdleTimeoutInputStream extends FilterInputStream {
+        private final URI uri;
+        private final long timeoutNanos;
+        private final ScheduledFuture<?> watch;
+        private volatile long lastRead = System.nanoTime();
+        private volatile boolean timedOut;
+
+        IdleTimeoutInputStream(URI uri, InputStream in, long timeoutMs){
+            super(in);
+            this.uri = uri;
+            this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+            long period = Math.max(10, timeoutMs/4);
+            this.watch = Watchdog.EXECUTOR.scheduleWithFixedDelay(this::check, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        private void check(){
+            if (!timedOut && System.nanoTime()-lastRead > timeoutNanos){
+                timedOut = true;
+                closeQuietly(in);
+            }
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b;
+            try {
+                b = super.read();
+            } catch (IOException e){
+                throw timedOut ? timeout() : e;
+            }
+            return progress(b);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read;
+            try {
+                read = super.read(b, off, len);
+            } catch (IOException e){
+                throw timedOut ? timeout() : e;
+            }
+            return progress(read);
+        }
+
+        private int progress(int read) throws IOException {
+            if (timedOut){
+                //the closed body may look like the end of the transfer
+                throw timeout();
+            }
+            lastRead = System.nanoTime();
+            return read;
+        }
+
+        private HttpTimeoutException timeout(){
+            return new HttpTimeoutException(String.format("%s: no data during %d ms", uri, TimeUnit.NANOSECONDS.toMillis(timeoutNanos)));
+        }
+
+        @Override
+        public void close() throws IOException {
+            watch.cancel(false);
+            super.close();
+        }
+    }
+
+    /**
+     * Thread of the read timeouts, started by the first http download
+     */
+    private static class Watchdog {
+        static final ScheduledExecutorService EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "download watchdog");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    static MessageDigest sha256(){
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String hex(byte[] bytes){
+        StringBuilder sb = new StringBuilder();
+        for (byte b : bytes){
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,369 @@
+package asdf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Plugins of third parties, loaded from the jars of config/plugins:
+ * <pre>
+ * config/plugins/index.yml      name -&gt; jar, class, capabilities
+ * config/plugins/&lt;jar&gt;          a jar declaring its plugins in META-INF/services/asdf.PlugIn
+ * </pre>
+ * <ul>
+ *     <li>{@code qsdf plugin add} opens the jar once and writes its plugin in the index</li>
+ *     <li>a command only reads the index: each plugin is an {@link ExternalPlugIn} whose jar is opened
+ *     on its first call, so a command loads the classes of the plugins it uses only</li>
+ *     <li>each jar has its own {@link PlugInClassLoader}: a plugin sees the JDK, the API of qsdf
+ *     ({@link PlugIn}, {@link PlugInSupport}, {@link OfflineMirror.Artifact}) and its jar, not the other
+ *     classes nor the libraries of qsdf</li>
+ * </ul>
+ * The native executable cannot load classes at runtime: there, an external plugin fails on its first call.
+ */
+class ExternalPlugIns {
+    public static final String PLUGINS_FOLDER = "plugins";
+    public static final String INDEX_FILE = "index.yml";
+    /** the plugin gives the artifacts of its versions to qsdf mirror sync */
+    public static final String CAPABILITY_MIRROR = "mirror";
+
+    @Data
+    @NoArgsConstructor
+    static class Index {
+        private int format = 1;
+        private Map<String, Entry> plugins = new TreeMap<>();
+    }
+
+    @Data
+    @NoArgsConstructor
+    static class Entry {
+        private String name;
+        /** file name of the jar in the plugins folder */
+        private String jar;
+        private String className;
+        private List<String> capabilities = new ArrayList<>();
+    }
+
+    private ExternalPlugIns(){}
+
+    /**
+     * @param config the config
+     * @return the plugins folder of the config folder
+     */
+    static File folder(ConfigManager config){
+        return new File(config.getFolder(), PLUGINS_FOLDER);
+    }
+
+    /**
+     * @param config the config
+     * @return the index, empty if there is none
+     */
+    static Index read(ConfigManager config){
+        File file = new File(folder(config), INDEX_FILE);
+        if (!file.isFile()){
+            return new Index();
+        }
+        try {
+            return new ObjectMapper(new YAMLFactory()).readValue(file, Index.class);
+        } catch (IOException e){
+            Log.error("cannot read the plugin index %s: %s", file, e.getMessage());
+            return new Index();
+        }
+    }
+
+    /**
+     * @param config the config
+     * @return the external plugins by name, none loaded
+     */
+    static Map<String, PlugIn> plugIns(ConfigManager config){
+        Map<String, PlugIn> plugIns = new TreeMap<>();
+        File folder = folder(config);
+        read(config).getPlugins().forEach((name, entry) -> plugIns.put(name, new ExternalPlugIn(new File(folder, entry.getJar()), entry)));
+        return plugIns;
+    }
+
+    /**
+     * Copy a jar in the plugins folder and index its plugin
+     * @param config the config
+     * @param name the name of the plugin to index
+     * @param source path or http(s)/file URI of the jar
+     * @return the indexed entry
+     */
+    static Entry add(ConfigManager config, String name, String source) throws IOException {
+        URI uri = source.matches("^(https?|file):.*") ? URI.create(source) : new File(source).getAbsoluteFile().toURI();
+        var fileName = Path.of(uri.getPath()).getFileName().toString();
+        if (!fileName.endsWith(".jar")){
+            throw new IOException(String.format("%s is not a jar", source));
+        }
+        File folder = folder(config);
+        Files.createDirectories(folder.toPath());
+        try (var lock = FileLocks.registry(config.getFolder())) {
+            var index = read(config);
+            var used = index.getPlugins().values().stream()
+                    .filter(e -> e.getJar().equals(fileName) && !e.getName().equals(name))
+                    .map(Entry::getName)
+                    .findFirst();
+            if (used.isPresent()){
+                throw new IOException(String.format("%s is already used by the plugin %s", fileName, used.get()));
+            }
+            Path tmp = Files.createTempFile(folder.toPath(), "."+fileName, ".tmp");
+            try {
+                try (InputStream is = Downloader.open(uri)) {
+                    Files.copy(is, tmp, StandardCopyOption.REPLACE_EXISTING);
+                }
+                Entry entry = inspect(tmp.toFile(), name);
+                entry.setJar(fileName);
+                Files.move(tmp, folder.toPath().resolve(fileName), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                index.getPlugins().put(name, entry);
+                write(config, index);
+                return entry;
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        }
+    }
+
+    /**
+     * Remove a plugin from the index and its jar
+     * @param config the config
+     * @param name the plugin
+     * @return the removed entry, empty if the plugin is not indexed
+     */
+    static Optional<Entry> remove(ConfigManager config, String name) throws IOException {
+        try (var lock = FileLocks.registry(config.getFolder())) {
+            var index = read(config);
+            var entry = index.getPlugins().remove(name);
+            if (entry == null){
+                return Optional.empty();
+            }
+            write(config, index);
+            if (index.getPlugins().values().stream().noneMatch(e -> e.getJar().equals(entry.getJar()))){
+                Files.deleteIfExists(folder(config).toPath().resolve(entry.getJar()));
+            }
+            return Optional.of(entry);
+        }
+    }
+
+    /**
+     * Find the plugin in the jar: its class and its capabilities
+     */
+    private static Entry inspect(File jar, String name) throws IOException {
+        try (URLClassLoader loader = loader(jar)) {
+            List<String> found = new ArrayList<>();
+            for (var provider : (Iterable<ServiceLoader.Provider<PlugIn>>) ServiceLoader.load(PlugIn.class, loader).stream()::iterator){
+                if (provider.type().getClassLoader() != loader){
+                    continue; //not a class of the jar
+                }
+                PlugIn plugIn = provider.get();
+                if (!plugIn.getName().equals(name)){
+                    found.add(plugIn.getName());
+                    continue;
+                }
+                Entry entry = new Entry();
+                entry.setName(name);
+                entry.setClassName(provider.type().getName());
+                if (overrides(provider.type(), "getArtifacts", String.class)){
+                    entry.getCapabilities().add(CAPABILITY_MIRROR);
+                }
+                return entry;
+            }
+            throw new IOException(found.isEmpty()
+                    ? String.format("no plugin declared in META-INF/services/%s of %s", PlugIn.class.getName(), jar.getName())
+                    : String.format("no plugin %s in the jar, found: %s", name, String.join(", ", found)));
+        } catch (ServiceConfigurationError | LinkageError e){
+            throw new IOException(String.format("invalid plugin jar: %s", e.getMessage()), e);
+        }
+    }
+
+    private static boolean overrides(Class<?> type, String method, Class<?>... parameters){
+        try {
+            Method m = type.getMethod(method, parameters);
+            return m.getDeclaringClass() != PlugIn.class;
+        } catch (NoSuchMethodException e){
+            return false;
+        }
+    }
+
+    /**
+     * @param jar a plugin jar
+     * @return a class loader of the jar and the qsdf classes
+     */
+    static URLClassLoader loader(File jar) throws IOException {
+        return new PlugInClassLoader("plugin "+jar.getName(), new URL[]{jar.toURI().toURL()}, PlugIn.class.getClassLoader());
+    }
+
+    /**
+     * Class loader of a plugin jar, with a filtered parent: the classes of the API come from qsdf, the others
+     * from the JDK (platform class loader) then from the jar. A plugin bundles its own libraries, whatever
+     * the versions used by qsdf, which it does not see; the internal classes of qsdf are hidden as well.
+     */
+    static class PlugInClassLoader extends URLClassLoader {
+        /** the classes a plugin is compiled against; the default methods of PlugIn use the internal ones from qsdf */
+        private static final Set<String> API = Set.of(PlugIn.class.getName(), PlugInSupport.class.getName(),
+                OfflineMirror.Artifact.class.getName());
+        private final ClassLoader qsdf;
+
+        PlugInClassLoader(String name, URL[] urls, ClassLoader qsdf){
+            super(name, urls, ClassLoader.getPlatformClassLoader());
+            this.qsdf = qsdf;
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (API.contains(name)){
+                return qsdf.loadClass(name);
+            }
+            return super.loadClass(name, resolve);
+        }
+    }
+
+    /**
+     * Write the index atomically: a command reading it never sees a partial file
+     */
+    private static void write(ConfigManager config, Index index) throws IOException {
+        Path folder = folder(config).toPath();
+        Path tmp = Files.createTempFile(folder, "."+INDEX_FILE, ".tmp");
+        try {
+            new ObjectMapper(new YAMLFactory()).writeValue(tmp.toFile(), index);
+            Files.move(tmp, folder.resolve(INDEX_FILE), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+}
+
+/**
+ * An external plugin, loaded on its first call: its name and capabilities come from the index.
+ * If the jar cannot be loaded, the error is logged once and the calls fail (code 1, nothing installed).
+ */
+class ExternalPlugIn implements PlugIn {
+    private final File jar;
+    private final ExternalPlugIns.Entry entry;
+    private volatile PlugIn plugIn;
+    private volatile boolean failed;
+
+    ExternalPlugIn(File jar, ExternalPlugIns.Entry entry){
+        this.jar = jar;
+        this.entry = entry;
+    }
+
+    ExternalPlugIns.Entry getEntry(){
+        return entry;
+    }
+
+    /**
+     * @return the plugin, loaded in its own class loader on the first call; empty if it cannot be loaded
+     */
+    Optional<PlugIn> loaded(){
+        var loaded = plugIn;
+        if (loaded != null || failed){
+            return Optional.ofNullable(loaded);
+        }
+        synchronized (this){
+            if (plugIn == null && !failed){
+                try (var span = Trace.span("load plugin "+entry.getName(), "plugin")) {
+                    //the loader stays open: the plugin loads its classes lazily
+                    var loader = ExternalPlugIns.loader(jar);
+                    plugIn = Class.forName(entry.getClassName(), true, loader)
+                            .asSubclass(PlugIn.class)
+                            .getDeclaredConstructor()
+                            .newInstance();
+                    Log.debug("plugin %s loaded from %s", entry.getName(), jar);
+                } catch (IOException | ReflectiveOperationException | LinkageError | ClassCastException e){
+                    failed = true;
+                    Log.error("cannot load the plugin %s from %s: %s", entry.getName(), jar, e.getMessage());
+                }
+            }
+            return Optional.ofNullable(plugIn);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return entry.getName();
+    }
+
+    @Override
+    public File getExecutable(String version) {
+        return loaded().map(p -> p.getExecutable(version)).orElseGet(() -> PlugIn.super.getExecutable(version));
+    }
+
+    @Override
+    public String getHomeVariable() {
+        return loaded().map(PlugIn::getHomeVariable).orElseGet(PlugIn.super::getHomeVariable);
+    }
+
+    @Override
+    public File getFolderForVersion(String version) {
+        return loaded().map(p -> p.getFolderForVersion(version)).orElseGet(() -> PlugIn.super.getFolderForVersion(version));
+    }
+
+    @Override
+    public File getFolderShim() {
+        return loaded().map(PlugIn::getFolderShim).orElseGet(PlugIn.super::getFolderShim);
+    }
+
+    @Override
+    public List<OfflineMirror.Artifact> getArtifacts(String version) {
+        if (!entry.getCapabilities().contains(ExternalPlugIns.CAPABILITY_MIRROR)){
+            return List.of(); //known from the index, the jar is not opened
+        }
+        return loaded().map(p -> p.getArtifacts(version)).orElse(List.of());
+    }
+
+    @Override
+    public List<String> getAllRemoteVersions() {
+        return loaded().map(PlugIn::getAllRemoteVersions).orElse(List.of());
+    }
+
+    @Override
+    public boolean isVersionInstallable(String version) {
+        return loaded().map(p -> p.isVersionInstallable(version)).orElse(false);
+    }
+
+    @Override
+    public int install(String version) {
+        return loaded().map(p -> p.install(version)).orElse(1);
+    }
+
+    @Override
+    public int createShims() {
+        return loaded().map(PlugIn::createShims).orElse(1);
+    }
+
+    @Override
+    public int deleteShims() {
+        return loaded().map(PlugIn::deleteShims).orElse(1);
+    }
+
+    @Override
+    public int uninstall(String version) {
+        return loaded().map(p -> p.uninstall(version)).orElse(1);
+    }
+
+    @Override
+    public File getPath(String version) {
+        return loaded().map(p -> p.getPath(version)).orElseGet(() -> getFolderForVersion(version));
+    }
+
+    @Override
+    public boolean isInstalled(String version) {
+        return loaded().map(p -> p.isInstalled(version)).orElse(false);
+    }
+
+    private IllegalStateException notLoaded(){
+        return new IllegalStateException(String.format("the plugin %s cannot be loaded from %s", entry.getName(), jar));
+    }
+}
@@ -0,0 +1,326 @@
+package asdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+
+/**
+ * Locks shared between qsdf processes, based on {@link FileChannel#lock()} on files of config/locks:
+ * <ul>
+ *     <li>one lock per (tool, version) held during install and uninstall</li>
+ *     <li>one registry lock held while config.yml is read, modified and written</li>
+ *     <li>one prefetch lock held while a shim checks the prefetch process and starts it</li>
+ *     <li>one lock per metrics text file, next to it, held while it is merged with the metrics of a process</li>
+ * </ul>
+ * A file lock is held by the whole JVM, so the owners of the same process are serialized first, in
+ * order of arrival; the file lock is taken by the first hold only. The owner is the calling thread,
+ * which can enter again, or for {@link #installAsync} the returned lock, which any thread can close.
+ */
+class FileLocks {
+    public static final String LOCK_FOLDER = "locks";
+    private static final Map<File, ProcessLock> LOCKS = new ConcurrentHashMap<>();
+
+    private FileLocks(){}
+
+    /**
+     * Block until no other thread or process installs or uninstalls this version
+     * @param configFolder the config folder
+     * @param toolName the tool
+     * @param version the version
+     * @return the held lock, to be closed by this thread
+     */
+    public static Held install(File configFolder, String toolName, String version){
+        return lock(installFile(configFolder, toolName, version));
+    }
+
+    /**
+     * Wait, without taking a thread, until no other thread or process installs or uninstalls this version
+     * @param configFolder the config folder
+     * @param toolName the tool
+     * @param version the version
+     * @param executor the threads completing the lock: taking the file lock blocks while another process holds it
+     * @return the held lock, to be closed by any thread. Cancelled, the lock is not taken or released at once.
+     */
+    public static CompletableFuture<Held> installAsync(File configFolder, String toolName, String version, Executor executor){
+        return lockAsync(installFile(configFolder, toolName, version), executor);
+    }
+
+    /**
+     * Block until no other thread or process writes config.yml
+     * @param configFolder the config folder
+     * @return the held lock, to be closed
+     */
+    public static Held registry(File configFolder){
+        return lock(new File(configFolder, LOCK_FOLDER+File.separator+"config.lock"));
+    }
+
+    /**
+     * Block until no other thread or process checks or starts the prefetch ({@link AutoInstall})
+     * @param configFolder the config folder
+     * @return the held lock, to be closed
+     */
+    public static Held prefetch(File configFolder){
+        return lock(new File(configFolder, LOCK_FOLDER+File.separator+"prefetch.lock"));
+    }
+
+    /**
+     * Block until no other thread or process writes the metrics text file, whatever its config folder
+     * @param textfile the metrics file
+     * @return the held lock, to be closed
+     */
+    public static Held metrics(Path textfile){
+        Path file = textfile.toAbsolutePath();
+        return lock(file.resolveSibling("."+file.getFileName()+".lock").toFile());
+    }
+
+    private static File installFile(File configFolder, String toolName, String version){
+        return new File(configFolder, LOCK_FOLDER+File.separator+safe(toolName)+File.separator+safe(version)+".lock");
+    }
+
+    private static ProcessLock use(File file){
+        return LOCKS.compute(file.getAbsoluteFile(), (k, v) -> (v == null ? new ProcessLock(k) : v).use());
+    }
+
+    private static Held lock(File file){
+        var lock = use(file);
+        long start = System.nanoTime();
+        Object owner = Thread.currentThread();
+        boolean waited;
+        try {
+            var entered = lock.enter(owner);
+            waited = !entered.isDone();
+            if (waited){
+                Log.verbose("waiting for lock %s", file);
+            }
+            if (entered.join() && lock.lockFile(owner)){
+                waited = true;
+            }
+        } catch (RuntimeException e){
+            unuse(lock);
+            throw e;
+        }
+        return held(lock, owner, waited, start);
+    }
+
+    private static CompletableFuture<Held> lockAsync(File file, Executor executor){
+        var lock = use(file);
+        long start = System.nanoTime();
+        Object owner = new Object();
+        var entered = lock.enter(owner);
+        boolean queued = !entered.isDone();
+        if (queued){
+            Log.verbose("waiting for lock %s", file);
+        }
+        var result = new CompletableFuture<Held>();
+        entered.whenComplete((first, error) -> {
+            if (error != null){ //cancelled while queued
+                unuse(lock);
+                result.completeExceptionally(error);
+                return;
+            }
+            executor.execute(() -> {
+                Held held;
+                try {
+                    held = held(lock, owner, lock.lockFile(owner) || queued, start);
+                } catch (RuntimeException e){
+                    unuse(lock);
+                    result.completeExceptionally(e);
+                    return;
+                }
+                if (!result.complete(held)){
+                    held.close();
+                }
+            });
+        });
+        result.whenComplete((held, error) -> {
+            if (result.isCancelled()) entered.cancel(false);
+        });
+        return result;
+    }
+
+    private static Held held(ProcessLock lock, Object owner, boolean waited, long start){
+        var name = lock.file.getParentFile().getName()+"/"+lock.file.getName();
+        if (waited){
+            Trace.complete("wait "+name, "lock", start, System.nanoTime(), Map.of("file", lock.file.getPath()));
+        }
+        return new Held(lock, owner, waited, name);
+    }
+
+    /**
+     * Forget the lock of a file once no owner holds or waits for it: one entry per version installed
+     * would be kept otherwise. An owner asking the lock at the same time finds the entry or creates a new one.
+     */
+    private static void unuse(ProcessLock lock){
+        LOCKS.computeIfPresent(lock.file, (k, v) -> v.unuse() ? null : v);
+    }
+
+    /**
+     * @return the number of files locked, or waited for, by the owners of this process
+     */
+    static int size(){
+        return LOCKS.size();
+    }
+
+    private static String safe(String name){
+        return name.replaceAll("[^A-Za-z0-9._+-]", "_");
+    }
+
+    /**
+     * A held lock
+     */
+    static class Held implements AutoCloseable {
+        private final ProcessLock lock;
+        private final Object owner;
+        private final boolean waited;
+        private final String name;
+        private final long acquired = System.nanoTime();
+
+        private Held(ProcessLock lock, Object owner, boolean waited, String name){
+            this.lock = lock;
+            this.owner = owner;
+            this.waited = waited;
+            this.name = name;
+        }
+
+        /**
+         * @return true if another owner or process held the lock when it was asked
+         */
+        public boolean hasWaited(){
+            return waited;
+        }
+
+        @Override
+        public void close(){
+            lock.exit(owner);
+            unuse(lock);
+            Trace.complete("hold "+name, "lock", acquired, System.nanoTime(), null);
+        }
+    }
+
+    private static class ProcessLock {
+        private final File file;
+        /** owners waiting in order of arrival, completed with true when they hold the lock */
+        private final Deque<Map.Entry<Object, CompletableFuture<Boolean>>> waiters = new ArrayDeque<>();
+        private Object owner;
+        private int holds;
+        private FileChannel channel;
+        private FileLock fileLock;
+        /** holds and waits of the owners, changed in the map only */
+        private int users;
+
+        ProcessLock(File file){
+            this.file = file;
+        }
+
+        ProcessLock use(){
+            users++;
+            return this;
+        }
+
+        /**
+         * @return true if no owner uses the lock any more
+         */
+        boolean unuse(){
+            return --users == 0;
+        }
+
+        /**
+         * @param owner the thread or the asynchronous holder
+         * @return completed with true when the owner holds the lock for the first time (it takes the file
+         * lock), with false when it enters again
+         */
+        synchronized CompletableFuture<Boolean> enter(Object owner){
+            if (this.owner == null){
+                this.owner = owner;
+                holds = 1;
+                return CompletableFuture.completedFuture(true);
+            }
+            if (this.owner == owner){
+                holds++;
+                return CompletableFuture.completedFuture(false);
+            }
+            var granted = new CompletableFuture<Boolean>();
+            waiters.add(Map.entry(owner, granted));
+            return granted;
+        }
+
+        /**
+         * Take the file lock for the owner entered first, which exits if it fails
+         * @return true if another process held it
+         */
+        boolean lockFile(Object owner){
+            FileChannel opened = null;
+            try {
+                file.getParentFile().mkdirs();
+                opened = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock locked = opened.tryLock();
+                boolean waited = locked == null;
+                if (waited){
+                    Log.verbose("waiting for lock %s held by another process", file);
+                    locked = opened.lock();
+                }
+                //released by the thread closing the lock
+                synchronized (this){
+                    channel = opened;
+                    fileLock = locked;
+                }
+                return waited;
+            } catch (IOException e){
+                try {
+                    if (opened != null) opened.close();
+                } catch (IOException ignored){
+                    //already failing
+                }
+                exit(owner);
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Release a hold of the owner: the last one gives the lock to the next waiting owner
+         */
+        synchronized void exit(Object owner){
+            if (this.owner != owner){
+                throw new IllegalMonitorStateException(file+" is not held by this owner");
+            }
+            if (--holds > 0){
+                return;
+            }
+            closeChannel();
+            this.owner = null;
+            Map.Entry<Object, CompletableFuture<Boolean>> next;
+            while ((next = waiters.poll()) != null){
+                this.owner = next.getKey();
+                holds = 1;
+                if (next.getValue().complete(true)){
+                    return;
+                }
+                //cancelled while waiting
+                this.owner = null;
+                holds = 0;
+            }
+        }
+
+        private void closeChannel(){
+            try {
+                if (fileLock != null) fileLock.release();
+                if (channel != null) channel.close();
+            } catch (IOException e){
+                Log.error(e.getMessage());
+            } finally {
+                fileLock = null;
+                channel = null;
+            }
+        }
+    }
+}
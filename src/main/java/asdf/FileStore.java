@@ -0,0 +1,174 @@
+package asdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed store of installed files (config/store), enabled by the dedup setting.
+ * Identical files of different installations are hardlinks to one stored object, named by the
+ * SHA-256 and the mode of the file (hardlinks share the mode).
+ * <p>
+ * A write through one link would change the file of every installation sharing the object, so the
+ * objects are read-only: the write permissions of linked files are removed, and recorded as such in
+ * the manifest. Without posix permissions, files are not linked.
+ * <p>
+ * The reference count of an object is its link count minus one (the store itself): when an
+ * installation is removed, objects without any other link are deleted.
+ */
+class FileStore {
+    public static final String STORE_FOLDER = "store";
+    private static final String NLINK = "unix:nlink";
+
+    private final File root;
+
+    FileStore(File configFolder){
+        this.root = new File(configFolder, STORE_FOLDER);
+    }
+
+    /**
+     * @return the store of the config folder if the dedup setting is enabled
+     */
+    static FileStore ifEnabled(){
+        var config = ConfigManager.intance;
+        return config.getSettings().isDedup() ? new FileStore(config.getFolder()) : null;
+    }
+
+    static class Stats {
+        final AtomicInteger files = new AtomicInteger();
+        final AtomicInteger linked = new AtomicInteger();
+        final AtomicLong bytesSaved = new AtomicLong();
+    }
+
+    private Path object(InstallManifest.Entry e){
+        var name = e.getHash()+(e.getMode() == null ? "" : "-"+e.getMode().replace('-', '_'));
+        return root.toPath().resolve(e.getHash().substring(0, 2)).resolve(name);
+    }
+
+    /**
+     * Replace the files of a staging folder by links to the stored objects, storing the new ones.
+     * The mode and mtime of the entries are updated since linked files share the ones of the object.
+     * @param folder the staging folder
+     * @param manifest its manifest, hashes already computed
+     * @return what has been deduplicated
+     */
+    public Stats dedup(File folder, InstallManifest manifest) {
+        Stats stats = new Stats();
+        Path base = folder.toPath();
+        manifest.getFiles().parallelStream().forEach(e -> {
+            Path file = base.resolve(e.getPath());
+            stats.files.incrementAndGet();
+            String mode = e.getMode();
+            if (mode == null){
+                return;
+            }
+            e.setMode(readOnly(mode));
+            Path object = object(e);
+            try {
+                Files.createDirectories(object.getParent());
+                try {
+                    Files.setPosixFilePermissions(file, PosixFilePermissions.fromString(e.getMode()));
+                    Files.createLink(object, file); //new content: the file becomes the stored copy
+                } catch (FileAlreadyExistsException exists){
+                    Path tmp = file.resolveSibling(file.getFileName()+".qsdf-link");
+                    Files.deleteIfExists(tmp);
+                    Files.createLink(tmp, object);
+                    Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    stats.linked.incrementAndGet();
+                    stats.bytesSaved.addAndGet(e.getSize());
+                }
+                e.setMtime(Files.getLastModifiedTime(file, LinkOption.NOFOLLOW_LINKS).toMillis());
+            } catch (IOException | UnsupportedOperationException ex){
+                //another file system or no hardlink support: the file stays a copy
+                Log.verbose("no dedup for %s: %s", file, ex.getMessage());
+                restore(file, e, mode);
+            }
+        });
+        Log.verbose("dedup: %d/%d files linked, %d bytes saved", stats.linked.get(), stats.files.get(), stats.bytesSaved.get());
+        return stats;
+    }
+
+    /**
+     * @param mode posix permissions (rwxr-xr-x)
+     * @return the permissions without write
+     */
+    static String readOnly(String mode){
+        return mode.replace('w', '-');
+    }
+
+    /**
+     * Give back its permissions to a file left as a copy
+     */
+    private static void restore(Path file, InstallManifest.Entry e, String mode){
+        try {
+            Files.setPosixFilePermissions(file, PosixFilePermissions.fromString(mode));
+            e.setMode(mode);
+        } catch (IOException | UnsupportedOperationException ex){
+            Log.verbose("cannot restore the mode of %s: %s", file, ex.getMessage());
+        }
+    }
+
+    /**
+     * Delete the objects of a removed installation that are not linked anymore
+     * @param entries the files of the removed installation
+     */
+    public void release(List<InstallManifest.Entry> entries) {
+        entries.forEach(e -> {
+            Path object = object(e);
+            try {
+                if (Files.exists(object, LinkOption.NOFOLLOW_LINKS) && links(object) <= 1){
+                    Files.delete(object);
+                }
+            } catch (IOException | UnsupportedOperationException ex){
+                Log.verbose("cannot release %s: %s", object, ex.getMessage());
+            }
+        });
+    }
+
+    private static int links(Path object) throws IOException {
+        return ((Number) Files.getAttribute(object, NLINK, LinkOption.NOFOLLOW_LINKS)).intValue();
+    }
+
+    static class Report {
+        long objects;
+        long references;
+        /** size of the installed files */
+        long logicalBytes;
+        /** size of the stored objects */
+        long physicalBytes;
+
+        long bytesSaved(){
+            return logicalBytes - physicalBytes;
+        }
+
+        double ratio(){
+            return physicalBytes == 0 ? 1 : (double) logicalBytes / physicalBytes;
+        }
+    }
+
+    /**
+     * @return the usage of the store: objects, references and bytes saved
+     */
+    public Report report() throws IOException {
+        Report report = new Report();
+        if (!root.exists()){
+            return report;
+        }
+        try (Stream<Path> paths = Files.walk(root.toPath())) {
+            for (Path object : (Iterable<Path>) paths.filter(Files::isRegularFile)::iterator){
+                long size = Files.size(object);
+                long refs = Math.max(0, links(object) - 1);
+                report.objects++;
+                report.references += refs;
+                report.physicalBytes += size;
+                report.logicalBytes += size * refs;
+            }
+        }
+        return report;
+    }
+}
@@ -0,0 +1,157 @@
+package asdf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Manifest written at the root of an installation folder once it is complete.
+ * It lists every regular file with its size, mode, mtime and content hash (SHA-256).
+ */
+@Data
+@NoArgsConstructor
+class InstallManifest {
+    public static final String FILE_NAME = ".qsdf-install.yml";
+    private static final int BUFFER_SIZE = 64*1024;
+
+    private String tool;
+    private String version;
+    private long installedAt;
+    private List<Entry> files = new ArrayList<>();
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class Entry {
+        /** path relative to the installation folder, with / as separator */
+        private String path;
+        private long size;
+        /** posix permissions (rwxr-xr-x), null if not supported */
+        private String mode;
+        private long mtime;
+        private String hash;
+    }
+
+    public InstallManifest(String tool, String version){
+        this.tool = tool;
+        this.version = version;
+        this.installedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Build the manifest of a filled folder, files are hashed in parallel
+     * @param tool the tool
+     * @param version the version
+     * @param folder the (staging) installation folder
+     * @return the manifest
+     */
+    public static InstallManifest of(String tool, String version, File folder) throws IOException {
+        InstallManifest manifest = new InstallManifest(tool, version);
+        Path root = folder.toPath();
+        try {
+            manifest.files = regularFiles(root).parallelStream()
+                    .map(p -> entry(root, p))
+                    .sorted(Comparator.comparing(Entry::getPath))
+                    .collect(Collectors.toList());
+        } catch (UncheckedIOException e){
+            throw e.getCause();
+        }
+        return manifest;
+    }
+
+    private static Entry entry(Path root, Path file){
+        try {
+            var attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            return new Entry(relativePath(root, file), attrs.size(), mode(file),
+                    attrs.lastModifiedTime().toMillis(), sha256(file));
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @param root an installation folder
+     * @return the regular files of the folder, except the manifest
+     */
+    static List<Path> regularFiles(Path root) throws IOException {
+        Path manifest = root.resolve(FILE_NAME);
+        try (Stream<Path> paths = Files.walk(root)) {
+            return paths.filter(p -> Files.isRegularFile(p, LinkOption.NOFOLLOW_LINKS) && !p.equals(manifest))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    static String relativePath(Path root, Path file){
+        return root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    /**
+     * @param file a file
+     * @return its posix permissions, null if the file system does not support them
+     */
+    static String mode(Path file) throws IOException {
+        try {
+            return PosixFilePermissions.toString(Files.getPosixFilePermissions(file, LinkOption.NOFOLLOW_LINKS));
+        } catch (UnsupportedOperationException e){
+            return null;
+        }
+    }
+
+    /**
+     * @param file a file
+     * @return the SHA-256 of the content, in hexadecimal
+     */
+    static String sha256(Path file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e){
+            throw new IllegalStateException(e);
+        }
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream is = Files.newInputStream(file)) {
+            int read;
+            while ((read = is.read(buffer)) > 0){
+                digest.update(buffer, 0, read);
+            }
+        }
+        StringBuilder sb = new StringBuilder();
+        for (byte b : digest.digest()){
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param folder an installation folder
+     * @return the manifest file of the folder
+     */
+    public static File file(File folder){
+        return new File(folder, FILE_NAME);
+    }
+
+    public static InstallManifest read(File folder) throws IOException {
+        return new ObjectMapper(new YAMLFactory()).readValue(file(folder), InstallManifest.class);
+    }
+
+    public void write(File folder) throws IOException {
+        new ObjectMapper(new YAMLFactory()).writeValue(file(folder), this);
+    }
+}
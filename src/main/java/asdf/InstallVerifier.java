@@ -0,0 +1,140 @@
+package asdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+/**
+ * Check installations against their {@link InstallManifest}.
+ * Size, mode and mtime of every file are checked first (one stat per file); only the files
+ * whose mtime changed (or every file with full) are hashed, in parallel on a fork-join pool.
+ */
+class InstallVerifier implements AutoCloseable {
+    private final ForkJoinPool pool;
+    private final boolean full;
+
+    /**
+     * @param parallelism number of threads hashing files
+     * @param full hash every file, not only the suspicious ones
+     */
+    InstallVerifier(int parallelism, boolean full){
+        this.pool = new ForkJoinPool(parallelism);
+        this.full = full;
+    }
+
+    static class Result {
+        File folder;
+        boolean complete;
+        int files;
+        int hashed;
+        /** relative path -> problem */
+        final SortedMap<String, String> problems = new TreeMap<>();
+
+        boolean isValid(){
+            return complete && problems.isEmpty();
+        }
+    }
+
+    /**
+     * @param folder an installation folder
+     * @return the differences with the manifest
+     */
+    public Result verify(File folder) throws IOException {
+        Result result = new Result();
+        result.folder = folder;
+        result.complete = StagedInstall.isComplete(folder);
+        if (!result.complete){
+            return result;
+        }
+        var manifest = InstallManifest.read(folder);
+        Path root = folder.toPath();
+        result.files = manifest.getFiles().size();
+        List<InstallManifest.Entry> suspicious = Collections.synchronizedList(new ArrayList<>());
+        Map<String, String> problems = new ConcurrentHashMap<>();
+        run(() -> manifest.getFiles().parallelStream().forEach(e -> {
+            var problem = check(root, e);
+            if (problem != null){
+                problems.put(e.getPath(), problem);
+            } else if (full || mtimeChanged(root, e)){
+                suspicious.add(e);
+            }
+        }));
+        result.hashed = suspicious.size();
+        run(() -> suspicious.parallelStream()
+                .filter(e -> !e.getHash().equals(hash(root.resolve(e.getPath()))))
+                .forEach(e -> problems.put(e.getPath(), "content differs")));
+        result.problems.putAll(problems);
+        Set<String> known = manifest.getFiles().stream().map(InstallManifest.Entry::getPath).collect(Collectors.toSet());
+        InstallManifest.regularFiles(root).stream()
+                .map(p -> InstallManifest.relativePath(root, p))
+                .filter(p -> !known.contains(p))
+                .forEach(p -> result.problems.put(p, "not in manifest"));
+        return result;
+    }
+
+    /**
+     * @return the problem found with size and mode, null if none
+     */
+    private static String check(Path root, InstallManifest.Entry e){
+        try {
+            Path file = root.resolve(e.getPath());
+            var attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            if (attrs.size() != e.getSize()){
+                return String.format("size %d instead of %d", attrs.size(), e.getSize());
+            }
+            var mode = InstallManifest.mode(file);
+            if (e.getMode() != null && !e.getMode().equals(mode)){
+                return String.format("mode %s instead of %s", mode, e.getMode());
+            }
+            return null;
+        } catch (NoSuchFileException ex){
+            return "missing";
+        } catch (IOException ex){
+            return ex.getMessage();
+        }
+    }
+
+    /**
+     * @return true if the mtime changed: the content has to be hashed
+     */
+    private static boolean mtimeChanged(Path root, InstallManifest.Entry e){
+        try {
+            return Files.getLastModifiedTime(root.resolve(e.getPath()), LinkOption.NOFOLLOW_LINKS).toMillis() != e.getMtime();
+        } catch (IOException ex){
+            return true;
+        }
+    }
+
+    private static String hash(Path file){
+        try {
+            return InstallManifest.sha256(file);
+        } catch (IOException e){
+            return "";
+        }
+    }
+
+    private void run(Runnable task) throws IOException {
+        try {
+            pool.submit(task).get();
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } catch (ExecutionException e){
+            throw new IOException(e.getCause());
+        }
+    }
+
+    @Override
+    public void close(){
+        pool.shutdown();
+    }
+}
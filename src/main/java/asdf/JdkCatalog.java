@@ -0,0 +1,241 @@
+package asdf;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+
+/**
+ * Catalog of the JDK releases available for one platform, indexed by version.
+ * It is filled from an Adoptium-style release feed (api.adoptium.net/v3/assets) read with the
+ * streaming {@link JsonParser}: only version, platform, checksum and download fields are kept,
+ * the rest of the feed is skipped without building any tree.
+ * The versions and file names of the feed become path components (installation folder, archive cache):
+ * a release whose version or file name is not a plain file name is ignored.
+ */
+class JdkCatalog {
+    private static final JsonFactory JSON = new JsonFactory();
+
+    private final String os;
+    private final String arch;
+    private final Map<String, JdkRelease> releases = new HashMap<>();
+
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    static class JdkRelease {
+        private String version;
+        private String os;
+        private String arch;
+        private String checksum;
+        private String url;
+        private String fileName;
+        private long size;
+    }
+
+    /**
+     * @param os the os as named by the feed (linux, mac, windows...)
+     * @param arch the architecture as named by the feed (x64, aarch64...)
+     */
+    JdkCatalog(String os, String arch){
+        this.os = os;
+        this.arch = arch;
+    }
+
+    /**
+     * @return a catalog for the os and architecture of the running JVM
+     */
+    static JdkCatalog forCurrentPlatform(){
+        return new JdkCatalog(currentOs(), currentArch());
+    }
+
+    static String currentOs(){
+        var name = System.getProperty("os.name").toLowerCase(Locale.ROOT);
+        if (name.startsWith("windows")) return "windows";
+        if (name.startsWith("mac") || name.startsWith("darwin")) return "mac";
+        if (name.startsWith("aix")) return "aix";
+        if (name.startsWith("sunos") || name.startsWith("solaris")) return "solaris";
+        return "linux";
+    }
+
+    static String currentArch(){
+        var arch = System.getProperty("os.arch").toLowerCase(Locale.ROOT);
+        switch (arch){
+            case "amd64":
+            case "x86_64":
+                return "x64";
+            case "x86":
+            case "i386":
+            case "i686":
+                return "x32";
+            case "arm64":
+                return "aarch64";
+            default:
+                return arch.startsWith("arm") ? "arm" : arch;
+        }
+    }
+
+    public String getOs(){ return os; }
+
+    public String getArch(){ return arch; }
+
+    public Optional<JdkRelease> get(String version){
+        return Optional.ofNullable(releases.get(version));
+    }
+
+    public boolean contains(String version){
+        return releases.containsKey(version);
+    }
+
+    /**
+     * @return the versions available for the platform, oldest first
+     */
+    public List<String> getVersions(){
+        List<String> versions = new ArrayList<>(releases.keySet());
+        versions.sort(PlugIn::compareVersions);
+        return versions;
+    }
+
+    /**
+     * Add a release known from another source than the feed (offline mirror)
+     * @param release a JDK for the platform of the catalog
+     */
+    public void add(JdkRelease release){
+        if (isValid(release)){
+            releases.putIfAbsent(release.getVersion(), release);
+        }
+    }
+
+    public int size(){
+        return releases.size();
+    }
+
+    /**
+     * Add the JDK binaries of the platform found in one page of the feed
+     * @param is the feed: an array of releases
+     * @return the number of releases read in the page, whatever their platform
+     */
+    public int read(InputStream is) throws IOException {
+        int nbReleases = 0;
+        try (JsonParser parser = JSON.createParser(is)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY){
+                throw new IOException("release feed: array expected");
+            }
+            while (parser.nextToken() == JsonToken.START_OBJECT){
+                readRelease(parser);
+                nbReleases++;
+            }
+        }
+        return nbReleases;
+    }
+
+    private void readRelease(JsonParser parser) throws IOException {
+        String version = null;
+        String releaseName = null;
+        List<JdkRelease> binaries = new ArrayList<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME){
+            var field = parser.getCurrentName();
+            var token = parser.nextToken();
+            switch (field){
+                case "binaries":
+                    if (token == JsonToken.START_ARRAY){
+                        while (parser.nextToken() == JsonToken.START_OBJECT){
+                            var binary = readBinary(parser);
+                            if (binary != null) binaries.add(binary);
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                case "version_data":
+                    if (token == JsonToken.START_OBJECT){
+                        while (parser.nextToken() == JsonToken.FIELD_NAME){
+                            var name = parser.getCurrentName();
+                            parser.nextToken();
+                            if ("semver".equals(name) || ("openjdk_version".equals(name) && version == null)){
+                                version = parser.getValueAsString();
+                            } else {
+                                parser.skipChildren();
+                            }
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                case "release_name":
+                    releaseName = parser.getValueAsString();
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        if (version == null) version = releaseName;
+        if (version == null) return;
+        for (JdkRelease binary : binaries){
+            binary.setVersion(version);
+            add(binary);
+        }
+    }
+
+    /**
+     * @return true if the version and the file name of the release can be used as path components
+     */
+    private static boolean isValid(JdkRelease release){
+        if (StagedInstall.isFileName(release.getVersion()) && StagedInstall.isFileName(release.getFileName())){
+            return true;
+        }
+        Log.debug("release ignored, invalid version or file name: %s %s", release.getVersion(), release.getFileName());
+        return false;
+    }
+
+    /**
+     * @return the binary if it is a JDK for the platform of the catalog, null otherwise
+     */
+    private JdkRelease readBinary(JsonParser parser) throws IOException {
+        JdkRelease binary = new JdkRelease();
+        String imageType = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME){
+            var field = parser.getCurrentName();
+            var token = parser.nextToken();
+            switch (field){
+                case "os":
+                    binary.setOs(parser.getValueAsString());
+                    break;
+                case "architecture":
+                    binary.setArch(parser.getValueAsString());
+                    break;
+                case "image_type":
+                    imageType = parser.getValueAsString();
+                    break;
+                case "package":
+                    if (token == JsonToken.START_OBJECT){
+                        while (parser.nextToken() == JsonToken.FIELD_NAME){
+                            var name = parser.getCurrentName();
+                            parser.nextToken();
+                            switch (name){
+                                case "checksum": binary.setChecksum(parser.getValueAsString()); break;
+                                case "link": binary.setUrl(parser.getValueAsString()); break;
+                                case "name": binary.setFileName(parser.getValueAsString()); break;
+                                case "size": binary.setSize(parser.getValueAsLong()); break;
+                                default: parser.skipChildren();
+                            }
+                        }
+                    } else {
+                        parser.skipChildren();
+                    }
+                    break;
+                default:
+                    parser.skipChildren();
+            }
+        }
+        var matches = os.equals(binary.getOs()) && arch.equals(binary.getArch())
+                && (imageType == null || "jdk".equals(imageType)) && binary.getUrl() != null;
+        return matches ? binary : null;
+    }
+}
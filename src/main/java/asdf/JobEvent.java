@@ -0,0 +1,51 @@
+package asdf;
+
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Event of a {@link Job}, published on {@link JobEvents} and written as a JSON line by --json-events
+ */
+@Data
+@NoArgsConstructor
+class JobEvent {
+    enum Type {
+        QUEUED, STARTED, DOWNLOADED, EXTRACTED, DONE, FAILED;
+
+        boolean isProgress(){
+            return this == DOWNLOADED || this == EXTRACTED;
+        }
+
+        boolean isEnd(){
+            return this == DONE || this == FAILED;
+        }
+    }
+
+    private Type type;
+    private Action action;
+    private String tool;
+    private String version;
+    /** epoch in milliseconds */
+    private long time;
+    /** bytes downloaded or entries extracted */
+    private long done;
+    /** expected bytes or entries, -1 if unknown */
+    private long total = -1;
+    private Integer code;
+    private String message;
+
+    JobEvent(Type type, Job job){
+        this.type = type;
+        this.action = job.getAction();
+        this.tool = job.getTool().toolName;
+        this.version = job.getTool().version;
+        this.time = System.currentTimeMillis();
+    }
+
+    /**
+     * @return the key of the job: action, tool and version
+     */
+    String key(){
+        return action+" "+tool+" "+version;
+    }
+}
@@ -0,0 +1,171 @@
+package asdf;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.operators.multi.processors.BroadcastProcessor;
+import org.reactivestreams.Processor;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * The {@link JobEvent}s of the jobs run by this process, as a Mutiny {@link Multi}.
+ * <ul>
+ *     <li>nothing is built while there is no subscriber: the jobs of a plain command pay one volatile read</li>
+ *     <li>the job of the current thread is set by {@link Job#doJob}, so the downloads and extractions
+ *     report their progress without knowing their job</li>
+ *     <li>the subscribers receive the events on the job threads: they only update a state
+ *     ({@link ProgressRenderer}) or hand them to their own thread with a bounded buffer (--json-events)</li>
+ * </ul>
+ */
+class JobEvents {
+    private static final long COMPLETE_TIMEOUT_MS = 5000;
+    private static final int JSON_BUFFER = 10_000;
+    private static final long JSON_PROGRESS_MS = 500;
+
+    private static final BroadcastProcessor<JobEvent> broadcast = BroadcastProcessor.create();
+    /** the jobs run in parallel: their events are serialized before the broadcast */
+    private static final Processor<JobEvent, JobEvent> processor = broadcast.serialized();
+    private static final ThreadLocal<Job> current = new ThreadLocal<>();
+    private static final List<CountDownLatch> subscribers = new CopyOnWriteArrayList<>();
+    private static volatile boolean active;
+
+    private JobEvents(){}
+
+    /**
+     * Subscribe to the next events
+     * @param pipeline the operators applied to the stream before the consumer
+     * @param consumer the consumer of the events
+     * @param onEnd called when the stream is completed by {@link #complete()}
+     */
+    static void subscribe(UnaryOperator<Multi<JobEvent>> pipeline, Consumer<JobEvent> consumer, Runnable onEnd){
+        CountDownLatch done = new CountDownLatch(1);
+        subscribers.add(done);
+        pipeline.apply(broadcast).subscribe().with(consumer, e -> {
+            Log.verbose("job events: %s", e.getMessage());
+            onEnd.run();
+            done.countDown();
+        }, () -> {
+            onEnd.run();
+            done.countDown();
+        });
+        active = true;
+    }
+
+    /**
+     * Write the events on one JSON line each, the progress events of a job at most every 500ms
+     * @param out the output
+     */
+    static void writeJson(PrintStream out){
+        ObjectMapper om = new ObjectMapper().setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "qsdf-json-events");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Map<String, Long> lastProgress = new ConcurrentHashMap<>();
+        subscribe(multi -> multi
+                        .filter(event -> throttle(lastProgress, event))
+                        .onOverflow().buffer(JSON_BUFFER)
+                        .emitOn(writer),
+                event -> {
+                    try {
+                        out.println(om.writeValueAsString(event));
+                    } catch (JsonProcessingException e){
+                        Log.verbose("job events: %s", e.getMessage());
+                    }
+                },
+                () -> {
+                    out.flush();
+                    writer.shutdown();
+                });
+    }
+
+    private static boolean throttle(Map<String, Long> lastProgress, JobEvent event){
+        var key = event.key();
+        if (!event.getType().isProgress()){
+            if (event.getType().isEnd()) lastProgress.remove(key);
+            return true;
+        }
+        if (event.getDone() == event.getTotal()){
+            return true;
+        }
+        var last = lastProgress.get(key);
+        if (last != null && event.getTime()-last < JSON_PROGRESS_MS){
+            return false;
+        }
+        lastProgress.put(key, event.getTime());
+        return true;
+    }
+
+    /**
+     * Publish a change of state of a job
+     */
+    static void publish(JobEvent.Type type, Job job){
+        if (!active) return;
+        JobEvent event = new JobEvent(type, job);
+        if (type.isEnd()){
+            event.setCode(job.getReturnedCode());
+            if (!job.getMessages().isEmpty()){
+                event.setMessage(job.getMessages().get(job.getMessages().size()-1).trim());
+            }
+        }
+        processor.onNext(event);
+    }
+
+    /**
+     * Publish the progress of the job of the current thread, if any
+     * @param type DOWNLOADED or EXTRACTED
+     * @param done the bytes or entries done
+     * @param total the expected bytes or entries, -1 if unknown
+     */
+    static void progress(JobEvent.Type type, long done, long total){
+        if (!active) return;
+        Job job = current.get();
+        if (job == null) return;
+        JobEvent event = new JobEvent(type, job);
+        event.setDone(done);
+        event.setTotal(total);
+        processor.onNext(event);
+    }
+
+    /**
+     * @return the job run by the current thread, null for none
+     */
+    static Job current(){
+        return current.get();
+    }
+
+    /**
+     * @param job the job run by the current thread, null for none
+     * @return the previous job of the thread
+     */
+    static Job enter(Job job){
+        Job previous = current.get();
+        if (job == null) current.remove(); else current.set(job);
+        return previous;
+    }
+
+    /**
+     * Complete the stream and wait for the subscribers to handle the last events
+     */
+    static void complete(){
+        if (!active) return;
+        active = false;
+        processor.onComplete();
+        long deadline = System.currentTimeMillis()+COMPLETE_TIMEOUT_MS;
+        try {
+            for (CountDownLatch done : subscribers){
+                done.await(Math.max(0, deadline-System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+}
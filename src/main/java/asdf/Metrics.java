@@ -0,0 +1,313 @@
+package asdf;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+/**
+ * Counters and latency histograms of the hot paths of a qsdf process, recorded without locks:
+ * a {@link LongAdder} per counter, an array of atomic buckets per histogram (8 buckets per power of 2,
+ * 12.5% precision, as HdrHistogram with 1 significant digit).
+ * <ul>
+ *     <li>{@code --timings} prints them at the end of the command</li>
+ *     <li>with settings.metricsFile (or QSDF_METRICS_FILE) they are added to a Prometheus text file,
+ *     for the textfile collector of the node exporter</li>
+ * </ul>
+ */
+class Metrics {
+    public static final String ENV_METRICS_FILE = "QSDF_METRICS_FILE";
+
+    enum Phase {
+        CONFIG_LOAD, RESOLVE, REMOTE_VERSIONS, DOWNLOAD, EXTRACT, SHIMS, CONFIG_SAVE;
+
+        final Histogram histogram = new Histogram();
+
+        String label(){
+            return name().toLowerCase();
+        }
+    }
+
+    enum Counter {
+        FEED_CACHE_HIT("qsdf_cache_requests_total", "cache=\"feed\",result=\"hit\""),
+        FEED_CACHE_MISS("qsdf_cache_requests_total", "cache=\"feed\",result=\"miss\""),
+        ARCHIVE_CACHE_HIT("qsdf_cache_requests_total", "cache=\"archive\",result=\"hit\""),
+        ARCHIVE_CACHE_MISS("qsdf_cache_requests_total", "cache=\"archive\",result=\"miss\""),
+        PEER_HIT("qsdf_cache_requests_total", "cache=\"peer\",result=\"hit\""),
+        PEER_MISS("qsdf_cache_requests_total", "cache=\"peer\",result=\"miss\""),
+        DOWNLOAD_RETRIES("qsdf_download_retries_total", ""),
+        DOWNLOADED_BYTES("qsdf_downloaded_bytes_total", ""),
+        EXTRACTED_ENTRIES("qsdf_extracted_entries_total", "");
+
+        final String metric;
+        final String labels;
+        final LongAdder adder = new LongAdder();
+
+        Counter(String metric, String labels){
+            this.metric = metric;
+            this.labels = labels;
+        }
+
+        String key(){
+            return labels.isEmpty() ? metric : metric+"{"+labels+"}";
+        }
+    }
+
+    private Metrics(){}
+
+    /**
+     * @param phase the measured phase
+     * @return the running measure, recorded when closed
+     */
+    static Timer time(Phase phase){
+        return new Timer(phase, System.nanoTime());
+    }
+
+    static void count(Counter counter){
+        counter.adder.increment();
+    }
+
+    static void count(Counter counter, long value){
+        counter.adder.add(value);
+    }
+
+    static class Timer implements AutoCloseable {
+        private final Phase phase;
+        private final long start;
+
+        private Timer(Phase phase, long start){
+            this.phase = phase;
+            this.start = start;
+        }
+
+        @Override
+        public void close() {
+            long end = System.nanoTime();
+            phase.histogram.record((end-start)/1000);
+            Trace.complete(phase.label(), "phase", start, end, null);
+        }
+    }
+
+    /**
+     * Durations in microseconds
+     */
+    static class Histogram {
+        private static final int SUB_BITS = 3;
+        private static final int SUB = 1 << SUB_BITS;
+        private static final int BUCKETS = (64-SUB_BITS)*SUB;
+        /** upper bounds of the Prometheus buckets, in microseconds */
+        static final long[] BOUNDS = {1_000, 5_000, 10_000, 50_000, 100_000, 500_000,
+                1_000_000, 5_000_000, 10_000_000, 30_000_000, 60_000_000, 300_000_000};
+
+        private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+        private final AtomicLongArray bounded = new AtomicLongArray(BOUNDS.length);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final LongAccumulator max = new LongAccumulator(Long::max, 0);
+
+        void record(long micros){
+            long value = Math.max(0, micros);
+            counts.incrementAndGet(index(value));
+            int bound = Arrays.binarySearch(BOUNDS, value);
+            if (bound < 0) bound = -bound-1;
+            if (bound < BOUNDS.length) bounded.incrementAndGet(bound);
+            count.increment();
+            sum.add(value);
+            max.accumulate(value);
+        }
+
+        static int index(long value){
+            if (value < SUB) return (int) value;
+            int shift = 63-Long.numberOfLeadingZeros(value)-SUB_BITS;
+            return (shift+1)*SUB + (int) ((value >>> shift) & (SUB-1));
+        }
+
+        static long lowerBound(int index){
+            if (index < SUB) return index;
+            int shift = index/SUB-1;
+            return (long) (SUB + index%SUB) << shift;
+        }
+
+        long getCount(){
+            return count.sum();
+        }
+
+        long getSum(){
+            return sum.sum();
+        }
+
+        long getMax(){
+            return max.get();
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         * @return the upper bound of the bucket of the percentile, at most the max
+         */
+        long percentile(double percentile){
+            long total = 0;
+            long[] snapshot = new long[BUCKETS];
+            for (int i=0;i<BUCKETS;i++){
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile/100*total));
+            long seen = 0;
+            for (int i=0;i<BUCKETS;i++){
+                seen += snapshot[i];
+                if (seen >= rank){
+                    return Math.min(getMax(), i+1 < BUCKETS ? lowerBound(i+1)-1 : Long.MAX_VALUE);
+                }
+            }
+            return getMax();
+        }
+
+        /**
+         * @return the count of durations up to each bound, the last one for +Inf
+         */
+        long[] cumulative(){
+            long[] result = new long[BOUNDS.length+1];
+            long seen = 0;
+            for (int i=0;i<BOUNDS.length;i++){
+                seen += bounded.get(i);
+                result[i] = seen;
+            }
+            result[BOUNDS.length] = getCount();
+            return result;
+        }
+    }
+
+    /**
+     * @return phase, count, total, p50, p95, p99 and max in milliseconds, for the phases run
+     */
+    static List<List<String>> phaseRows(){
+        List<List<String>> rows = new ArrayList<>();
+        for (Phase phase : Phase.values()){
+            var h = phase.histogram;
+            if (h.getCount() == 0) continue;
+            rows.add(List.of(phase.label(), String.valueOf(h.getCount()), millis(h.getSum()),
+                    millis(h.percentile(50)), millis(h.percentile(95)), millis(h.percentile(99)), millis(h.getMax())));
+        }
+        return rows;
+    }
+
+    /**
+     * @return the counters not null and the hit rate of each cache used
+     */
+    static List<List<String>> counterRows(){
+        List<List<String>> rows = new ArrayList<>();
+        for (Counter counter : Counter.values()){
+            long value = counter.adder.sum();
+            if (value != 0) rows.add(List.of(counter.name().toLowerCase(), String.valueOf(value)));
+        }
+        hitRate(rows, "feed", Counter.FEED_CACHE_HIT, Counter.FEED_CACHE_MISS);
+        hitRate(rows, "archive", Counter.ARCHIVE_CACHE_HIT, Counter.ARCHIVE_CACHE_MISS);
+        hitRate(rows, "peer", Counter.PEER_HIT, Counter.PEER_MISS);
+        return rows;
+    }
+
+    private static void hitRate(List<List<String>> rows, String cache, Counter hit, Counter miss){
+        long hits = hit.adder.sum();
+        long total = hits+miss.adder.sum();
+        if (total > 0){
+            rows.add(List.of(cache+"_cache_hit_rate", String.format("%d%%", hits*100/total)));
+        }
+    }
+
+    private static String millis(long micros){
+        return String.format("%.1f", micros/1000.0);
+    }
+
+    /**
+     * @return the metrics file of the settings or of QSDF_METRICS_FILE, if any
+     */
+    static Optional<Path> textfile(ConfigManager config){
+        var env = System.getenv(ENV_METRICS_FILE);
+        if (env != null && !env.isBlank()){
+            return Optional.of(Path.of(env.trim()));
+        }
+        return Optional.ofNullable(config.getSettings().getMetricsFile()).filter(f -> !f.isBlank()).map(Path::of);
+    }
+
+    /**
+     * Add the metrics of this process to the Prometheus text file: every value is a counter, so the
+     * values already in the file are summed with ours. The file is replaced atomically.
+     * The writers, processes of any config folder, are serialized by a lock file next to it.
+     * @param file the text file, *.prom for the node exporter
+     */
+    static void addTo(Path file){
+        Map<String, Double> values = new LinkedHashMap<>();
+        for (Phase phase : Phase.values()){
+            var h = phase.histogram;
+            if (h.getCount() == 0) continue;
+            long[] cumulative = h.cumulative();
+            for (int i=0;i<cumulative.length;i++){
+                var le = i < Histogram.BOUNDS.length ? format(Histogram.BOUNDS[i]/1e6) : "+Inf";
+                values.put(String.format("qsdf_phase_duration_seconds_bucket{phase=\"%s\",le=\"%s\"}", phase.label(), le),
+                        (double) cumulative[i]);
+            }
+            values.put(String.format("qsdf_phase_duration_seconds_sum{phase=\"%s\"}", phase.label()), h.getSum()/1e6);
+            values.put(String.format("qsdf_phase_duration_seconds_count{phase=\"%s\"}", phase.label()), (double) h.getCount());
+        }
+        for (Counter counter : Counter.values()){
+            long value = counter.adder.sum();
+            if (value != 0) values.put(counter.key(), (double) value);
+        }
+        if (values.isEmpty()){
+            return;
+        }
+        try (var lock = FileLocks.metrics(file)) {
+            Map<String, Double> merged = new TreeMap<>(read(file));
+            values.forEach((key, value) -> merged.merge(key, value, Double::sum));
+            StringBuilder sb = new StringBuilder();
+            sb.append("# HELP qsdf_phase_duration_seconds Duration of the phases of the qsdf commands\n");
+            sb.append("# TYPE qsdf_phase_duration_seconds histogram\n");
+            merged.forEach((key, value) -> {
+                if (key.startsWith("qsdf_phase_duration_seconds")) sb.append(key).append(' ').append(format(value)).append('\n');
+            });
+            for (String metric : Arrays.stream(Counter.values()).map(c -> c.metric).collect(Collectors.toCollection(TreeSet::new))){
+                sb.append("# TYPE ").append(metric).append(" counter\n");
+                merged.forEach((key, value) -> {
+                    if (key.equals(metric) || key.startsWith(metric+"{")) sb.append(key).append(' ').append(format(value)).append('\n');
+                });
+            }
+            Files.createDirectories(file.toAbsolutePath().getParent());
+            Path tmp = Files.createTempFile(file.toAbsolutePath().getParent(), "."+file.getFileName(), ".tmp");
+            try {
+                Files.writeString(tmp, sb, StandardCharsets.UTF_8);
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(tmp);
+            }
+        } catch (IOException e){
+            Log.error("cannot write the metrics file %s: %s", file, e.getMessage());
+        }
+    }
+
+    private static Map<String, Double> read(Path file) throws IOException {
+        Map<String, Double> values = new HashMap<>();
+        if (!Files.isRegularFile(file)){
+            return values;
+        }
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)){
+            int space = line.lastIndexOf(' ');
+            if (line.startsWith("#") || space <= 0) continue;
+            try {
+                values.put(line.substring(0, space), Double.parseDouble(line.substring(space+1)));
+            } catch (NumberFormatException e){
+                Log.verbose("metrics file: invalid line %s", line);
+            }
+        }
+        return values;
+    }
+
+    private static String format(double value){
+        return value == Math.rint(value) && !Double.isInfinite(value) ? String.valueOf((long) value) : String.valueOf(value);
+    }
+}
@@ -0,0 +1,198 @@
+package asdf;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Mirrors of the downloaded artifacts (settings.mirrors: URL prefix -&gt; alternative prefixes) and
+ * their statistics, kept between runs in config/cache/mirrors.yml:
+ * <ul>
+ *     <li>moving averages of the time to first byte and of the throughput, last TTFB samples for the p95</li>
+ *     <li>a circuit breaker: after {@value #FAILURES_TO_OPEN} consecutive failures a mirror is skipped
+ *     for a cool down doubling at each new failure</li>
+ * </ul>
+ */
+class Mirrors {
+    private static final int FAILURES_TO_OPEN = 3;
+    private static final long COOL_DOWN_MS = 30_000;
+    private static final long MAX_COOL_DOWN_MS = 600_000;
+    private static final int SAMPLES = 32;
+    private static final double ALPHA = 0.3;
+    private static final long DEFAULT_HEDGE_DELAY_MS = 2_000;
+    private static final long MIN_HEDGE_DELAY_MS = 100;
+    /** size used to compare mirrors on latency and throughput */
+    private static final double REFERENCE_SIZE = 10*1024*1024;
+
+    private static Mirrors instance;
+
+    private final File file;
+    private final Map<String, MirrorStat> stats;
+
+    @Data
+    @NoArgsConstructor
+    static class MirrorStat {
+        private double ttfbMs = -1;
+        private double bytesPerSecond = -1;
+        private List<Long> ttfbSamples = new ArrayList<>();
+        private int consecutiveFailures;
+        private long openUntil;
+        private long successes;
+        private long failures;
+    }
+
+    private Mirrors(File file, Map<String, MirrorStat> stats){
+        this.file = file;
+        this.stats = stats;
+    }
+
+    /**
+     * @return the mirrors of the config folder, statistics read once per process
+     */
+    static synchronized Mirrors get(){
+        if (instance == null){
+            File file = new File(ConfigManager.intance.getFolder(), "cache"+File.separator+"mirrors.yml");
+            Map<String, MirrorStat> stats = new HashMap<>();
+            if (file.isFile()){
+                try {
+                    stats = new ObjectMapper(new YAMLFactory()).readValue(file, new TypeReference<HashMap<String, MirrorStat>>(){});
+                } catch (Exception e){
+                    Log.verbose("ignoring mirror statistics %s: %s", file, e.getMessage());
+                }
+            }
+            instance = new Mirrors(file, stats);
+        }
+        return instance;
+    }
+
+    /**
+     * @param uri an artifact URI
+     * @return the URI followed by its mirrors from settings.mirrors
+     */
+    static List<URI> candidates(URI uri){
+        List<URI> candidates = new ArrayList<>(List.of(uri));
+        var source = uri.toString();
+        ConfigManager.intance.getSettings().getMirrors().forEach((prefix, alternatives) -> {
+            if (source.startsWith(prefix)){
+                alternatives.forEach(alt -> candidates.add(URI.create(alt+source.substring(prefix.length()))));
+            }
+        });
+        return candidates;
+    }
+
+    /**
+     * @param uri a URI
+     * @return the key of its mirror: scheme://host:port
+     */
+    static String key(URI uri){
+        return uri.getScheme()+"://"+(uri.getHost() == null ? "" : uri.getHost())+(uri.getPort() < 0 ? "" : ":"+uri.getPort());
+    }
+
+    private MirrorStat stat(URI uri){
+        return stats.computeIfAbsent(key(uri), k -> new MirrorStat());
+    }
+
+    /**
+     * Sort the sources by expected download time. Mirrors with an open circuit are skipped; if all of
+     * them are open, the one closing first is tried alone (half-open).
+     * @param sources the candidate sources
+     * @return the sources to try, in order
+     */
+    synchronized List<URI> order(List<URI> sources){
+        long now = System.currentTimeMillis();
+        var closed = sources.stream().filter(s -> stat(s).getOpenUntil() <= now).collect(Collectors.toList());
+        if (closed.isEmpty()){
+            return sources.stream()
+                    .min(Comparator.comparingLong(s -> stat(s).getOpenUntil()))
+                    .map(List::of)
+                    .orElse(List.of());
+        }
+        Map<URI, Double> scores = new HashMap<>();
+        closed.forEach(s -> {
+            var stat = stat(s);
+            double score = 0; //unknown mirrors are tried first
+            if (stat.getTtfbMs() >= 0 && stat.getBytesPerSecond() > 0){
+                score = stat.getTtfbMs() + 1000*REFERENCE_SIZE/stat.getBytesPerSecond();
+            }
+            scores.put(s, score);
+        });
+        return closed.stream().sorted(Comparator.comparing(scores::get)).collect(Collectors.toList());
+    }
+
+    /**
+     * @param uri a source
+     * @return true if the circuit of the mirror is open (too many failures)
+     */
+    synchronized boolean isOpen(URI uri){
+        return stat(uri).getOpenUntil() > System.currentTimeMillis();
+    }
+
+    /**
+     * @param uri a source
+     * @return how long to wait for the first byte before starting a hedged request: the observed p95
+     */
+    synchronized long hedgeDelayMs(URI uri){
+        var samples = stat(uri).getTtfbSamples();
+        if (samples.size() < 5){
+            return DEFAULT_HEDGE_DELAY_MS;
+        }
+        List<Long> sorted = new ArrayList<>(samples);
+        Collections.sort(sorted);
+        int idx = (int) Math.ceil(0.95*sorted.size())-1;
+        return Math.max(MIN_HEDGE_DELAY_MS, sorted.get(Math.max(0, idx)));
+    }
+
+    synchronized void recordFirstByte(URI uri, long ttfbMs){
+        var stat = stat(uri);
+        stat.setTtfbMs(stat.getTtfbMs() < 0 ? ttfbMs : ALPHA*ttfbMs + (1-ALPHA)*stat.getTtfbMs());
+        stat.getTtfbSamples().add(ttfbMs);
+        if (stat.getTtfbSamples().size() > SAMPLES){
+            stat.getTtfbSamples().remove(0);
+        }
+    }
+
+    synchronized void recordSuccess(URI uri, long bytes, long durationMs){
+        var stat = stat(uri);
+        if (durationMs > 0 && bytes > 0){
+            double bps = 1000.0*bytes/durationMs;
+            stat.setBytesPerSecond(stat.getBytesPerSecond() < 0 ? bps : ALPHA*bps + (1-ALPHA)*stat.getBytesPerSecond());
+        }
+        stat.setSuccesses(stat.getSuccesses()+1);
+        stat.setConsecutiveFailures(0);
+        stat.setOpenUntil(0);
+    }
+
+    synchronized void recordFailure(URI uri){
+        var stat = stat(uri);
+        stat.setFailures(stat.getFailures()+1);
+        stat.setConsecutiveFailures(stat.getConsecutiveFailures()+1);
+        if (stat.getConsecutiveFailures() >= FAILURES_TO_OPEN){
+            long coolDown = Math.min(MAX_COOL_DOWN_MS, COOL_DOWN_MS << Math.min(10, stat.getConsecutiveFailures()-FAILURES_TO_OPEN));
+            stat.setOpenUntil(System.currentTimeMillis()+coolDown);
+            Log.verbose("mirror %s skipped for %d s", key(uri), coolDown/1000);
+        }
+    }
+
+    /**
+     * Save the statistics (best effort, last writer wins)
+     */
+    synchronized void save(){
+        try {
+            file.getParentFile().mkdirs();
+            File tmp = File.createTempFile("mirrors", ".yml.tmp", file.getParentFile());
+            new ObjectMapper(new YAMLFactory()).writeValue(tmp, stats);
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (Exception e){
+            Log.verbose("cannot save mirror statistics: %s", e.getMessage());
+        }
+    }
+}
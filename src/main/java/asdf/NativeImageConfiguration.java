@@ -0,0 +1,61 @@
+package asdf;
+
+import io.quarkus.runtime.annotations.RegisterForReflection;
+
+/**
+ * Build-time reflection metadata needed by the native image.
+ * <ul>
+ *     <li>the Lombok beans of {@link DataConfig}, {@link InstallManifest} and the plugin index
+ *     ({@link ExternalPlugIns}) are (de)serialized by Jackson YAML</li>
+ *     <li>picocli commands are instantiated and their options injected by reflection</li>
+ * </ul>
+ * Every new command or class read/written by Jackson must be added here.
+ */
+@RegisterForReflection(targets = {
+        DataConfig.class,
+        DataConfig.Settings.class,
+        DataConfig.Limits.class,
+        DataConfig.DataTool.class,
+        DataConfig.DataTool.Version.class,
+        InstallManifest.class,
+        InstallManifest.Entry.class,
+        Mirrors.MirrorStat.class,
+        OfflineMirror.Index.class,
+        OfflineMirror.Artifact.class,
+        Bundle.Manifest.class,
+        Bundle.Entry.class,
+        JobEvent.class,
+        ExternalPlugIns.Index.class,
+        ExternalPlugIns.Entry.class,
+        Cmd.class,
+        CliCommand.class,
+        CmdPlugin.class,
+        CmdPlugin.CmdPluginAdd.class,
+        CmdPlugin.CmdPluginList.class,
+        CmdPlugin.CmdPluginListAll.class,
+        CmdPlugin.CmdPluginRemove.class,
+        CmdPlugin.CmdPluginUpdate.class,
+        CmdPlugin.CmdPluginUpdateAll.class,
+        CmdInstall.class,
+        CmdUninstall.class,
+        CmdCurrent.class,
+        CmdResolved.class,
+        CmdWhere.class,
+        CmdWhich.class,
+        CmdExec.class,
+        CmdLocal.class,
+        CmdShell.class,
+        CmdEnv.class,
+        CmdDoctor.class,
+        CmdServe.class,
+        CmdCache.class,
+        CmdCache.CmdCacheServe.class,
+        CmdMirror.class,
+        CmdMirror.CmdMirrorSync.class,
+        CmdBundle.class,
+        CmdBundle.CmdBundleExport.class,
+        CmdBundle.CmdBundleImport.class
+})
+class NativeImageConfiguration {
+    private NativeImageConfiguration(){}
+}
@@ -0,0 +1,231 @@
+package asdf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * A local copy of the artifacts of the plugins, for agents without network:
+ * <pre>
+ * &lt;mirror&gt;/index.yml                  tool -&gt; version -&gt; artifacts
+ * &lt;mirror&gt;/&lt;tool&gt;/&lt;file name&gt;          the artifacts
+ * </pre>
+ * It is filled by {@code qsdf mirror sync} and used instead of the remote feeds when
+ * settings.offlineMirror is set in config.yml (a folder or a file:// or http:// URI).
+ */
+public class OfflineMirror {
+    public static final String INDEX_FILE = "index.yml";
+
+    private static Optional<OfflineMirror> configured;
+    private static String configuredLocation;
+
+    private final URI base;
+    private final Index index;
+
+    @Data
+    @NoArgsConstructor
+    static class Index {
+        private int format = 1;
+        private Map<String, Map<String, List<Artifact>>> tools = new TreeMap<>();
+    }
+
+    /**
+     * A file downloaded to install a version
+     */
+    @Data
+    @NoArgsConstructor
+    @AllArgsConstructor
+    public static class Artifact {
+        /** path in the mirror, '/' separated */
+        private String path;
+        /** upstream URL */
+        private String url;
+        private String sha256;
+        private long size;
+        private String os;
+        private String arch;
+    }
+
+    OfflineMirror(URI base, Index index){
+        this.base = base;
+        this.index = index;
+    }
+
+    /**
+     * @return the mirror of settings.offlineMirror, read once per process and location
+     */
+    static synchronized Optional<OfflineMirror> configured(){
+        var location = ConfigManager.intance.getSettings().getOfflineMirror();
+        if (configured == null || !Objects.equals(location, configuredLocation)){
+            configured = Optional.empty();
+            configuredLocation = location;
+            if (location != null && !location.isBlank()){
+                try {
+                    configured = Optional.of(open(toUri(location)));
+                } catch (IOException e){
+                    Log.error("cannot read the offline mirror %s: %s", location, e.getMessage());
+                }
+            }
+        }
+        return configured;
+    }
+
+    /**
+     * @param location a folder or an URI
+     * @return the URI of the folder, ending with /
+     */
+    static URI toUri(String location){
+        URI uri = location.matches("^[a-zA-Z][a-zA-Z0-9+.-]+:.*") ? URI.create(location) : Path.of(location).toAbsolutePath().toUri();
+        return uri.toString().endsWith("/") ? uri : URI.create(uri+"/");
+    }
+
+    static OfflineMirror open(URI base) throws IOException {
+        try (InputStream is = Downloader.open(base.resolve(INDEX_FILE))) {
+            return new OfflineMirror(base, new ObjectMapper(new YAMLFactory()).readValue(is, Index.class));
+        }
+    }
+
+    /**
+     * @return the versions of the tool in the mirror
+     */
+    public Set<String> getVersions(String tool){
+        return index.getTools().getOrDefault(tool, Map.of()).keySet();
+    }
+
+    public List<Artifact> getArtifacts(String tool, String version){
+        return index.getTools().getOrDefault(tool, Map.of()).getOrDefault(version, List.of());
+    }
+
+    /**
+     * @return the URI of the artifact in the mirror
+     */
+    public URI resolve(Artifact artifact){
+        return base.resolve(artifact.getPath());
+    }
+
+    /**
+     * Download the artifacts of the versions in the mirror folder and add them to its index.
+     * Artifacts already present with the expected checksum (or size when the checksum is unknown)
+     * are kept. The checksum and size of an artifact unknown to its plugin are recorded in the index
+     * by its first sync, and checked by the next ones.
+     * @param folder the mirror folder
+     * @param versions the versions to copy by plugin
+     * @param threads the number of parallel downloads
+     * @return a row (tool, version, files, status) per version
+     */
+    static List<List<String>> sync(File folder, Map<PlugIn, Set<String>> versions, int threads) throws IOException {
+        Path root = folder.toPath().toAbsolutePath().normalize();
+        Files.createDirectories(root);
+        Path indexFile = root.resolve(INDEX_FILE);
+        Index index = Files.isRegularFile(indexFile)
+                ? new ObjectMapper(new YAMLFactory()).readValue(indexFile.toFile(), Index.class)
+                : new Index();
+        Map<List<String>, List<Artifact>> artifacts = new LinkedHashMap<>();
+        Map<List<String>, Future<String>> tasks = new LinkedHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        try {
+            versions.forEach((plugIn, set) -> set.forEach(version -> {
+                var key = List.of(plugIn.getName(), version);
+                var files = plugIn.getArtifacts(version);
+                recorded(index, key, files);
+                artifacts.put(key, files);
+                tasks.put(key, executor.submit(() -> fetch(root, files)));
+            }));
+            List<List<String>> rows = new ArrayList<>();
+            for (var task : tasks.entrySet()){
+                var key = task.getKey();
+                var files = artifacts.get(key);
+                String status;
+                try {
+                    status = task.getValue().get();
+                    if (!files.isEmpty()){
+                        index.getTools().computeIfAbsent(key.get(0), k -> new TreeMap<>(PlugIn::compareVersions))
+                                .put(key.get(1), files);
+                    }
+                } catch (ExecutionException e){
+                    status = "failed: "+e.getCause().getMessage();
+                }
+                rows.add(List.of(key.get(0), key.get(1), String.valueOf(files.size()), status));
+            }
+            Path tmp = Files.createTempFile(root, INDEX_FILE, ".tmp");
+            new ObjectMapper(new YAMLFactory()).writeValue(tmp.toFile(), index);
+            Files.move(tmp, indexFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            return rows;
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IOException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Complete the artifacts whose checksum is unknown to the plugin with the checksum and size of the index
+     */
+    private static void recorded(Index index, List<String> key, List<Artifact> artifacts){
+        var known = index.getTools().getOrDefault(key.get(0), Map.of()).getOrDefault(key.get(1), List.of());
+        for (Artifact artifact : artifacts){
+            if (artifact.getSha256() != null){
+                continue;
+            }
+            known.stream()
+                    .filter(k -> k.getSha256() != null && k.getPath().equals(artifact.getPath()) && Objects.equals(k.getUrl(), artifact.getUrl()))
+                    .findFirst()
+                    .ifPresent(k -> {
+                        artifact.setSha256(k.getSha256());
+                        artifact.setSize(k.getSize());
+                    });
+        }
+    }
+
+    /**
+     * @return present, downloaded or not mirrorable
+     */
+    private static String fetch(Path folder, List<Artifact> artifacts) throws IOException {
+        if (artifacts.isEmpty()){
+            return "not mirrorable";
+        }
+        int downloaded = 0;
+        for (Artifact artifact : artifacts){
+            Path target = folder.resolve(artifact.getPath()).normalize();
+            if (!target.startsWith(folder)){
+                throw new IOException("artifact outside of the mirror: "+artifact.getPath());
+            }
+            if (!isPresent(target, artifact)){
+                Downloader.download(URI.create(artifact.getUrl()), target, artifact.getSha256());
+                downloaded++;
+            }
+            if (artifact.getSha256() == null){
+                artifact.setSha256(InstallManifest.sha256(target));
+                artifact.setSize(Files.size(target));
+            }
+        }
+        return downloaded == 0 ? "present" : "downloaded";
+    }
+
+    private static boolean isPresent(Path target, Artifact artifact) throws IOException {
+        if (!Files.isRegularFile(target)){
+            return false;
+        }
+        if (artifact.getSha256() != null){
+            return artifact.getSha256().equalsIgnoreCase(InstallManifest.sha256(target));
+        }
+        //downloads are atomic: a file of unknown checksum and size is complete
+        return artifact.getSize() <= 0 || Files.size(target) == artifact.getSize();
+    }
+}
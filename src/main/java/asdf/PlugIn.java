@@ -0,0 +1,107 @@
+package asdf;
+
+import java.io.File;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Iterface for tools.
+ * Public to be implemented by the external plugins of config/plugins ({@link ExternalPlugIns}).
+ */
+public interface PlugIn {
+    /**
+     * The name of the tool
+     * @return
+     */
+    String getName();
+
+    /**
+     * The latest of versions, used to resolve "latest" and "latest:&lt;prefix&gt;" ({@link AsyncPlugIn#resolveVersion(String)})
+     * @param versions the versions available remotely
+     * @param prefix the prefix of the version, empty for any
+     * @return the greatest version starting with the prefix, empty if none
+     */
+    static Optional<String> latestVersion(List<String> versions, String prefix){
+        return versions.stream()
+                .filter(v -> v.startsWith(prefix))
+                .max(PlugIn::compareVersions);
+    }
+
+    /**
+     * @param version
+     * @return the executable of the tool in the bin folder of the installed version
+     */
+    default File getExecutable(String version){
+        File bin = new File(getPath(version), "bin");
+        for (String ext : List.of("", ".exe", ".cmd", ".bat")){
+            File exe = new File(bin, getName()+ext);
+            if (exe.isFile()){
+                return exe;
+            }
+        }
+        return new File(bin, getName());
+    }
+
+    /**
+     * @return the environment variable pointing to the installation folder
+     */
+    default String getHomeVariable(){
+        return ShellEnvironment.homeVariable(getName());
+    }
+
+    /**
+     * Compare versions part by part, numbers numerically: 17.0.10 &gt; 17.0.9
+     * @param a a version
+     * @param b a version
+     * @return a negative value if a &lt; b, 0 if equals, a positive value if a &gt; b
+     */
+    static int compareVersions(String a, String b){
+        var pa = a.split("(?<=\\d)(?=\\D)|(?<=\\D)(?=\\d)|[.+_-]");
+        var pb = b.split("(?<=\\d)(?=\\D)|(?<=\\D)(?=\\d)|[.+_-]");
+        for (int i=0;i<Math.min(pa.length, pb.length);i++){
+            int res;
+            if (pa[i].matches("\\d+") && pb[i].matches("\\d+")){
+                res = new java.math.BigInteger(pa[i]).compareTo(new java.math.BigInteger(pb[i]));
+            } else {
+                res = pa[i].compareTo(pb[i]);
+            }
+            if (res != 0){
+                return res;
+            }
+        }
+        return Integer.compare(pa.length, pb.length);
+    }
+
+    default File getFolderForVersion(String version){
+        File folder = new File(ConfigManager.intance.getFolder().toString()+File.separator+"installation"+File.separator+getName()+File.separator+version);
+        return folder;
+    }
+    default File getFolderShim(){
+        File folder = new File(ConfigManager.intance.getFolder().toString()+File.separator+"shims");
+        return folder;
+    }
+
+    /**
+     * @param version a version available remotely
+     * @return the files downloaded to install the version, empty if the plugin cannot be mirrored
+     */
+    default List<OfflineMirror.Artifact> getArtifacts(String version){
+        return List.of();
+    }
+
+    List<String> getAllRemoteVersions();
+
+    boolean isVersionInstallable(String version);
+
+    int install(String version);
+
+    int createShims();
+
+    int deleteShims();
+
+    int uninstall(String version);
+
+    File getPath(String version);
+
+    boolean isInstalled(String version);
+}
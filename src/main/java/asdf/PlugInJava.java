@@ -1,77 +1,201 @@
 package asdf;
 
+import io.quarkus.arc.Unremovable;
+
 import javax.enterprise.context.ApplicationScoped;
+import javax.inject.Named;
 import java.io.File;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.List;
 
+/**
+ * Plugin installing the JDKs of an Adoptium-style release feed (settings.feeds.java in config.yml).
+ * The pages of the feed are cached one day in config/cache/feeds, archives in config/cache/archives.
+ * With settings.offlineMirror, the JDKs are only taken from the mirror.
+ * <p>
+ * Plugin beans are only looked up through the BeanManager: {@link Unremovable} keeps ArC
+ * from dropping them at build time (native image included). Their bean name is the name of the plugin,
+ * so a command creates the plugins it calls only.
+ */
 @ApplicationScoped
+@Unremovable
+@Named("java")
 public class PlugInJava implements PlugIn {
+    public static final String DEFAULT_FEED = "https://api.adoptium.net/v3/assets/version/%5B8%2C1000%29"
+            + "?architecture={arch}&heap_size=normal&image_type=jdk&jvm_impl=hotspot&os={os}"
+            + "&page={page}&page_size=100&project=jdk&release_type=ga&sort_method=DEFAULT&sort_order=DESC&vendor=eclipse";
+    private static final int PAGE_SIZE = 100;
+    private static final Duration FEED_TTL = Duration.ofDays(1);
+
+    private JdkCatalog catalog;
+
     @Override
     public String getName() {
         return "java";
     }
 
+    @Override
+    public String getHomeVariable() {
+        return "JAVA_HOME";
+    }
+
+    /**
+     * @return the catalog of the JDKs for the current platform, read once per process.
+     * A feed that cannot be read gives an empty catalog which is not kept: the next call reads the feed again.
+     */
+    synchronized JdkCatalog getCatalog() {
+        if (catalog != null){
+            return catalog;
+        }
+        var read = JdkCatalog.forCurrentPlatform();
+        var mirror = OfflineMirror.configured();
+        if (mirror.isPresent()){
+            readMirror(read, mirror.get());
+            catalog = read;
+            return catalog;
+        }
+        var config = ConfigManager.intance;
+        var feed = config.getSettings().getFeeds().getOrDefault(getName(), DEFAULT_FEED)
+                .replace("{os}", read.getOs())
+                .replace("{arch}", read.getArch());
+        for (int page = 0; ; page++){
+            var uri = URI.create(feed.replace("{page}", String.valueOf(page)));
+            try (InputStream is = Downloader.open(feedPage(config, read, uri, page))) {
+                var nbReleases = read.read(is);
+                if (!feed.contains("{page}") || nbReleases < PAGE_SIZE){
+                    break;
+                }
+            } catch (IOException e){
+                if (page == 0){
+                    Log.error("cannot read the release feed %s: %s", uri, e.getMessage());
+                    return read;
+                }
+                Log.debug("end of the release feed at page %d: %s", page, e.getMessage());
+                break;
+            }
+        }
+        Log.debug("%d JDK versions for %s/%s", read.size(), read.getOs(), read.getArch());
+        catalog = read;
+        return catalog;
+    }
+
+    /**
+     * Fill the catalog with the JDKs of the platform found in the offline mirror: no network call
+     */
+    private void readMirror(JdkCatalog catalog, OfflineMirror mirror){
+        for (String version : mirror.getVersions(getName())){
+            mirror.getArtifacts(getName(), version).stream()
+                    .filter(a -> catalog.getOs().equals(a.getOs()) && catalog.getArch().equals(a.getArch()))
+                    .findFirst()
+                    .ifPresent(a -> catalog.add(new JdkCatalog.JdkRelease(version, a.getOs(), a.getArch(), a.getSha256(),
+                            mirror.resolve(a).toString(), a.getPath().substring(a.getPath().lastIndexOf('/')+1), a.getSize())));
+        }
+        Log.debug("%d JDK versions for %s/%s in the offline mirror", catalog.size(), catalog.getOs(), catalog.getArch());
+    }
+
+    /**
+     * @return the cached page of the feed, downloaded if missing or older than one day
+     */
+    private URI feedPage(ConfigManager config, JdkCatalog catalog, URI uri, int page) throws IOException {
+        if ("file".equals(uri.getScheme())){
+            return uri;
+        }
+        Path cache = config.getFolder().toPath().resolve(Path.of("cache", "feeds",
+                String.format("%s-%s-%s-%d.json", getName(), catalog.getOs(), catalog.getArch(), page)));
+        if (!Files.isRegularFile(cache)
+                || Files.getLastModifiedTime(cache).toInstant().isBefore(Instant.now().minus(FEED_TTL))){
+            Metrics.count(Metrics.Counter.FEED_CACHE_MISS);
+            Downloader.download(uri, cache, null);
+        } else {
+            Metrics.count(Metrics.Counter.FEED_CACHE_HIT);
+        }
+        return cache.toUri();
+    }
+
     @Override
     public List<String> getAllRemoteVersions() {
-        //TODO To be implemented
-        List<String> versions =  new ArrayList<>();
-        versions.addAll(List.of("1","2","3","4"));
-        return versions;
+        return getCatalog().getVersions();
+    }
+
+    @Override
+    public List<OfflineMirror.Artifact> getArtifacts(String version) {
+        return getCatalog().get(version)
+                .map(r -> List.of(new OfflineMirror.Artifact(getName()+"/"+r.getFileName(), r.getUrl(), r.getChecksum(),
+                        r.getSize(), r.getOs(), r.getArch())))
+                .orElse(List.of());
     }
 
     @Override
     public boolean isVersionInstallable(String version) {
-        if(getAllRemoteVersions().contains(version)){
-            return true;
-        }
-        return false;
+        return getCatalog().contains(version);
     }
 
     @Override
     public int install(String version) {
-        //TODO To be implemented
-        getFolderForVersion(version).mkdirs();
+        var release = getCatalog().get(version);
+        if (release.isEmpty()){
+            Log.info("No JDK %s for %s/%s", version, getCatalog().getOs(), getCatalog().getArch());
+            return 1;
+        }
+        try {
+            Path archive = CacheServer.archiveFolder(ConfigManager.intance.getFolder()).resolve(release.get().getFileName());
+            Downloader.download(URI.create(release.get().getUrl()), archive, release.get().getChecksum());
+            File staging = StagedInstall.stage(this, version);
+            try {
+                Archives.extract(archive, staging.toPath(), true);
+                StagedInstall.publish(this, version, staging, InstallManifest.of(getName(), version, staging));
+            } catch (IOException | RuntimeException e){
+                StagedInstall.delete(staging);
+                throw e;
+            }
+        } catch (IOException e) {
+            Log.error(e.getMessage());
+            return 1;
+        }
         createShims();
         return 0;
     }
 
     @Override
     public int createShims() {
-        //TODO To be implemented
-        getFolderShim().mkdirs();
-        String path = getFolderShim().toString();
-        File java = new File(path+File.separator+"java.cmd");
-        try{java.createNewFile();}catch(Exception e){}
-        return 0;
+        return Shims.refresh(this);
     }
 
     @Override
     public int deleteShims() {
-        //TODO To be implemented
-        String path = getFolderShim().toString();
-        File java = new File(path+File.separator+"java.cmd");
-        try{java.delete();}catch(Exception e){}
-        return 0;
+        return Shims.refresh(this);
     }
 
     @Override
     public int uninstall(String version) {
-        //TODO To be implemented
-        getFolderForVersion(version).delete();
+        try {
+            StagedInstall.remove(this, version);
+        } catch (IOException e) {
+            Log.error(e.getMessage());
+            return 1;
+        }
         deleteShims();
         return 0;
     }
 
+    /**
+     * @return the java home: Contents/Home in macOS archives
+     */
     @Override
     public File getPath(String version) {
-        //TODO To be implemented
-        return getFolderForVersion(version);
+        File folder = getFolderForVersion(version);
+        File macHome = new File(folder, "Contents"+File.separator+"Home");
+        return macHome.isDirectory() ? macHome : folder;
     }
 
     @Override
     public boolean isInstalled(String version) {
-        //TODO To be implemented (make a beter check)
-        return getFolderForVersion(version).exists();
+        return StagedInstall.isComplete(getFolderForVersion(version));
     }
 }
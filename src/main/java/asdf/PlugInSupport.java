@@ -0,0 +1,117 @@
+package asdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.Optional;
+
+/**
+ * Services of qsdf for the plugins, the external ones included ({@link ExternalPlugIns}): downloads through
+ * the peers, mirrors and archive cache, extraction and staged installation. The classes behind them are
+ * internal to qsdf; this class is the API a plugin jar is compiled against.
+ * <pre>
+ * public int install(String version) {
+ *     try {
+ *         Path archive = PlugInSupport.download(URI.create(url), "tool-"+version+".tar.gz", sha256);
+ *         PlugInSupport.install(this, version, archive, true);
+ *         return 0;
+ *     } catch (IOException e) {
+ *         return 1;
+ *     }
+ * }
+ * </pre>
+ */
+public final class PlugInSupport {
+
+    private PlugInSupport(){}
+
+    /**
+     * @return the config folder of qsdf
+     */
+    public static File configFolder(){
+        return ConfigManager.intance.getFolder();
+    }
+
+    /**
+     * @param plugIn the plugin
+     * @return the release feed of the plugin set in config.yml (settings.feeds), empty if none
+     */
+    public static Optional<String> feed(PlugIn plugIn){
+        return Optional.ofNullable(ConfigManager.intance.getSettings().getFeeds().get(plugIn.getName()));
+    }
+
+    /**
+     * Download an archive to the archive cache, unless it is there with the expected checksum.
+     * The peers (settings.peers) and mirrors (settings.mirrors) are tried as for the built-in plugins.
+     * @param uri the upstream URI
+     * @param fileName the name of the archive in the cache
+     * @param sha256 the expected SHA-256 in hexadecimal, null if unknown
+     * @return the archive
+     */
+    public static Path download(URI uri, String fileName, String sha256) throws IOException {
+        if (!StagedInstall.isFileName(fileName)){
+            throw new IOException(String.format("invalid archive name %s", fileName));
+        }
+        Path archive = CacheServer.archiveFolder(configFolder()).resolve(fileName);
+        Downloader.download(uri, archive, sha256);
+        return archive;
+    }
+
+    /**
+     * Extract an archive and publish it as the installation of the version: the installation is complete
+     * or not visible at all
+     * @param plugIn the plugin
+     * @param version the version
+     * @param archive a tar.gz, tgz or zip file
+     * @param stripRoot remove the first folder of every entry
+     */
+    public static void install(PlugIn plugIn, String version, Path archive, boolean stripRoot) throws IOException {
+        File staging = stage(plugIn, version);
+        try {
+            Archives.extract(archive, staging.toPath(), stripRoot);
+        } catch (IOException e){
+            StagedInstall.delete(staging);
+            throw e;
+        }
+        publish(plugIn, version, staging);
+    }
+
+    /**
+     * For the plugins building the installation themselves: fill the returned folder, then {@link #publish}
+     * @param plugIn the plugin
+     * @param version the version
+     * @return an empty staging folder
+     */
+    public static File stage(PlugIn plugIn, String version) throws IOException {
+        return StagedInstall.stage(plugIn, version);
+    }
+
+    /**
+     * Publish a filled staging folder as the installation of the version
+     * @param plugIn the plugin
+     * @param version the version
+     * @param staging the folder returned by {@link #stage}
+     */
+    public static void publish(PlugIn plugIn, String version, File staging) throws IOException {
+        StagedInstall.publish(plugIn, version, staging, InstallManifest.of(plugIn.getName(), version, staging));
+    }
+
+    /**
+     * @param plugIn the plugin
+     * @param version the version
+     * @return true if the installation of the version is complete
+     */
+    public static boolean isInstalled(PlugIn plugIn, String version){
+        return StagedInstall.isComplete(plugIn.getFolderForVersion(version));
+    }
+
+    /**
+     * Remove the installation of the version, hidden at once then deleted
+     * @param plugIn the plugin
+     * @param version the version
+     */
+    public static void uninstall(PlugIn plugIn, String version) throws IOException {
+        StagedInstall.remove(plugIn, version);
+    }
+}
@@ -0,0 +1,162 @@
+package asdf;
+
+import io.smallrye.mutiny.Multi;
+import io.smallrye.mutiny.subscription.Cancellable;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress bars of the running jobs, at the bottom of the terminal.
+ * An event only updates the state of its job; the bars are drawn 10 times per second from this state,
+ * so the rendering cost does not depend on the number of events.
+ * The log lines are printed above the bars: {@link Log} erases them first, the next frame draws them again.
+ */
+class ProgressRenderer {
+    private static final long FRAME_MS = 100;
+    private static final int MAX_LINES = 8;
+    private static final int BAR_SIZE = 24;
+    private static final String ESC = "\033[";
+    private static volatile ProgressRenderer active;
+
+    private final Map<String, Progress> jobs = new ConcurrentHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+    private Cancellable ticks;
+    /** lines drawn by the last frame, guarded by Log.class */
+    private int drawn;
+
+    private static class Progress {
+        final long order;
+        final String label;
+        volatile JobEvent.Type type;
+        volatile long done;
+        volatile long total = -1;
+
+        Progress(long order, String label){
+            this.order = order;
+            this.label = label;
+        }
+    }
+
+    private ProgressRenderer(){}
+
+    /**
+     * Draw the progress of the next jobs, if the output is an ANSI terminal
+     */
+    static void start(){
+        var term = System.getenv("TERM");
+        if (System.console() == null || term == null || term.equals("dumb")){
+            return;
+        }
+        ProgressRenderer renderer = new ProgressRenderer();
+        active = renderer;
+        JobEvents.subscribe(multi -> multi, renderer::update, renderer::stop);
+        renderer.ticks = Multi.createFrom().ticks().every(Duration.ofMillis(FRAME_MS))
+                .onOverflow().drop()
+                .subscribe().with(t -> renderer.draw());
+    }
+
+    /**
+     * Erase the bars before a log line, called with the lock of Log.class
+     */
+    static void clear(){
+        var renderer = active;
+        if (renderer != null){
+            renderer.erase();
+        }
+    }
+
+    private void update(JobEvent event){
+        var key = event.key();
+        if (event.getType().isEnd()){
+            jobs.remove(key);
+            return;
+        }
+        var progress = jobs.computeIfAbsent(key, k -> new Progress(sequence.incrementAndGet(),
+                event.getAction().name().toLowerCase()+" "+event.getTool()+" "+event.getVersion()));
+        progress.type = event.getType();
+        if (event.getType().isProgress()){
+            progress.done = event.getDone();
+            progress.total = event.getTotal();
+        }
+    }
+
+    private void stop(){
+        if (ticks != null){
+            ticks.cancel();
+        }
+        synchronized (Log.class){
+            erase();
+            active = null;
+        }
+    }
+
+    private void erase(){
+        if (drawn > 0){
+            System.out.print(ESC+drawn+"F"+ESC+"J");
+            System.out.flush();
+            drawn = 0;
+        }
+    }
+
+    private void draw(){
+        List<Progress> running = new ArrayList<>(jobs.values());
+        running.sort(Comparator.comparingLong(p -> p.order));
+        StringBuilder sb = new StringBuilder();
+        int lines = 0;
+        for (Progress progress : running){
+            if (lines == MAX_LINES-1 && running.size() > MAX_LINES){
+                sb.append(String.format("... %d other jobs%n", running.size()-lines));
+                lines++;
+                break;
+            }
+            sb.append(line(progress)).append(System.lineSeparator());
+            lines++;
+        }
+        synchronized (Log.class){
+            if (active != this) return;
+            if (drawn > 0){
+                System.out.print(ESC+drawn+"F"+ESC+"J");
+            }
+            System.out.print(sb);
+            System.out.flush();
+            drawn = lines;
+        }
+    }
+
+    private static String line(Progress progress){
+        var label = String.format("%-40.40s ", progress.label);
+        long done = progress.done;
+        long total = progress.total;
+        switch (progress.type){
+            case QUEUED:
+                return label+"queued";
+            case DOWNLOADED:
+                if (total <= 0){
+                    return label+"downloading "+size(done);
+                }
+                return label+bar(done, total)+" "+size(done)+"/"+size(total);
+            case EXTRACTED:
+                if (total <= 0){
+                    return label+"extracting "+done+" files";
+                }
+                return label+bar(done, total)+" "+done+"/"+total+" files";
+            default:
+                return label+"running";
+        }
+    }
+
+    private static String bar(long done, long total){
+        int full = (int) Math.min(BAR_SIZE, done*BAR_SIZE/total);
+        return "["+"#".repeat(full)+".".repeat(BAR_SIZE-full)+"] "+String.format("%3d%%", Math.min(100, done*100/total));
+    }
+
+    private static String size(long bytes){
+        return bytes < 1024*1024 ? (bytes/1024)+"KB" : String.format("%.1fMB", bytes/(1024.0*1024));
+    }
+}
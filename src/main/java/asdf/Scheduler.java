@@ -0,0 +1,400 @@
+package asdf;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shares the network and the disk between the downloads and extractions of the plugins, with the
+ * limits of settings.limits in config.yml:
+ * <ul>
+ *     <li>bandwidth: token bucket of bytes per second for the downloads of one process, 0 for no limit.
+ *     The buckets are per process: two processes downloading may use twice the bandwidth</li>
+ *     <li>backgroundBandwidth: bucket of the background downloads (prefetch) of one process</li>
+ *     <li>extractions: number of archives extracted at the same time, by all the qsdf processes of the
+ *     config folder (slots locked in config/locks)</li>
+ * </ul>
+ * Interactive work (qsdf install) goes first, in the process and between processes:
+ * <ul>
+ *     <li>in the process, a background thread only gets an extraction slot or tokens when no interactive
+ *     thread downloads or waits for a slot</li>
+ *     <li>a process downloading or extracting interactively holds a shared lock on config/locks/interactive.lock;
+ *     a background process (prefetch) checks that lock before its slots and its downloaded bytes, and pauses
+ *     while another process holds it</li>
+ * </ul>
+ */
+class Scheduler {
+    private static final long SLOT_POLL_MS = 200;
+    /** interval between two checks of the interactive lock by a background download */
+    private static final long INTERACTIVE_CHECK_MS = 500;
+    static final String INTERACTIVE_LOCK = "interactive.lock";
+
+    /**
+     * Priority of the work of the process
+     */
+    enum Priority {
+        INTERACTIVE, BACKGROUND
+    }
+
+    private static Scheduler instance;
+    private static volatile Priority priority = Priority.INTERACTIVE;
+
+    private final File lockFolder;
+    private final TokenBucket bandwidth;
+    private final TokenBucket backgroundBandwidth;
+    private final int extractions;
+    private int runningExtractions;
+    private int interactiveWaiting;
+    private int interactiveDownloads;
+    /** interactive downloads and extractions of the process, the interactive lock is held while positive */
+    private int interactiveActive;
+    private FileChannel interactiveChannel;
+    private volatile long nextInteractiveCheck;
+
+    Scheduler(File configFolder, DataConfig.Limits limits){
+        this.lockFolder = new File(configFolder, FileLocks.LOCK_FOLDER);
+        this.bandwidth = new TokenBucket(limits.getBandwidth());
+        this.backgroundBandwidth = new TokenBucket(limits.getBackgroundBandwidth());
+        this.extractions = Math.max(1, limits.getExtractions());
+    }
+
+    /**
+     * @return the scheduler of the process, limits read once
+     */
+    static synchronized Scheduler get(){
+        if (instance == null){
+            var config = ConfigManager.intance;
+            instance = new Scheduler(config.getFolder(), config.getSettings().getLimits());
+        }
+        return instance;
+    }
+
+    /**
+     * @param value priority of the work of this process, BACKGROUND for a prefetch
+     */
+    static void setPriority(Priority value){
+        priority = value;
+    }
+
+    static Priority getPriority(){
+        return priority;
+    }
+
+    /**
+     * @param is a download
+     * @return the stream read within the bandwidth limits
+     */
+    InputStream throttle(InputStream is){
+        return throttle(is, priority);
+    }
+
+    InputStream throttle(InputStream is, Priority p){
+        return new ThrottledInputStream(is, p);
+    }
+
+    /**
+     * Block until an extraction slot is free in this process and in the others
+     * @return the slot, to be closed
+     */
+    Slot extraction() throws IOException {
+        return extraction(priority);
+    }
+
+    Slot extraction(Priority p) throws IOException {
+        if (p == Priority.INTERACTIVE){
+            interactiveStarted();
+        } else {
+            yieldToInteractive(true);
+        }
+        try {
+            return waitExtraction(p);
+        } catch (IOException e){
+            if (p == Priority.INTERACTIVE) interactiveEnded();
+            throw e;
+        }
+    }
+
+    private Slot waitExtraction(Priority p) throws IOException {
+        synchronized (this){
+            if (p == Priority.INTERACTIVE) interactiveWaiting++;
+            try {
+                while (runningExtractions >= extractions || (p == Priority.BACKGROUND && interactiveWaiting > 0)){
+                    wait();
+                }
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            } finally {
+                if (p == Priority.INTERACTIVE) interactiveWaiting--;
+            }
+            runningExtractions++;
+        }
+        try {
+            return lockSlot(p);
+        } catch (IOException e){
+            releaseExtraction(p);
+            throw e;
+        }
+    }
+
+    private Slot lockSlot(Priority p) throws IOException {
+        lockFolder.mkdirs();
+        boolean logged = false;
+        while (true){
+            for (int i = 0; i < extractions; i++){
+                var channel = FileChannel.open(new File(lockFolder, "extract-"+i+".lock").toPath(),
+                        StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                FileLock lock = null;
+                try {
+                    lock = channel.tryLock();
+                } catch (OverlappingFileLockException e){
+                    //slot held by another thread of this process
+                }
+                if (lock != null){
+                    return new Slot(channel, lock, p);
+                }
+                channel.close();
+            }
+            if (!logged){
+                Log.verbose("waiting for an extraction slot held by another process");
+                logged = true;
+            }
+            try {
+                Thread.sleep(p == Priority.BACKGROUND ? 5*SLOT_POLL_MS : SLOT_POLL_MS);
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+    }
+
+    private void releaseExtraction(Priority p){
+        synchronized (this){
+            runningExtractions--;
+            notifyAll();
+        }
+        if (p == Priority.INTERACTIVE) interactiveEnded();
+    }
+
+    private void downloadStarted(Priority p){
+        if (p == Priority.INTERACTIVE){
+            synchronized (this){
+                interactiveDownloads++;
+            }
+            interactiveStarted();
+        } else {
+            nextInteractiveCheck = 0; //checked on the first read
+        }
+    }
+
+    private void downloadEnded(Priority p){
+        synchronized (this){
+            if (p == Priority.INTERACTIVE) interactiveDownloads--;
+            notifyAll();
+        }
+        if (p == Priority.INTERACTIVE) interactiveEnded();
+    }
+
+    /**
+     * Take the shared interactive lock when the first interactive work of the process starts.
+     * Best effort: without the lock, the background processes do not pause.
+     */
+    private synchronized void interactiveStarted(){
+        if (interactiveActive++ > 0){
+            return;
+        }
+        try {
+            lockFolder.mkdirs();
+            interactiveChannel = FileChannel.open(new File(lockFolder, INTERACTIVE_LOCK).toPath(),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            interactiveChannel.lock(0, Long.MAX_VALUE, true);
+        } catch (IOException | OverlappingFileLockException e){
+            Log.debug("cannot lock %s: %s", INTERACTIVE_LOCK, e.getMessage());
+            closeInteractiveChannel();
+        }
+    }
+
+    /**
+     * Release the interactive lock when the last interactive work of the process ends
+     */
+    private synchronized void interactiveEnded(){
+        if (--interactiveActive == 0){
+            closeInteractiveChannel();
+        }
+    }
+
+    private void closeInteractiveChannel(){
+        if (interactiveChannel != null){
+            try {
+                interactiveChannel.close();
+            } catch (IOException e){
+                //the lock is released with the channel anyway
+            }
+            interactiveChannel = null;
+        }
+    }
+
+    /**
+     * Pause a background work while another process holds the interactive lock
+     * @param now check now, otherwise at most every {@value #INTERACTIVE_CHECK_MS} ms
+     */
+    private void yieldToInteractive(boolean now) throws InterruptedIOException {
+        if (!now && System.nanoTime() < nextInteractiveCheck){
+            return;
+        }
+        boolean logged = false;
+        while (isInteractiveElsewhere()){
+            if (!logged){
+                Log.verbose("background work paused: another qsdf process is installing");
+                logged = true;
+            }
+            try {
+                Thread.sleep(5*SLOT_POLL_MS);
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        nextInteractiveCheck = System.nanoTime()+TimeUnit.MILLISECONDS.toNanos(INTERACTIVE_CHECK_MS);
+    }
+
+    /**
+     * @return true if a process holds the interactive lock: it cannot be locked exclusively
+     */
+    private boolean isInteractiveElsewhere(){
+        lockFolder.mkdirs();
+        try (var channel = FileChannel.open(new File(lockFolder, INTERACTIVE_LOCK).toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            var lock = channel.tryLock();
+            if (lock == null){
+                return true;
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException e){
+            return true; //held by an interactive scheduler of this JVM
+        } catch (IOException e){
+            Log.debug("cannot check %s: %s", INTERACTIVE_LOCK, e.getMessage());
+            return false;
+        }
+    }
+
+    private void acquire(long bytes, Priority p) throws InterruptedIOException {
+        try {
+            if (p == Priority.BACKGROUND){
+                yieldToInteractive(false);
+                synchronized (this){
+                    while (interactiveDownloads > 0){
+                        wait();
+                    }
+                }
+                backgroundBandwidth.take(bytes);
+            }
+            bandwidth.take(bytes);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        }
+    }
+
+    /**
+     * An extraction slot held by the current thread
+     */
+    class Slot implements AutoCloseable {
+        private final FileChannel channel;
+        private final FileLock lock;
+        private final Priority p;
+
+        private Slot(FileChannel channel, FileLock lock, Priority p){
+            this.channel = channel;
+            this.lock = lock;
+            this.p = p;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                lock.release();
+                channel.close();
+            } finally {
+                releaseExtraction(p);
+            }
+        }
+    }
+
+    /**
+     * Bucket of one second of bytes, refilled continuously. A read larger than the tokens left
+     * is allowed and paid back by the next ones.
+     */
+    static class TokenBucket {
+        private final long rate;
+        private double tokens;
+        private long last = System.nanoTime();
+
+        TokenBucket(long bytesPerSecond){
+            this.rate = bytesPerSecond;
+            this.tokens = bytesPerSecond;
+        }
+
+        synchronized void take(long bytes) throws InterruptedException {
+            if (rate <= 0) return;
+            refill();
+            while (tokens < 0){
+                long ms = (long) Math.ceil(-tokens*1000/rate);
+                wait(Math.max(1, ms));
+                refill();
+            }
+            tokens -= bytes;
+        }
+
+        private void refill(){
+            long now = System.nanoTime();
+            tokens = Math.min(rate, tokens + (now-last)*rate/1e9);
+            last = now;
+        }
+    }
+
+    private class ThrottledInputStream extends FilterInputStream {
+        private final Priority p;
+        private boolean closed;
+
+        ThrottledInputStream(InputStream in, Priority p){
+            super(in);
+            this.p = p;
+            downloadStarted(p);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) acquire(1, p);
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) acquire(read, p);
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                if (!closed){
+                    closed = true;
+                    downloadEnded(p);
+                }
+            }
+        }
+    }
+}
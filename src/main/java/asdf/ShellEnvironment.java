@@ -0,0 +1,149 @@
+package asdf;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.*;
+
+/**
+ * Environment of the resolved tools: bin folders to put in the PATH and home variables
+ * (JAVA_HOME, M2_HOME...), pointing directly to the installations (no shim).
+ */
+class ShellEnvironment {
+    private static final Map<String, String> HOME_VARIABLES = Map.of(
+            "java", "JAVA_HOME",
+            "mvn", "M2_HOME",
+            "maven", "M2_HOME",
+            "tomcat", "CATALINA_HOME");
+    private static final List<String> SHELLS = List.of("bash", "zsh");
+    /** entries of the hook cache kept by {@link #prune} */
+    static final int CACHE_MAX_ENTRIES = 256;
+    static final Duration CACHE_MAX_AGE = Duration.ofDays(30);
+
+    private final List<String> paths = new ArrayList<>();
+    private final Map<String, String> variables = new TreeMap<>();
+
+    /**
+     * @param toolName the tool name
+     * @return the home variable of the tool (JAVA_HOME for java, &lt;NAME&gt;_HOME by default)
+     */
+    public static String homeVariable(String toolName){
+        return HOME_VARIABLES.getOrDefault(toolName,
+                toolName.toUpperCase(Locale.ROOT).replaceAll("[^A-Z0-9]", "_")+"_HOME");
+    }
+
+    /**
+     * @param shell bash or zsh
+     * @param configFolder the qsdf config folder
+     * @return the hook to eval in the shell rc file
+     */
+    public static Optional<String> hook(String shell, File configFolder) throws IOException {
+        if (!SHELLS.contains(shell)){
+            return Optional.empty();
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("export QSDF_DIR=").append(quote(configFolder.getAbsoluteFile().toPath().normalize().toString())).append('\n');
+        sb.append(resource("hooks/common.sh"));
+        sb.append(resource("hooks/"+shell+".sh"));
+        return Optional.of(sb.toString());
+    }
+
+    private static String resource(String name) throws IOException {
+        try (InputStream is = ShellEnvironment.class.getClassLoader().getResourceAsStream(name)) {
+            if (is == null){
+                throw new FileNotFoundException(name);
+            }
+            return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Add the installation of a tool: its bin folder (or the installation folder) and its home variable
+     * @param plugIn the plugin of the tool
+     * @param installation the installation folder
+     */
+    public void add(PlugIn plugIn, File installation){
+        File bin = new File(installation, "bin");
+        paths.add((bin.isDirectory() ? bin : installation).getPath());
+        variables.put(plugIn.getHomeVariable(), installation.getPath());
+    }
+
+    /**
+     * @return the script sourced by the hook: applies the diff with the previously loaded environment
+     */
+    public String toHookScript(){
+        StringBuilder sb = new StringBuilder("_qsdf_reset\n");
+        ListIterator<String> it = paths.listIterator(paths.size());
+        while (it.hasPrevious()){ // each path is prepended
+            sb.append("_qsdf_path ").append(quote(it.previous())).append('\n');
+        }
+        variables.forEach((k, v) -> sb.append("_qsdf_var ").append(k).append(' ').append(quote(v)).append('\n'));
+        return sb.toString();
+    }
+
+    /**
+     * @return standalone export statements, for eval "$(qsdf env)"
+     */
+    public String toExports(){
+        StringBuilder sb = new StringBuilder();
+        if (!paths.isEmpty()){
+            sb.append("export PATH=").append(quote(String.join(":", paths))).append("\"${PATH:+:$PATH}\"\n");
+        }
+        variables.forEach((k, v) -> sb.append("export ").append(k).append('=').append(quote(v)).append('\n'));
+        return sb.toString();
+    }
+
+    /**
+     * Write the hook script atomically: a hook reading the cache never sees a partial file
+     * @param file the cache file
+     */
+    public void write(File file) throws IOException {
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        File tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            Files.writeString(tmp.toPath(), toHookScript());
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * @param configFolder the qsdf config folder
+     * @return the folder of the scripts cached by the hook, one per key (see hooks/common.sh)
+     */
+    public static File cacheFolder(File configFolder){
+        return new File(configFolder, "cache"+File.separator+"env");
+    }
+
+    /**
+     * Evict the cached scripts older than maxAge, then the oldest ones beyond maxEntries: each key
+     * (a directory, the mtime of its .tool-versions files...) adds an entry, none is read again once stale.
+     * @param folder the cache folder
+     * @param maxEntries the entries kept at most
+     * @param maxAge the age of the evicted entries
+     */
+    public static void prune(File folder, int maxEntries, Duration maxAge){
+        File[] files = folder.listFiles(File::isFile);
+        if (files == null){
+            return;
+        }
+        long limit = System.currentTimeMillis()-maxAge.toMillis();
+        List<File> kept = new ArrayList<>();
+        for (File file : files){
+            if (file.lastModified() < limit){
+                file.delete();
+            } else {
+                kept.add(file);
+            }
+        }
+        kept.sort(Comparator.comparingLong(File::lastModified).reversed());
+        kept.stream().skip(maxEntries).forEach(File::delete);
+    }
+
+    private static String quote(String value){
+        return "'"+value.replace("'", "'\\''")+"'";
+    }
+}
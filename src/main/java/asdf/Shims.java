@@ -0,0 +1,123 @@
+package asdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Shims of config/shims: one script per executable of the installed versions of a tool,
+ * running {@code qsdf exec --tool <tool> -- <command> "$@"}. The version is resolved at each call,
+ * so the shims only change when the set of executables changes.
+ * <p>
+ * A shim contains no absolute path, so it still works in a bundle imported on another machine:
+ * qsdf is found in the PATH (or is the command line of QSDF_COMMAND, e.g. {@code java -jar /opt/qsdf.jar})
+ * and the config folder is QSDF_DIR, the parent of the shims folder by default.
+ */
+class Shims {
+    /** environment variable giving the command line running qsdf, qsdf of the PATH by default */
+    public static final String ENV_COMMAND = "QSDF_COMMAND";
+    private static final String MARKER = "qsdf shim: ";
+    private static final List<String> EXTENSIONS = List.of(".exe", ".cmd", ".bat");
+    private static final boolean WINDOWS = System.getProperty("os.name").toLowerCase(Locale.ROOT).startsWith("windows");
+
+    private Shims(){}
+
+    /**
+     * Rewrite the shims of a tool from the executables of its installed versions
+     * @param plugIn the plugin of the tool
+     * @return 0 or 1 on error
+     */
+    static int refresh(PlugIn plugIn){
+        File folder = plugIn.getFolderShim();
+        try (var timer = Metrics.time(Metrics.Phase.SHIMS)) {
+            Files.createDirectories(folder.toPath());
+            File[] shims = folder.listFiles();
+            if (shims != null){
+                for (File shim : shims){
+                    if (isShimOf(shim, plugIn.getName())){
+                        Files.delete(shim.toPath());
+                    }
+                }
+            }
+            for (String command : commands(plugIn)){
+                write(new File(folder, command), unixShim(plugIn.getName(), command));
+                if (WINDOWS){
+                    write(new File(folder, command+".cmd"), windowsShim(plugIn.getName(), command));
+                }
+            }
+            return 0;
+        } catch (IOException e){
+            Log.error(e.getMessage());
+            return 1;
+        }
+    }
+
+    /**
+     * @return the names of the executables in the bin folder of the complete installations
+     */
+    private static Set<String> commands(PlugIn plugIn){
+        Set<String> commands = new TreeSet<>();
+        File[] versions = plugIn.getFolderForVersion("_").getParentFile().listFiles(
+                f -> f.isDirectory() && !f.getName().startsWith(".") && StagedInstall.isComplete(f));
+        if (versions == null){
+            return commands;
+        }
+        for (File version : versions){
+            File[] executables = new File(plugIn.getPath(version.getName()), "bin")
+                    .listFiles(f -> f.isFile() && f.canExecute());
+            if (executables == null) continue;
+            for (File executable : executables){
+                var name = executable.getName();
+                for (String ext : EXTENSIONS){
+                    if (name.toLowerCase(Locale.ROOT).endsWith(ext)){
+                        name = name.substring(0, name.length()-ext.length());
+                    }
+                }
+                commands.add(name);
+            }
+        }
+        return commands;
+    }
+
+    private static boolean isShimOf(File file, String tool) throws IOException {
+        if (!file.isFile() || file.length() > 4096){
+            return false;
+        }
+        return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8).stream()
+                .anyMatch(line -> line.endsWith(MARKER+tool));
+    }
+
+    static String unixShim(String tool, String command){
+        return "#!/bin/sh\n"
+                + "# "+MARKER+tool+"\n"
+                + ": \"${"+ConfigManager.ENV_DIR+":=$(cd \"$(dirname \"$0\")/..\" && pwd)}\"\n"
+                + "export "+ConfigManager.ENV_DIR+"\n"
+                + "exec ${"+ENV_COMMAND+":-qsdf} exec --tool '"+tool+"' -- '"+command+"' \"$@\"\n";
+    }
+
+    static String windowsShim(String tool, String command){
+        return "@echo off\r\n"
+                + "rem "+MARKER+tool+"\r\n"
+                + "setlocal\r\n"
+                + "if not defined "+ConfigManager.ENV_DIR+" set \""+ConfigManager.ENV_DIR+"=%~dp0..\"\r\n"
+                + "if not defined "+ENV_COMMAND+" set \""+ENV_COMMAND+"=qsdf\"\r\n"
+                + "%"+ENV_COMMAND+"% exec --tool \""+tool+"\" -- \""+command+"\" %*\r\n";
+    }
+
+    private static void write(File shim, String content) throws IOException {
+        File tmp = File.createTempFile(shim.getName(), ".tmp", shim.getParentFile());
+        try {
+            Files.writeString(tmp.toPath(), content, StandardCharsets.UTF_8);
+            tmp.setExecutable(true, false);
+            Files.move(tmp.toPath(), shim.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package asdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+/**
+ * Installations are built in a staging folder (installation/&lt;tool&gt;/.staging), marked complete
+ * with an {@link InstallManifest} and published by an atomic rename: a reader never sees a partial
+ * installation and an installation is complete if and only if its manifest exists.
+ * Removal is the reverse: an atomic rename to installation/&lt;tool&gt;/.trash, then the deletion.
+ * With the dedup setting, files are linked to the {@link FileStore} before the publication.
+ * <p>
+ * Callers hold the lock of the version ({@link FileLocks#install}).
+ */
+class StagedInstall {
+    public static final String STAGING_FOLDER = ".staging";
+    public static final String TRASH_FOLDER = ".trash";
+
+    private StagedInstall(){}
+
+    /**
+     * @param folder an installation folder
+     * @return true if the installation is complete (one stat)
+     */
+    public static boolean isComplete(File folder){
+        return InstallManifest.file(folder).isFile();
+    }
+
+    /**
+     * @param name a tool or a version read from a feed or a bundle
+     * @return true if it can be used as a path component: not empty, no separator, not . or ..
+     */
+    public static boolean isFileName(String name){
+        return name != null && !name.isBlank() && !name.equals(".") && !name.equals("..")
+                && name.indexOf('/') < 0 && name.indexOf('\\') < 0 && name.indexOf('\0') < 0;
+    }
+
+    /**
+     * Create an empty staging folder for the version. Staging folders left by a killed install
+     * of this version (&lt;version&gt;-&lt;pid&gt;) are removed.
+     * @param plugIn the plugin
+     * @param version the version
+     * @return the staging folder to fill
+     */
+    public static File stage(PlugIn plugIn, String version) throws IOException {
+        return stage(plugIn.getFolderForVersion(version));
+    }
+
+    /**
+     * @param target the installation folder
+     * @return the staging folder to fill
+     */
+    public static File stage(File target) throws IOException {
+        String version = target.getName();
+        File stagingRoot = new File(target.getParentFile(), STAGING_FOLDER);
+        //exact match: the staging folders of 21-ea are not the ones of 21
+        var pattern = Pattern.compile(Pattern.quote(version)+"-\\d+");
+        File[] stale = stagingRoot.listFiles((dir, name) -> pattern.matcher(name).matches());
+        if (stale != null){
+            for (File f : stale){
+                Log.verbose("removing staging folder of an interrupted install %s", f);
+                delete(f);
+            }
+        }
+        File staging = new File(stagingRoot, version+"-"+ProcessHandle.current().pid());
+        Files.createDirectories(staging.toPath());
+        return staging;
+    }
+
+    /**
+     * Write the manifest and move the staging folder to the installation folder
+     * @param plugIn the plugin
+     * @param version the version
+     * @param staging the filled staging folder
+     * @param manifest the manifest of the installation
+     */
+    public static void publish(PlugIn plugIn, String version, File staging, InstallManifest manifest) throws IOException {
+        publish(plugIn.getFolderForVersion(version), staging, manifest);
+    }
+
+    /**
+     * @param target the installation folder
+     * @param staging the filled staging folder
+     * @param manifest the manifest of the installation
+     */
+    public static void publish(File target, File staging, InstallManifest manifest) throws IOException {
+        var store = FileStore.ifEnabled();
+        if (store != null){
+            store.dedup(staging, manifest);
+        }
+        manifest.write(staging);
+        //incomplete installation done before staging
+        File trash = moveToTrash(target);
+        try {
+            Files.move(staging.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e){
+            if (trash != null){
+                Files.move(trash.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+            throw e;
+        }
+        Log.debug("installation %s published", target);
+        if (trash != null){
+            delete(trash);
+        }
+    }
+
+    /**
+     * Remove an installation: once renamed it is no more visible, then it is deleted
+     * @param plugIn the plugin
+     * @param version the version
+     */
+    public static void remove(PlugIn plugIn, String version) throws IOException {
+        File trash = moveToTrash(plugIn.getFolderForVersion(version));
+        if (trash != null){
+            var store = FileStore.ifEnabled();
+            var manifest = (store != null && isComplete(trash)) ? InstallManifest.read(trash) : null;
+            delete(trash);
+            if (manifest != null){
+                store.release(manifest.getFiles());
+            }
+        }
+    }
+
+    private static File moveToTrash(File target) throws IOException {
+        if (!target.exists()){
+            return null;
+        }
+        File trash = new File(target.getParentFile(), TRASH_FOLDER+File.separator+target.getName()+"-"+System.nanoTime());
+        Files.createDirectories(trash.getParentFile().toPath());
+        Files.move(target.toPath(), trash.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return trash;
+    }
+
+    /**
+     * Delete a folder recursively
+     * @param folder the folder
+     */
+    public static void delete(File folder) throws IOException {
+        if (!folder.exists()){
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(folder.toPath())) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator){
+                Files.delete(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package asdf;
+
+import java.io.File;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Versions resolved for every tool from the chain of .tool-versions files (closest first)
+ * and the environment overrides QSDF_&lt;TOOL&gt;_VERSION.
+ */
+class ToolVersions {
+    public static final String FILE_NAME = ".tool-versions";
+    public static final String ENV_PREFIX = "QSDF_";
+    public static final String ENV_SUFFIX = "_VERSION";
+
+    private final Map<String, Tool> tools = new TreeMap<>();
+    private final Map<String, String> sources = new HashMap<>();
+    private final List<File> chain = new ArrayList<>();
+
+    /**
+     * @param toolName the tool name
+     * @return the name of the environment variable overriding the version of the tool
+     */
+    public static String envName(String toolName){
+        return ENV_PREFIX + toolName.toUpperCase(Locale.ROOT).replaceAll("[^A-Z0-9]", "_") + ENV_SUFFIX;
+    }
+
+    /**
+     * Add the tools of a .tool-versions file. Files must be added from the closest to the farthest:
+     * a tool already resolved is not overridden.
+     * @param file the .tool-versions file
+     * @param fileTools the tools read from the file
+     */
+    void addFile(File file, List<Tool> fileTools){
+        chain.add(file);
+        fileTools.forEach(t -> {
+            if (!tools.containsKey(t.toolName)){
+                tools.put(t.toolName, t);
+                sources.put(t.toolName, file.getPath());
+            }
+        });
+    }
+
+    /**
+     * Apply the QSDF_&lt;TOOL&gt;_VERSION overrides (tool name in lower case)
+     * @param env the environment
+     */
+    void addEnv(Map<String, String> env){
+        env.forEach((k, v) -> {
+            if (k.startsWith(ENV_PREFIX) && k.endsWith(ENV_SUFFIX) && k.length() > ENV_PREFIX.length()+ENV_SUFFIX.length()
+                    && v != null && !v.isBlank()){
+                var name = k.substring(ENV_PREFIX.length(), k.length()-ENV_SUFFIX.length()).toLowerCase(Locale.ROOT);
+                tools.put(name, new Tool(name, v.trim()));
+                sources.put(name, k);
+            }
+        });
+    }
+
+    /**
+     * @return the resolved tools sorted by name
+     */
+    public List<Tool> getTools(){
+        return new ArrayList<>(tools.values());
+    }
+
+    public Optional<Tool> getTool(String toolName){
+        return Optional.ofNullable(tools.get(toolName));
+    }
+
+    /**
+     * @param toolName the tool name
+     * @return the .tool-versions file or the environment variable setting the version
+     */
+    public String getSource(String toolName){
+        return sources.getOrDefault(toolName, "");
+    }
+
+    /**
+     * @return the .tool-versions files found, from the closest to the farthest
+     */
+    public List<File> getChain(){
+        return Collections.unmodifiableList(chain);
+    }
+
+    @Override
+    public String toString(){
+        return tools.values().stream().map(t -> t.toolName+" "+t.version+" ("+getSource(t.toolName)+")")
+                .collect(Collectors.joining(", "));
+    }
+}
@@ -0,0 +1,241 @@
+package asdf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HTTP service of {@code qsdf serve}, for the agents of one node. The endpoints run the same
+ * {@link Action}s and {@link ConfigManager} as the command line:
+ * <pre>
+ * GET    /tools                        installed versions
+ * GET    /resolve?dir=&lt;folder&gt;        versions of the .tool-versions files of a folder
+ * POST   /install/&lt;name&gt;/&lt;version&gt;    install, job status streamed as JSON lines
+ * DELETE /install/&lt;name&gt;/&lt;version&gt;    uninstall, job status streamed as JSON lines
+ * GET    /jobs                         running jobs and counters
+ * </pre>
+ * Identical concurrent install or uninstall requests are coalesced: the first one runs the job,
+ * every request waits for the same result.
+ * The registry is read again when config.yml was replaced by another process (checked by every read endpoint).
+ * The JDK HTTP server is used instead of a Quarkus HTTP extension: the command line stays free of
+ * an HTTP stack at startup.
+ */
+class ToolchainServer implements AutoCloseable {
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final long HEARTBEAT_MS = 1000;
+
+    private final HttpServer server;
+    private final ExecutorService handlers = Executors.newCachedThreadPool();
+    private final ExecutorService workers;
+    private final Map<String, PlugIn> plugins;
+    private final ConfigManager config;
+    private final ConcurrentHashMap<String, CompletableFuture<Job>> inflight = new ConcurrentHashMap<>();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder executions = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+
+    /**
+     * @param address the address to listen on, port 0 for any free port
+     * @param plugins the plugins
+     * @param config the config
+     * @param threads the number of jobs run at the same time
+     */
+    ToolchainServer(InetSocketAddress address, Map<String, PlugIn> plugins, ConfigManager config, int threads) throws IOException {
+        this.plugins = plugins;
+        this.config = config;
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads));
+        this.server = HttpServer.create(address, 0);
+        server.setExecutor(handlers);
+        server.createContext("/tools", ex -> handle(ex, "GET", this::tools));
+        server.createContext("/resolve", ex -> handle(ex, "GET", this::resolve));
+        server.createContext("/install/", this::install);
+        server.createContext("/jobs", ex -> handle(ex, "GET", this::jobs));
+    }
+
+    void start(){
+        server.start();
+    }
+
+    int getPort(){
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close(){
+        server.stop(0);
+        handlers.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private interface Handler {
+        Object handle(HttpExchange exchange) throws IOException;
+    }
+
+    private void handle(HttpExchange exchange, String method, Handler handler) throws IOException {
+        requests.increment();
+        try (exchange) {
+            if (!method.equals(exchange.getRequestMethod())){
+                send(exchange, 405, Map.of("error", "method not allowed"));
+                return;
+            }
+            send(exchange, 200, handler.handle(exchange));
+        } catch (IllegalArgumentException e){
+            send(exchange, 400, Map.of("error", String.valueOf(e.getMessage())));
+        } catch (RuntimeException e){
+            Log.error("%s %s: %s", exchange.getRequestMethod(), exchange.getRequestURI(), e);
+            send(exchange, 500, Map.of("error", String.valueOf(e.getMessage())));
+        }
+    }
+
+    private static void send(HttpExchange exchange, int status, Object body) throws IOException {
+        byte[] bytes = JSON.writeValueAsBytes(body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static Map<String, String> query(HttpExchange exchange){
+        Map<String, String> params = new HashMap<>();
+        var raw = exchange.getRequestURI().getRawQuery();
+        if (raw == null) return params;
+        for (String pair : raw.split("&")){
+            int idx = pair.indexOf('=');
+            if (idx > 0){
+                params.put(URLDecoder.decode(pair.substring(0, idx), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(idx+1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private Object tools(HttpExchange exchange){
+        config.reloadIfModified();
+        List<Map<String, Object>> tools = new ArrayList<>();
+        for (var tool : new TreeMap<>(config.getConf().getTools()).values()){
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("name", tool.getName());
+            entry.put("global", tool.getGlobal());
+            List<Map<String, String>> versions = new ArrayList<>();
+            tool.getVersions().forEach(v -> versions.add(Map.of("version", v.getVersion(), "path", v.getPath())));
+            entry.put("versions", versions);
+            tools.add(entry);
+        }
+        return tools;
+    }
+
+    /**
+     * The environment of the server is not the one of the client: only the files are read
+     */
+    private Object resolve(HttpExchange exchange){
+        var dir = query(exchange).get("dir");
+        if (dir == null || !new File(dir).isAbsolute()){
+            throw new IllegalArgumentException("absolute dir parameter expected");
+        }
+        config.reloadIfModified();
+        var resolved = config.resolveToolVersions(new File(dir), Map.of());
+        List<Map<String, Object>> tools = new ArrayList<>();
+        for (Tool tool : resolved.getTools()){
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put("name", tool.toolName);
+            entry.put("version", tool.version);
+            entry.put("source", resolved.getSource(tool.toolName));
+            var plugIn = plugins.get(tool.toolName);
+            boolean installed = plugIn != null && plugIn.isInstalled(tool.version) && config.isInstalled(tool.toolName, tool.version);
+            entry.put("installed", installed);
+            if (installed){
+                entry.put("path", plugIn.getPath(tool.version).toString());
+            }
+            tools.add(entry);
+        }
+        return Map.of("dir", dir, "tools", tools);
+    }
+
+    private Object jobs(HttpExchange exchange){
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("running", new TreeSet<>(inflight.keySet()));
+        status.put("requests", requests.sum());
+        status.put("executions", executions.sum());
+        status.put("coalesced", coalesced.sum());
+        return status;
+    }
+
+    private void install(HttpExchange exchange) throws IOException {
+        requests.increment();
+        try (exchange) {
+            Action action;
+            switch (exchange.getRequestMethod()){
+                case "POST": action = Action.INSTALL; break;
+                case "DELETE": action = Action.UNINSTALL; break;
+                default:
+                    send(exchange, 405, Map.of("error", "method not allowed"));
+                    return;
+            }
+            var parts = exchange.getRequestURI().getPath().substring("/install/".length()).split("/");
+            if (parts.length != 2 || parts[0].isEmpty() || parts[1].isEmpty()){
+                send(exchange, 400, Map.of("error", "/install/<name>/<version> expected"));
+                return;
+            }
+            stream(exchange, action, parts[0], parts[1]);
+        }
+    }
+
+    /**
+     * Join the running job of the same action and version, or start it, then stream its status
+     */
+    private void stream(HttpExchange exchange, Action action, String tool, String version) throws IOException {
+        var key = action+" "+tool+" "+version;
+        boolean[] started = {false};
+        var future = inflight.computeIfAbsent(key, k -> {
+            started[0] = true;
+            executions.increment();
+            return CompletableFuture.supplyAsync(() -> new Job(action, tool, version).doJob(plugins, config), workers);
+        });
+        if (started[0]){
+            future.whenComplete((job, error) -> inflight.remove(key, future));
+        } else {
+            coalesced.increment();
+        }
+        exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream os = exchange.getResponseBody();
+        long start = System.currentTimeMillis();
+        event(os, Map.of("event", "accepted", "job", key, "coalesced", !started[0]));
+        while (true){
+            try {
+                var job = future.get(HEARTBEAT_MS, TimeUnit.MILLISECONDS);
+                Map<String, Object> done = new LinkedHashMap<>();
+                done.put("event", "done");
+                done.put("job", key);
+                done.put("code", job.getReturnedCode());
+                done.put("messages", job.getMessages());
+                done.put("elapsedMs", System.currentTimeMillis()-start);
+                event(os, done);
+                return;
+            } catch (TimeoutException e){
+                event(os, Map.of("event", "running", "job", key, "elapsedMs", System.currentTimeMillis()-start));
+            } catch (ExecutionException e){
+                event(os, Map.of("event", "failed", "job", key, "error", String.valueOf(e.getCause().getMessage())));
+                return;
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private static void event(OutputStream os, Object event) throws IOException {
+        os.write(JSON.writeValueAsBytes(event));
+        os.write('\n');
+        os.flush();
+    }
+}
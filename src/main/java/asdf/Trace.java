@@ -0,0 +1,271 @@
+package asdf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Spans of a command for {@code --trace <file>}, written in the Chrome trace event format
+ * (chrome://tracing, ui.perfetto.dev).
+ * <ul>
+ *     <li>a span is recorded in a buffer of its thread, without lock nor allocation when tracing is off</li>
+ *     <li>the spans of a thread nest by time: jobs, action, lock wait and hold, plugin, phases
+ *     ({@link Metrics.Timer})</li>
+ *     <li>the life of every job (queued, running) is drawn as an async track from the {@link JobEvents}</li>
+ *     <li>timestamps are wall-clock microseconds and the file is written under a file lock: several qsdf
+ *     processes started with the same file share one timeline, with the lock contention between them.
+ *     A file last modified before this process started is the trace of a former run and is replaced;
+ *     otherwise it is the trace of a process running concurrently and the events are added to it.</li>
+ *     <li>the file is a JSON array, closed after every write</li>
+ * </ul>
+ */
+class Trace {
+    private static final ObjectMapper JSON = new ObjectMapper();
+    private static final long EPOCH_OFFSET_NANOS = System.currentTimeMillis()*1_000_000 - System.nanoTime();
+    private static final long PID = ProcessHandle.current().pid();
+    private static final Instant PROCESS_START = ProcessHandle.current().info().startInstant().orElseGet(Instant::now);
+    private static final String HEAD = "[\n";
+    private static final String TAIL = "\n]\n";
+    private static final Span NOOP = () -> {};
+
+    private static volatile boolean enabled;
+    private static final List<Buffer> buffers = new CopyOnWriteArrayList<>();
+    private static final ThreadLocal<Buffer> buffer = ThreadLocal.withInitial(() -> {
+        Buffer b = new Buffer(Thread.currentThread());
+        buffers.add(b);
+        return b;
+    });
+    /** start of the running async spans by id */
+    private static final Map<String, Long> started = new ConcurrentHashMap<>();
+    private static final AtomicLong asyncIds = new AtomicLong();
+
+    interface Span extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private static class Event {
+        final char phase;
+        final String name;
+        final String category;
+        final long startNanos;
+        final long endNanos;
+        final String id;
+        final Map<String, Object> args;
+
+        Event(char phase, String name, String category, long startNanos, long endNanos, String id, Map<String, Object> args){
+            this.phase = phase;
+            this.name = name;
+            this.category = category;
+            this.startNanos = startNanos;
+            this.endNanos = endNanos;
+            this.id = id;
+            this.args = args;
+        }
+    }
+
+    /**
+     * Events of one thread: only this thread adds, the writer reads at the end
+     */
+    private static class Buffer {
+        final long tid;
+        final String threadName;
+        final List<Event> events = new ArrayList<>();
+
+        Buffer(Thread thread){
+            this.tid = thread.getId();
+            this.threadName = thread.getName();
+        }
+
+        synchronized void add(Event event){
+            events.add(event);
+        }
+
+        synchronized List<Event> drain(){
+            var copy = new ArrayList<>(events);
+            events.clear();
+            return copy;
+        }
+    }
+
+    private Trace(){}
+
+    /**
+     * Record the next spans and the life of the jobs
+     */
+    static void start(){
+        enabled = true;
+        JobEvents.subscribe(multi -> multi, Trace::onJobEvent, () -> {});
+    }
+
+    /**
+     * @param name the name of the span
+     * @param category the category: jobs, action, lock, plugin, phase...
+     * @return the span, recorded when closed on the same thread
+     */
+    static Span span(String name, String category){
+        if (!enabled) return NOOP;
+        long start = System.nanoTime();
+        return () -> complete(name, category, start, System.nanoTime(), null);
+    }
+
+    /**
+     * A span that may end on another thread than the one starting it, drawn as an async track
+     * @param name the name of the span
+     * @param category the category
+     * @return the span, recorded when first closed
+     */
+    static Span asyncSpan(String name, String category){
+        if (!enabled) return NOOP;
+        long start = System.nanoTime();
+        String id = PID+" "+category+" "+asyncIds.incrementAndGet();
+        var closed = new AtomicBoolean();
+        return () -> {
+            if (closed.compareAndSet(false, true)){
+                async(name, category, id, start, System.nanoTime(), null);
+            }
+        };
+    }
+
+    /**
+     * Record a span already finished
+     * @param startNanos its start, from System.nanoTime()
+     * @param endNanos its end, from System.nanoTime()
+     * @param args arguments shown with the span, null for none
+     */
+    static void complete(String name, String category, long startNanos, long endNanos, Map<String, Object> args){
+        if (!enabled) return;
+        buffer.get().add(new Event('X', name, category, startNanos, endNanos, null, args));
+    }
+
+    private static void onJobEvent(JobEvent event){
+        long now = System.nanoTime();
+        var key = event.key();
+        JobEvent.Type type = event.getType();
+        switch (type){
+            case QUEUED:
+                started.put("queued "+key, now);
+                break;
+            case STARTED:
+                var queued = started.remove("queued "+key);
+                if (queued != null){
+                    async("queued", "job", PID+" "+key, queued, now, null);
+                }
+                started.put("job "+key, now);
+                break;
+            case DONE:
+            case FAILED:
+                var start = started.remove("job "+key);
+                if (start != null){
+                    Map<String, Object> args = new LinkedHashMap<>();
+                    args.put("code", event.getCode());
+                    if (event.getMessage() != null) args.put("message", event.getMessage());
+                    async(key, "job", PID+" "+key, start, now, args);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private static void async(String name, String category, String id, long startNanos, long endNanos, Map<String, Object> args){
+        buffer.get().add(new Event('b', name, category, startNanos, startNanos, id, null));
+        buffer.get().add(new Event('e', name, category, endNanos, endNanos, id, args));
+    }
+
+    private static long micros(long nanos){
+        return (nanos+EPOCH_OFFSET_NANOS)/1000;
+    }
+
+    /**
+     * Write the recorded events to the trace file, after those of the processes running concurrently
+     * @param file the trace file, created if missing, replaced if written by a former run
+     * @param processName the name shown for this process
+     */
+    static void write(Path file, String processName){
+        if (!enabled) return;
+        enabled = false;
+        StringJoiner events = new StringJoiner(",\n");
+        try {
+            events.add(JSON.writeValueAsString(metadata("process_name", 0, processName)));
+            for (Buffer b : buffers){
+                var drained = b.drain();
+                if (drained.isEmpty()) continue;
+                events.add(JSON.writeValueAsString(metadata("thread_name", b.tid, b.threadName)));
+                for (Event event : drained){
+                    Map<String, Object> json = new LinkedHashMap<>();
+                    json.put("name", event.name);
+                    json.put("cat", event.category);
+                    json.put("ph", String.valueOf(event.phase));
+                    json.put("ts", micros(event.startNanos));
+                    //from the rounded bounds, so that the spans of a thread still nest
+                    if (event.phase == 'X') json.put("dur", Math.max(0, micros(event.endNanos)-micros(event.startNanos)));
+                    json.put("pid", PID);
+                    json.put("tid", b.tid);
+                    if (event.id != null) json.put("id", event.id);
+                    if (event.args != null) json.put("args", event.args);
+                    events.add(JSON.writeValueAsString(json));
+                }
+            }
+            if (file.toAbsolutePath().getParent() != null){
+                Files.createDirectories(file.toAbsolutePath().getParent());
+            }
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.READ);
+                 var lock = channel.lock()) {
+                String content;
+                if (isConcurrent(file, channel)){
+                    channel.position(channel.size()-TAIL.length());
+                    content = ",\n"+events+TAIL;
+                } else {
+                    channel.truncate(0);
+                    content = HEAD+events+TAIL;
+                }
+                ByteBuffer bytes = ByteBuffer.wrap(content.getBytes(StandardCharsets.UTF_8));
+                while (bytes.hasRemaining()){
+                    channel.write(bytes);
+                }
+            }
+            Log.verbose("trace written in %s", file);
+        } catch (IOException e){
+            Log.error("cannot write the trace %s: %s", file, e.getMessage());
+        }
+    }
+
+    /**
+     * @return true if the file is a trace closed by a process running while this one
+     */
+    private static boolean isConcurrent(Path file, FileChannel channel) throws IOException {
+        if (channel.size() < HEAD.length()+TAIL.length()
+                || Files.getLastModifiedTime(file).toInstant().isBefore(PROCESS_START)){
+            return false;
+        }
+        ByteBuffer tail = ByteBuffer.allocate(TAIL.length());
+        long position = channel.size()-TAIL.length();
+        while (tail.hasRemaining()){
+            if (channel.read(tail, position+tail.position()) < 0) return false;
+        }
+        return TAIL.equals(new String(tail.array(), StandardCharsets.UTF_8));
+    }
+
+    private static Map<String, Object> metadata(String name, long tid, String value){
+        Map<String, Object> json = new LinkedHashMap<>();
+        json.put("name", name);
+        json.put("ph", "M");
+        json.put("pid", PID);
+        json.put("tid", tid);
+        json.put("args", Map.of("name", value));
+        return json;
+    }
+}
@@ -0,0 +1,96 @@
+package asdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Finds the .tool-versions files of a workspace (monorepo) with a parallel walk of its folders.
+ * Build outputs, dependencies and VCS folders are pruned, as well as the qsdf config folder;
+ * symbolic links to folders are not followed.
+ */
+class Workspace {
+    public static final Set<String> IGNORED = Set.of(".git", ".hg", ".svn", ".idea", ".gradle",
+            "target", "build", "node_modules");
+
+    private final Path configFolder;
+    private final ConfigManager config;
+    private final Map<File, List<Tool>> files = new ConcurrentSkipListMap<>();
+
+    private Workspace(ConfigManager config){
+        this.config = config;
+        this.configFolder = config.getFolder().toPath().toAbsolutePath().normalize();
+    }
+
+    /**
+     * @param root the root folder of the workspace
+     * @param config the config, its folder is pruned
+     * @param threads the number of folders read in parallel
+     * @return the tools of each .tool-versions file, sorted by path
+     */
+    static Map<File, List<Tool>> scan(File root, ConfigManager config, int threads) throws IOException {
+        if (!root.isDirectory()){
+            throw new IOException(root+" is not a folder");
+        }
+        var workspace = new Workspace(config);
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, threads));
+        try {
+            pool.invoke(workspace.new Walk(root.toPath().toAbsolutePath().normalize()));
+        } catch (UncheckedIOException e){
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+        return workspace.files;
+    }
+
+    /**
+     * Read a folder: its .tool-versions file and a sub task per sub folder
+     */
+    private class Walk extends RecursiveAction {
+        private final Path folder;
+
+        Walk(Path folder){
+            this.folder = folder;
+        }
+
+        @Override
+        protected void compute() {
+            List<Walk> children = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(folder)) {
+                for (Path entry : entries){
+                    var name = entry.getFileName().toString();
+                    if (name.equals(ToolVersions.FILE_NAME)){
+                        read(entry);
+                    } else if (!IGNORED.contains(name) && !entry.equals(configFolder)
+                            && Files.isDirectory(entry, LinkOption.NOFOLLOW_LINKS)){
+                        children.add(new Walk(entry));
+                    }
+                }
+            } catch (IOException e){
+                Log.verbose("cannot read %s: %s", folder, e.getMessage());
+            }
+            invokeAll(children);
+        }
+
+        private void read(Path file){
+            try (InputStream is = Files.newInputStream(file)) {
+                files.put(file.toFile(), config.readFromInputStream(is));
+            } catch (IOException e){
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
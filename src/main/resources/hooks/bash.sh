@@ -0,0 +1,10 @@
+_qsdf_prompt() {
+  [ "$PWD" = "$_QSDF_PWD" ] && return 0
+  _QSDF_PWD="$PWD"
+  _qsdf_hook
+}
+case ";$PROMPT_COMMAND;" in
+  *";_qsdf_prompt;"*) ;;
+  *) PROMPT_COMMAND="_qsdf_prompt${PROMPT_COMMAND:+;$PROMPT_COMMAND}" ;;
+esac
+_qsdf_prompt
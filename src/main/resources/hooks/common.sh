@@ -0,0 +1,53 @@
+# qsdf shell hook: on directory change, load the environment of the resolved tools.
+# The environment is cached by qsdf in $QSDF_DIR/cache/env, keyed by the chain of
+# .tool-versions files (with their mtime), config.yml and QSDF_<TOOL>_VERSION variables:
+# a cache hit costs no JVM startup.
+
+_qsdf_mtime() {
+  stat -c %Y "$1" 2>/dev/null || stat -f %m "$1" 2>/dev/null
+}
+
+_qsdf_reset() {
+  [ -n "$ZSH_VERSION" ] && setopt localoptions shwordsplit
+  local IFS=: p newpath=""
+  for p in $PATH; do
+    case ":$_QSDF_PATH:" in
+      *":$p:"*) ;;
+      *) newpath="${newpath:+$newpath:}$p" ;;
+    esac
+  done
+  PATH="$newpath"
+  for p in $_QSDF_VARS; do
+    unset "$p"
+  done
+  _QSDF_PATH=""
+  _QSDF_VARS=""
+}
+
+_qsdf_path() {
+  PATH="$1${PATH:+:$PATH}"
+  _QSDF_PATH="${_QSDF_PATH:+$_QSDF_PATH:}$1"
+}
+
+_qsdf_var() {
+  export "$1=$2"
+  _QSDF_VARS="${_QSDF_VARS:+$_QSDF_VARS:}$1"
+}
+
+_qsdf_hook() {
+  local d="$PWD" k="" f
+  while :; do
+    [ -f "$d/.tool-versions" ] && k="$k|$d:$(_qsdf_mtime "$d/.tool-versions")"
+    [ "$d" = "/" ] && break
+    d="${d%/*}"
+    d="${d:-/}"
+  done
+  k="$k|$(_qsdf_mtime "$QSDF_DIR/config.yml")|$(env | grep '^QSDF_.*_VERSION=' | sort | tr '\n' '|')"
+  [ "$k" = "$_QSDF_KEY" ] && return 0
+  f="$QSDF_DIR/cache/env/$(printf '%s' "$k" | cksum | tr ' ' '-')"
+  if [ ! -f "$f" ]; then
+    qsdf env --output "$f" >/dev/null || return 1
+  fi
+  _QSDF_KEY="$k"
+  . "$f"
+}
@@ -0,0 +1,3 @@
+autoload -Uz add-zsh-hook
+add-zsh-hook chpwd _qsdf_hook
+_qsdf_hook
@@ -0,0 +1,111 @@
+package asdf;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The actions reading the installations: current, where, which, local and shell
+ */
+class ActionsTest {
+    @TempDir
+    Path root;
+
+    private ConfigManager config;
+    private Map<String, PlugIn> plugIns;
+
+    @BeforeEach
+    void setUp(){
+        config = new ConfigManager(root.resolve("config").toFile());
+        ConfigManager.intance = config;
+        plugIns = Map.of("stub", new StagedPlugIn("stub"));
+    }
+
+    private Job run(Action action, String version){
+        return new Job(action, "stub", version).doJob(plugIns, config);
+    }
+
+    @Test
+    void currentNeedsARegisteredInstallation(){
+        var job = run(Action.CURRENT, "1.0");
+        assertEquals(1, job.getReturnedCode());
+        assertEquals("1.0", job.getResult());
+
+        assertEquals(0, run(Action.INSTALL, "1.0").getReturnedCode());
+
+        assertEquals(0, run(Action.CURRENT, "1.0").getReturnedCode());
+        assertEquals(1, run(Action.CURRENT, "2.0").getReturnedCode());
+    }
+
+    @Test
+    void whereAndWhichGiveTheInstallation(){
+        assertEquals(1, run(Action.WHERE, "1.0").getReturnedCode());
+        assertEquals(1, run(Action.WHICH, "1.0").getReturnedCode());
+        assertEquals(0, run(Action.INSTALL, "1.0").getReturnedCode());
+        File folder = plugIns.get("stub").getFolderForVersion("1.0");
+
+        var where = run(Action.WHERE, "1.0");
+        var which = run(Action.WHICH, "1.0");
+
+        assertEquals(0, where.getReturnedCode());
+        assertEquals(folder.toString(), where.getResult());
+        assertEquals(0, which.getReturnedCode());
+        assertEquals(new File(folder, "bin"+File.separator+"stub").toString(), which.getResult());
+    }
+
+    @Test
+    void localWritesTheLatestVersion() throws Exception {
+        var userDir = System.getProperty("user.dir");
+        System.setProperty("user.dir", root.toString());
+        try {
+            var job = run(Action.LOCAL, "latest");
+
+            assertEquals(0, job.getReturnedCode());
+            assertEquals("2.0", job.getResult());
+            assertEquals("stub 2.0", Files.readString(root.resolve(ToolVersions.FILE_NAME)).trim());
+        } finally {
+            System.setProperty("user.dir", userDir);
+        }
+    }
+
+    @Test
+    void shellSetsTheLatestVersionOfAPrefix(){
+        var job = run(Action.SHELL, "latest:1");
+
+        assertEquals(0, job.getReturnedCode());
+        assertTrue(job.getResult().endsWith(ToolVersions.envName("stub")+"=1.0"), job.getResult());
+    }
+
+    @Test
+    void unknownPrefixFailsTheJob(){
+        var userDir = System.getProperty("user.dir");
+        System.setProperty("user.dir", root.toString());
+        try {
+            assertEquals(1, run(Action.SHELL, "latest:99").getReturnedCode());
+            assertEquals(1, run(Action.LOCAL, "latest:99").getReturnedCode());
+            assertFalse(Files.exists(root.resolve(ToolVersions.FILE_NAME)));
+        } finally {
+            System.setProperty("user.dir", userDir);
+        }
+    }
+
+    @Test
+    void latestVersionComparesNumerically(){
+        var versions = List.of("17.0.9", "17.0.10", "11.0.2", "21");
+
+        assertEquals(Optional.of("21"), PlugIn.latestVersion(versions, ""));
+        assertEquals(Optional.of("17.0.10"), PlugIn.latestVersion(versions, "17"));
+        assertEquals(Optional.empty(), PlugIn.latestVersion(versions, "99"));
+    }
+}
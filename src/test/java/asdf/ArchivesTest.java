@@ -0,0 +1,101 @@
+package asdf;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArchivesTest {
+    @TempDir
+    Path root;
+
+    @Test
+    void keepsLinksInsideTheTarget() throws IOException {
+        var tar = new Tar()
+                .file("jdk/bin/java", "java")
+                .symlink("jdk/java", "bin/java");
+        Path target = Files.createDirectories(root.resolve("target"));
+
+        Archives.extractTar(tar.stream(), target, true);
+
+        assertTrue(Files.isSymbolicLink(target.resolve("java")));
+        assertEquals("java", Files.readString(target.resolve("java")));
+    }
+
+    @Test
+    void refusesAnEntryWrittenThroughALink() throws IOException {
+        Path outside = Files.createDirectories(root.resolve("outside"));
+        var tar = new Tar()
+                .symlink("jdk/x", outside.toString())
+                .file("jdk/x/passwd", "pwned");
+        Path target = Files.createDirectories(root.resolve("target"));
+
+        assertThrows(IOException.class, () -> Archives.extractTar(tar.stream(), target, true));
+        assertFalse(Files.exists(outside.resolve("passwd")));
+    }
+
+    @Test
+    void refusesALinkCreatedThroughALink() throws IOException {
+        Path outside = Files.createDirectories(root.resolve("outside"));
+        var tar = new Tar()
+                .symlink("jdk/x", outside.toString())
+                .symlink("jdk/x/sub/passwd", "/etc/passwd");
+        Path target = Files.createDirectories(root.resolve("target"));
+
+        assertThrows(IOException.class, () -> Archives.extractTar(tar.stream(), target, true));
+        assertFalse(Files.exists(outside.resolve("sub"), LinkOption.NOFOLLOW_LINKS));
+    }
+
+    @Test
+    void refusesAnEntryOutsideOfTheTarget() throws IOException {
+        var tar = new Tar().file("jdk/../../evil", "pwned");
+        Path target = Files.createDirectories(root.resolve("a/target"));
+
+        assertThrows(IOException.class, () -> Archives.extractTar(tar.stream(), target, true));
+        assertFalse(Files.exists(root.resolve("evil")));
+    }
+
+    /**
+     * A tar built in memory, entries in the given order
+     */
+    private static class Tar {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final TarArchiveOutputStream tar = new TarArchiveOutputStream(bytes);
+
+        Tar file(String name, String content) throws IOException {
+            var data = content.getBytes(StandardCharsets.UTF_8);
+            var entry = new TarArchiveEntry(name);
+            entry.setSize(data.length);
+            tar.putArchiveEntry(entry);
+            tar.write(data);
+            tar.closeArchiveEntry();
+            return this;
+        }
+
+        Tar symlink(String name, String linkName) throws IOException {
+            var entry = new TarArchiveEntry(name, TarArchiveEntry.LF_SYMLINK);
+            entry.setLinkName(linkName);
+            tar.putArchiveEntry(entry);
+            tar.closeArchiveEntry();
+            return this;
+        }
+
+        ByteArrayInputStream stream() throws IOException {
+            tar.finish();
+            return new ByteArrayInputStream(bytes.toByteArray());
+        }
+    }
+}
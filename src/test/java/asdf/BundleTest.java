@@ -0,0 +1,148 @@
+package asdf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BundleTest {
+    @TempDir
+    Path root;
+
+    /**
+     * A config folder given by a relative path, as ./config by default
+     */
+    private ConfigManager config(String name){
+        var folder = Path.of("").toAbsolutePath().relativize(root.resolve(name)).toFile();
+        var config = new ConfigManager(folder);
+        ConfigManager.intance = config;
+        return config;
+    }
+
+    @Test
+    void exportsAndImportsWithRelativeConfigFolders() throws IOException {
+        var source = config("source");
+        File install = new File(source.getFolder().getAbsoluteFile(), "installation/java/17");
+        Files.createDirectories(install.toPath().resolve("bin"));
+        Files.writeString(install.toPath().resolve("bin/java"), "java 17");
+        InstallManifest.of("java", "17", install).write(install);
+        source.update(conf -> ConfigManager.addInstalledVersion(conf, "java", "17", install.getAbsoluteFile()));
+        File bundle = root.resolve("tools.bundle").toFile();
+
+        var exported = new Bundle(source, 2).export(bundle, List.of());
+        assertEquals(List.of(List.of("java", "17", "exported")), exported);
+
+        var target = config("target");
+        var imported = new Bundle(target, 2).importFrom(bundle);
+        assertEquals(List.of(List.of("java", "17", "imported")), imported);
+        File copy = root.resolve("target/installation/java/17").toFile();
+        assertTrue(StagedInstall.isComplete(copy));
+        assertEquals(copy.getAbsolutePath(), target.getConf().getTools().get("java").getVersions().iterator().next().getPath());
+    }
+
+    @Test
+    void refusesAVersionOutsideOfTheInstallationFolder() throws IOException {
+        var target = config("target");
+        File bundle = bundle(new Bundle.Entry("java", "../../../evil", "", false));
+
+        assertThrows(IOException.class, () -> new Bundle(target, 1).importFrom(bundle));
+        assertFalse(Files.exists(root.resolve("evil")));
+    }
+
+    @Test
+    void refusesAToolWithASeparator() throws IOException {
+        var target = config("target");
+        File bundle = bundle(new Bundle.Entry("a/../../evil", "1.0", "", false));
+
+        assertThrows(IOException.class, () -> new Bundle(target, 1).importFrom(bundle));
+    }
+
+    @Test
+    void refusesAHomeOutsideOfTheInstallation() throws IOException {
+        var target = config("target");
+        File bundle = bundle(new Bundle.Entry("java", "17", "../../../../etc", false),
+                Map.of("java/17.tar.gz", javaArchive()));
+
+        assertThrows(IOException.class, () -> new Bundle(target, 1).importFrom(bundle));
+
+        assertFalse(Files.exists(root.resolve("target/installation/java")));
+        assertTrue(target.getConf().getTools().isEmpty());
+    }
+
+    @Test
+    void corruptMemberFailsItsVersionOnly() throws IOException {
+        var target = config("target");
+        File bundle = bundle(new Bundle.Entry("java", "17", "", false),
+                Map.of("java/17.tar.gz", "not a tar.gz".getBytes(StandardCharsets.UTF_8)));
+
+        var rows = new Bundle(target, 1).importFrom(bundle);
+
+        assertEquals(1, rows.size());
+        assertTrue(rows.get(0).get(2).startsWith("failed: "), rows.toString());
+        File tool = root.resolve("target/installation/java").toFile();
+        assertFalse(StagedInstall.isComplete(new File(tool, "17")));
+        String[] staged = new File(tool, StagedInstall.STAGING_FOLDER).list();
+        assertTrue(staged == null || staged.length == 0, "staging folder left");
+        assertTrue(target.getConf().getTools().isEmpty());
+    }
+
+    /**
+     * @return a tar.gz of an installation folder of java
+     */
+    private byte[] javaArchive() throws IOException {
+        Path folder = Files.createDirectories(root.resolve("java/bin"));
+        Files.writeString(folder.resolve("java"), "java 17");
+        Path archive = root.resolve("java.tar.gz");
+        Archives.createTarGz(folder.getParent(), archive);
+        return Files.readAllBytes(archive);
+    }
+
+    /**
+     * @return a bundle of the manifest only
+     */
+    private File bundle(Bundle.Entry entry) throws IOException {
+        return bundle(entry, Map.of());
+    }
+
+    /**
+     * @param members name and content of the members following the manifest
+     * @return a bundle of the manifest and the members
+     */
+    private File bundle(Bundle.Entry entry, Map<String, byte[]> members) throws IOException {
+        var manifest = new Bundle.Manifest();
+        manifest.getVersions().add(entry);
+        byte[] yaml = new ObjectMapper(new YAMLFactory()).writeValueAsBytes(manifest);
+        File bundle = root.resolve("evil.bundle").toFile();
+        try (var tar = new TarArchiveOutputStream(Files.newOutputStream(bundle.toPath()))) {
+            var member = new TarArchiveEntry(Bundle.MANIFEST);
+            member.setSize(yaml.length);
+            tar.putArchiveEntry(member);
+            tar.write(yaml);
+            tar.closeArchiveEntry();
+            for (var content : members.entrySet()){
+                member = new TarArchiveEntry(content.getKey());
+                member.setSize(content.getValue().length);
+                tar.putArchiveEntry(member);
+                tar.write(content.getValue());
+                tar.closeArchiveEntry();
+            }
+            tar.finish();
+        }
+        return bundle;
+    }
+}
@@ -0,0 +1,125 @@
+package asdf;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Two cache servers on the loopback, A holding an archive and B having A as peer
+ */
+class CacheServerTest {
+    private static final long HEAD_TIMEOUT_MS = 300;
+
+    @TempDir
+    Path root;
+
+    private Path archivesA;
+    private Path archivesB;
+    private CacheServer serverA;
+    private CacheServer serverB;
+    private TestServer upstream;
+    private byte[] content;
+    private String sha256;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        File a = root.resolve("a").toFile();
+        File b = root.resolve("b").toFile();
+        archivesA = Files.createDirectories(CacheServer.archiveFolder(a));
+        archivesB = Files.createDirectories(CacheServer.archiveFolder(b));
+        content = new byte[256*1024];
+        new Random(42).nextBytes(content);
+        sha256 = InstallManifest.sha256(Files.write(archivesA.resolve("jdk-shared.tar.gz"), content));
+        serverA = new CacheServer(archivesA, new InetSocketAddress("127.0.0.1", 0), 2, HEAD_TIMEOUT_MS);
+        serverB = new CacheServer(archivesB, new InetSocketAddress("127.0.0.1", 0), 2, HEAD_TIMEOUT_MS);
+        serverA.start();
+        serverB.start();
+        upstream = new TestServer();
+        var configB = new ConfigManager(b);
+        configB.update(c -> c.getSettings().getPeers().add("http://127.0.0.1:"+serverA.getPort()));
+        ConfigManager.intance = configB;
+    }
+
+    @AfterEach
+    void tearDown() throws IOException {
+        serverA.close();
+        serverB.close();
+        upstream.close();
+    }
+
+    @Test
+    void downloadsFromThePeerThenServesIt() throws Exception {
+        Path target = archivesB.resolve("jdk-shared.tar.gz");
+
+        Downloader.download(upstream.uri("/dist/jdk-shared.tar.gz"), target, sha256);
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(0, upstream.hits("/dist/jdk-shared.tar.gz"));
+        var response = get(serverB, CacheServer.PATH_PREFIX+sha256);
+        assertEquals(200, response.statusCode());
+        assertArrayEquals(content, response.body());
+    }
+
+    @Test
+    void downloadsUpstreamWhenNoPeerHasTheArchive() throws Exception {
+        byte[] other = new byte[1024];
+        new Random(7).nextBytes(other);
+        String otherSha = InstallManifest.sha256(Files.write(root.resolve("other"), other));
+        upstream.respond("/dist/other.tar.gz", other);
+        Path target = archivesB.resolve("other.tar.gz");
+
+        Downloader.download(upstream.uri("/dist/other.tar.gz"), target, otherSha);
+
+        assertArrayEquals(other, Files.readAllBytes(target));
+        assertEquals(1, upstream.hits("/dist/other.tar.gz"));
+        assertEquals(404, get(serverA, CacheServer.PATH_PREFIX+otherSha).statusCode());
+    }
+
+    @Test
+    void refusesAWrongChecksum() {
+        String wrong = sha256.replace(sha256.charAt(0), sha256.charAt(0) == '0' ? '1' : '0');
+        Path target = archivesB.resolve("wrong.tar.gz");
+
+        assertThrows(IOException.class, () -> Downloader.download(upstream.uri("/dist/jdk-shared.tar.gz"), target, wrong));
+
+        assertFalse(Files.exists(target));
+    }
+
+    @Test
+    void dropsAClientSendingNoRequest() throws Exception {
+        try (var idle = new Socket("127.0.0.1", serverA.getPort())) {
+            idle.setSoTimeout(10_000);
+            long start = System.nanoTime();
+
+            assertEquals(-1, idle.getInputStream().read());
+
+            assertTrue((System.nanoTime()-start)/1_000_000 < 5_000);
+        }
+        //the thread of the dropped client serves the next one
+        assertEquals(200, get(serverA, CacheServer.PATH_PREFIX+sha256).statusCode());
+    }
+
+    private static HttpResponse<byte[]> get(CacheServer server, String path) throws IOException, InterruptedException {
+        return HttpClient.newHttpClient().send(HttpRequest.newBuilder(URI.create("http://127.0.0.1:"+server.getPort()+path)).build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+}
@@ -0,0 +1,175 @@
+package asdf;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Snapshots of the registry (config.yml)
+ */
+class ConfigManagerTest {
+
+    @TempDir
+    Path root;
+
+    private File config() throws IOException {
+        return Files.createDirectories(root.resolve("config")).toFile();
+    }
+
+    @Test
+    void invalidFileFailsWithItsName() throws IOException {
+        File folder = config();
+        Files.writeString(new File(folder, "config.yml").toPath(), "tools: [not a map\n");
+
+        var e = assertThrows(UncheckedIOException.class, () -> new ConfigManager(folder));
+
+        assertTrue(e.getMessage().contains("config.yml"), e.getMessage());
+    }
+
+    @Test
+    void invalidFileIsNotLoaded() throws IOException {
+        File folder = config();
+        var previous = ConfigManager.load(folder);
+        Files.writeString(new File(folder, "config.yml").toPath(), "tools: [not a map\n");
+
+        var e = assertThrows(IOException.class, () -> ConfigManager.load(folder));
+
+        assertTrue(e.getMessage().contains("config.yml"), e.getMessage());
+        assertSame(previous, ConfigManager.intance);
+    }
+
+    @Test
+    void invalidFileIsNotOverwritten() throws IOException {
+        File folder = config();
+        var config = new ConfigManager(folder);
+        config.updateInstalledVersion("java", "17", new File(folder, "installation/java/17"));
+        Path file = new File(folder, "config.yml").toPath();
+        Files.writeString(file, "tools: [not a map\n");
+
+        config.reload();
+        assertThrows(UncheckedIOException.class, () -> config.updateInstalledVersion("java", "21", new File(folder, "installation/java/21")));
+
+        assertTrue(config.isInstalled("java", "17"));
+        assertEquals("tools: [not a map\n", Files.readString(file));
+    }
+
+    @Test
+    void publishedSnapshotIsUnmodifiable() throws IOException {
+        File folder = config();
+        var config = new ConfigManager(folder);
+        config.updateInstalledVersion("java", "17", new File(folder, "installation/java/17"));
+        var conf = config.getConf();
+
+        assertThrows(UnsupportedOperationException.class, () -> conf.getTools().remove("java"));
+        assertThrows(UnsupportedOperationException.class, () -> conf.getTools().get("java").getVersions().clear());
+        assertThrows(UnsupportedOperationException.class, () -> config.getSettings().getPeers().add("http://peer"));
+    }
+
+    @Test
+    void batchKeepsTheSnapshotsBeingRead() throws IOException {
+        File folder = config();
+        var config = new ConfigManager(folder);
+        config.update(c -> c.getSettings().getPeers().add("http://peer-a"));
+        var before = config.getConf();
+
+        config.batch(() -> {
+            config.update(c -> c.getSettings().getPeers().add("http://peer-b"));
+            config.updateInstalledVersion("java", "17", new File(folder, "installation/java/17"));
+        });
+
+        assertEquals(1, before.getSettings().getPeers().size());
+        assertTrue(before.getTools().isEmpty());
+        assertEquals(2, config.getSettings().getPeers().size());
+        assertTrue(new ConfigManager(folder).isInstalled("java", "17"));
+    }
+
+    @Test
+    void replaceCopiesTheConfiguration() throws IOException {
+        File folder = config();
+        var generated = new DataConfig();
+        var tool = new DataConfig.DataTool();
+        tool.setName("java");
+        tool.getVersions().add(new DataConfig.DataTool.Version("17", "installation/java/17"));
+        generated.getTools().put("java", tool);
+        var config = new ConfigManager(folder);
+
+        config.replace(generated);
+        tool.getVersions().add(new DataConfig.DataTool.Version("21", "installation/java/21"));
+
+        assertTrue(config.isInstalled("java", "17"));
+        assertFalse(config.isInstalled("java", "21"));
+        assertTrue(new ConfigManager(folder).isInstalled("java", "17"));
+    }
+
+    /**
+     * Several managers of the same folder, as several processes, install and uninstall from several threads
+     */
+    @Test
+    void concurrentUpdatesLoseNoEntry() throws Exception {
+        File folder = config();
+        int managers = 3;
+        int threads = 4;
+        int versions = 20;
+        List<ConfigManager> configs = new ArrayList<>();
+        for (int m=0;m<managers;m++){
+            configs.add(new ConfigManager(folder));
+        }
+        ExecutorService pool = Executors.newFixedThreadPool(managers*threads);
+        var start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int m=0;m<managers;m++){
+                for (int t=0;t<threads;t++){
+                    var config = configs.get(m);
+                    var tool = "tool"+t;
+                    var prefix = m+".";
+                    futures.add(pool.submit(() -> {
+                        start.await();
+                        for (int v=0;v<versions;v++){
+                            config.updateInstalledVersion(tool, prefix+v, new File(folder, "installation/"+tool+"/"+prefix+v));
+                            //concurrent snapshots stay readable
+                            config.getAllInstalledVersion(tool);
+                        }
+                        for (int v=0;v<versions;v+=2){
+                            config.updateUninstalledVersion(tool, prefix+v);
+                        }
+                        return null;
+                    }));
+                }
+            }
+            start.countDown();
+            for (var future : futures){
+                future.get();
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        var registry = new ConfigManager(folder);
+        for (int m=0;m<managers;m++){
+            for (int t=0;t<threads;t++){
+                for (int v=0;v<versions;v++){
+                    assertEquals(v%2 == 1, registry.isInstalled("tool"+t, m+"."+v), "tool"+t+" "+m+"."+v);
+                }
+            }
+        }
+        assertEquals(managers*versions/2, registry.getAllInstalledVersion("tool0").size());
+    }
+}
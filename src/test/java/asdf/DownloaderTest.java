@@ -0,0 +1,153 @@
+package asdf;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Downloads from local servers that answer late, stall or fail
+ */
+class DownloaderTest {
+    private static final String PATH = "/dist/tool-1.0.tar.gz";
+
+    @TempDir
+    Path root;
+
+    private TestServer source;
+    private TestServer mirror;
+    private byte[] content;
+    private String sha256;
+    private Path target;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        source = new TestServer();
+        mirror = new TestServer();
+        content = new byte[256*1024];
+        new Random(42).nextBytes(content);
+        Path file = Files.write(root.resolve("content"), content);
+        sha256 = InstallManifest.sha256(file);
+        target = root.resolve("archives/tool-1.0.tar.gz");
+    }
+
+    @AfterEach
+    void tearDown(){
+        source.close();
+        mirror.close();
+    }
+
+    /**
+     * @param requestTimeoutMs settings.limits.requestTimeoutMs
+     * @param readIdleTimeoutMs settings.limits.readIdleTimeoutMs
+     */
+    private void config(long requestTimeoutMs, long readIdleTimeoutMs) throws IOException {
+        File config = root.resolve("config").toFile();
+        Files.createDirectories(config.toPath());
+        Files.writeString(new File(config, "config.yml").toPath(),
+                "settings:\n" +
+                "  mirrors:\n" +
+                "    \""+source.base()+"\":\n" +
+                "    - \""+mirror.base()+"\"\n" +
+                "  limits:\n" +
+                "    requestTimeoutMs: "+requestTimeoutMs+"\n" +
+                "    readIdleTimeoutMs: "+readIdleTimeoutMs+"\n");
+        ConfigManager.intance = new ConfigManager(config);
+    }
+
+    @Test
+    void downloadsAndChecksTheChecksum() throws IOException {
+        config(5_000, 5_000);
+        source.respond(PATH, content);
+
+        Downloader.download(source.uri(PATH), target, sha256);
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(0, mirror.hits(PATH));
+    }
+
+    @Test
+    void refusesAnotherChecksum() throws IOException {
+        config(5_000, 5_000);
+        source.respond(PATH, new byte[10]);
+        mirror.respond(PATH, new byte[10]);
+
+        assertThrows(IOException.class, () -> Downloader.download(source.uri(PATH), target, sha256));
+        assertFalse(Files.exists(target));
+    }
+
+    @Test
+    void abandonsARequestWithoutHeaders() throws IOException {
+        config(300, 5_000);
+        source.respond(PATH, content).delay(3_000);
+        mirror.respond(PATH, content).delay(3_000);
+
+        assertThrows(HttpTimeoutException.class, () -> Downloader.download(source.uri(PATH), target, sha256));
+        assertFalse(Files.exists(target));
+    }
+
+    @Test
+    void abandonsAStalledTransfer() throws IOException {
+        config(5_000, 300);
+        source.respond(PATH, content).stall(1024, 5_000);
+        mirror.respond(PATH, content).stall(1024, 5_000);
+
+        assertThrows(HttpTimeoutException.class, () -> Downloader.download(source.uri(PATH), target, sha256));
+        assertFalse(Files.exists(target));
+    }
+
+    @Test
+    void asksAMirrorWhenTheSourceIsSlow() throws IOException {
+        config(0, 0);
+        source.respond(PATH, content).delay(10_000);
+        mirror.respond(PATH, content);
+
+        long start = System.nanoTime();
+        Downloader.download(source.uri(PATH), target, sha256);
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(1, mirror.hits(PATH));
+        assertTrue((System.nanoTime()-start)/1_000_000 < 8_000, "hedged request not sent");
+    }
+
+    @Test
+    void usesAMirrorWhenTheSourceFails() throws IOException {
+        config(5_000, 5_000);
+        source.respond(PATH, content).status(503);
+        mirror.respond(PATH, content);
+
+        Downloader.download(source.uri(PATH), target, sha256);
+
+        assertArrayEquals(content, Files.readAllBytes(target));
+        assertEquals(1, source.hits(PATH));
+        assertEquals(1, mirror.hits(PATH));
+    }
+
+    @Test
+    void skipsASourceWithAnOpenCircuit() throws IOException {
+        config(5_000, 5_000);
+        source.respond(PATH, content);
+        mirror.respond(PATH, content);
+        for (int i = 0; i < 3; i++){
+            Mirrors.get().recordFailure(source.uri(PATH));
+        }
+
+        Downloader.download(source.uri(PATH), target, sha256);
+
+        assertEquals(0, source.hits(PATH));
+        assertEquals(1, mirror.hits(PATH));
+    }
+}
@@ -0,0 +1,153 @@
+package asdf;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.tools.ToolProvider;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * A plugin jar compiled by the test against the qsdf classes, added to the index then loaded on its first call
+ */
+class ExternalPlugInsTest {
+    private static final String PLUGIN_CLASS = "org.example.FixturePlugIn";
+    private static final String PLUGIN_SOURCE =
+            "package org.example;\n" +
+            "import asdf.PlugIn;\n" +
+            "import asdf.PlugInSupport;\n" +
+            "import java.io.File;\n" +
+            "import java.io.IOException;\n" +
+            "import java.util.List;\n" +
+            "public class FixturePlugIn implements PlugIn {\n" +
+            "    public String getName() { return \"fixture\"; }\n" +
+            "    public List<String> getAllRemoteVersions() { return List.of(\"1.0\"); }\n" +
+            "    public boolean isVersionInstallable(String version) { return getAllRemoteVersions().contains(version); }\n" +
+            "    public int install(String version) {\n" +
+            "        try {\n" +
+            "            File upstream = new File(PlugInSupport.configFolder(), \"upstream/fixture-\"+version+\".tar.gz\");\n" +
+            "            var archive = PlugInSupport.download(upstream.toURI(), \"fixture-\"+version+\".tar.gz\", null);\n" +
+            "            PlugInSupport.install(this, version, archive, false);\n" +
+            "            return 0;\n" +
+            "        } catch (IOException e) {\n" +
+            "            return 1;\n" +
+            "        }\n" +
+            "    }\n" +
+            "    public int uninstall(String version) {\n" +
+            "        try {\n" +
+            "            PlugInSupport.uninstall(this, version);\n" +
+            "            return 0;\n" +
+            "        } catch (IOException e) {\n" +
+            "            return 1;\n" +
+            "        }\n" +
+            "    }\n" +
+            "    public int createShims() { return 0; }\n" +
+            "    public int deleteShims() { return 0; }\n" +
+            "    public File getPath(String version) { return getFolderForVersion(version); }\n" +
+            "    public boolean isInstalled(String version) { return PlugInSupport.isInstalled(this, version); }\n" +
+            "}\n";
+    /** a library class of qsdf, bundled by the plugin in its own version */
+    private static final String LIBRARY_CLASS = "org.apache.commons.compress.utils.IOUtils";
+    private static final String LIBRARY_SOURCE =
+            "package org.apache.commons.compress.utils;\n" +
+            "public class IOUtils {\n" +
+            "}\n";
+
+    @TempDir
+    Path root;
+
+    private File config;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        config = Files.createDirectories(root.resolve("config")).toFile();
+        ConfigManager.intance = new ConfigManager(config);
+        Path content = Files.createDirectories(root.resolve("content/bin"));
+        Files.writeString(content.resolve("fixture"), "#!/bin/sh\necho fixture 1.0\n");
+        Files.createDirectories(new File(config, "upstream").toPath());
+        Archives.createTarGz(root.resolve("content"), new File(config, "upstream/fixture-1.0.tar.gz").toPath());
+    }
+
+    @Test
+    void installsThroughAnIndexedJar() throws Exception {
+        var entry = ExternalPlugIns.add(ConfigManager.intance, "fixture", fixtureJar().toString());
+        assertEquals(PLUGIN_CLASS, entry.getClassName());
+
+        var plugIn = (ExternalPlugIn) ExternalPlugIns.plugIns(ConfigManager.intance).get("fixture");
+
+        assertEquals(0, plugIn.install("1.0"));
+        assertTrue(plugIn.isInstalled("1.0"));
+        assertTrue(new File(plugIn.getPath("1.0"), "bin/fixture").isFile());
+        assertEquals(0, plugIn.uninstall("1.0"));
+        assertFalse(plugIn.getFolderForVersion("1.0").exists());
+    }
+
+    @Test
+    void jarSeesTheApiOfQsdfButNotItsInternals() throws Exception {
+        try (var loader = ExternalPlugIns.loader(fixtureJar().toFile())) {
+            assertSame(PlugIn.class, loader.loadClass(PlugIn.class.getName()));
+            assertSame(PlugInSupport.class, loader.loadClass(PlugInSupport.class.getName()));
+            assertSame(OfflineMirror.Artifact.class, loader.loadClass(OfflineMirror.Artifact.class.getName()));
+            assertThrows(ClassNotFoundException.class, () -> loader.loadClass(Metrics.class.getName()));
+            assertThrows(ClassNotFoundException.class, () -> loader.loadClass(ConfigManager.class.getName()));
+            assertThrows(ClassNotFoundException.class, () -> loader.loadClass(OfflineMirror.class.getName()));
+            assertSame(loader, loader.loadClass(PLUGIN_CLASS).getClassLoader());
+            //the version of the jar, not the one of qsdf
+            assertSame(loader, loader.loadClass(LIBRARY_CLASS).getClassLoader());
+            assertThrows(ClassNotFoundException.class, () -> loader.loadClass("com.fasterxml.jackson.databind.ObjectMapper"));
+            assertSame(String.class, loader.loadClass(String.class.getName()));
+        }
+    }
+
+    @Test
+    void unknownPluginIsRefused() {
+        var e = assertThrows(IOException.class, () -> ExternalPlugIns.add(ConfigManager.intance, "other", fixtureJar().toString()));
+
+        assertTrue(e.getMessage().contains("fixture"), e.getMessage());
+        assertTrue(ExternalPlugIns.read(ConfigManager.intance).getPlugins().isEmpty());
+    }
+
+    /**
+     * Compile the fixture sources against the qsdf classes and jar them with their service declaration
+     * @return the jar
+     */
+    private Path fixtureJar() throws Exception {
+        Path sources = Files.createDirectories(root.resolve("src"));
+        Path classes = Files.createDirectories(root.resolve("classes"));
+        List<String> arguments = new ArrayList<>(List.of("-d", classes.toString(), "-cp",
+                Path.of(PlugIn.class.getProtectionDomain().getCodeSource().getLocation().toURI()).toString()));
+        arguments.add(Files.writeString(sources.resolve("FixturePlugIn.java"), PLUGIN_SOURCE).toString());
+        arguments.add(Files.writeString(sources.resolve("IOUtils.java"), LIBRARY_SOURCE).toString());
+        assertEquals(0, ToolProvider.getSystemJavaCompiler().run(null, null, null, arguments.toArray(new String[0])));
+
+        Path jar = root.resolve("fixture-plugin-1.0.jar");
+        try (var out = new JarOutputStream(Files.newOutputStream(jar));
+             Stream<Path> walk = Files.walk(classes)) {
+            for (Path file : walk.filter(Files::isRegularFile).collect(Collectors.toList())){
+                out.putNextEntry(new JarEntry(classes.relativize(file).toString().replace(File.separatorChar, '/')));
+                Files.copy(file, out);
+                out.closeEntry();
+            }
+            out.putNextEntry(new JarEntry("META-INF/services/"+PlugIn.class.getName()));
+            out.write((PLUGIN_CLASS+"\n").getBytes(StandardCharsets.UTF_8));
+            out.closeEntry();
+        }
+        return jar;
+    }
+}
@@ -0,0 +1,152 @@
+package asdf;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Locks of config/locks, between threads and between processes
+ */
+class FileLocksTest {
+    @TempDir
+    Path root;
+
+    @Test
+    void releasedLocksAreForgotten() throws Exception {
+        File config = root.toFile();
+        int before = FileLocks.size();
+
+        try (var outer = FileLocks.install(config, "java", "17");
+             var inner = FileLocks.install(config, "java", "17")) {
+            assertFalse(inner.hasWaited());
+            assertEquals(before+1, FileLocks.size());
+        }
+        assertEquals(before, FileLocks.size());
+
+        var held = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var holder = CompletableFuture.runAsync(() -> {
+            try (var lock = FileLocks.install(config, "java", "21")) {
+                held.countDown();
+                release.await();
+            } catch (InterruptedException e){
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertTrue(held.await(10, TimeUnit.SECONDS));
+        var waiter = CompletableFuture.supplyAsync(() -> {
+            try (var lock = FileLocks.install(config, "java", "21")) {
+                return lock.hasWaited();
+            }
+        });
+        release.countDown();
+
+        holder.get(10, TimeUnit.SECONDS);
+        waiter.get(10, TimeUnit.SECONDS);
+        assertEquals(before, FileLocks.size());
+    }
+
+    @Test
+    void asyncLockIsReleasedByAnyThread() throws Exception {
+        File config = root.toFile();
+        int before = FileLocks.size();
+        var pool = Executors.newFixedThreadPool(2);
+        try {
+            CompletableFuture<FileLocks.Held> second;
+            try (var first = FileLocks.install(config, "java", "17")) {
+                second = FileLocks.installAsync(config, "java", "17", pool);
+                assertFalse(second.isDone());
+            }
+            var held = second.get(10, TimeUnit.SECONDS);
+            assertTrue(held.hasWaited());
+            var third = FileLocks.installAsync(config, "java", "17", pool);
+            assertFalse(third.isDone());
+
+            //closed by a thread of the pool, not the acquiring one
+            CompletableFuture.runAsync(held::close, pool).get(10, TimeUnit.SECONDS);
+
+            third.get(10, TimeUnit.SECONDS).close();
+            assertEquals(before, FileLocks.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    void cancelledAsyncLockIsNotTaken() throws Exception {
+        File config = root.toFile();
+        int before = FileLocks.size();
+        var pool = Executors.newFixedThreadPool(2);
+        try {
+            CompletableFuture<FileLocks.Held> waiting;
+            try (var held = FileLocks.install(config, "java", "17")) {
+                waiting = FileLocks.installAsync(config, "java", "17", pool);
+                assertTrue(waiting.cancel(false));
+            }
+
+            try (var lock = FileLocks.install(config, "java", "17")) {
+                assertFalse(lock.hasWaited());
+            }
+            assertEquals(before, FileLocks.size());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * A child JVM holds the registry lock until its standard input is closed
+     */
+    @Test
+    void processesExcludeEachOther() throws Exception {
+        var java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        var child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Holder.class.getName(), root.toString())
+                .redirectError(ProcessBuilder.Redirect.INHERIT).start();
+        try {
+            var out = new BufferedReader(new InputStreamReader(child.getInputStream(), StandardCharsets.UTF_8));
+            assertEquals("locked", out.readLine());
+
+            var waiter = CompletableFuture.supplyAsync(() -> {
+                try (var lock = FileLocks.registry(root.toFile())) {
+                    return lock.hasWaited();
+                }
+            });
+            Thread.sleep(500);
+            assertFalse(waiter.isDone());
+
+            child.getOutputStream().close();
+            assertEquals("released", out.readLine());
+            assertTrue(waiter.get(10, TimeUnit.SECONDS));
+            assertEquals(0, child.waitFor());
+        } finally {
+            child.destroyForcibly();
+        }
+    }
+
+    /**
+     * The other process: takes the registry lock of the config folder given as argument
+     */
+    static class Holder {
+        public static void main(String[] args) throws Exception {
+            try (var lock = FileLocks.registry(new File(args[0]))) {
+                System.out.println("locked");
+                System.out.flush();
+                System.in.transferTo(OutputStream.nullOutputStream());
+            }
+            System.out.println("released");
+        }
+    }
+}
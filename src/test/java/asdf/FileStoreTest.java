@@ -0,0 +1,97 @@
+package asdf;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Two versions sharing a file through the store (dedup setting)
+ */
+class FileStoreTest {
+    private static final String SHARED = "#!/bin/sh\necho shared\n";
+
+    @TempDir
+    Path root;
+
+    private FileStore store;
+    private PlugIn plugIn;
+
+    @BeforeEach
+    void setUp(){
+        var config = new ConfigManager(root.resolve("config").toFile());
+        config.update(c -> c.getSettings().setDedup(true));
+        ConfigManager.intance = config;
+        store = new FileStore(config.getFolder());
+        plugIn = new StagedPlugIn("tool"){
+            @Override
+            public int install(String version) {
+                try {
+                    File staging = StagedInstall.stage(this, version);
+                    Files.createDirectories(staging.toPath().resolve("bin"));
+                    Files.writeString(staging.toPath().resolve("bin/tool"), SHARED);
+                    Files.writeString(staging.toPath().resolve("release"), version);
+                    StagedInstall.publish(this, version, staging, InstallManifest.of("tool", version, staging));
+                    return 0;
+                } catch (IOException e){
+                    return 1;
+                }
+            }
+        };
+    }
+
+    private static int links(Path file) throws IOException {
+        return ((Number) Files.getAttribute(file, "unix:nlink", LinkOption.NOFOLLOW_LINKS)).intValue();
+    }
+
+    @Test
+    void sharedFilesAreReadOnlyLinks() throws IOException {
+        assumeTrue(root.getFileSystem().supportedFileAttributeViews().contains("unix"));
+        assertEquals(0, plugIn.install("1.0"));
+        assertEquals(0, plugIn.install("2.0"));
+        Path one = plugIn.getFolderForVersion("1.0").toPath().resolve("bin/tool");
+        Path two = plugIn.getFolderForVersion("2.0").toPath().resolve("bin/tool");
+
+        assertTrue(Files.isSameFile(one, two));
+        assertEquals(3, links(one));
+        assertFalse(InstallManifest.mode(one).contains("w"), InstallManifest.mode(one));
+        try (var verifier = new InstallVerifier(1, true)) {
+            var result = verifier.verify(plugIn.getFolderForVersion("2.0"));
+            assertTrue(result.isValid(), result.problems.toString());
+        }
+        var report = store.report();
+        assertEquals(3, report.objects);
+        assertEquals(4, report.references);
+    }
+
+    @Test
+    void objectsAreReleasedWithTheirLastInstallation() throws IOException {
+        assumeTrue(root.getFileSystem().supportedFileAttributeViews().contains("unix"));
+        assertEquals(0, plugIn.install("1.0"));
+        assertEquals(0, plugIn.install("2.0"));
+        Path two = plugIn.getFolderForVersion("2.0").toPath();
+
+        assertEquals(0, plugIn.uninstall("1.0"));
+
+        assertEquals(SHARED, Files.readString(two.resolve("bin/tool")));
+        assertEquals("2.0", Files.readString(two.resolve("release")));
+        assertEquals(2, links(two.resolve("bin/tool")));
+        assertEquals(2, store.report().objects);
+
+        assertEquals(0, plugIn.uninstall("2.0"));
+
+        var report = store.report();
+        assertEquals(0, report.objects);
+        assertEquals(0, report.references);
+    }
+}
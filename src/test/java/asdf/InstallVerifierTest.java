@@ -0,0 +1,86 @@
+package asdf;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * doctor --verify: an installation checked against its manifest, by stat then by hash
+ */
+class InstallVerifierTest {
+    @TempDir
+    Path root;
+
+    private File folder;
+
+    @BeforeEach
+    void install() throws IOException {
+        ConfigManager.intance = new ConfigManager(root.resolve("config").toFile());
+        folder = root.resolve("installation/tool/1.0").toFile();
+        File staging = StagedInstall.stage(folder);
+        Files.createDirectories(staging.toPath().resolve("bin"));
+        Files.writeString(staging.toPath().resolve("bin/tool"), "#!/bin/sh\necho 1.0\n");
+        Files.writeString(staging.toPath().resolve("release"), "VERSION=1.0\n");
+        StagedInstall.publish(folder, staging, InstallManifest.of("tool", "1.0", staging));
+    }
+
+    private InstallVerifier.Result verify(boolean full) throws IOException {
+        try (var verifier = new InstallVerifier(2, full)) {
+            return verifier.verify(folder);
+        }
+    }
+
+    @Test
+    void untouchedInstallationIsValid() throws IOException {
+        var result = verify(false);
+
+        assertTrue(result.isValid(), result.problems.toString());
+        assertEquals(2, result.files);
+        assertEquals(0, result.hashed);
+    }
+
+    @Test
+    void modifiedFileIsFoundByItsMtime() throws IOException {
+        Path release = folder.toPath().resolve("release");
+        var mtime = Files.getLastModifiedTime(release);
+        Files.writeString(release, "VERSION=2.0\n");
+        Files.setLastModifiedTime(release, FileTime.fromMillis(mtime.toMillis()+10_000));
+
+        var result = verify(false);
+
+        assertEquals(Map.of("release", "content differs"), result.problems);
+        assertEquals(1, result.hashed);
+    }
+
+    @Test
+    void modifiedFileWithTheSameMtimeIsFoundByFull() throws IOException {
+        Path release = folder.toPath().resolve("release");
+        var mtime = Files.getLastModifiedTime(release);
+        Files.writeString(release, "VERSION=2.0\n");
+        Files.setLastModifiedTime(release, mtime);
+
+        assertTrue(verify(false).isValid());
+
+        var result = verify(true);
+        assertEquals(Map.of("release", "content differs"), result.problems);
+        assertEquals(2, result.hashed);
+    }
+
+    @Test
+    void missingFileIsReported() throws IOException {
+        Files.delete(folder.toPath().resolve("bin/tool"));
+
+        assertEquals(Map.of("bin/tool", "missing"), verify(false).problems);
+        assertEquals(Map.of("bin/tool", "missing"), verify(true).problems);
+    }
+}
@@ -0,0 +1,120 @@
+package asdf;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JobsTest {
+    @TempDir
+    Path root;
+
+    private ConfigManager config;
+    private StagedPlugIn plugIn;
+    private Map<String, PlugIn> plugIns;
+
+    @BeforeEach
+    void setUp(){
+        config = new ConfigManager(root.toFile());
+        ConfigManager.intance = config;
+        plugIn = new StagedPlugIn("stub");
+        plugIns = Map.of("stub", plugIn);
+    }
+
+    private int install(ConfigManager config, String version){
+        return new Jobs().addJob(Action.INSTALL, new Tool("stub", version)).doJob(plugIns, config).getReturnedCode();
+    }
+
+    @Test
+    void installsAndRegisters(){
+        assertEquals(0, install(config, "1.0"));
+
+        assertEquals(1, plugIn.installs.get());
+        assertTrue(config.isInstalled("stub", "1.0"));
+        assertTrue(new ConfigManager(root.toFile()).isInstalled("stub", "1.0"));
+    }
+
+    @Test
+    void registersACompleteInstallationInsteadOfInstallingItAgain(){
+        assertEquals(0, plugIn.install("1.0"));
+        File folder = plugIn.getFolderForVersion("1.0");
+
+        assertEquals(0, install(config, "1.0"));
+
+        assertEquals(1, plugIn.installs.get());
+        assertTrue(StagedInstall.isComplete(folder));
+        assertTrue(config.isInstalled("stub", "1.0"));
+    }
+
+    /**
+     * Another process installs the version while the batch of a recursive install has not written config.yml yet
+     */
+    @Test
+    void keepsTheInstallationOfAPendingBatch(){
+        var other = new ConfigManager(root.toFile());
+        config.batch(() -> {
+            assertEquals(0, install(config, "1.0"));
+            assertEquals(0, install(other, "1.0"));
+        });
+
+        assertEquals(1, plugIn.installs.get());
+        assertTrue(plugIn.isInstalled("1.0"));
+        var registry = new ConfigManager(root.toFile());
+        assertTrue(registry.isInstalled("stub", "1.0"));
+    }
+
+    /**
+     * More jobs than plugin threads on the same versions: the jobs waiting for a lock take no thread
+     */
+    @Test
+    void jobsWaitingForALockLeaveThePluginThreads(){
+        int threads = 3*BlockingPlugIn.WORKER_THREADS;
+        var jobs = new Jobs();
+        for (int i=0;i<threads;i++){
+            jobs.addJob(Action.INSTALL, new Tool("stub", i%2 == 0 ? "1.0" : "2.0"));
+        }
+
+        assertTimeoutPreemptively(Duration.ofSeconds(60), () -> jobs.doJob(plugIns, config, threads));
+
+        assertEquals(0, jobs.getReturnedCode());
+        assertEquals(2, plugIn.installs.get());
+        assertTrue(config.isInstalled("stub", "1.0"));
+        assertTrue(config.isInstalled("stub", "2.0"));
+    }
+
+    @Test
+    void errorOfAPluginFailsItsCall(){
+        var failure = assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            try {
+                AsyncPlugIn.offload(() -> {
+                    throw new NoClassDefFoundError("org/example/Missing");
+                }).await().indefinitely();
+                return null;
+            } catch (Throwable e){
+                return e;
+            }
+        });
+
+        assertTrue(failure instanceof NoClassDefFoundError || failure.getCause() instanceof NoClassDefFoundError, String.valueOf(failure));
+    }
+
+    @Test
+    void uninstallsAndUnregisters(){
+        assertEquals(0, install(config, "1.0"));
+
+        var code = new Jobs().addJob(Action.UNINSTALL, new Tool("stub", "1.0")).doJob(plugIns, config).getReturnedCode();
+
+        assertEquals(0, code);
+        assertFalse(plugIn.isInstalled("1.0"));
+        assertFalse(config.isInstalled("stub", "1.0"));
+    }
+}
@@ -0,0 +1,134 @@
+package asdf;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Buckets of the histograms and the text file shared by the processes
+ */
+class MetricsTest {
+    @TempDir
+    Path root;
+
+    @Test
+    void smallValuesHaveTheirOwnBucket(){
+        for (long value=0;value<16;value++){
+            assertEquals(value, Metrics.Histogram.index(value));
+            assertEquals(value, Metrics.Histogram.lowerBound((int) value));
+        }
+    }
+
+    @Test
+    void bucketsContainTheirValues(){
+        assertEquals(7, Metrics.Histogram.index(7));
+        assertEquals(8, Metrics.Histogram.index(8));
+        assertEquals(15, Metrics.Histogram.index(15));
+        assertEquals(16, Metrics.Histogram.index(16));
+        assertEquals(16, Metrics.Histogram.index(17));
+        assertEquals(17, Metrics.Histogram.index(18));
+        for (long value : new long[]{7, 8, 15, 16, 17, 1_000, 999_999, 1L << 40, 1L << 62}){
+            int index = Metrics.Histogram.index(value);
+            assertTrue(Metrics.Histogram.lowerBound(index) <= value, String.valueOf(value));
+            assertTrue(value < Metrics.Histogram.lowerBound(index+1), String.valueOf(value));
+        }
+        int last = Metrics.Histogram.index(Long.MAX_VALUE);
+        assertEquals(487, last);
+        assertTrue(Metrics.Histogram.lowerBound(last) <= Long.MAX_VALUE);
+        assertEquals(last, Metrics.Histogram.index(Metrics.Histogram.lowerBound(last)));
+    }
+
+    @Test
+    void percentilesAreBoundedByTheirBucket(){
+        var histogram = new Metrics.Histogram();
+        for (long value=1;value<=100;value++){
+            histogram.record(value);
+        }
+
+        long p50 = histogram.percentile(50);
+        assertTrue(50 <= p50 && p50 < 56, String.valueOf(p50));
+        long p99 = histogram.percentile(99);
+        assertTrue(99 <= p99 && p99 <= 100, String.valueOf(p99));
+        assertEquals(100, histogram.percentile(100));
+        assertEquals(1, histogram.percentile(0));
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(100, histogram.getMax());
+    }
+
+    @Test
+    void emptyHistogramHasNoPercentile(){
+        var histogram = new Metrics.Histogram();
+
+        assertEquals(0, histogram.percentile(50));
+        assertEquals(0, histogram.percentile(100));
+    }
+
+    @Test
+    void boundsAreInclusive(){
+        var histogram = new Metrics.Histogram();
+        histogram.record(1_000);
+        histogram.record(1_001);
+        histogram.record(Long.MAX_VALUE);
+
+        long[] cumulative = histogram.cumulative();
+
+        assertEquals(1, cumulative[0]);
+        assertEquals(2, cumulative[1]);
+        assertEquals(2, cumulative[Metrics.Histogram.BOUNDS.length-1]);
+        assertEquals(3, cumulative[Metrics.Histogram.BOUNDS.length]);
+    }
+
+    /**
+     * Two child JVMs add their counters at the same time to a file holding a value already
+     */
+    @Test
+    void processesAddTheirCounters() throws Exception {
+        Path file = root.resolve("metrics/qsdf.prom");
+        Files.createDirectories(file.getParent());
+        Files.writeString(file, "# TYPE qsdf_cache_requests_total counter\n"+Metrics.Counter.PEER_HIT.key()+" 4\n");
+        var java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+        List<Process> writers = new ArrayList<>();
+        try {
+            for (int i=0;i<2;i++){
+                writers.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"), Writer.class.getName(), file.toString())
+                        .redirectError(ProcessBuilder.Redirect.INHERIT).start());
+            }
+            for (var writer : writers){
+                assertTrue(writer.waitFor(30, TimeUnit.SECONDS));
+                assertEquals(0, writer.exitValue());
+            }
+        } finally {
+            writers.forEach(Process::destroyForcibly);
+        }
+
+        var lines = Files.readAllLines(file);
+        assertTrue(lines.contains(Metrics.Counter.PEER_HIT.key()+" 10"), lines.toString());
+        assertTrue(lines.contains("qsdf_phase_duration_seconds_count{phase=\""+Metrics.Phase.values()[0].label()+"\"} 2"), lines.toString());
+        assertEquals(1, lines.stream().filter("# TYPE qsdf_cache_requests_total counter"::equals).count());
+        try (var files = Files.list(file.getParent())) {
+            assertEquals(List.of(file.getFileName().toString()),
+                    files.map(f -> f.getFileName().toString()).filter(f -> !f.endsWith(".lock")).collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * The other processes: count 3 peer hits and a phase, then add them to the file given as argument
+     */
+    static class Writer {
+        public static void main(String[] args) {
+            Metrics.count(Metrics.Counter.PEER_HIT, 3);
+            Metrics.Phase.values()[0].histogram.record(2_000);
+            Metrics.addTo(Path.of(args[0]));
+        }
+    }
+}
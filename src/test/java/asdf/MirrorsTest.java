@@ -0,0 +1,81 @@
+package asdf;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MirrorsTest {
+    /** mirror statistics are kept by the process: every test uses its own hosts */
+    private static final AtomicInteger PORT = new AtomicInteger(20_000);
+
+    @TempDir
+    Path root;
+
+    private Mirrors mirrors;
+
+    @BeforeEach
+    void setUp(){
+        ConfigManager.intance = new ConfigManager(root.toFile());
+        mirrors = Mirrors.get();
+    }
+
+    private static URI mirror(){
+        return URI.create("http://mirror.test:"+PORT.incrementAndGet()+"/dist/tool.tar.gz");
+    }
+
+    @Test
+    void triesTheFastestMirrorFirst(){
+        URI slow = mirror();
+        URI fast = mirror();
+        mirrors.recordFirstByte(slow, 800);
+        mirrors.recordSuccess(slow, 10_000_000, 10_000);
+        mirrors.recordFirstByte(fast, 50);
+        mirrors.recordSuccess(fast, 10_000_000, 1_000);
+
+        assertEquals(List.of(fast, slow), mirrors.order(List.of(slow, fast)));
+    }
+
+    @Test
+    void skipsAMirrorWithAnOpenCircuit(){
+        URI failing = mirror();
+        URI other = mirror();
+        for (int i = 0; i < 3; i++){
+            mirrors.recordFailure(failing);
+        }
+
+        assertEquals(List.of(other), mirrors.order(List.of(failing, other)));
+    }
+
+    @Test
+    void triesTheMirrorClosingFirstWhenAllAreOpen(){
+        URI longer = mirror();
+        URI shorter = mirror();
+        for (int i = 0; i < 4; i++){
+            mirrors.recordFailure(longer);
+        }
+        for (int i = 0; i < 3; i++){
+            mirrors.recordFailure(shorter);
+        }
+
+        assertEquals(List.of(shorter), mirrors.order(List.of(longer, shorter)));
+    }
+
+    @Test
+    void closesTheCircuitOnSuccess(){
+        URI recovered = mirror();
+        URI other = mirror();
+        for (int i = 0; i < 3; i++){
+            mirrors.recordFailure(recovered);
+        }
+        mirrors.recordSuccess(recovered, 0, 0);
+
+        assertEquals(List.of(recovered, other), mirrors.order(List.of(recovered, other)));
+    }
+}
@@ -0,0 +1,191 @@
+package asdf;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Startup regression suite of the native executable, run by failsafe in the native profile
+ * (native.image.path is set by the profile).
+ * Every subcommand is run on a fixture config folder: its exit code and output are checked, then its
+ * median wall time and its max RSS (/usr/bin/time, when available) must stay under the budgets.
+ * The budgets can be changed with -Dnative.budget.ms=... and -Dnative.budget.rss.kb=...
+ */
+@EnabledIfSystemProperty(named = "native.image.path", matches = ".+")
+class NativeCliIT {
+    private static final int RUNS = 5;
+    private static final long BUDGET_MS = Long.getLong("native.budget.ms", 150);
+    private static final long BUDGET_RSS_KB = Long.getLong("native.budget.rss.kb", 96*1024);
+
+    private static File binary;
+
+    @TempDir
+    Path root;
+
+    private File config;
+    private File workDir;
+
+    static class Run {
+        int exitCode;
+        String output;
+        long wallMs;
+        long maxRssKb = -1;
+    }
+
+    @BeforeAll
+    static void binary(){
+        binary = new File(System.getProperty("native.image.path"));
+        assertTrue(binary.canExecute(), "native executable not found: "+binary);
+    }
+
+    /**
+     * A config folder with java 17 installed and a working directory pinning it
+     */
+    @BeforeEach
+    void fixture() throws IOException {
+        config = root.resolve("config").toFile();
+        File install = new File(config, "installation/java/17");
+        Files.createDirectories(new File(install, "bin").toPath());
+        Files.writeString(new File(install, "bin/java").toPath(), "#!/bin/sh\necho java 17\n");
+        new File(install, "bin/java").setExecutable(true);
+        InstallManifest.of("java", "17", install).write(install);
+        Files.writeString(new File(config, "config.yml").toPath(),
+                "tools:\n" +
+                "  java:\n" +
+                "    name: java\n" +
+                "    versions:\n" +
+                "    - version: \"17\"\n" +
+                "      path: "+install.getAbsolutePath()+"\n");
+        workDir = root.resolve("project/module").toFile();
+        Files.createDirectories(workDir.toPath());
+        Files.writeString(root.resolve("project/.tool-versions"), "java 17\n");
+    }
+
+    @Test
+    void help() throws Exception {
+        var run = measure(0, "--help");
+        assertTrue(run.output.contains("install"), run.output);
+    }
+
+    @Test
+    void pluginList() throws Exception {
+        var run = measure(0, "plugin", "list");
+        assertTrue(run.output.contains("java"), run.output);
+    }
+
+    @Test
+    void current() throws Exception {
+        var run = measure(0, "current", "java");
+        assertTrue(run.output.contains("17"), run.output);
+        assertTrue(run.output.contains(".tool-versions"), run.output);
+    }
+
+    @Test
+    void currentNotInstalled() throws Exception {
+        Files.writeString(workDir.toPath().resolve(".tool-versions"), "java 11\n");
+        var run = measure(1001, "current", "java");
+        assertTrue(run.output.contains("Not installed"), run.output);
+    }
+
+    @Test
+    void where() throws Exception {
+        var run = measure(0, "where", "java");
+        assertTrue(run.output.contains("installation"+File.separator+"java"+File.separator+"17"), run.output);
+    }
+
+    @Test
+    void which() throws Exception {
+        var run = measure(0, "which", "java");
+        assertTrue(run.output.trim().endsWith("bin"+File.separator+"java"), run.output);
+    }
+
+    @Test
+    void shell() throws Exception {
+        var run = measure(0, "shell", "java", "17");
+        assertTrue(run.output.contains(ToolVersions.envName("java")+"=17"), run.output);
+    }
+
+    @Test
+    void env() throws Exception {
+        var run = measure(0, "env");
+        assertTrue(run.output.contains(ShellEnvironment.homeVariable("java")), run.output);
+    }
+
+    @Test
+    void local() throws Exception {
+        measure(0, "local", "java", "17");
+        assertEquals("java 17", Files.readString(workDir.toPath().resolve(".tool-versions")).trim());
+    }
+
+    @Test
+    void doctor() throws Exception {
+        measure(0, "doctor", "--verify", "java", "17");
+    }
+
+    @Test
+    void unknownPlugin() throws Exception {
+        var run = measure(1, "install", "nosuchtool", "1.0");
+        assertTrue(run.output.contains("No plugin found"), run.output);
+    }
+
+    /**
+     * Run the command once for its result, then RUNS times for the budgets
+     */
+    private Run measure(int exitCode, String... args) throws Exception {
+        var first = run(args);
+        assertEquals(exitCode, first.exitCode, () -> String.join(" ", args)+":\n"+first.output);
+        List<Run> runs = new ArrayList<>();
+        for (int i=0;i<RUNS;i++){
+            runs.add(run(args));
+        }
+        long[] walls = runs.stream().mapToLong(r -> r.wallMs).sorted().toArray();
+        long median = walls[walls.length/2];
+        assertTrue(median <= BUDGET_MS, () -> String.format("%s: median %dms over the budget of %dms",
+                String.join(" ", args), median, BUDGET_MS));
+        long rss = runs.stream().mapToLong(r -> r.maxRssKb).max().orElse(-1);
+        assertTrue(rss <= BUDGET_RSS_KB, () -> String.format("%s: max RSS %dKB over the budget of %dKB",
+                String.join(" ", args), rss, BUDGET_RSS_KB));
+        return first;
+    }
+
+    private Run run(String... args) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        File rssFile = null;
+        if (new File("/usr/bin/time").canExecute()){
+            rssFile = Files.createTempFile(root, "rss", ".txt").toFile();
+            command.addAll(List.of("/usr/bin/time", "-f", "%M", "-o", rssFile.getAbsolutePath()));
+        }
+        command.add(binary.getAbsolutePath());
+        command.addAll(Arrays.asList(args));
+        ProcessBuilder pb = new ProcessBuilder(command).directory(workDir).redirectErrorStream(true);
+        pb.environment().put(ConfigManager.ENV_DIR, config.getAbsolutePath());
+        long start = System.nanoTime();
+        Process p = pb.start();
+        var output = new String(p.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+        Run run = new Run();
+        run.exitCode = p.waitFor();
+        run.wallMs = (System.nanoTime()-start)/1_000_000;
+        run.output = output;
+        if (rssFile != null){
+            var lines = Files.readAllLines(rssFile.toPath());
+            if (!lines.isEmpty()){
+                run.maxRssKb = Long.parseLong(lines.get(lines.size()-1).trim());
+            }
+        }
+        return run;
+    }
+}
@@ -0,0 +1,94 @@
+package asdf;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * qsdf mirror sync of a plugin whose artifacts have no known checksum, from a local stand-in
+ */
+class OfflineMirrorTest {
+    private static final String ARTIFACT = "/dist/stub-1.0.tar.gz";
+    private static final byte[] CONTENT = "stub 1.0".getBytes(StandardCharsets.UTF_8);
+
+    @TempDir
+    Path root;
+
+    private TestServer server;
+    private PlugIn plugIn;
+    private File mirror;
+
+    @BeforeEach
+    void setUp(){
+        ConfigManager.intance = new ConfigManager(root.resolve("config").toFile());
+        server = new TestServer();
+        server.respond(ARTIFACT, CONTENT);
+        mirror = root.resolve("mirror").toFile();
+        plugIn = new StagedPlugIn("stub"){
+            @Override
+            public List<OfflineMirror.Artifact> getArtifacts(String version) {
+                return List.of(new OfflineMirror.Artifact("stub/stub-"+version+".tar.gz",
+                        server.uri("/dist/stub-"+version+".tar.gz").toString(), null, 0, "linux", "x64"));
+            }
+        };
+    }
+
+    @AfterEach
+    void tearDown(){
+        server.close();
+    }
+
+    private List<List<String>> sync() throws IOException {
+        return OfflineMirror.sync(mirror, Map.of(plugIn, Set.of("1.0")), 2);
+    }
+
+    @Test
+    void recordsTheChecksumOfTheFirstSync() throws IOException {
+        assertEquals(List.of(List.of("stub", "1.0", "1", "downloaded")), sync());
+
+        var index = new ObjectMapper(new YAMLFactory()).readValue(new File(mirror, OfflineMirror.INDEX_FILE), OfflineMirror.Index.class);
+        var artifact = index.getTools().get("stub").get("1.0").get(0);
+        assertEquals(InstallManifest.sha256(mirror.toPath().resolve("stub/stub-1.0.tar.gz")), artifact.getSha256());
+        assertEquals(CONTENT.length, artifact.getSize());
+
+        assertEquals(List.of(List.of("stub", "1.0", "1", "present")), sync());
+        assertEquals(1, server.hits(ARTIFACT));
+    }
+
+    @Test
+    void downloadsAgainAnArtifactWhoseChecksumChanged() throws IOException {
+        sync();
+        Files.writeString(mirror.toPath().resolve("stub/stub-1.0.tar.gz"), "corrupt!");
+
+        assertEquals(List.of(List.of("stub", "1.0", "1", "downloaded")), sync());
+
+        assertEquals(2, server.hits(ARTIFACT));
+        assertEquals("stub 1.0", Files.readString(mirror.toPath().resolve("stub/stub-1.0.tar.gz")));
+    }
+
+    @Test
+    void keepsAPresentArtifactOfUnknownChecksum() throws IOException {
+        Files.createDirectories(mirror.toPath().resolve("stub"));
+        Files.write(mirror.toPath().resolve("stub/stub-1.0.tar.gz"), CONTENT);
+
+        assertEquals(List.of(List.of("stub", "1.0", "1", "present")), sync());
+
+        assertEquals(0, server.hits(ARTIFACT));
+        var mirrored = OfflineMirror.open(OfflineMirror.toUri(mirror.toString())).getArtifacts("stub", "1.0");
+        assertEquals(CONTENT.length, mirrored.get(0).getSize());
+    }
+}
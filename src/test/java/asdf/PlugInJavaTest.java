@@ -0,0 +1,159 @@
+package asdf;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The java plugin on a recorded Adoptium feed page (src/test/resources/feeds) served by a local stand-in.
+ * The page is recorded for linux/x64: the stand-in serves it for the platform running the test.
+ */
+class PlugInJavaTest {
+    private static final String FEED = "/v3/assets/version";
+    private static final String ARCHIVE = "/archives/OpenJDK17U-jdk_x64_linux_hotspot_17.0.2_8.tar.gz";
+
+    @TempDir
+    Path root;
+
+    private TestServer server;
+    private TestServer.Response feed;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = new TestServer();
+        Path jdk = Files.createDirectories(root.resolve("jdk/jdk-17.0.2+8/bin"));
+        Files.writeString(jdk.resolve("java"), "#!/bin/sh\necho 17\n");
+        jdk.resolve("java").toFile().setExecutable(true);
+        Path archive = root.resolve("jdk.tar.gz");
+        Archives.createTarGz(root.resolve("jdk"), archive);
+        server.respond(ARCHIVE, Files.readAllBytes(archive));
+        feed = server.respond(FEED, recordedFeed(InstallManifest.sha256(archive)));
+
+        File config = root.resolve("config").toFile();
+        Files.createDirectories(config.toPath());
+        Files.writeString(new File(config, "config.yml").toPath(),
+                "settings:\n" +
+                "  feeds:\n" +
+                "    java: \""+server.base()+FEED+"?os={os}&architecture={arch}\"\n");
+        ConfigManager.intance = new ConfigManager(config);
+    }
+
+    @AfterEach
+    void tearDown(){
+        server.close();
+    }
+
+    private byte[] recordedFeed(String checksum) throws IOException {
+        try (InputStream is = getClass().getResourceAsStream("/feeds/adoptium-jdk-page0.json")) {
+            return new String(is.readAllBytes(), StandardCharsets.UTF_8)
+                    .replace("{base}", server.base())
+                    .replace("{checksum}", checksum)
+                    .replace("\"os\": \"linux\"", "\"os\": \""+JdkCatalog.currentOs()+"\"")
+                    .replace("\"architecture\": \"x64\"", "\"architecture\": \""+JdkCatalog.currentArch()+"\"")
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Test
+    void readsTheJdksOfThePlatform(){
+        var catalog = new PlugInJava().getCatalog();
+
+        assertEquals(List.of("11.0.14+101", "17.0.2+8"), catalog.getVersions());
+        assertEquals(1, server.hits(FEED));
+    }
+
+    @Test
+    void ignoresReleasesWhoseNamesAreNotFileNames(){
+        var catalog = new PlugInJava().getCatalog();
+
+        assertFalse(catalog.contains("8.0.322+6"), "file name with ..");
+        assertFalse(catalog.contains(".."), "version ..");
+    }
+
+    @Test
+    void doesNotKeepTheCatalogOfAFailedFeed(){
+        feed.status(503);
+        var plugIn = new PlugInJava();
+        assertEquals(0, plugIn.getCatalog().size());
+
+        feed.status(200);
+        assertEquals(2, plugIn.getCatalog().size());
+        assertEquals(2, plugIn.getCatalog().size());
+    }
+
+    @Test
+    void readsTheFeedFromItsCache(){
+        new PlugInJava().getCatalog();
+        int hits = server.hits(FEED);
+
+        assertEquals(2, new PlugInJava().getCatalog().size());
+        assertEquals(hits, server.hits(FEED));
+    }
+
+    @Test
+    void installsAJdkOfTheFeed(){
+        var plugIn = new PlugInJava();
+
+        assertEquals(0, plugIn.install("17.0.2+8"));
+
+        assertTrue(plugIn.isInstalled("17.0.2+8"));
+        assertTrue(new File(plugIn.getPath("17.0.2+8"), "bin/java").canExecute());
+        assertEquals(1, server.hits(ARCHIVE));
+    }
+
+    @Test
+    void refusesAnArchiveWithAnotherChecksum() throws IOException {
+        server.respond("/archives/OpenJDK11U-jdk_x64_linux_hotspot_11.0.14.1_1.tar.gz",
+                Files.readAllBytes(root.resolve("jdk.tar.gz")));
+        var plugIn = new PlugInJava();
+
+        assertEquals(1, plugIn.install("11.0.14+101"));
+
+        assertFalse(plugIn.isInstalled("11.0.14+101"));
+    }
+
+    @Test
+    void removesTheStagingFolderOfACorruptArchive() throws IOException {
+        byte[] corrupt = "not a tar.gz".getBytes(StandardCharsets.UTF_8);
+        server.respond(ARCHIVE, corrupt);
+        server.respond(FEED, recordedFeed(InstallManifest.sha256(Files.write(root.resolve("corrupt.tar.gz"), corrupt))));
+        var plugIn = new PlugInJava();
+
+        assertEquals(1, plugIn.install("17.0.2+8"));
+
+        assertFalse(plugIn.isInstalled("17.0.2+8"));
+        String[] staged = new File(plugIn.getFolderForVersion("17.0.2+8").getParentFile(), StagedInstall.STAGING_FOLDER).list();
+        assertTrue(staged == null || staged.length == 0, "staging folder left");
+    }
+
+    @Test
+    void installsFromTheOfflineMirrorWithoutNetwork() throws IOException {
+        File mirror = root.resolve("mirror").toFile();
+        var rows = OfflineMirror.sync(mirror, Map.of(new PlugInJava(), Set.of("17.0.2+8")), 1);
+        assertEquals(List.of(List.of("java", "17.0.2+8", "1", "downloaded")), rows);
+        ConfigManager.intance.update(c -> c.getSettings().setOfflineMirror(mirror.toString()));
+        feed.status(503);
+        server.respond(ARCHIVE, new byte[0]).status(404);
+        var plugIn = new PlugInJava();
+
+        assertEquals(0, plugIn.install("17.0.2+8"));
+
+        assertTrue(new File(plugIn.getPath("17.0.2+8"), "bin/java").canExecute());
+        assertEquals(1, server.hits(ARCHIVE));
+    }
+}
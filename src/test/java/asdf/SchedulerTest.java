@@ -0,0 +1,83 @@
+package asdf;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Two schedulers on the same config folder stand for two qsdf processes
+ */
+class SchedulerTest {
+    @TempDir
+    Path root;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+
+    @AfterEach
+    void tearDown(){
+        executor.shutdownNow();
+    }
+
+    private Scheduler scheduler(){
+        return new Scheduler(root.toFile(), new DataConfig.Limits());
+    }
+
+    @Test
+    void backgroundExtractionWaitsForAnInteractiveDownloadOfAnotherProcess() throws Exception {
+        var install = scheduler();
+        var prefetch = scheduler();
+        InputStream download = install.throttle(new ByteArrayInputStream(new byte[16]), Scheduler.Priority.INTERACTIVE);
+
+        Future<?> extraction = executor.submit(() -> {
+            prefetch.extraction(Scheduler.Priority.BACKGROUND).close();
+            return null;
+        });
+        assertThrows(TimeoutException.class, () -> extraction.get(1, TimeUnit.SECONDS));
+
+        download.close();
+        extraction.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void backgroundDownloadWaitsForAnInteractiveExtractionOfAnotherProcess() throws Exception {
+        var install = scheduler();
+        var prefetch = scheduler();
+        var slot = install.extraction(Scheduler.Priority.INTERACTIVE);
+
+        Future<Integer> read = executor.submit(() -> {
+            try (InputStream is = prefetch.throttle(new ByteArrayInputStream(new byte[16]), Scheduler.Priority.BACKGROUND)) {
+                return is.read(new byte[16]);
+            }
+        });
+        assertThrows(TimeoutException.class, () -> read.get(1, TimeUnit.SECONDS));
+
+        slot.close();
+        assertEquals(16, (int) read.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void interactiveWorkDoesNotWaitForTheBackground() throws Exception {
+        var install = scheduler();
+        var prefetch = scheduler();
+        try (InputStream background = prefetch.throttle(new ByteArrayInputStream(new byte[16]), Scheduler.Priority.BACKGROUND)) {
+            background.read(new byte[8]);
+            Future<?> extraction = executor.submit(() -> {
+                install.extraction(Scheduler.Priority.INTERACTIVE).close();
+                return null;
+            });
+            extraction.get(5, TimeUnit.SECONDS);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package asdf;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * The cache of the shell hook, run by bash with a stub qsdf counting the cache misses
+ */
+class ShellEnvironmentTest {
+    private static final String STUB =
+            "qsdf() { echo \"$*\" >> \"$QSDF_CALLS\"; mkdir -p \"${3%/*}\"; echo _qsdf_reset > \"$3\"; }\n" +
+            ". \"$QSDF_HOOK\"\n";
+
+    @TempDir
+    Path root;
+
+    private File config;
+    private Path project;
+    private Path calls;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        config = Files.createDirectories(root.resolve("config")).toFile();
+        Files.writeString(new File(config, "config.yml").toPath(), "tools: {}\n");
+        project = Files.createDirectories(root.resolve("project/module"));
+        Files.writeString(project.resolve(ToolVersions.FILE_NAME), "stub 1.0\n");
+        calls = root.resolve("calls");
+    }
+
+    @Test
+    void keyFollowsTheToolVersionsChain() throws Exception {
+        assumeTrue(new File("/bin/bash").canExecute());
+
+        assertEquals(1, hook(Map.of()));
+        assertEquals(1, hook(Map.of()));
+
+        touch(project.resolve(ToolVersions.FILE_NAME));
+        assertEquals(2, hook(Map.of()));
+
+        Files.writeString(project.getParent().resolve(ToolVersions.FILE_NAME), "other 2.0\n");
+        assertEquals(3, hook(Map.of()));
+        assertEquals(3, hook(Map.of()));
+    }
+
+    @Test
+    void keyFollowsTheConfigAndTheVersionVariables() throws Exception {
+        assumeTrue(new File("/bin/bash").canExecute());
+        String variable = ToolVersions.envName("stub");
+
+        assertEquals(1, hook(Map.of()));
+
+        touch(new File(config, "config.yml").toPath());
+        assertEquals(2, hook(Map.of()));
+
+        assertEquals(3, hook(Map.of(variable, "2.0")));
+        assertEquals(3, hook(Map.of(variable, "2.0")));
+        assertEquals(4, hook(Map.of(variable, "1.0")));
+        assertEquals(4, hook(Map.of()));
+    }
+
+    @Test
+    void pruneEvictsOldAndExtraEntries() throws IOException {
+        Path cache = Files.createDirectories(ShellEnvironment.cacheFolder(config).toPath());
+        long now = System.currentTimeMillis();
+        Path old = Files.writeString(cache.resolve("old"), "");
+        Files.setLastModifiedTime(old, FileTime.fromMillis(now-Duration.ofDays(40).toMillis()));
+        for (int i=0;i<5;i++){
+            Path entry = Files.writeString(cache.resolve("entry"+i), "");
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(now-i*60_000L));
+        }
+
+        ShellEnvironment.prune(cache.toFile(), 3, Duration.ofDays(30));
+
+        assertFalse(Files.exists(old));
+        assertTrue(Files.exists(cache.resolve("entry0")));
+        assertTrue(Files.exists(cache.resolve("entry2")));
+        assertFalse(Files.exists(cache.resolve("entry3")));
+        assertFalse(Files.exists(cache.resolve("entry4")));
+    }
+
+    /**
+     * Load the hook in a new bash in the project folder: the cache files are its only state
+     * @param variables the QSDF_&lt;TOOL&gt;_VERSION variables set
+     * @return the number of qsdf env calls so far
+     */
+    private long hook(Map<String, String> variables) throws Exception {
+        Path hook = root.resolve("hook.sh");
+        Files.writeString(hook, ShellEnvironment.hook("bash", config).orElseThrow());
+        var builder = new ProcessBuilder("/bin/bash", "-c", STUB).directory(project.toFile()).redirectErrorStream(true);
+        builder.environment().keySet().removeIf(k -> k.startsWith("QSDF_"));
+        builder.environment().remove("PWD");
+        builder.environment().put("QSDF_HOOK", hook.toString());
+        builder.environment().put("QSDF_CALLS", calls.toString());
+        builder.environment().putAll(variables);
+        var process = builder.start();
+        var output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8);
+
+        assertEquals(0, process.waitFor(), output);
+        return Files.exists(calls) ? Files.readAllLines(calls).size() : 0;
+    }
+
+    /** a new mtime, seconds being the resolution of the key */
+    private static void touch(Path file) throws IOException {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis()+10_000));
+    }
+}
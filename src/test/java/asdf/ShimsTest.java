@@ -0,0 +1,52 @@
+package asdf;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class ShimsTest {
+    @TempDir
+    Path root;
+
+    @Test
+    void containsNoPathOfThisMachine(){
+        ConfigManager.intance = new ConfigManager(root.toFile());
+        var self = ProcessHandle.current().info().command().orElse(root.toString());
+
+        for (var shim : new String[]{Shims.unixShim("java", "java"), Shims.windowsShim("java", "java")}){
+            assertFalse(shim.contains(self), shim);
+            assertFalse(shim.contains(root.toString()), shim);
+        }
+    }
+
+    /**
+     * A shim copied in another config folder runs the qsdf of QSDF_COMMAND on its own config folder
+     */
+    @Test
+    void runsQsdfOnTheConfigFolderOfTheShim() throws Exception {
+        assumeTrue(File.separatorChar == '/' && new File("/bin/sh").canExecute());
+        Path shim = Files.createDirectories(root.resolve("imported/config/shims")).resolve("java");
+        Files.writeString(shim, Shims.unixShim("java", "java"));
+        shim.toFile().setExecutable(true);
+        Path qsdf = Files.createDirectories(root.resolve("bin")).resolve("qsdf");
+        Files.writeString(qsdf, "#!/bin/sh\necho \"$QSDF_DIR|$*\"\n");
+        qsdf.toFile().setExecutable(true);
+
+        var builder = new ProcessBuilder(shim.toString(), "-version", "a b").redirectErrorStream(true);
+        builder.environment().remove(ConfigManager.ENV_DIR);
+        builder.environment().put(Shims.ENV_COMMAND, qsdf.toString());
+        var process = builder.start();
+        var output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+
+        assertEquals(0, process.waitFor());
+        assertEquals(root.resolve("imported/config").toRealPath()+"|exec --tool java -- java -version a b", output);
+    }
+}
@@ -0,0 +1,59 @@
+package asdf;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StagedInstallTest {
+    @TempDir
+    Path root;
+
+    private File tool;
+
+    @BeforeEach
+    void config(){
+        ConfigManager.intance = new ConfigManager(root.toFile());
+        tool = root.resolve("installation/java").toFile();
+    }
+
+    @Test
+    void stageRemovesOnlyStaleFoldersOfTheVersion() throws IOException {
+        File staging = new File(tool, StagedInstall.STAGING_FOLDER);
+        Files.createDirectories(staging.toPath().resolve("21-123"));
+        Files.createDirectories(staging.toPath().resolve("21-ea-456"));
+        Files.createDirectories(staging.toPath().resolve("21.0.1-789"));
+
+        File fresh = StagedInstall.stage(new File(tool, "21"));
+
+        assertTrue(fresh.isDirectory());
+        assertFalse(new File(staging, "21-123").exists());
+        assertTrue(new File(staging, "21-ea-456").exists());
+        assertTrue(new File(staging, "21.0.1-789").exists());
+    }
+
+    @Test
+    void publishReplacesAndDeletesAnIncompleteInstallation() throws IOException {
+        File target = new File(tool, "17");
+        Files.createDirectories(target.toPath());
+        Files.writeString(target.toPath().resolve("partial"), "x");
+
+        File staging = StagedInstall.stage(target);
+        Files.writeString(staging.toPath().resolve("release"), "17");
+        StagedInstall.publish(target, staging, InstallManifest.of("java", "17", staging));
+
+        assertTrue(StagedInstall.isComplete(target));
+        assertEquals("17", Files.readString(target.toPath().resolve("release")));
+        assertFalse(new File(target, "partial").exists());
+        File[] trash = new File(tool, StagedInstall.TRASH_FOLDER).listFiles();
+        assertTrue(trash == null || trash.length == 0, "trash not deleted");
+    }
+}
@@ -0,0 +1,77 @@
+package asdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A plugin installing empty versions through {@link StagedInstall}, counting its installs
+ */
+class StagedPlugIn implements PlugIn {
+    final AtomicInteger installs = new AtomicInteger();
+    private final String name;
+
+    StagedPlugIn(String name){
+        this.name = name;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public List<String> getAllRemoteVersions() {
+        return List.of("1.0", "2.0");
+    }
+
+    @Override
+    public boolean isVersionInstallable(String version) {
+        return getAllRemoteVersions().contains(version);
+    }
+
+    @Override
+    public int install(String version) {
+        installs.incrementAndGet();
+        try {
+            File staging = StagedInstall.stage(this, version);
+            Files.writeString(staging.toPath().resolve("release"), version);
+            StagedInstall.publish(this, version, staging, InstallManifest.of(name, version, staging));
+            return 0;
+        } catch (IOException e){
+            return 1;
+        }
+    }
+
+    @Override
+    public int createShims() {
+        return 0;
+    }
+
+    @Override
+    public int deleteShims() {
+        return 0;
+    }
+
+    @Override
+    public int uninstall(String version) {
+        try {
+            StagedInstall.remove(this, version);
+            return 0;
+        } catch (IOException e){
+            return 1;
+        }
+    }
+
+    @Override
+    public File getPath(String version) {
+        return getFolderForVersion(version);
+    }
+
+    @Override
+    public boolean isInstalled(String version) {
+        return StagedInstall.isComplete(getFolderForVersion(version));
+    }
+}
@@ -0,0 +1,140 @@
+package asdf;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Local HTTP stand-in of a feed, a mirror or a peer: every path answers a registered response,
+ * with a configurable status, delay before the headers and stall in the middle of the body.
+ * Unknown paths answer 404.
+ */
+class TestServer implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final Map<String, Response> responses = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> hits = new ConcurrentHashMap<>();
+
+    static class Response {
+        private volatile int status = 200;
+        private volatile byte[] body;
+        private volatile long delayMs;
+        private volatile int stallAfter = -1;
+        private volatile long stallMs;
+
+        Response status(int status){
+            this.status = status;
+            return this;
+        }
+
+        Response body(byte[] body){
+            this.body = body;
+            return this;
+        }
+
+        /** wait before sending the headers */
+        Response delay(long ms){
+            this.delayMs = ms;
+            return this;
+        }
+
+        /** send the first bytes of the body, then nothing during ms */
+        Response stall(int afterBytes, long ms){
+            this.stallAfter = afterBytes;
+            this.stallMs = ms;
+            return this;
+        }
+    }
+
+    TestServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    /**
+     * @param path a path of the server
+     * @param body the body answered with HTTP 200
+     * @return the response, to be configured
+     */
+    Response respond(String path, byte[] body){
+        var response = new Response().body(body);
+        responses.put(path, response);
+        return response;
+    }
+
+    /**
+     * @return the URI of the path (and query) on this server
+     */
+    URI uri(String path){
+        return URI.create(base()+path);
+    }
+
+    String base(){
+        return "http://"+server.getAddress().getHostString()+":"+server.getAddress().getPort();
+    }
+
+    /**
+     * @return the number of requests received for the path
+     */
+    int hits(String path){
+        var count = hits.get(path);
+        return count == null ? 0 : count.get();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        var path = exchange.getRequestURI().getPath();
+        hits.computeIfAbsent(path, p -> new AtomicInteger()).incrementAndGet();
+        var response = responses.get(path);
+        try (exchange) {
+            if (response == null){
+                exchange.sendResponseHeaders(404, -1);
+                return;
+            }
+            sleep(response.delayMs);
+            var body = response.body == null ? new byte[0] : response.body;
+            if (response.status != 200){
+                exchange.sendResponseHeaders(response.status, -1);
+                return;
+            }
+            exchange.sendResponseHeaders(200, body.length == 0 ? -1 : body.length);
+            OutputStream os = exchange.getResponseBody();
+            if (response.stallAfter >= 0 && response.stallAfter < body.length){
+                os.write(body, 0, response.stallAfter);
+                os.flush();
+                sleep(response.stallMs);
+                os.write(body, response.stallAfter, body.length-response.stallAfter);
+            } else {
+                os.write(body);
+            }
+        } catch (IOException e){
+            //client gone: cancelled or timed out
+        }
+    }
+
+    private static void sleep(long ms){
+        if (ms <= 0) return;
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close(){
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,116 @@
+package asdf;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ToolchainServerTest {
+    private static final int CLIENTS = 200;
+
+    @TempDir
+    Path root;
+
+    private ConfigManager config;
+    private StagedPlugIn plugIn;
+    private ToolchainServer server;
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeEach
+    void setUp() throws IOException {
+        config = new ConfigManager(root.resolve("config").toFile());
+        ConfigManager.intance = config;
+        plugIn = new StagedPlugIn("stub");
+        Files.createDirectories(root.resolve("project/module"));
+        Files.writeString(root.resolve("project/.tool-versions"), "stub 1.0\n");
+        server = new ToolchainServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                Map.of("stub", plugIn), config, 4);
+        server.start();
+    }
+
+    @AfterEach
+    void tearDown(){
+        server.close();
+    }
+
+    private URI uri(String path){
+        return URI.create("http://127.0.0.1:"+server.getPort()+path);
+    }
+
+    private HttpResponse<String> get(String path) throws Exception {
+        return client.send(HttpRequest.newBuilder(uri(path)).GET().build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    private String resolvePath(){
+        return "/resolve?dir="+URLEncoder.encode(root.resolve("project/module").toString(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void seesTheVersionsInstalledByAnotherProcess() throws Exception {
+        assertFalse(get("/tools").body().contains("1.0"));
+
+        //another qsdf process installs the version in the same config folder
+        ConfigManager.intance = new ConfigManager(root.resolve("config").toFile());
+        assertEquals(0, new Jobs().addJob(Action.INSTALL, new Tool("stub", "1.0"))
+                .doJob(Map.of("stub", plugIn), ConfigManager.intance).getReturnedCode());
+
+        assertTrue(get("/tools").body().contains("\"version\":\"1.0\""));
+        assertTrue(get(resolvePath()).body().contains("\"installed\":true"));
+    }
+
+    @Test
+    void resolvesConcurrently() throws Exception {
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < CLIENTS; i++){
+            responses.add(client.sendAsync(HttpRequest.newBuilder(uri(resolvePath())).GET().build(), HttpResponse.BodyHandlers.ofString()));
+        }
+
+        for (var response : responses){
+            var r = response.join();
+            assertEquals(200, r.statusCode(), r.body());
+            assertTrue(r.body().contains("\"version\":\"1.0\""), r.body());
+        }
+    }
+
+    @Test
+    void runsConcurrentInstallsOfAVersionOnce() throws Exception {
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>();
+        for (int i = 0; i < CLIENTS; i++){
+            responses.add(client.sendAsync(HttpRequest.newBuilder(uri("/install/stub/1.0"))
+                    .POST(HttpRequest.BodyPublishers.noBody()).build(), HttpResponse.BodyHandlers.ofString()));
+        }
+
+        for (var response : responses){
+            var lines = response.join().body().trim().split("\n");
+            var last = lines[lines.length-1];
+            assertTrue(last.contains("\"event\":\"done\"") && last.contains("\"code\":0"), last);
+        }
+        assertEquals(1, plugIn.installs.get());
+        assertTrue(get(resolvePath()).body().contains("\"installed\":true"));
+    }
+
+    @Test
+    void refusesARelativeDir() throws Exception {
+        assertEquals(400, get("/resolve?dir=project").statusCode());
+    }
+}
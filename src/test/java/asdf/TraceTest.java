@@ -0,0 +1,102 @@
+package asdf;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The trace file written by --trace
+ */
+class TraceTest {
+    @TempDir
+    Path root;
+
+    @Test
+    void spansOfAThreadNest() throws Exception {
+        Path file = root.resolve("trace.json");
+        Trace.start();
+        try (var outer = Trace.span("outer", "jobs")) {
+            try (var inner = Trace.span("inner", "action")) {
+                Thread.sleep(2);
+            }
+            try (var next = Trace.span("next", "action")) {
+                Thread.sleep(2);
+            }
+        }
+        Trace.write(file, "qsdf test");
+
+        var events = read(file);
+        Map<String, JsonNode> spans = new HashMap<>();
+        events.forEach(event -> {
+            if (event.get("ph").asText().equals("X")) spans.put(event.get("name").asText(), event);
+        });
+        assertEquals("qsdf test", events.get(0).get("args").get("name").asText());
+        var outer = spans.get("outer");
+        for (String name : new String[]{"inner", "next"}){
+            var span = spans.get(name);
+            assertEquals(outer.get("tid").asLong(), span.get("tid").asLong());
+            assertTrue(outer.get("ts").asLong() <= span.get("ts").asLong(), name);
+            assertTrue(end(span) <= end(outer), name);
+        }
+        assertTrue(end(spans.get("inner")) <= spans.get("next").get("ts").asLong());
+    }
+
+    @Test
+    void traceOfAFormerRunIsReplaced() throws Exception {
+        Path file = root.resolve("trace.json");
+        traceOne(file, "first");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.EPOCH));
+
+        traceOne(file, "second");
+
+        var events = read(file);
+        assertTrue(events.findValuesAsText("name").contains("second"));
+        assertFalse(events.findValuesAsText("name").contains("first"));
+    }
+
+    @Test
+    void traceOfAConcurrentProcessIsKept() throws Exception {
+        Path file = root.resolve("trace.json");
+        traceOne(file, "first");
+
+        traceOne(file, "second");
+
+        var names = read(file).findValuesAsText("name");
+        assertTrue(names.contains("first"));
+        assertTrue(names.contains("second"));
+    }
+
+    private static void traceOne(Path file, String name){
+        Trace.start();
+        try (var span = Trace.span(name, "jobs")) {
+            Thread.yield();
+        }
+        Trace.write(file, "qsdf "+name);
+    }
+
+    /**
+     * @return the events, the file being a JSON array
+     */
+    private static JsonNode read(Path file) throws IOException {
+        var json = new ObjectMapper().readTree(file.toFile());
+        assertTrue(json.isArray());
+        return json;
+    }
+
+    private static long end(JsonNode span){
+        return span.get("ts").asLong()+span.get("dur").asLong();
+    }
+}